@@ -8,6 +8,7 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Locale;
 import java.util.TimeZone;
 
 /**
@@ -173,6 +174,27 @@ public abstract class DateUtility {
         }
     }
 
+    /**
+     * Converts an instance of java.util.Date into a String using the HTTP
+     * date format: EEE, dd MMM yyyy HH:mm:ss GMT.
+     *
+     * @param date
+     *        Instance of java.util.Date.
+     * @return Corresponding HTTP date string (returns null if Date argument
+     *         is null).
+     */
+    public static String convertDateToHttpString(Date date) {
+        if (date == null) {
+            return null;
+        } else {
+            DateFormat df =
+                    new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                                         Locale.US);
+            df.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return df.format(date);
+        }
+    }
+
     /**
      * Convenience method for {@link #parseDateStrict(String)} which does not
      * throw an exception on error, but merely returns null.
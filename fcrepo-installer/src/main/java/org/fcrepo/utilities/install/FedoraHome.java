@@ -232,8 +232,8 @@ public class FedoraHome {
 
     private void configureAkubra() throws InstallationFailedException {
         // Rewrite server/config/akubra-llstore.xml replacing the
-        // /tmp/[object|datastream]Store constructor-arg values
-        // with $FEDORA_HOME/data/[object|datastream]Store
+        // /tmp/[object|datastream|packedObject]Store constructor-arg values
+        // with $FEDORA_HOME/data/[object|datastream|packedObject]Store
         BufferedReader reader = null;
         PrintWriter writer = null;
         try {
@@ -246,6 +246,8 @@ public class FedoraHome {
             String oPath = dataDir.getPath() + File.separator + "objectStore";
             String dPath =
                     dataDir.getPath() + File.separator + "datastreamStore";
+            String pPath =
+                    dataDir.getPath() + File.separator + "packedObjectStore";
             StringBuilder xml = new StringBuilder();
 
             String line = reader.readLine();
@@ -254,6 +256,8 @@ public class FedoraHome {
                     line = "    <constructor-arg value=\"" + oPath + "\"/>";
                 } else if (line.indexOf("/tmp/datastreamStore") != -1) {
                     line = "    <constructor-arg value=\"" + dPath + "\"/>";
+                } else if (line.indexOf("/tmp/packedObjectStore") != -1) {
+                    line = "    <constructor-arg value=\"" + pPath + "\"/>";
                 }
                 xml.append(line + "\n");
                 line = reader.readLine();
@@ -0,0 +1,133 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.test.integration;
+
+import java.io.UnsupportedEncodingException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.fcrepo.server.management.FedoraAPIMMTOM;
+import org.fcrepo.server.utilities.TypeUtility;
+
+import org.fcrepo.test.FedoraTestCase;
+
+
+/**
+ * Measures ingest throughput with an increasing number of concurrent clients.
+ * <p/>
+ * Each round ingests the same number of small objects, spread over 1, 2, 4,
+ * ... clients, and prints objects/second. Since ingests of different objects
+ * no longer share a lock, throughput should grow close to linearly until the
+ * database connection pool or the CPUs are saturated. Like
+ * TestLargeDatastreams, this test is not part of any suite; the number of
+ * objects and the maximum number of clients can be set with the
+ * <code>ingest.benchmark.objects</code> and
+ * <code>ingest.benchmark.threads</code> system properties.
+ */
+public class TestConcurrentIngest
+        extends FedoraTestCase {
+
+    private static final String PID_PREFIX = "test:concurrentIngest-";
+
+    private final int objects =
+            Integer.getInteger("ingest.benchmark.objects", 400);
+
+    private final int maxThreads =
+            Integer.getInteger("ingest.benchmark.threads", 16);
+
+    @Test
+    public void testIngestScaling() throws Exception {
+        System.out.println("Running TestConcurrentIngest...");
+        double singleThreaded = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double perSecond = ingestRound(threads);
+            if (threads == 1) {
+                singleThreaded = perSecond;
+            }
+            System.out.println("  " + threads + " client(s): "
+                    + Math.round(perSecond) + " objects/second (speedup "
+                    + Math.round(perSecond * 100 / singleThreaded) / 100.0
+                    + ")");
+        }
+        System.out.println("  Test Complete.");
+    }
+
+    /**
+     * Ingests and then purges <code>objects</code> objects using the given
+     * number of clients, returning the ingest rate.
+     */
+    private double ingestRound(int threads) throws Exception {
+        final int perThread = objects / threads;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<String>>> results =
+                new ArrayList<Future<List<String>>>();
+        long start = System.currentTimeMillis();
+        for (int t = 0; t < threads; t++) {
+            final String prefix = PID_PREFIX + threads + "-" + t + "-";
+            results.add(executor.submit(new Callable<List<String>>() {
+
+                public List<String> call() throws Exception {
+                    FedoraAPIMMTOM apim = getFedoraClient().getAPIMMTOM();
+                    List<String> pids = new ArrayList<String>();
+                    for (int i = 0; i < perThread; i++) {
+                        String pid = prefix + i;
+                        apim.ingest(TypeUtility.convertBytesToDataHandler(
+                                getFoxml(pid)), FOXML1_1.uri,
+                                "concurrent ingest benchmark");
+                        pids.add(pid);
+                    }
+                    return pids;
+                }
+            }));
+        }
+        List<String> ingested = new ArrayList<String>();
+        for (Future<List<String>> result : results) {
+            ingested.addAll(result.get());
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        executor.shutdown();
+
+        assertEquals(perThread * threads, ingested.size());
+
+        FedoraAPIMMTOM apim = getFedoraClient().getAPIMMTOM();
+        for (String pid : ingested) {
+            apim.purgeObject(pid, "Removing Test Object", false);
+        }
+        return ingested.size() * 1000.0 / elapsed;
+    }
+
+    private static byte[] getFoxml(String pid) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sb.append("<foxml:digitalObject VERSION=\"1.1\" PID=\"" + pid + "\" ");
+        sb.append("  xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\" ");
+        sb.append("  xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" ");
+        sb.append("  xsi:schemaLocation=\"info:fedora/fedora-system:def/foxml# ");
+        sb.append("  http://www.fedora.info/definitions/1/0/foxml1-1.xsd\">");
+        sb.append("  <foxml:objectProperties>");
+        sb.append("    <foxml:property NAME=\"info:fedora/fedora-system:def/model#state\" VALUE=\"A\"/>");
+        sb.append("    <foxml:property NAME=\"info:fedora/fedora-system:def/model#label\" VALUE=\"Concurrent ingest\"/>");
+        sb.append("  </foxml:objectProperties>");
+        sb.append("</foxml:digitalObject>");
+        try {
+            return sb.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException(uee);
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestConcurrentIngest.class);
+    }
+}
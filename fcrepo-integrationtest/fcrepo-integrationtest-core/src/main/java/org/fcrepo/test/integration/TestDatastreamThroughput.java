@@ -0,0 +1,216 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.test.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.fcrepo.client.FedoraClient;
+
+import org.fcrepo.server.management.FedoraAPIMMTOM;
+import org.fcrepo.server.utilities.TypeUtility;
+
+import org.fcrepo.test.FedoraTestCase;
+
+
+/**
+ * Measures how quickly managed datastream content is served.
+ * <p/>
+ * Adds a managed datastream of each size to a test object, then downloads
+ * it a number of times through API-A-LITE and the REST API and prints the
+ * throughput of each. Run it against a server whose connector has sendfile
+ * enabled and again with it disabled to compare content sent by the
+ * container with content copied by Fedora, and watch the server's CPU and GC
+ * while it runs. Like TestConcurrentIngest, this test is not part of any
+ * suite; the sizes (in megabytes) and the number of downloads can be set with
+ * the <code>datastreamThroughput.benchmark.sizes</code> and
+ * <code>datastreamThroughput.benchmark.rounds</code> system properties.
+ */
+public class TestDatastreamThroughput
+        extends FedoraTestCase {
+
+    private static final String PID = "test:datastreamThroughput";
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final String sizes =
+            System.getProperty("datastreamThroughput.benchmark.sizes",
+                               "1,16,256,2048");
+
+    private final int rounds =
+            Integer.getInteger("datastreamThroughput.benchmark.rounds", 3);
+
+    private FedoraClient fedoraClient;
+
+    @Test
+    public void testDatastreamThroughput() throws Exception {
+        System.out.println("Running TestDatastreamThroughput...");
+        fedoraClient = getFedoraClient();
+        FedoraAPIMMTOM apim = fedoraClient.getAPIMMTOM();
+        apim.ingest(TypeUtility.convertBytesToDataHandler(getFoxml()),
+                    FOXML1_1.uri, "datastream throughput benchmark");
+        try {
+            for (String size : sizes.split(",")) {
+                long bytes = Long.parseLong(size.trim()) * MEGABYTE;
+                String dsId = "DS" + size.trim();
+                apim.addDatastream(PID, dsId, null, "Benchmark Datastream",
+                                   false, "application/octet-stream", null,
+                                   upload(bytes), "M", "A", null, null,
+                                   "datastream throughput benchmark");
+
+                String baseURL = getBaseURL();
+                report("API-A-LITE", bytes,
+                       baseURL + "/get/" + PID + "/" + dsId);
+                report("REST", bytes, baseURL + "/objects/" + PID
+                        + "/datastreams/" + dsId + "/content");
+            }
+        } finally {
+            apim.purgeObject(PID, "Removing Test Object", false);
+        }
+        System.out.println("  Test Complete.");
+    }
+
+    /**
+     * Downloads the content at the given URL a number of times and prints
+     * the mean throughput.
+     */
+    private void report(String api, long bytes, String url) throws Exception {
+        long totalMillis = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.currentTimeMillis();
+            assertEquals(bytes, download(url));
+            totalMillis += System.currentTimeMillis() - start;
+        }
+        double seconds = Math.max(totalMillis, 1) / 1000.0;
+        System.out.println("  " + api + ", " + bytes / MEGABYTE + "MB: "
+                + Math.round(totalMillis / (double) rounds) + "ms per request, "
+                + Math.round(bytes * rounds / MEGABYTE / seconds) + "MB/s");
+    }
+
+    private long download(String url) throws Exception {
+        GetMethod httpMethod = new GetMethod(url);
+        httpMethod.setDoAuthentication(true);
+        try {
+            int status = fedoraClient.getHttpClient().executeMethod(httpMethod);
+            assertEquals(HttpStatus.SC_OK, status);
+            InputStream in = httpMethod.getResponseBodyAsStream();
+            byte[] buf = new byte[65536];
+            long count = 0;
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                count += len;
+            }
+            return count;
+        } finally {
+            httpMethod.releaseConnection();
+        }
+    }
+
+    private String upload(final long bytes) throws Exception {
+        PostMethod httpMethod = new PostMethod(fedoraClient.getUploadURL());
+        httpMethod.setDoAuthentication(true);
+        httpMethod.setContentChunked(true);
+        Part[] parts = {new FilePart("file", new PartSource() {
+
+            public InputStream createInputStream() throws IOException {
+                return new SizedInputStream(bytes);
+            }
+
+            public String getFileName() {
+                return "file";
+            }
+
+            public long getLength() {
+                return bytes;
+            }
+        })};
+        httpMethod.setRequestEntity(
+                new MultipartRequestEntity(parts, httpMethod.getParams()));
+        HttpClient client = fedoraClient.getHttpClient();
+        try {
+            int status = client.executeMethod(httpMethod);
+            String response = new String(httpMethod.getResponseBody());
+            if (status != HttpStatus.SC_CREATED) {
+                throw new IOException("Upload failed: "
+                        + HttpStatus.getStatusText(status) + ": " + response);
+            }
+            return response.replaceAll("\r", "").replaceAll("\n", "");
+        } finally {
+            httpMethod.releaseConnection();
+        }
+    }
+
+    private static byte[] getFoxml() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sb.append("<foxml:digitalObject VERSION=\"1.1\" PID=\"" + PID + "\" ");
+        sb.append("  xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\" ");
+        sb.append("  xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" ");
+        sb.append("  xsi:schemaLocation=\"info:fedora/fedora-system:def/foxml# ");
+        sb.append("  http://www.fedora.info/definitions/1/0/foxml1-1.xsd\">");
+        sb.append("  <foxml:objectProperties>");
+        sb.append("    <foxml:property NAME=\"info:fedora/fedora-system:def/model#state\" VALUE=\"A\"/>");
+        sb.append("  </foxml:objectProperties>");
+        sb.append("</foxml:digitalObject>");
+        try {
+            return sb.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException(uee);
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestDatastreamThroughput.class);
+    }
+
+    /**
+     * Generates the given number of bytes of content.
+     */
+    private static class SizedInputStream
+            extends InputStream {
+
+        private final long m_size;
+
+        private long m_read;
+
+        SizedInputStream(long size) {
+            m_size = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (m_read >= m_size) {
+                return -1;
+            }
+            return (int) (m_read++ % 251);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (m_read >= m_size) {
+                return -1;
+            }
+            int n = (int) Math.min(len, m_size - m_read);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) (m_read++ % 251);
+            }
+            return n;
+        }
+    }
+}
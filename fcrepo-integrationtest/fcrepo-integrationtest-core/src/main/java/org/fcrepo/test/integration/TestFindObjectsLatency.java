@@ -0,0 +1,174 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.test.integration;
+
+import java.io.UnsupportedEncodingException;
+
+import java.math.BigInteger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.fcrepo.server.access.FedoraAPIAMTOM;
+import org.fcrepo.server.management.FedoraAPIMMTOM;
+import org.fcrepo.server.types.gen.ComparisonOperator;
+import org.fcrepo.server.types.gen.Condition;
+import org.fcrepo.server.types.gen.FieldSearchQuery;
+import org.fcrepo.server.types.gen.FieldSearchResult;
+import org.fcrepo.server.types.gen.ObjectFactory;
+import org.fcrepo.server.utilities.TypeUtility;
+
+import org.fcrepo.test.FedoraTestCase;
+
+
+/**
+ * Measures findObjects latency for pages of large result sets.
+ * <p/>
+ * Ingests a number of objects with DC records, then repeatedly pages through
+ * all of them asking for both repository and DC fields, and prints the time
+ * taken per page. Run it once with the FieldSearch module's
+ * <code>projectResultFields</code> parameter set to true and once with it set
+ * to false to compare results built from the database with results built by
+ * reading each object. Like TestConcurrentIngest, this test is not part of
+ * any suite; the number of objects, the page size and the number of rounds
+ * can be set with the <code>findObjects.benchmark.objects</code>,
+ * <code>findObjects.benchmark.pageSize</code> and
+ * <code>findObjects.benchmark.rounds</code> system properties.
+ */
+public class TestFindObjectsLatency
+        extends FedoraTestCase {
+
+    private static final String PID_PREFIX = "test:findObjectsLatency-";
+
+    private static final String[] RESULT_FIELDS =
+            new String[] {"pid", "label", "state", "mDate", "title",
+                    "creator", "identifier"};
+
+    private final int objects =
+            Integer.getInteger("findObjects.benchmark.objects", 2000);
+
+    private final int pageSize =
+            Integer.getInteger("findObjects.benchmark.pageSize", 1000);
+
+    private final int rounds =
+            Integer.getInteger("findObjects.benchmark.rounds", 5);
+
+    @Test
+    public void testFindObjectsLatency() throws Exception {
+        System.out.println("Running TestFindObjectsLatency...");
+        FedoraAPIMMTOM apim = getFedoraClient().getAPIMMTOM();
+        List<String> pids = new ArrayList<String>();
+        try {
+            for (int i = 0; i < objects; i++) {
+                String pid = PID_PREFIX + i;
+                apim.ingest(TypeUtility.convertBytesToDataHandler(
+                        getFoxml(pid)), FOXML1_1.uri,
+                        "findObjects latency benchmark");
+                pids.add(pid);
+            }
+
+            FedoraAPIAMTOM apia = getFedoraClient().getAPIAMTOM();
+            List<Long> pageMillis = new ArrayList<Long>();
+            for (int round = 0; round < rounds; round++) {
+                int found = findAll(apia, pageMillis);
+                assertEquals(objects, found);
+            }
+
+            Collections.sort(pageMillis);
+            long total = 0;
+            for (Long millis : pageMillis) {
+                total += millis;
+            }
+            System.out.println("  " + objects + " objects, " + pageSize
+                    + " results per page, " + pageMillis.size() + " pages");
+            System.out.println("  mean "
+                    + Math.round((double) total / pageMillis.size())
+                    + "ms, median " + pageMillis.get(pageMillis.size() / 2)
+                    + "ms, max " + pageMillis.get(pageMillis.size() - 1)
+                    + "ms per page");
+        } finally {
+            for (String pid : pids) {
+                apim.purgeObject(pid, "Removing Test Object", false);
+            }
+        }
+        System.out.println("  Test Complete.");
+    }
+
+    /**
+     * Pages through all of the benchmark objects, recording the time taken
+     * for each page, and returns the number of results seen.
+     */
+    private int findAll(FedoraAPIAMTOM apia, List<Long> pageMillis)
+            throws Exception {
+        FieldSearchQuery.Conditions conds = new FieldSearchQuery.Conditions();
+        Condition cond = new Condition();
+        cond.setProperty("pid");
+        cond.setOperator(ComparisonOperator.HAS);
+        cond.setValue(PID_PREFIX + "*");
+        conds.getCondition().add(cond);
+        FieldSearchQuery query = new FieldSearchQuery();
+        query.setConditions(new ObjectFactory()
+                .createFieldSearchQueryConditions(conds));
+
+        int found = 0;
+        long start = System.currentTimeMillis();
+        FieldSearchResult result =
+                apia.findObjects(TypeUtility.convertStringtoAOS(RESULT_FIELDS),
+                                 new BigInteger("" + pageSize),
+                                 query);
+        while (true) {
+            pageMillis.add(System.currentTimeMillis() - start);
+            found += result.getResultList().getObjectFields().size();
+            if (result.getListSession() == null
+                    || result.getListSession().getValue().getToken() == null) {
+                return found;
+            }
+            start = System.currentTimeMillis();
+            result = apia.resumeFindObjects(result.getListSession().getValue()
+                    .getToken());
+        }
+    }
+
+    private static byte[] getFoxml(String pid) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sb.append("<foxml:digitalObject VERSION=\"1.1\" PID=\"" + pid + "\" ");
+        sb.append("  xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\" ");
+        sb.append("  xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" ");
+        sb.append("  xsi:schemaLocation=\"info:fedora/fedora-system:def/foxml# ");
+        sb.append("  http://www.fedora.info/definitions/1/0/foxml1-1.xsd\">");
+        sb.append("  <foxml:objectProperties>");
+        sb.append("    <foxml:property NAME=\"info:fedora/fedora-system:def/model#state\" VALUE=\"A\"/>");
+        sb.append("    <foxml:property NAME=\"info:fedora/fedora-system:def/model#label\" VALUE=\"Latency Benchmark " + pid + "\"/>");
+        sb.append("  </foxml:objectProperties>");
+        sb.append("  <foxml:datastream ID=\"DC\" CONTROL_GROUP=\"X\" STATE=\"A\">");
+        sb.append("    <foxml:datastreamVersion ID=\"DC1.0\" MIMETYPE=\"text/xml\" LABEL=\"Dublin Core\">");
+        sb.append("      <foxml:xmlContent>");
+        sb.append("        <oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\" ");
+        sb.append("            xmlns:dc=\"http://purl.org/dc/elements/1.1/\">");
+        sb.append("          <dc:title>Latency Benchmark Object</dc:title>");
+        sb.append("          <dc:creator>Benchmark Creator</dc:creator>");
+        sb.append("          <dc:identifier>" + pid + "</dc:identifier>");
+        sb.append("        </oai_dc:dc>");
+        sb.append("      </foxml:xmlContent>");
+        sb.append("    </foxml:datastreamVersion>");
+        sb.append("  </foxml:datastream>");
+        sb.append("</foxml:digitalObject>");
+        try {
+            return sb.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException(uee);
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestFindObjectsLatency.class);
+    }
+}
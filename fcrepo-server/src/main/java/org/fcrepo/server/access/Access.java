@@ -10,6 +10,7 @@ import org.fcrepo.server.Context;
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.search.FieldSearchQuery;
 import org.fcrepo.server.search.FieldSearchResult;
+import org.fcrepo.server.storage.types.Datastream;
 import org.fcrepo.server.storage.types.DatastreamDef;
 import org.fcrepo.server.storage.types.MIMETypedStream;
 import org.fcrepo.server.storage.types.ObjectMethodsDef;
@@ -29,6 +30,31 @@ public interface Access {
                                                       Date asOfDateTime)
             throws ServerException;
 
+    /**
+     * Gets the version of a datastream that
+     * <code>getDatastreamDissemination</code> would disseminate, without
+     * reading its content. This lets callers check whether a client already
+     * has the content before opening it. It is authorized as a datastream
+     * dissemination.
+     *
+     * @param context
+     *        The context of this request.
+     * @param pid
+     *        The persistent identifier of the digital object.
+     * @param dsID
+     *        The datastream ID.
+     * @param asOfDateTime
+     *        The versioning datetime stamp.
+     * @return A copy of the datastream version.
+     * @throws ServerException
+     *         If any type of error occurred fulfilling the request.
+     */
+    public Datastream getDatastreamVersion(Context context,
+                                           String pid,
+                                           String dsID,
+                                           Date asOfDateTime)
+            throws ServerException;
+
     /**
      * Disseminates the content produced by executing the specified method of
      * the associated Service Deployment object of the specified digital object.
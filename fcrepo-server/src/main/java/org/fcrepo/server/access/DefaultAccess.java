@@ -1123,21 +1123,7 @@ public class DefaultAccess
         DOReader reader =
                 m_manager.getReader(Server.USE_DEFINITIVE_STORE, context, PID);
 
-        Datastream ds = reader.GetDatastream(dsID, asOfDateTime);
-        if (ds == null) {
-            String message =
-                    "[DefaulAccess] No datastream could be returned. "
-                    + "Either there is no datastream for the digital "
-                    + "object \""
-                    + PID
-                    + "\" with datastream ID of \""
-                    + dsID
-                    + " \"  OR  there are no datastreams that match the specified "
-                    + "date/time value of \""
-                    + DateUtility.convertDateToString(asOfDateTime)
-                    + " \"  .";
-            throw new DatastreamNotFoundException(message);
-        }
+        Datastream ds = getDatastream(reader, PID, dsID, asOfDateTime);
 
         if (ds.DSControlGrp.equalsIgnoreCase("E")) {
             DatastreamReferencedContent drc =
@@ -1152,12 +1138,12 @@ public class DefaultAccess
                     (DatastreamManagedContent) reader
                             .GetDatastream(dsID, asOfDateTime);
 
-            mimeTypedStream = new MIMETypedStream(ds.DSMIME, dmc.getContentStream(context), null,ds.DSSize);
+            mimeTypedStream = new MIMETypedStream(ds.DSMIME, dmc.getContentStream(context), getValidatorHeaders(dmc),ds.DSSize);
         } else if (ds.DSControlGrp.equalsIgnoreCase("X")) {
             DatastreamXMLMetadata dxm =
                     (DatastreamXMLMetadata) reader.GetDatastream(dsID,
                                                                  asOfDateTime);
-            mimeTypedStream = new MIMETypedStream(ds.DSMIME, dxm.getContentStream(context), null, ds.DSSize);
+            mimeTypedStream = new MIMETypedStream(ds.DSMIME, dxm.getContentStream(context), getValidatorHeaders(dxm), ds.DSSize);
         } else if (ds.DSControlGrp.equalsIgnoreCase("R")) {
             DatastreamReferencedContent drc =
                     (DatastreamReferencedContent) reader
@@ -1198,4 +1184,61 @@ public class DefaultAccess
         return mimeTypedStream;
     }
 
+    @Override
+    public Datastream getDatastreamVersion(Context context,
+                                           String PID,
+                                           String dsID,
+                                           Date asOfDateTime)
+            throws ServerException {
+        PID = Server.getPID(PID).toString();
+        m_authorizationModule.enforceGetDatastreamDissemination(context,
+                                                                PID,
+                                                                dsID,
+                                                                asOfDateTime);
+        DOReader reader =
+                m_manager.getReader(Server.USE_DEFINITIVE_STORE, context, PID);
+        return getDatastream(reader, PID, dsID, asOfDateTime).copy();
+    }
+
+    private static Datastream getDatastream(DOReader reader,
+                                            String PID,
+                                            String dsID,
+                                            Date asOfDateTime)
+            throws ServerException {
+        Datastream ds = reader.GetDatastream(dsID, asOfDateTime);
+        if (ds == null) {
+            String message =
+                    "[DefaulAccess] No datastream could be returned. "
+                    + "Either there is no datastream for the digital "
+                    + "object \""
+                    + PID
+                    + "\" with datastream ID of \""
+                    + dsID
+                    + " \"  OR  there are no datastreams that match the specified "
+                    + "date/time value of \""
+                    + DateUtility.convertDateToString(asOfDateTime)
+                    + " \"  .";
+            throw new DatastreamNotFoundException(message);
+        }
+        return ds;
+    }
+
+    /**
+     * Gets the ETag and Last-Modified headers for the content of a datastream
+     * version, so clients can cache it and ask for parts of it.
+     */
+    private static Property[] getValidatorHeaders(Datastream ds) {
+        String tag = ds.getEntityTag();
+        if (tag == null) {
+            return null;
+        }
+        Property etag = new Property("ETag", "\"" + tag + "\"");
+        if (ds.DSCreateDT == null) {
+            return new Property[] {etag};
+        }
+        return new Property[] {etag,
+                new Property("Last-Modified", DateUtility
+                        .convertDateToHttpString(ds.DSCreateDT))};
+    }
+
 }
@@ -24,6 +24,7 @@ import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.search.FieldSearchQuery;
 import org.fcrepo.server.search.FieldSearchResult;
 import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.server.storage.types.Datastream;
 import org.fcrepo.server.storage.types.DatastreamDef;
 import org.fcrepo.server.storage.types.MIMETypedStream;
 import org.fcrepo.server.storage.types.MethodDef;
@@ -354,6 +355,14 @@ public class DynamicAccessImpl {
         return null;
     }
 
+    public Datastream getDatastreamVersion(Context context,
+                                           String PID,
+                                           String dsID,
+                                           Date asOfDateTime)
+            throws ServerException {
+        return null;
+    }
+
     public DatastreamDef[] listDatastreams(Context context,
                                            String PID,
                                            Date asOfDateTime)
@@ -21,6 +21,7 @@ import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.search.FieldSearchQuery;
 import org.fcrepo.server.search.FieldSearchResult;
 import org.fcrepo.server.storage.DOManager;
+import org.fcrepo.server.storage.types.Datastream;
 import org.fcrepo.server.storage.types.DatastreamDef;
 import org.fcrepo.server.storage.types.MIMETypedStream;
 import org.fcrepo.server.storage.types.MethodDef;
@@ -213,6 +214,14 @@ public class DynamicAccessModule
         return da.getDatastreamDissemination(context, PID, dsID, asOfDateTime);
     }
 
+    public Datastream getDatastreamVersion(Context context,
+                                           String PID,
+                                           String dsID,
+                                           Date asOfDateTime)
+            throws ServerException {
+        return da.getDatastreamVersion(context, PID, dsID, asOfDateTime);
+    }
+
     /**
      * Perform a dissemination for a method that belongs to a dynamic
      * disseminator that is associate with the digital object. The method
@@ -49,6 +49,7 @@ import org.fcrepo.server.errors.servletExceptionExtensions.NotFound404Exception;
 import org.fcrepo.server.errors.servletExceptionExtensions.RootException;
 import org.fcrepo.server.storage.types.MIMETypedStream;
 import org.fcrepo.server.storage.types.Property;
+import org.fcrepo.server.utilities.ResponseUtility;
 import org.fcrepo.server.utilities.StreamUtility;
 import org.fcrepo.utilities.DateUtility;
 import org.fcrepo.utilities.XmlTransformUtility;
@@ -673,20 +674,22 @@ public class FedoraAccessServlet
                         }
                     }
                 }
-                out = response.getOutputStream();
-                int byteStream = 0;
-                logger.debug("Started reading dissemination stream");
                 InputStream dissemResult = dissemination.getStream();
-                byte[] buffer = new byte[BUF];
-                while ((byteStream = dissemResult.read(buffer)) != -1) {
-                    out.write(buffer, 0, byteStream);
+                long length = ResponseUtility.sendFile(request, dissemResult);
+                if (length != -1) {
+                    // setContentLength only takes an int
+                    response.setHeader("Content-Length", Long.toString(length));
+                    logger.debug("Dissemination stream will be sent by the container");
+                } else {
+                    out = response.getOutputStream();
+                    logger.debug("Started reading dissemination stream");
+                    StreamUtility.copy(dissemResult, out);
+                    dissemResult.close();
+                    dissemResult = null;
+                    out.flush();
+                    out.close();
+                    logger.debug("Finished reading dissemination stream");
                 }
-                buffer = null;
-                dissemResult.close();
-                dissemResult = null;
-                out.flush();
-                out.close();
-                logger.debug("Finished reading dissemination stream");
             }
         } finally {
             dissemination.close();
@@ -800,14 +803,9 @@ public class FedoraAccessServlet
                         }
                     }
                 }
-                int byteStream = 0;
                 logger.debug("Started reading dissemination stream");
                 InputStream dissemResult = dissemination.getStream();
-                byte[] buffer = new byte[BUF];
-                while ((byteStream = dissemResult.read(buffer)) != -1) {
-                    out.write(buffer, 0, byteStream);
-                }
-                buffer = null;
+                StreamUtility.copy(dissemResult, out);
                 dissemResult.close();
                 dissemResult = null;
                 out.flush();
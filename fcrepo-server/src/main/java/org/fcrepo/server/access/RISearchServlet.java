@@ -90,7 +90,9 @@ public class RISearchServlet
                     + request.getParameter("limit") + "\n" + "  distinct: "
                     + request.getParameter("distinct") + "\n" + "  format: "
                     + request.getParameter("format") + "\n" + "  flush: "
-                    + request.getParameter("flush") + "\n" + "  dumbTypes: "
+                    + request.getParameter("flush") + "\n" + "  flushObject: "
+                    + request.getParameter("flushObject") + "\n"
+                    + "  dumbTypes: "
                     + request.getParameter("dumbTypes") + "\n");
         }
         try {
@@ -98,6 +100,11 @@ public class RISearchServlet
                     ReadOnlyContext.getContext(Constants.HTTP_REQUEST.REST.uri,
                                                request);
             m_authorization.enforceRIFindObjects(context);
+            // read-your-writes for a single object, when updates are queued
+            String flushObject = request.getParameter("flushObject");
+            if (flushObject != null && flushObject.length() > 0) {
+                ((ResourceIndex) getWriter()).awaitObject(flushObject);
+            }
             super.doGet(server, request, response);
         } catch (AuthzException e) {
             logger.error("Authorization failed for request: "
@@ -57,12 +57,18 @@ public class JournalConsumer
         reader =
                 JournalReader
                         .getInstance(parameters, role, recoveryLog, server);
-        consumerThread =
-                new JournalConsumerThread(parameters,
-                                          role,
-                                          server,
-                                          reader,
-                                          recoveryLog);
+        try {
+            consumerThread =
+                    new JournalConsumerThread(parameters,
+                                              role,
+                                              server,
+                                              reader,
+                                              recoveryLog);
+        } catch (JournalException e) {
+            throw new ModuleInitializationException("Problem creating the JournalConsumerThread",
+                                                    role,
+                                                    e);
+        }
     }
 
     /**
@@ -74,6 +80,13 @@ public class JournalConsumer
         consumerThread.setManagementDelegate(delegate);
     }
 
+    /**
+     * The thread that replays the journal, which knows how far behind it is.
+     */
+    public JournalConsumerThread getConsumerThread() {
+        return consumerThread;
+    }
+
     /**
      * Tell the thread, the reader and the log to shut down.
      */
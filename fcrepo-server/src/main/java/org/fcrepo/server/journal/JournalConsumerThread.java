@@ -8,6 +8,7 @@ import java.util.Map;
 
 import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
 import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.fcrepo.server.journal.helpers.ParameterHelper;
 import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
 import org.fcrepo.server.management.ManagementDelegate;
 import org.slf4j.Logger;
@@ -17,6 +18,12 @@ import org.slf4j.LoggerFactory;
 /**
  * Process the journal entries as a separate Thread, while the JournalConsumer
  * is blocking all calls from outside.
+ * <p>
+ * If the <code>journalReplayThreads</code> parameter is more than 1, entries
+ * for different objects are replayed on that many threads by a
+ * {@link JournalReplayer}. How far the replay is behind the journal is
+ * available from {@link #getLagSeconds()}, and how many entries are queued for
+ * replay from {@link #getUnreplayedCount()}.
  *
  * @author Jim Blake
  */
@@ -26,14 +33,22 @@ public class JournalConsumerThread
     private static final Logger logger =
             LoggerFactory.getLogger(JournalConsumerThread.class);
 
+    /** How often to report the progress of the replay, in milliseconds. */
+    private static final long PROGRESS_INTERVAL = 60 * 1000;
+
     private final ServerInterface server;
 
     private final JournalReader reader;
 
     private final JournalRecoveryLog recoveryLog;
 
+    private final int replayThreads;
+
     private ManagementDelegate delegate;
 
+    /** Null until we start working. */
+    private volatile JournalReplayer replayer;
+
     private boolean shutdown = false;
 
     /**
@@ -45,10 +60,12 @@ public class JournalConsumerThread
                                  String role,
                                  ServerInterface server,
                                  JournalReader reader,
-                                 JournalRecoveryLog recoveryLog) {
+                                 JournalRecoveryLog recoveryLog)
+            throws JournalException {
         this.server = server;
         this.reader = reader;
         this.recoveryLog = recoveryLog;
+        replayThreads = ParameterHelper.parseParametersForReplayThreads(parameters);
     }
 
     /**
@@ -72,16 +89,28 @@ public class JournalConsumerThread
 
             recoveryLog.log("Start recovery.");
 
-            while (true) {
-                if (shutdown) {
-                    break;
-                }
-                ConsumerJournalEntry cje = reader.readJournalEntry();
-                if (cje == null) {
-                    break;
+            replayer = new JournalReplayer(delegate, recoveryLog, replayThreads);
+            long lastProgress = System.currentTimeMillis();
+            try {
+                while (true) {
+                    if (shutdown) {
+                        break;
+                    }
+                    ConsumerJournalEntry cje = reader.readJournalEntry();
+                    if (cje == null) {
+                        break;
+                    }
+                    replayer.replay(cje);
+
+                    long now = System.currentTimeMillis();
+                    if (now - lastProgress >= PROGRESS_INTERVAL) {
+                        lastProgress = now;
+                        logProgress();
+                    }
                 }
-                cje.invokeMethod(delegate, recoveryLog);
-                cje.close();
+                replayer.finish();
+            } finally {
+                replayer.stop();
             }
             reader.shutdown();
 
@@ -125,6 +154,44 @@ public class JournalConsumerThread
         shutdown = true;
     }
 
+    private void logProgress() {
+        String message =
+                "Replayed " + getReplayedCount() + " entries; "
+                        + getUnreplayedCount() + " queued for replay, "
+                        + getLagSeconds() + " seconds behind.";
+        logger.info(message);
+        recoveryLog.log(message);
+    }
+
+    /**
+     * How many entries have been replayed.
+     */
+    public long getReplayedCount() {
+        JournalReplayer current = replayer;
+        return current == null ? 0 : current.getReplayedCount();
+    }
+
+    /**
+     * How many entries have been read from the journal, but not yet replayed:
+     * the depth of the replay queues, rather than how far the replay is behind
+     * the journal.
+     */
+    public int getUnreplayedCount() {
+        JournalReplayer current = replayer;
+        return current == null ? 0 : current.getUnreplayedCount();
+    }
+
+    /**
+     * How many seconds is the repository behind the journal? This is the age
+     * of the entry being replayed, or of the last one replayed; 0 if there is
+     * none, or if the reader is waiting for more of the journal to be written.
+     */
+    public long getLagSeconds() {
+        JournalReplayer current = replayer;
+        return current == null ? 0 : current.getLagSeconds(reader
+                .isWaitingForEntries());
+    }
+
     /**
      * Set the flag saying that it's time to quit.
      */
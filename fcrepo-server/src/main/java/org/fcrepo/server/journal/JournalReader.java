@@ -59,6 +59,8 @@ public abstract class JournalReader
 
     private boolean ignoreHashErrors;
 
+    private volatile boolean waitingForEntries;
+
     /**
      * Create an instance of the proper JournalReader child class, as determined
      * by the server parameters.
@@ -139,6 +141,20 @@ public abstract class JournalReader
     public abstract ConsumerJournalEntry readJournalEntry()
             throws JournalException, XMLStreamException;
 
+    /**
+     * Is the reader waiting for more of the journal to be written? If so, and
+     * everything it has read has been replayed, the repository has caught up
+     * with the journal. A reader that doesn't follow a journal as it is
+     * written never waits.
+     */
+    public boolean isWaitingForEntries() {
+        return waitingForEntries;
+    }
+
+    protected void setWaitingForEntries(boolean waitingForEntries) {
+        this.waitingForEntries = waitingForEntries;
+    }
+
     /**
      * Compare the repository hash from the journal file with the current hash
      * obtained from the server. If they do not match, either throw an exception
@@ -0,0 +1,377 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fcrepo.common.Constants;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
+import org.fcrepo.server.management.ManagementDelegate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays journal entries for the {@link JournalConsumerThread}, on several
+ * threads if so configured, and keeps track of how far behind it is.
+ * <p>
+ * Each entry that affects a single object is given to a replay thread chosen
+ * by the PID of the object, so the entries for one object are replayed in
+ * journal order, while the entries for other objects are replayed alongside
+ * them. An entry that doesn't name a single object, like
+ * <code>getNextPID</code> or <code>putTempStream</code>, is a barrier: it
+ * waits for all earlier entries to be replayed, and is replayed alone, on the
+ * calling thread.
+ * <p>
+ * With one thread, every entry is replayed on the calling thread, one at a
+ * time, as the consumer always has. Replaying on more threads assumes that
+ * entries for different objects may be applied in either order; that is so
+ * for the API-M methods, but an object whose validation looks at another
+ * object (its content model, for instance) may see that object as it was a
+ * moment earlier or later in the journal.
+ * <p>
+ * If an entry fails, no more entries are started, and the failure is thrown
+ * by the next call to {@link #replay(ConsumerJournalEntry)} or
+ * {@link #finish()}. Entries for other objects that came after the failed one
+ * may already have been replayed.
+ */
+class JournalReplayer
+        implements JournalConstants {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(JournalReplayer.class);
+
+    /** The methods whose PID argument names the only object they change. */
+    private static final Set<String> METHODS_WITH_PID_ARGUMENT =
+            new HashSet<String>(Arrays.asList(METHOD_MODIFY_OBJECT,
+                                              METHOD_PURGE_OBJECT,
+                                              METHOD_ADD_DATASTREAM,
+                                              METHOD_MODIFY_DATASTREAM_BY_REFERENCE,
+                                              METHOD_MODIFY_DATASTREAM_BY_VALUE,
+                                              METHOD_SET_DATASTREAM_STATE,
+                                              METHOD_SET_DATASTREAM_VERSIONABLE,
+                                              METHOD_PURGE_DATASTREAM,
+                                              METHOD_ADD_RELATIONSHIP,
+                                              METHOD_PURGE_RELATIONSHIP));
+
+    /** How many entries each replay thread may have waiting. */
+    private static final int QUEUE_SIZE = 16;
+
+    private static final String FEDORA_URI_PREFIX = "info:fedora/";
+
+    private final ManagementDelegate delegate;
+
+    private final JournalRecoveryLog recoveryLog;
+
+    /** Empty if entries are replayed on the calling thread. */
+    private final Partition[] partitions;
+
+    /**
+     * The journal timestamps of the entries that have been given to us but
+     * not yet replayed, by their position in the journal.
+     */
+    private final ConcurrentNavigableMap<Long, Long> unreplayed =
+            new ConcurrentSkipListMap<Long, Long>();
+
+    private final AtomicLong replayedCount = new AtomicLong();
+
+    /**
+     * The journal timestamp of the latest entry given to us, or -1 if none.
+     * Once there are no unreplayed entries, it has been replayed.
+     */
+    private volatile long latestTimestamp = -1;
+
+    private long nextPosition;
+
+    private boolean stopped;
+
+    /** The first failure, if any; guarded by this. */
+    private Throwable failure;
+
+    /** The entry that failed, if any; guarded by this. */
+    private ConsumerJournalEntry failedEntry;
+
+    /** Entries given to the replay threads and not yet replayed. */
+    private int inProgress;
+
+    /**
+     * @param threads
+     *        how many threads to replay entries on. With 1, entries are
+     *        replayed on the calling thread.
+     */
+    JournalReplayer(ManagementDelegate delegate,
+                    JournalRecoveryLog recoveryLog,
+                    int threads) {
+        this.delegate = delegate;
+        this.recoveryLog = recoveryLog;
+        if (threads <= 1) {
+            partitions = new Partition[0];
+        } else {
+            partitions = new Partition[threads];
+            for (int i = 0; i < threads; i++) {
+                partitions[i] = new Partition(i);
+                partitions[i].start();
+            }
+        }
+    }
+
+    /**
+     * Replay an entry, or hand it to a replay thread. Either way, the entry
+     * will be closed when it has been replayed.
+     *
+     * @throws JournalException
+     *         if this or an earlier entry failed.
+     */
+    void replay(ConsumerJournalEntry entry) throws JournalException {
+        checkForFailure();
+        long position = nextPosition++;
+        long timestamp = entry.getContext().now().getTime();
+        unreplayed.put(position, timestamp);
+        latestTimestamp = timestamp;
+
+        String pid = partitions.length == 0 ? null : getPartitionKey(entry);
+        if (pid == null) {
+            awaitReplayThreads();
+            checkForFailure();
+            invoke(entry, position);
+            checkForFailure();
+        } else {
+            synchronized (this) {
+                inProgress++;
+            }
+            int index = (pid.hashCode() & Integer.MAX_VALUE) % partitions.length;
+            partitions[index].put(new Task(entry, position));
+        }
+    }
+
+    /**
+     * Wait for the replay threads to replay what they have.
+     *
+     * @throws JournalException
+     *         if any entry failed.
+     */
+    void finish() throws JournalException {
+        awaitReplayThreads();
+        checkForFailure();
+    }
+
+    /**
+     * Let the replay threads stop when they have replayed what they have.
+     */
+    void stop() {
+        if (!stopped) {
+            stopped = true;
+            for (Partition partition : partitions) {
+                partition.put(Task.STOP);
+            }
+        }
+    }
+
+    /**
+     * How many entries have been replayed.
+     */
+    long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    /**
+     * How many entries have been handed to us but not yet replayed: the depth
+     * of the replay queues. With one thread, that is never more than the entry
+     * being replayed, and it says nothing about how much of the journal is
+     * still to be read.
+     */
+    int getUnreplayedCount() {
+        return unreplayed.size();
+    }
+
+    /**
+     * How far is the repository behind the journal, in seconds? That is the
+     * age of the oldest entry that has been read but not yet replayed, or if
+     * there is none, of the last entry that was replayed. It is 0 if none has
+     * been, or if everything has been replayed and the reader is waiting for
+     * more of the journal to be written.
+     *
+     * @param readerWaiting
+     *        whether the reader is waiting for more of the journal.
+     */
+    long getLagSeconds(boolean readerWaiting) {
+        Map.Entry<Long, Long> oldest = unreplayed.firstEntry();
+        if (oldest == null && readerWaiting) {
+            return 0;
+        }
+        long timestamp = oldest == null ? latestTimestamp : oldest.getValue();
+        if (timestamp < 0) {
+            return 0;
+        }
+        return Math.max(0, (System.currentTimeMillis() - timestamp) / 1000);
+    }
+
+    /**
+     * The PID of the one object that this entry changes, or null if it may
+     * change something else.
+     */
+    static String getPartitionKey(ConsumerJournalEntry entry) {
+        String methodName = entry.getMethodName();
+        String pid;
+        if (METHOD_INGEST.equals(methodName)) {
+            pid =
+                    entry.getContext()
+                            .getRecoveryValue(Constants.RECOVERY.PID.uri);
+        } else if (METHODS_WITH_PID_ARGUMENT.contains(methodName)) {
+            pid = entry.getStringArgument(ARGUMENT_NAME_PID);
+        } else {
+            return null;
+        }
+        if (pid == null || pid.length() == 0) {
+            return null;
+        }
+
+        // a relationship subject may be a URI, of the object or a datastream.
+        if (pid.startsWith(FEDORA_URI_PREFIX)) {
+            pid = pid.substring(FEDORA_URI_PREFIX.length());
+        }
+        int slash = pid.indexOf('/');
+        return slash < 0 ? pid : pid.substring(0, slash);
+    }
+
+    /**
+     * Replay the entry, unless an earlier one has failed, and close it.
+     */
+    private void invoke(ConsumerJournalEntry entry, long position) {
+        try {
+            if (!hasFailed()) {
+                entry.invokeMethod(delegate, recoveryLog);
+                replayedCount.incrementAndGet();
+            }
+        } catch (Throwable e) {
+            setFailure(entry, e);
+        } finally {
+            entry.close();
+            unreplayed.remove(position);
+        }
+    }
+
+    private synchronized boolean hasFailed() {
+        return failure != null;
+    }
+
+    private synchronized void setFailure(ConsumerJournalEntry entry,
+                                         Throwable e) {
+        if (failure == null) {
+            failure = e;
+            failedEntry = entry;
+        } else {
+            logger.error("Replay of " + entry.getIdentifier()
+                    + " also failed", e);
+        }
+    }
+
+    private synchronized void checkForFailure() throws JournalException {
+        if (failure != null) {
+            throw new JournalException("Failed to replay journal entry: "
+                    + failedEntry.getIdentifier(), failure);
+        }
+    }
+
+    private synchronized void taskFinished() {
+        inProgress--;
+        if (inProgress == 0) {
+            notifyAll();
+        }
+    }
+
+    private synchronized void awaitReplayThreads() {
+        boolean interrupted = false;
+        while (inProgress > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * An entry for a replay thread, and its position in the journal.
+     */
+    private static class Task {
+
+        static final Task STOP = new Task(null, -1);
+
+        final ConsumerJournalEntry entry;
+
+        final long position;
+
+        Task(ConsumerJournalEntry entry, long position) {
+            this.entry = entry;
+            this.position = position;
+        }
+    }
+
+    /**
+     * A replay thread, which replays its entries in the order it gets them.
+     */
+    private class Partition
+            extends Thread {
+
+        private final BlockingQueue<Task> queue =
+                new ArrayBlockingQueue<Task>(QUEUE_SIZE);
+
+        Partition(int index) {
+            super("JournalReplayer-" + index);
+            setDaemon(true);
+        }
+
+        /**
+         * Wait for room in the queue, so the journal isn't read too far ahead
+         * of the replay.
+         */
+        void put(Task task) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(task);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (task == Task.STOP) {
+                    return;
+                }
+                try {
+                    invoke(task.entry, task.position);
+                } finally {
+                    taskFinished();
+                }
+            }
+        }
+    }
+}
@@ -142,6 +142,18 @@ public abstract class JournalWriter
     public abstract void writeJournalEntry(CreatorJournalEntry journalEntry)
             throws JournalException;
 
+    /**
+     * Called after {@link #writeJournalEntry(CreatorJournalEntry)}, outside of
+     * the {@link #SYNCHRONIZER}, and before the caller is released. Sub-classes
+     * that make entries durable in groups should wait here until the entry is
+     * durable. By default, the entry was written before
+     * {@link #writeJournalEntry(CreatorJournalEntry)} returned, so there is
+     * nothing to wait for.
+     */
+    public void awaitJournalEntry(CreatorJournalEntry journalEntry)
+            throws JournalException {
+    }
+
     /**
      * Subclasses should call this method to initialize a new Journal file.
      */
@@ -351,7 +363,7 @@ public abstract class JournalWriter
      * DOManager is present, and ready to create the repository has that we will
      * compare to.
      */
-    private String getRepositoryHash() throws JournalException {
+    protected String getRepositoryHash() throws JournalException {
         if (!server.hasInitialized()) {
             throw new IllegalStateException("The repository hash is not available until "
                     + "the server is fully initialized.");
@@ -94,6 +94,17 @@ public class Journaler
         worker.shutdown();
     }
 
+    /**
+     * The thread that replays the journal, so its progress can be monitored,
+     * or null if we are not in recovery mode.
+     */
+    public JournalConsumerThread getConsumerThread() {
+        if (worker instanceof JournalConsumer) {
+            return ((JournalConsumer) worker).getConsumerThread();
+        }
+        return null;
+    }
+
     /**
      * Augment, and perhaps override, the server parameters, using any System
      * Property whose name begins with "fedora.journal.". So, for example, a
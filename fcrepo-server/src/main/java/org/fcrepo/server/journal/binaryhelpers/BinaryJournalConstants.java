@@ -0,0 +1,61 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+/**
+ * Constants for the binary Journal format.
+ * <p>
+ * A binary Journal file starts with {@link #MAGIC} and {@link #FORMAT_VERSION},
+ * followed by a series of records. Each record is framed by its length and the
+ * CRC-32 of its bytes, and starts with a record type: one header record, any
+ * number of entry records, and one trailer record. Stream arguments larger
+ * than the inline limit are not written to the Journal file itself, but to a
+ * content file, named by the SHA-256 digest of its bytes.
+ */
+public interface BinaryJournalConstants {
+
+    /** The first four bytes of a binary Journal file: "FJNL". */
+    int MAGIC = 0x464A4E4C;
+
+    int FORMAT_VERSION = 1;
+
+    // Types of records in a binary Journal file.
+    byte RECORD_HEADER = 1;
+
+    byte RECORD_ENTRY = 2;
+
+    byte RECORD_TRAILER = 3;
+
+    // Types of arguments, as written to a binary Journal file.
+    byte ARGUMENT_NULL = 0;
+
+    byte ARGUMENT_STRING = 1;
+
+    byte ARGUMENT_STRINGARRAY = 2;
+
+    byte ARGUMENT_INTEGER = 3;
+
+    byte ARGUMENT_BOOLEAN = 4;
+
+    byte ARGUMENT_DATE = 5;
+
+    /** A stream argument, with its bytes in the record. */
+    byte ARGUMENT_STREAM = 6;
+
+    /** A stream argument, with its bytes in a content file. */
+    byte ARGUMENT_CONTENT = 7;
+
+    /** No record may be longer than this, in bytes. */
+    int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    /** No stream argument larger than this is written in a record. */
+    long MAX_INLINE_CONTENT_LENGTH = 1024 * 1024;
+
+    /** The name of the directory that holds the content files. */
+    String CONTENT_DIRECTORY_NAME = "content";
+
+    String DIGEST_ALGORITHM = "SHA-256";
+
+}
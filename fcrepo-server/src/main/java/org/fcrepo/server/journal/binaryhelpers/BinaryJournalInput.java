@@ -0,0 +1,400 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.fcrepo.server.MultiValueMap;
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.fcrepo.server.journal.helpers.PasswordCipher;
+
+/**
+ * Reads a Journal file in the binary format.
+ * <p>
+ * The CRC of each record is checked before the record is used, so a damaged
+ * or truncated file is reported rather than replayed. Stream arguments that
+ * were written to content files are found in the content stores, which are
+ * searched in order, and are handed to the entry as they are, without a copy.
+ */
+public class BinaryJournalInput
+        implements BinaryJournalConstants, JournalConstants {
+
+    /**
+     * Does this file start with the signature of a binary Journal file?
+     */
+    public static boolean isBinaryJournal(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Does this stream start with the signature of a binary Journal file? The
+     * stream must support mark and reset; it is left where it was.
+     */
+    public static boolean isBinaryJournal(InputStream in) throws IOException {
+        in.mark(4);
+        try {
+            return new DataInputStream(in).readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.reset();
+        }
+    }
+
+    private final DataInputStream in;
+
+    private final String name;
+
+    private final JournalContentStore[] contentStores;
+
+    private final CRC32 crc = new CRC32();
+
+    private final List<String> contentDigests = new ArrayList<String>();
+
+    /** How far into the file we have read. */
+    private long offset;
+
+    /** A record that has been read, but not yet used. */
+    private DataInputStream nextRecord;
+
+    private byte nextRecordType;
+
+    private String repositoryHash;
+
+    private Date timestamp;
+
+    /**
+     * @param in
+     *        the Journal file. It should be buffered.
+     * @param name
+     *        the name of the Journal file, for messages.
+     * @param contentStores
+     *        where to look for content files.
+     */
+    public BinaryJournalInput(InputStream in,
+                              String name,
+                              JournalContentStore... contentStores) {
+        this.in = new DataInputStream(in);
+        this.name = name;
+        this.contentStores = contentStores;
+    }
+
+    /**
+     * Read the file signature and the header record. This must be called
+     * before anything else.
+     */
+    public void readHeader() throws JournalException {
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new JournalException("Journal file '" + name
+                        + "' is not a binary Journal file.");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new JournalException("Journal file '" + name
+                        + "' has unsupported format version " + version);
+            }
+            offset = 8;
+        } catch (EOFException e) {
+            throw new JournalException("Journal file '" + name
+                    + "' is truncated.");
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+
+        DataInputStream record = readRecord(RECORD_HEADER);
+        try {
+            repositoryHash = readString(record);
+            timestamp = new Date(record.readLong());
+        } catch (IOException e) {
+            throw getBadRecordException(e);
+        }
+    }
+
+    /**
+     * The repository hash from the header, which may be null.
+     */
+    public String getRepositoryHash() {
+        return repositoryHash;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Is there another entry in the file, or only the trailer?
+     *
+     * @throws JournalException
+     *         if the file ends without a trailer, or is damaged.
+     */
+    public boolean hasNextEntry() throws JournalException {
+        if (nextRecord == null) {
+            nextRecord = readRecord();
+        }
+        if (nextRecordType == RECORD_ENTRY) {
+            return true;
+        } else if (nextRecordType == RECORD_TRAILER) {
+            return false;
+        } else {
+            throw new JournalException("Unexpected record type "
+                    + nextRecordType + " at offset " + offset
+                    + " of journal file '" + name + "'");
+        }
+    }
+
+    /**
+     * Read the next entry.
+     *
+     * @return the entry, or null if there are no more.
+     */
+    public ConsumerJournalEntry readEntry() throws JournalException {
+        if (!hasNextEntry()) {
+            return null;
+        }
+        DataInputStream record = nextRecord;
+        nextRecord = null;
+        try {
+            String methodName = readString(record);
+            JournalEntryContext context = readContext(record);
+            ConsumerJournalEntry journalEntry =
+                    new ConsumerJournalEntry(methodName, context);
+            readArguments(record, journalEntry);
+            return journalEntry;
+        } catch (IOException e) {
+            throw getBadRecordException(e);
+        }
+    }
+
+    /**
+     * The digests of the content files referred to by the entries read so far.
+     */
+    public List<String> getContentDigests() {
+        return Collections.unmodifiableList(contentDigests);
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private DataInputStream readRecord(byte expectedType)
+            throws JournalException {
+        DataInputStream record = readRecord();
+        if (nextRecordType != expectedType) {
+            throw new JournalException("Expecting record type "
+                    + expectedType + " but found " + nextRecordType
+                    + " at offset " + offset + " of journal file '" + name
+                    + "'");
+        }
+        return record;
+    }
+
+    /**
+     * Read a record, check its CRC, and note its type.
+     */
+    private DataInputStream readRecord() throws JournalException {
+        try {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                throw new JournalException("Journal file '" + name
+                        + "' ends at offset " + offset
+                        + " without a trailer.");
+            }
+            if (length < 1 || length > MAX_RECORD_LENGTH) {
+                throw new JournalException("Invalid record length " + length
+                        + " at offset " + offset + " of journal file '"
+                        + name + "'");
+            }
+            int expectedCrc = in.readInt();
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            crc.reset();
+            crc.update(bytes);
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new JournalException("CRC mismatch in record at offset "
+                        + offset + " of journal file '" + name + "'");
+            }
+            offset += 8 + length;
+            nextRecordType = bytes[0];
+            return new DataInputStream(new ByteArrayInputStream(bytes,
+                                                                1,
+                                                                length - 1));
+        } catch (EOFException e) {
+            throw new JournalException("Journal file '" + name
+                    + "' is truncated at offset " + offset);
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    private JournalEntryContext readContext(DataInputStream record)
+            throws IOException, JournalException {
+        JournalEntryContext context = new JournalEntryContext();
+        String passwordType = readString(record);
+        String passwordCipher = readString(record);
+        context.setNoOp(record.readBoolean());
+        context.setNow(new Date(record.readLong()));
+        context.setEnvironmentAttributes(readMultiMap(record));
+        context.setSubjectAttributes(readMultiMap(record));
+        context.setActionAttributes(readMultiMap(record));
+        context.setResourceAttributes(readMultiMap(record));
+        context.setRecoveryAttributes(readMultiMap(record));
+
+        String key = JournalHelper.formatDate(context.now());
+        context.setPassword(PasswordCipher.decipher(key,
+                                                    passwordCipher,
+                                                    passwordType));
+        return context;
+    }
+
+    private MultiValueMap readMultiMap(DataInputStream record)
+            throws IOException, JournalException {
+        MultiValueMap map = new MultiValueMap();
+        int count = record.readInt();
+        for (int i = 0; i < count; i++) {
+            String key = readString(record);
+            String[] values = readStringArray(record);
+            try {
+                map.set(key, values);
+            } catch (Exception e) {
+                // totally bogus Exception here.
+                throw new JournalException(e);
+            }
+        }
+        return map;
+    }
+
+    private void readArguments(DataInputStream record,
+                               ConsumerJournalEntry journalEntry)
+            throws IOException, JournalException {
+        int count = record.readInt();
+        for (int i = 0; i < count; i++) {
+            String argName = readString(record);
+            byte argType = record.readByte();
+            Object value;
+            if (argType == ARGUMENT_NULL) {
+                value = null;
+            } else if (argType == ARGUMENT_STRING) {
+                value = readString(record);
+            } else if (argType == ARGUMENT_STRINGARRAY) {
+                value = readStringArray(record);
+            } else if (argType == ARGUMENT_INTEGER) {
+                value = Integer.valueOf(record.readInt());
+            } else if (argType == ARGUMENT_BOOLEAN) {
+                value = Boolean.valueOf(record.readBoolean());
+            } else if (argType == ARGUMENT_DATE) {
+                value = new Date(record.readLong());
+            } else if (argType == ARGUMENT_STREAM) {
+                value = readStreamArgument(record);
+            } else if (argType == ARGUMENT_CONTENT) {
+                value = readContentArgument(record, journalEntry, argName);
+            } else {
+                throw new JournalException("Unknown argument type: name='"
+                        + argName + "', type='" + argType + "'");
+            }
+            journalEntry.addArgument(argName, value);
+        }
+    }
+
+    /**
+     * A small stream argument is in the record. Write it to a temp file, so
+     * it can be presented to the management method as an InputStream again.
+     */
+    private File readStreamArgument(DataInputStream record)
+            throws IOException {
+        byte[] bytes = new byte[record.readInt()];
+        record.readFully(bytes);
+        File tempFile = JournalHelper.createTempFile();
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return tempFile;
+    }
+
+    /**
+     * A large stream argument is in a content file. The file is not a temp
+     * file, so it is left alone when the entry is closed.
+     */
+    private File readContentArgument(DataInputStream record,
+                                     ConsumerJournalEntry journalEntry,
+                                     String argName) throws IOException,
+            JournalException {
+        String digest = readString(record);
+        long length = record.readLong();
+        for (JournalContentStore contentStore : contentStores) {
+            File contentFile = contentStore.get(digest);
+            if (contentFile != null) {
+                if (contentFile.length() != length) {
+                    throw new JournalException("Content file '"
+                            + contentFile.getPath() + "' for '" + argName
+                            + "' argument of '" + journalEntry.getMethodName()
+                            + "' should be " + length + " bytes, but is "
+                            + contentFile.length());
+                }
+                contentDigests.add(digest);
+                return contentFile;
+            }
+        }
+        throw new JournalException("Content file '" + digest + "' for '"
+                + argName + "' argument of '" + journalEntry.getMethodName()
+                + "' in journal file '" + name + "' was not found.");
+    }
+
+    private JournalException getBadRecordException(IOException e) {
+        return new JournalException("Invalid record ending at offset "
+                + offset + " of journal file '" + name + "'", e);
+    }
+
+    private static String[] readStringArray(DataInputStream record)
+            throws IOException {
+        String[] values = new String[record.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readString(record);
+        }
+        return values;
+    }
+
+    private static String readString(DataInputStream record)
+            throws IOException {
+        int length = record.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+}
@@ -0,0 +1,262 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.fcrepo.server.MultiValueMap;
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.JournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.fcrepo.server.journal.helpers.PasswordCipher;
+
+/**
+ * Writes a Journal file in the binary format.
+ * <p>
+ * Each record is assembled in memory, and written with its length and CRC in
+ * front of it. Stream arguments no larger than the inline limit are written
+ * into the record. Larger ones are added to the content store, and only their
+ * digest and length are written.
+ */
+public class BinaryJournalOutput
+        implements BinaryJournalConstants, JournalConstants {
+
+    private final DataOutputStream out;
+
+    private final JournalContentStore contentStore;
+
+    private final long inlineContentLimit;
+
+    private final ByteArrayOutputStream recordBuffer =
+            new ByteArrayOutputStream();
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * @param out
+     *        where to write the Journal file. It should be buffered.
+     * @param contentStore
+     *        where to write stream arguments larger than the inline limit.
+     * @param inlineContentLimit
+     *        the size, in bytes, of the largest stream argument to write into
+     *        the Journal file itself.
+     */
+    public BinaryJournalOutput(OutputStream out,
+                               JournalContentStore contentStore,
+                               long inlineContentLimit) {
+        if (inlineContentLimit < 0
+                || inlineContentLimit > MAX_INLINE_CONTENT_LENGTH) {
+            throw new IllegalArgumentException("inlineContentLimit must be "
+                    + "between 0 and " + MAX_INLINE_CONTENT_LENGTH);
+        }
+        this.out = new DataOutputStream(out);
+        this.contentStore = contentStore;
+        this.inlineContentLimit = inlineContentLimit;
+    }
+
+    /**
+     * Write the file signature and the header record.
+     */
+    public void writeHeader(String repositoryHash, Date currentDate)
+            throws JournalException {
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            DataOutputStream record = startRecord(RECORD_HEADER);
+            writeString(record, repositoryHash);
+            record.writeLong(currentDate.getTime());
+            endRecord();
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * Write an entry record, and flush it.
+     */
+    public void writeEntry(JournalEntry journalEntry) throws JournalException {
+        try {
+            DataOutputStream record = startRecord(RECORD_ENTRY);
+            writeString(record, journalEntry.getMethodName());
+            writeContext(record, journalEntry.getContext());
+            writeArguments(record, journalEntry.getArgumentsMap());
+            endRecord();
+            out.flush();
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * Write the trailer record, so a reader knows that the file is complete.
+     */
+    public void writeTrailer() throws JournalException {
+        try {
+            startRecord(RECORD_TRAILER);
+            endRecord();
+            out.flush();
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private DataOutputStream startRecord(byte recordType) throws IOException {
+        recordBuffer.reset();
+        DataOutputStream record = new DataOutputStream(recordBuffer);
+        record.writeByte(recordType);
+        return record;
+    }
+
+    private void endRecord() throws IOException, JournalException {
+        byte[] bytes = recordBuffer.toByteArray();
+        if (bytes.length > MAX_RECORD_LENGTH) {
+            throw new JournalException("Journal entry is too large: "
+                    + bytes.length + " bytes");
+        }
+        crc.reset();
+        crc.update(bytes);
+        out.writeInt(bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bytes);
+    }
+
+    /**
+     * The password is enciphered, as it is in the XML format.
+     */
+    private void writeContext(DataOutputStream record,
+                              JournalEntryContext context) throws IOException {
+        String password = context.getPassword();
+        if (password == null) {
+            password = "";
+        }
+        String key = JournalHelper.formatDate(context.now());
+        writeString(record, PASSWORD_CIPHER_TYPE);
+        writeString(record, PasswordCipher.encipher(key, password));
+        record.writeBoolean(context.getNoOp());
+        record.writeLong(context.now().getTime());
+
+        writeMultiMap(record, context.getEnvironmentAttributes());
+        writeMultiMap(record, context.getSubjectAttributes());
+        writeMultiMap(record, context.getActionAttributes());
+        writeMultiMap(record, context.getResourceAttributes());
+        writeMultiMap(record, context.getRecoveryAttributes());
+    }
+
+    private void writeMultiMap(DataOutputStream record, MultiValueMap map)
+            throws IOException {
+        int count = 0;
+        for (Iterator<?> names = map.names(); names.hasNext(); names.next()) {
+            count++;
+        }
+        record.writeInt(count);
+        for (Iterator<?> names = map.names(); names.hasNext();) {
+            String name = (String) names.next();
+            writeString(record, name);
+            writeStringArray(record, map.getStringArray(name));
+        }
+    }
+
+    private void writeArguments(DataOutputStream record,
+                                Map<String, Object> arguments)
+            throws IOException, JournalException {
+        record.writeInt(arguments.size());
+        for (Map.Entry<String, Object> argument : arguments.entrySet()) {
+            String key = argument.getKey();
+            Object value = argument.getValue();
+            writeString(record, key);
+            if (value == null) {
+                record.writeByte(ARGUMENT_NULL);
+            } else if (value instanceof String) {
+                record.writeByte(ARGUMENT_STRING);
+                writeString(record, (String) value);
+            } else if (value instanceof String[]) {
+                record.writeByte(ARGUMENT_STRINGARRAY);
+                writeStringArray(record, (String[]) value);
+            } else if (value instanceof Date) {
+                record.writeByte(ARGUMENT_DATE);
+                record.writeLong(((Date) value).getTime());
+            } else if (value instanceof Integer) {
+                record.writeByte(ARGUMENT_INTEGER);
+                record.writeInt(((Integer) value).intValue());
+            } else if (value instanceof Boolean) {
+                record.writeByte(ARGUMENT_BOOLEAN);
+                record.writeBoolean(((Boolean) value).booleanValue());
+            } else if (value instanceof File) {
+                writeFileArgument(record, (File) value);
+            } else {
+                throw new JournalException("Unknown argument type: name='"
+                        + key + "', type='" + value.getClass().getName() + "'");
+            }
+        }
+    }
+
+    /**
+     * A small stream argument is copied into the record. A large one is
+     * copied to the content store, and referred to by its digest.
+     */
+    private void writeFileArgument(DataOutputStream record, File file)
+            throws IOException {
+        long length = file.length();
+        if (length <= inlineContentLimit) {
+            byte[] bytes = new byte[(int) length];
+            DataInputStream in =
+                    new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+            record.writeByte(ARGUMENT_STREAM);
+            record.writeInt(bytes.length);
+            record.write(bytes);
+        } else {
+            String digest = contentStore.add(file);
+            record.writeByte(ARGUMENT_CONTENT);
+            writeString(record, digest);
+            record.writeLong(length);
+        }
+    }
+
+    private static void writeStringArray(DataOutputStream record,
+                                         String[] values) throws IOException {
+        record.writeInt(values.length);
+        for (String value : values) {
+            writeString(record, value);
+        }
+    }
+
+    /**
+     * Strings are written as UTF-8 bytes after their length, with a length of
+     * -1 for null. This avoids the 64K limit of writeUTF.
+     */
+    static void writeString(DataOutputStream record, String value)
+            throws IOException {
+        if (value == null) {
+            record.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes("UTF-8");
+            record.writeInt(bytes.length);
+            record.write(bytes);
+        }
+    }
+
+}
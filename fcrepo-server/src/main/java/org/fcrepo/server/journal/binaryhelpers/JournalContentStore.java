@@ -0,0 +1,167 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.fcrepo.server.journal.helpers.FileMovingUtil;
+
+/**
+ * A directory of content files for binary Journal files, each named by the
+ * SHA-256 digest of its bytes.
+ * <p>
+ * Content files are written under a temporary name that starts with an
+ * underscore, and renamed when complete, so a reader never sees a partial
+ * file. Content that is already in the directory is not written again.
+ * <p>
+ * If the store syncs, each content file is forced to the disk before it is
+ * renamed, so a Journal entry that has been synced never refers to content
+ * that was lost in a crash.
+ */
+public class JournalContentStore
+        implements BinaryJournalConstants {
+
+    private final File directory;
+
+    private final boolean sync;
+
+    public JournalContentStore(File directory) {
+        this(directory, false);
+    }
+
+    /**
+     * @param sync
+     *        should each content file be synced before it is renamed?
+     */
+    public JournalContentStore(File directory, boolean sync) {
+        this.directory = directory;
+        this.sync = sync;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Copy a file into the store, unless its content is already there.
+     *
+     * @return the digest of the content.
+     */
+    public String add(File file) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create content directory '"
+                    + directory.getPath() + "'");
+        }
+
+        MessageDigest md = getMessageDigest();
+        File tempFile = File.createTempFile("_content", ".tmp", directory);
+        try {
+            InputStream in =
+                    new DigestInputStream(new FileInputStream(file), md);
+            try {
+                FileOutputStream out = new FileOutputStream(tempFile);
+                try {
+                    byte[] buffer = new byte[65536];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                    if (sync) {
+                        out.getFD().sync();
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            String digest = toHex(md.digest());
+            File contentFile = new File(directory, digest);
+            if (!contentFile.exists() && !tempFile.renameTo(contentFile)) {
+                throw new IOException("Unable to rename '" + tempFile.getPath()
+                        + "' to '" + contentFile.getPath() + "'");
+            }
+            return digest;
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Get the content file with the given digest.
+     *
+     * @return the file, or null if it isn't in the store.
+     * @throws IOException
+     *         if the digest is not a valid one.
+     */
+    public File get(String digest) throws IOException {
+        checkDigest(digest);
+        File contentFile = new File(directory, digest);
+        return contentFile.isFile() ? contentFile : null;
+    }
+
+    /**
+     * Move the content file with the given digest to another store. If the
+     * other store has it already, just remove it from this one. If this one
+     * doesn't have it, do nothing.
+     */
+    public void moveTo(String digest, JournalContentStore other)
+            throws IOException {
+        File contentFile = get(digest);
+        if (contentFile == null) {
+            return;
+        }
+        if (other.get(digest) != null) {
+            contentFile.delete();
+            return;
+        }
+        if (!other.directory.isDirectory() && !other.directory.mkdirs()) {
+            throw new IOException("Unable to create content directory '"
+                    + other.directory.getPath() + "'");
+        }
+        FileMovingUtil.move(contentFile, new File(other.directory, digest));
+    }
+
+    /**
+     * A digest names a file, so be sure it can't name one anywhere else.
+     */
+    private static void checkDigest(String digest) throws IOException {
+        if (digest == null || !digest.matches("[0-9a-f]{64}")) {
+            throw new IOException("Invalid content digest: '" + digest + "'");
+        }
+    }
+
+    private static MessageDigest getMessageDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "JournalContentStore[" + directory.getPath() + "]";
+    }
+
+}
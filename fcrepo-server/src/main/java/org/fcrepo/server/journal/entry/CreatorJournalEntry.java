@@ -49,18 +49,22 @@ public class CreatorJournalEntry
      * block, we can be confident that the previous one had completed before the
      * current one started.
      * <p>
-     * There might be a way to enforce the synchronization at a lower level,
-     * thus increasing throughput, but we haven't explored it yet.
+     * The writer may only queue the entry within the synchronized block, and
+     * make it durable later, together with other entries. In that case, we
+     * wait for it outside of the block, so the next operation can proceed
+     * while we wait.
      */
     public Object invokeMethod(ManagementDelegate delegate, JournalWriter writer)
             throws ServerException, JournalException {
+        Object result;
         synchronized (JournalWriter.SYNCHRONIZER) {
             JournalOperatingMode.enforceCurrentMode();
             writer.prepareToWriteJournalEntry();
-            Object result = super.getMethod().invoke(delegate);
+            result = super.getMethod().invoke(delegate);
             writer.writeJournalEntry(this);
-            return result;
         }
+        writer.awaitJournalEntry(this);
+        return result;
     }
 
     /**
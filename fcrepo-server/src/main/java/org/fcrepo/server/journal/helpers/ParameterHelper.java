@@ -185,4 +185,22 @@ public class ParameterHelper
         return age;
     }
 
+    /**
+     * Get the number of threads that a consumer should replay journal entries
+     * on (or let it default to 1, which replays them one at a time).
+     */
+    public static int parseParametersForReplayThreads(Map<String, String> parameters)
+            throws JournalException {
+        String threadsString =
+                getOptionalStringParameter(parameters,
+                                           PARAMETER_JOURNAL_REPLAY_THREADS,
+                                           DEFAULT_REPLAY_THREADS);
+        if (!threadsString.matches("[1-9][0-9]{0,3}")) {
+            throw new JournalException("Parameter '"
+                    + PARAMETER_JOURNAL_REPLAY_THREADS
+                    + "' must be a positive integer number of threads");
+        }
+        return Integer.parseInt(threadsString);
+    }
+
 }
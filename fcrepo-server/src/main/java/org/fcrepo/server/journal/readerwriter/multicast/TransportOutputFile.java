@@ -34,6 +34,9 @@ public class TransportOutputFile {
     private static final Logger logger =
             LoggerFactory.getLogger(TransportOutputFile.class);
 
+    /** The prefix of a file that is still being written. */
+    public static final String IN_PROGRESS_PREFIX = "_";
+
     private enum State {
         READY, OPEN, CLOSED
     };
@@ -62,7 +65,7 @@ public class TransportOutputFile {
             throw new IOException("File " + file + " already exists.");
         }
 
-        tempFile = new File(directory, ("_" + name));
+        tempFile = new File(directory, (IN_PROGRESS_PREFIX + name));
         if (tempFile.exists()) {
             throw new IOException("File " + tempFile + " already exists.");
         }
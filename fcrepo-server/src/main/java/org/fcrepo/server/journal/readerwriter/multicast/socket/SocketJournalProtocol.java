@@ -0,0 +1,49 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.journal.readerwriter.multicast.socket;
+
+/**
+ * The messages between a {@link SocketTransport} and a
+ * {@link SocketJournalReceiver}.
+ * <p>
+ * The transport starts the connection with {@link #MAGIC} and
+ * {@link #PROTOCOL_VERSION}. Then it sends frames: a type byte, a sequence
+ * number (long), a payload length (int) and the payload. Sequence numbers
+ * start at 1 and increase by 1 with each frame. If the payload was compressed
+ * with a {@link java.util.zip.Deflater}, the type has the
+ * {@link #FLAG_COMPRESSED} bit set.
+ * <p>
+ * The receiver answers with {@link #ACK} frames: the type byte and the
+ * sequence number of the last frame that it has written to its file. It
+ * doesn't wait for the transport, and it doesn't acknowledge every frame; an
+ * acknowledgement covers all of the frames before it.
+ */
+public interface SocketJournalProtocol {
+
+    int MAGIC = 0x464A5354;
+
+    int PROTOCOL_VERSION = 1;
+
+    /** Open a journal file: the repository hash and the filename, as UTF. */
+    byte OPEN_FILE = 1;
+
+    /** Journal text, in UTF-8. */
+    byte WRITE_TEXT = 2;
+
+    /** Close the journal file. No payload. */
+    byte CLOSE_FILE = 3;
+
+    /** From the receiver: all frames up to this sequence number are written. */
+    byte ACK = 4;
+
+    byte FLAG_COMPRESSED = (byte) 0x80;
+
+    /**
+     * The largest payload that the receiver accepts, before or after it is
+     * inflated. A longer frame means that the stream is corrupt.
+     */
+    int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+}
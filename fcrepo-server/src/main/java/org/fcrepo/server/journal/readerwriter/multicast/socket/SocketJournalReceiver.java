@@ -0,0 +1,360 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.journal.readerwriter.multicast.socket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.fcrepo.server.journal.readerwriter.multicast.TransportOutputFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A free-standing server that receives journal files from a
+ * {@link SocketTransport} and writes them to a specified directory.
+ * <p>
+ * Each connection is served by a thread of its own. The text of each frame is
+ * written to the current file as it arrives; when there are no more frames
+ * waiting, the file is flushed and the frames are acknowledged. If a
+ * connection ends while a file is open, the file keeps its "in progress"
+ * name. Until somebody deals with that file, the receiver refuses to open
+ * another, since the journal would be missing the rest of the incomplete one.
+ * <p>
+ * Usage: <code>SocketJournalReceiver &lt;directory&gt; &lt;port&gt;</code>
+ */
+public class SocketJournalReceiver
+        implements SocketJournalProtocol {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(SocketJournalReceiver.class);
+
+    /** The directory for journal files. */
+    private final File directory;
+
+    private final int requestedPort;
+
+    private ServerSocket serverSocket;
+
+    private volatile boolean stopped;
+
+    /**
+     * @param port
+     *        the port to listen on, or 0 for any free port.
+     */
+    public SocketJournalReceiver(File directory, int port) {
+        this.directory = directory;
+        requestedPort = port;
+    }
+
+    /**
+     * Start listening for connections.
+     */
+    public synchronized void start() throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException("Journal directory '" + directory
+                    + "' does not exist.");
+        }
+        serverSocket = new ServerSocket(requestedPort);
+        Thread thread = new Thread(new Acceptor(), "SocketJournalReceiver");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("SocketJournalReceiver is listening on port "
+                + serverSocket.getLocalPort() + " - journal directory is '"
+                + directory.getAbsolutePath() + "'");
+    }
+
+    /**
+     * The port that we are listening on.
+     */
+    public synchronized int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stop accepting connections. Connections that are already open are
+     * served until the transport closes them.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close the server socket", e);
+            }
+        }
+    }
+
+    /**
+     * Accepts connections until the receiver is stopped.
+     */
+    private class Acceptor
+            implements Runnable {
+
+        public void run() {
+            while (!stopped) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread thread =
+                            new Thread(new Connection(socket),
+                                       "SocketJournalReceiver-"
+                                               + socket.getRemoteSocketAddress());
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    if (!stopped) {
+                        logger.error("Failed to accept a connection", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the frames from one transport, and writes the journal files.
+     */
+    private class Connection
+            implements Runnable {
+
+        private final Socket socket;
+
+        private final Inflater inflater = new Inflater();
+
+        /** The journal file that is open, or null if no file is open. */
+        private TransportOutputFile journalFile;
+
+        private Writer writer;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                DataInputStream in =
+                        new DataInputStream(new BufferedInputStream(socket
+                                .getInputStream()));
+                DataOutputStream out =
+                        new DataOutputStream(new BufferedOutputStream(socket
+                                .getOutputStream()));
+                readGreeting(in);
+
+                while (true) {
+                    byte type;
+                    try {
+                        type = in.readByte();
+                    } catch (EOFException e) {
+                        logger.debug("Transport closed the connection");
+                        return;
+                    }
+                    long sequence = in.readLong();
+                    byte[] payload = new byte[readPayloadLength(in)];
+                    in.readFully(payload);
+                    if ((type & FLAG_COMPRESSED) != 0) {
+                        type &= ~FLAG_COMPRESSED;
+                        payload = inflate(payload);
+                    }
+                    handleFrame(type, payload);
+
+                    if (in.available() == 0) {
+                        if (writer != null) {
+                            writer.flush();
+                        }
+                        out.writeByte(ACK);
+                        out.writeLong(sequence);
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Journal connection failed", e);
+            } finally {
+                abandonFile();
+                inflater.end();
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    logger.debug("Failed to close the socket", e);
+                }
+            }
+        }
+
+        private void readGreeting(DataInputStream in) throws IOException {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a journal transport");
+            }
+            int version = in.readInt();
+            if (version != PROTOCOL_VERSION) {
+                throw new IOException("Unsupported protocol version: "
+                        + version);
+            }
+        }
+
+        /**
+         * The length comes from the network, so don't trust it with an
+         * allocation until it has been checked.
+         */
+        private int readPayloadLength(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0 || length > MAX_FRAME_SIZE) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+            return length;
+        }
+
+        private void handleFrame(byte type, byte[] payload) throws IOException {
+            switch (type) {
+                case OPEN_FILE:
+                    openFile(payload);
+                    break;
+                case WRITE_TEXT:
+                    if (writer == null) {
+                        throw new IOException("Attempting to write when no "
+                                + "file is open.");
+                    }
+                    writer.write(new String(payload, "UTF-8"));
+                    break;
+                case CLOSE_FILE:
+                    closeFile();
+                    break;
+                default:
+                    throw new IOException("Unknown frame type: " + type);
+            }
+        }
+
+        private void openFile(byte[] payload) throws IOException {
+            DataInputStream data =
+                    new DataInputStream(new ByteArrayInputStream(payload));
+            String repositoryHash = data.readUTF();
+            String filename = data.readUTF();
+            if (journalFile != null) {
+                throw new IOException("Attempting to open file '" + filename
+                        + "' when file '" + journalFile.getName()
+                        + "' has not been closed.");
+            }
+            File incomplete = findIncompleteFile();
+            if (incomplete != null) {
+                throw new IOException("Refusing to open file '" + filename
+                        + "' while '" + incomplete.getName()
+                        + "' is incomplete.");
+            }
+            journalFile = new TransportOutputFile(directory, filename);
+            writer = journalFile.open();
+            logger.debug("opened file '" + filename + "', hash is '"
+                    + repositoryHash + "'");
+        }
+
+        private void closeFile() throws IOException {
+            if (journalFile == null) {
+                throw new IOException("Attempting to close a file "
+                        + "when no file is open.");
+            }
+            logger.debug("closing file: '" + journalFile.getName() + "'");
+            journalFile.close();
+            journalFile = null;
+            writer = null;
+        }
+
+        private File findIncompleteFile() {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName()
+                            .startsWith(TransportOutputFile.IN_PROGRESS_PREFIX)) {
+                        return file;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * The transport has gone; close the file, but don't rename it, since
+         * it is incomplete.
+         */
+        private void abandonFile() {
+            if (journalFile == null) {
+                return;
+            }
+            logger.warn("Connection closed before file '"
+                    + journalFile.getName() + "' was complete");
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close '" + journalFile.getName() + "'",
+                            e);
+            }
+            journalFile = null;
+            writer = null;
+        }
+
+        private byte[] inflate(byte[] compressed) throws IOException {
+            inflater.reset();
+            inflater.setInput(compressed);
+            ByteArrayOutputStream buffer =
+                    new ByteArrayOutputStream(Math.min(compressed.length * 4,
+                                                       MAX_FRAME_SIZE));
+            byte[] chunk = new byte[8192];
+            try {
+                while (!inflater.finished()) {
+                    int count = inflater.inflate(chunk);
+                    if (count == 0 && inflater.needsInput()) {
+                        throw new IOException("Compressed frame is truncated");
+                    }
+                    if (buffer.size() + count > MAX_FRAME_SIZE) {
+                        throw new IOException("Compressed frame is longer "
+                                + "than " + MAX_FRAME_SIZE + " bytes");
+                    }
+                    buffer.write(chunk, 0, count);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Compressed frame is corrupt: "
+                        + e.getMessage());
+            }
+            return buffer.toByteArray();
+        }
+    }
+
+    /**
+     * Main routine: start the receiver, and keep it running.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: SocketJournalReceiver "
+                    + "<directory> <port>");
+            return;
+        }
+        try {
+            SocketJournalReceiver receiver =
+                    new SocketJournalReceiver(new File(args[0]), Integer
+                            .parseInt(args[1]));
+            receiver.start();
+            while (true) {
+                Thread.sleep(60000);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("SocketJournalReceiver failed: invalid port '"
+                    + args[1] + "'");
+        } catch (Exception e) {
+            System.out.println("SocketJournalReceiver failed: ");
+            e.printStackTrace();
+        }
+    }
+}
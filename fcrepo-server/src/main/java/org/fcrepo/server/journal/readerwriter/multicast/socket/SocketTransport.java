@@ -0,0 +1,335 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.journal.readerwriter.multicast.socket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+
+import java.util.Date;
+import java.util.Map;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import javanet.staxutils.IndentingXMLEventWriter;
+
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.helpers.ParameterHelper;
+import org.fcrepo.server.journal.readerwriter.multicast.Transport;
+import org.fcrepo.server.journal.readerwriter.multicast.TransportParent;
+
+
+/**
+ * <p>
+ * Streams Journal files to a {@link SocketJournalReceiver} over a TCP
+ * connection. Requires parameters for the name of the receiving host and the
+ * port number. Also accepts optional parameters for the size of each frame,
+ * the size of the window, compression, the connection timeout and the
+ * acknowledgement timeout.
+ * </p>
+ * <p>
+ * Journal entries are queued and sent by another thread, and the receiver
+ * acknowledges them as it writes them, so the journal doesn't wait for the
+ * network or the receiver unless a window's worth of text is waiting to be
+ * sent. If the receiver acknowledges nothing for the acknowledgement timeout
+ * while the journal waits, it is detached: the write that was waiting fails,
+ * and nothing more is sent. The receiver keeps the incomplete file under its
+ * "in progress" name, and the follower's copy of the journal is missing
+ * everything since then, so the transport doesn't connect again. Once the
+ * follower has been brought up to date and the incomplete file removed,
+ * restarting the server connects again.
+ * </p>
+ * <p>
+ * If the connection can't be made when a file is opened, the open fails, and
+ * the file is discarded as it is written.
+ * </p>
+ */
+public class SocketTransport
+        extends Transport
+        implements SocketJournalProtocol {
+
+    public static final String PARAMETER_HOST_NAME = "hostName";
+
+    public static final String PARAMETER_PORT_NUMBER = "port";
+
+    /** The number of characters of journal text in each frame. */
+    public static final String PARAMETER_BUFFER_SIZE = "bufferSize";
+
+    /** The number of bytes of journal text that may be unacknowledged. */
+    public static final String PARAMETER_WINDOW_SIZE = "windowSize";
+
+    public static final String PARAMETER_COMPRESS = "compress";
+
+    /** Milliseconds to wait for a connection. */
+    public static final String PARAMETER_CONNECT_TIMEOUT = "connectTimeout";
+
+    /**
+     * Milliseconds that the journal waits for an acknowledgement when the
+     * window is full, before it detaches the receiver.
+     */
+    public static final String PARAMETER_ACK_TIMEOUT = "ackTimeout";
+
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    /**
+     * A character takes at most 3 bytes of UTF-8, so a frame of this many
+     * characters fits in {@link #MAX_FRAME_SIZE}, even if deflating it adds a
+     * little.
+     */
+    public static final int MAX_BUFFER_SIZE = MAX_FRAME_SIZE / 4;
+
+    public static final int DEFAULT_WINDOW_SIZE = 8 * 1024 * 1024;
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    public static final int DEFAULT_ACK_TIMEOUT = 10000;
+
+    /** Milliseconds to wait for acknowledgements at shutdown. */
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+
+    private final String host;
+
+    private final int port;
+
+    private final int bufferSize;
+
+    private final int windowSize;
+
+    private final boolean compress;
+
+    private final int connectTimeout;
+
+    private final int ackTimeout;
+
+    /** The connection to the receiver, or null if there is none. */
+    private SocketTransportConnection connection;
+
+    private Writer writer;
+
+    private XMLEventWriter xmlWriter;
+
+    public SocketTransport(Map<String, String> parameters,
+                           boolean crucial,
+                           TransportParent parent)
+            throws JournalException {
+        super(parameters, crucial, parent);
+        host = getRequiredParameter(parameters, PARAMETER_HOST_NAME);
+        port =
+                parsePositiveInteger(parameters,
+                                     PARAMETER_PORT_NUMBER,
+                                     getRequiredParameter(parameters,
+                                                          PARAMETER_PORT_NUMBER));
+        bufferSize =
+                parsePositiveInteger(parameters,
+                                     PARAMETER_BUFFER_SIZE,
+                                     String.valueOf(DEFAULT_BUFFER_SIZE));
+        if (bufferSize > MAX_BUFFER_SIZE) {
+            throw new JournalException("Invalid '" + PARAMETER_BUFFER_SIZE
+                    + "' parameter: " + bufferSize + " is more than "
+                    + MAX_BUFFER_SIZE);
+        }
+        windowSize =
+                parsePositiveInteger(parameters,
+                                     PARAMETER_WINDOW_SIZE,
+                                     String.valueOf(DEFAULT_WINDOW_SIZE));
+        connectTimeout =
+                parsePositiveInteger(parameters,
+                                     PARAMETER_CONNECT_TIMEOUT,
+                                     String.valueOf(DEFAULT_CONNECT_TIMEOUT));
+        ackTimeout =
+                parsePositiveInteger(parameters,
+                                     PARAMETER_ACK_TIMEOUT,
+                                     String.valueOf(DEFAULT_ACK_TIMEOUT));
+        compress =
+                ParameterHelper.getOptionalBooleanParameter(parameters,
+                                                            PARAMETER_COMPRESS,
+                                                            false);
+    }
+
+    private int parsePositiveInteger(Map<String, String> parameters,
+                                     String parameter,
+                                     String defaultValue)
+            throws JournalException {
+        String value = parameters.get(parameter);
+        if (value == null) {
+            value = defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // report it below.
+        }
+        throw new JournalException("Invalid '" + parameter + "' parameter: "
+                + value);
+    }
+
+    private String getRequiredParameter(Map<String, String> parameters,
+                                        String parameter)
+            throws JournalException {
+        if (!parameters.containsKey(parameter)) {
+            throw new JournalException("SocketTransport requires '"
+                    + parameter + "' parameter.");
+        }
+        return parameters.get(parameter);
+    }
+
+    /**
+     * check state, connect if not connected, send the open request, write the
+     * file opening, set state. If we can't connect, or the receiver has been
+     * detached, the file is open anyway, but everything written to it is
+     * discarded.
+     */
+    @Override
+    public void openFile(String repositoryHash,
+                         String filename,
+                         Date currentDate) throws JournalException {
+        super.testStateChange(State.FILE_OPEN);
+
+        JournalException problem = null;
+        try {
+            if (connection != null && connection.isDetached()) {
+                throw new IOException("The receiver was detached, and must "
+                        + "be brought up to date before the server is "
+                        + "restarted");
+            }
+            if (connection == null) {
+                connection =
+                        new SocketTransportConnection(host,
+                                                      port,
+                                                      connectTimeout,
+                                                      windowSize,
+                                                      ackTimeout,
+                                                      compress);
+            }
+            connection.send(OPEN_FILE, getOpenFilePayload(repositoryHash,
+                                                          filename));
+            writer = new SocketTransportWriter(connection, bufferSize);
+        } catch (IOException e) {
+            problem =
+                    new JournalException("Failed to open '" + filename
+                            + "' at the journal receiver on " + host + ":"
+                            + port, e);
+            writer = new DiscardingWriter();
+        }
+
+        try {
+            xmlWriter =
+                    new IndentingXMLEventWriter(XMLOutputFactory
+                            .newInstance().createXMLEventWriter(writer));
+            parent.writeDocumentHeader(xmlWriter, repositoryHash, currentDate);
+            super.setState(State.FILE_OPEN);
+        } catch (XMLStreamException e) {
+            throw new JournalException(e);
+        } catch (FactoryConfigurationError e) {
+            throw new JournalException(e);
+        }
+
+        if (problem != null) {
+            throw problem;
+        }
+    }
+
+    private byte[] getOpenFilePayload(String repositoryHash, String filename)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeUTF(repositoryHash);
+        data.writeUTF(filename);
+        data.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * check state, hand over to the writer
+     */
+    @Override
+    public XMLEventWriter getWriter() throws JournalException {
+        super.testWriterState();
+        return xmlWriter;
+    }
+
+    /**
+     * check state, write the file closing, close the writer, which sends the
+     * close request, set state. The state is set even if the receiver has
+     * failed, so the next file can be opened.
+     */
+    @Override
+    public void closeFile() throws JournalException {
+        super.testStateChange(State.FILE_CLOSED);
+        try {
+            parent.writeDocumentTrailer(xmlWriter);
+            xmlWriter.close();
+
+            /*
+             * SOME implementations of XMLWriter do not close all resources, so
+             * we need to close the writer manually just in case.
+             */
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new JournalException(e);
+        } catch (IOException e) {
+            throw new JournalException(e);
+        } finally {
+            super.setState(State.FILE_CLOSED);
+        }
+    }
+
+    /**
+     * check state, give the receiver a while to catch up, close the
+     * connection, set state. A redundant call is not an error, but requires no
+     * action.
+     */
+    @Override
+    public void shutdown() throws JournalException {
+        super.testStateChange(State.SHUTDOWN);
+        if (super.getState() != State.SHUTDOWN) {
+            if (connection != null) {
+                connection.close(SHUTDOWN_TIMEOUT);
+                connection = null;
+            }
+            super.setState(State.SHUTDOWN);
+        }
+    }
+
+    /** For testing: how far behind is the receiver? */
+    long getUnacknowledgedBytes() {
+        return connection == null ? 0 : connection.getUnacknowledgedBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "SocketTransport[host=" + host + ", port=" + port
+                + ", bufferSize=" + bufferSize + ", windowSize=" + windowSize
+                + ", ackTimeout=" + ackTimeout + ", compress=" + compress
+                + "]";
+    }
+
+    /**
+     * Takes the journal text when there is no receiver to send it to.
+     */
+    private static class DiscardingWriter
+            extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
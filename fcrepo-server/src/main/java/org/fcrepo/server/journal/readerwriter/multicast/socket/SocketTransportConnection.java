@@ -0,0 +1,418 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.journal.readerwriter.multicast.socket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import java.util.LinkedList;
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A connection from a {@link SocketTransport} to a
+ * {@link SocketJournalReceiver}.
+ * <p>
+ * Frames are queued by the thread that writes the journal, and sent by a
+ * sender thread, so a slow network or a slow receiver doesn't hold up the
+ * journal. Another thread reads the acknowledgements. The frames that have
+ * been sent but not acknowledged may hold no more than the window size; the
+ * sender waits for acknowledgements before sending more. The queue may hold
+ * no more than the window size either; when it is full, the journal waits for
+ * the sender. If the receiver acknowledges nothing for the acknowledgement
+ * timeout while the journal waits, the connection is detached: the frame is
+ * refused, the socket is closed, and every later frame is discarded. So a
+ * large entry only holds up the journal for as long as the receiver takes to
+ * write it.
+ * <p>
+ * If the connection fails on one of its own threads, it is detached in the
+ * same way, and the problem is reported by the next call to
+ * {@link #send(byte, byte[])}. Each problem is reported only once.
+ */
+class SocketTransportConnection
+        implements SocketJournalProtocol {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(SocketTransportConnection.class);
+
+    /** The bytes in a frame, besides the payload. */
+    private static final int FRAME_OVERHEAD = 13;
+
+    private final String receiverName;
+
+    private final Socket socket;
+
+    private final DataOutputStream out;
+
+    private final DataInputStream in;
+
+    private final long windowSize;
+
+    private final long ackTimeout;
+
+    private final boolean compress;
+
+    /** Frames that have not been sent yet; guarded by this. */
+    private final LinkedList<Frame> queued = new LinkedList<Frame>();
+
+    /** Frames that have been sent, but not acknowledged; guarded by this. */
+    private final LinkedList<Frame> inFlight = new LinkedList<Frame>();
+
+    /** The size of the queued frames; guarded by this. */
+    private long queuedBytes;
+
+    /** The size of the in-flight frames; guarded by this. */
+    private long inFlightBytes;
+
+    /**
+     * When the receiver last acknowledged something, or when there was last
+     * nothing to acknowledge; guarded by this.
+     */
+    private long lastProgress;
+
+    private long nextSequence = 1;
+
+    private boolean detached;
+
+    private boolean closing;
+
+    /** The reason for detaching, if it hasn't been reported yet. */
+    private IOException problem;
+
+    SocketTransportConnection(String host,
+                              int port,
+                              int connectTimeout,
+                              long windowSize,
+                              long ackTimeout,
+                              boolean compress)
+            throws IOException {
+        receiverName = host + ":" + port;
+        this.windowSize = windowSize;
+        this.ackTimeout = ackTimeout;
+        this.compress = compress;
+
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            out =
+                    new DataOutputStream(new BufferedOutputStream(socket
+                            .getOutputStream()));
+            in =
+                    new DataInputStream(new BufferedInputStream(socket
+                            .getInputStream()));
+            out.writeInt(MAGIC);
+            out.writeInt(PROTOCOL_VERSION);
+            out.flush();
+        } catch (IOException e) {
+            closeSocket();
+            throw e;
+        }
+
+        startThread(new Sender(), "SocketTransport-sender-" + receiverName);
+        startThread(new AcknowledgementReader(), "SocketTransport-acks-"
+                + receiverName);
+    }
+
+    /**
+     * Queue a frame to be sent, waiting while the queue is full. If the
+     * connection has been detached, discard the frame.
+     *
+     * @throws IOException
+     *         if the receiver stopped acknowledging while the queue was full,
+     *         or the connection has been detached for a reason that hasn't
+     *         been reported yet.
+     */
+    synchronized void send(byte type, byte[] payload) throws IOException {
+        long size = payload.length + FRAME_OVERHEAD;
+        while (!detached && !queued.isEmpty()
+                && queuedBytes + size > windowSize) {
+            long stalled = System.currentTimeMillis() - lastProgress;
+            if (stalled >= ackTimeout) {
+                detach(new IOException("Journal receiver at " + receiverName
+                        + " has acknowledged nothing for " + stalled + " ms"));
+                break;
+            }
+            waitQuietly(ackTimeout - stalled);
+        }
+        if (detached) {
+            reportProblem();
+            return;
+        }
+        if (queuedBytes + inFlightBytes == 0) {
+            lastProgress = System.currentTimeMillis();
+        }
+        queued.add(new Frame(type, nextSequence++, payload));
+        queuedBytes += size;
+        notifyAll();
+    }
+
+    synchronized boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * How many bytes have been queued but not acknowledged?
+     */
+    synchronized long getUnacknowledgedBytes() {
+        return queuedBytes + inFlightBytes;
+    }
+
+    /**
+     * Give the receiver a while to acknowledge what has been sent, then close
+     * the connection.
+     */
+    void close(long timeout) {
+        synchronized (this) {
+            long limit = System.currentTimeMillis() + timeout;
+            long remaining = timeout;
+            while (!detached && getUnacknowledgedBytes() > 0
+                    && remaining > 0) {
+                waitQuietly(remaining);
+                remaining = limit - System.currentTimeMillis();
+            }
+            if (!detached && getUnacknowledgedBytes() > 0) {
+                logger.warn("Closing the connection to " + receiverName
+                        + " with " + getUnacknowledgedBytes()
+                        + " bytes unacknowledged");
+            }
+            closing = true;
+            detached = true;
+            discardFrames();
+            notifyAll();
+        }
+        closeSocket();
+    }
+
+    /**
+     * Stop sending, and close the socket. The socket is closed by whichever
+     * thread found the problem, which may be the journal writer; closing a
+     * socket doesn't wait for the other end.
+     */
+    private void detach(IOException e) {
+        synchronized (this) {
+            if (detached) {
+                return;
+            }
+            logger.error("Detaching journal receiver at " + receiverName, e);
+            detached = true;
+            problem = e;
+            discardFrames();
+            notifyAll();
+        }
+        closeSocket();
+    }
+
+    /**
+     * Nothing more will be sent or acknowledged.
+     */
+    private synchronized void discardFrames() {
+        queued.clear();
+        inFlight.clear();
+        queuedBytes = 0;
+        inFlightBytes = 0;
+    }
+
+    private void reportProblem() throws IOException {
+        if (problem != null) {
+            IOException e = problem;
+            problem = null;
+            throw e;
+        }
+    }
+
+    private synchronized void acknowledge(long sequence) {
+        while (!inFlight.isEmpty() && inFlight.getFirst().sequence <= sequence) {
+            inFlightBytes -= inFlight.removeFirst().size();
+        }
+        lastProgress = System.currentTimeMillis();
+        notifyAll();
+    }
+
+    /**
+     * Wait for a frame to send, and for room in the window.
+     *
+     * @return the frame, or null if the connection is detached.
+     */
+    private synchronized Frame takeFrame() {
+        while (!detached && !isFrameReady()) {
+            waitQuietly(0);
+        }
+        if (detached) {
+            return null;
+        }
+        Frame frame = queued.removeFirst();
+        queuedBytes -= frame.size();
+        inFlight.add(frame);
+        inFlightBytes += frame.size();
+        notifyAll();
+        return frame;
+    }
+
+    /**
+     * Is there a frame to send, and room for it in the window? A frame is
+     * never bigger than the window on its own.
+     */
+    private synchronized boolean isFrameReady() {
+        return !queued.isEmpty()
+                && (inFlight.isEmpty() || inFlightBytes
+                        + queued.getFirst().size() <= windowSize);
+    }
+
+    private synchronized boolean isClosing() {
+        return closing;
+    }
+
+    private void writeFrame(Frame frame, Deflater deflater)
+            throws IOException {
+        byte type = frame.type;
+        byte[] payload = frame.payload;
+        if (deflater != null && payload.length > 0) {
+            byte[] compressed = deflate(payload, deflater);
+            if (compressed.length < payload.length) {
+                type |= FLAG_COMPRESSED;
+                payload = compressed;
+            }
+        }
+        out.writeByte(type);
+        out.writeLong(frame.sequence);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    private static byte[] deflate(byte[] bytes, Deflater deflater) {
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream buffer =
+                new ByteArrayOutputStream(bytes.length / 2 + 16);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            buffer.write(chunk, 0, count);
+        }
+        return buffer.toByteArray();
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close the socket to " + receiverName, e);
+        }
+    }
+
+    private void waitQuietly(long timeout) {
+        try {
+            wait(timeout);
+        } catch (InterruptedException e) {
+            // no special action on interrupt.
+        }
+    }
+
+    private static void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public String toString() {
+        return "SocketTransportConnection[" + receiverName + "]";
+    }
+
+    /**
+     * Sends the queued frames, and flushes the socket whenever it has to wait
+     * for the next frame, so frames that are queued together are sent
+     * together, and the receiver can acknowledge what it has been sent.
+     */
+    private class Sender
+            implements Runnable {
+
+        public void run() {
+            Deflater deflater = compress ? new Deflater() : null;
+            try {
+                while (true) {
+                    Frame frame = takeFrame();
+                    if (frame == null) {
+                        return;
+                    }
+                    writeFrame(frame, deflater);
+                    if (!isFrameReady()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                detach(e);
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads acknowledgements from the receiver, until the connection closes.
+     */
+    private class AcknowledgementReader
+            implements Runnable {
+
+        public void run() {
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    if (type != ACK) {
+                        throw new IOException("Expected an acknowledgement from "
+                                + receiverName + ", but got type " + type);
+                    }
+                    acknowledge(in.readLong());
+                }
+            } catch (EOFException e) {
+                if (!isClosing()) {
+                    detach(new IOException("Journal receiver at "
+                            + receiverName + " closed the connection"));
+                }
+            } catch (IOException e) {
+                if (!isClosing()) {
+                    detach(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A frame, with its journal text still uncompressed.
+     */
+    private static class Frame {
+
+        final byte type;
+
+        final long sequence;
+
+        final byte[] payload;
+
+        Frame(byte type, long sequence, byte[] payload) {
+            this.type = type;
+            this.sequence = sequence;
+            this.payload = payload;
+        }
+
+        long size() {
+            return payload.length + FRAME_OVERHEAD;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.journal.readerwriter.multicast.socket;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A writer that passes characters on to a {@link SocketTransportConnection},
+ * a frame at a time.
+ * <p>
+ * Characters are collected until the buffer is full, or until the writer is
+ * flushed, as it is at the end of each journal entry. So each entry is sent
+ * as soon as it is written, and a large entry is sent in pieces.
+ */
+class SocketTransportWriter
+        extends Writer
+        implements SocketJournalProtocol {
+
+    private final SocketTransportConnection connection;
+
+    private final int bufferSize;
+
+    private final StringBuilder buffer;
+
+    private boolean closed;
+
+    SocketTransportWriter(SocketTransportConnection connection, int bufferSize) {
+        this.connection = connection;
+        this.bufferSize = bufferSize;
+        buffer = new StringBuilder(bufferSize);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        checkOpen();
+        while (len > 0) {
+            int count = Math.min(len, bufferSize - buffer.length());
+            buffer.append(cbuf, off, count);
+            off += count;
+            len -= count;
+            if (buffer.length() >= bufferSize) {
+                sendBuffer();
+            }
+        }
+    }
+
+    /**
+     * Send whatever has been written.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        sendBuffer();
+    }
+
+    /**
+     * Send whatever has been written, and close the file at the receiver.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            sendBuffer();
+            closed = true;
+            connection.send(CLOSE_FILE, new byte[0]);
+        }
+    }
+
+    /**
+     * Send the buffer, except for a high surrogate at the end of it: the
+     * character is incomplete until the low surrogate is written.
+     */
+    private void sendBuffer() throws IOException {
+        int length = buffer.length();
+        if (length > 1
+                && Character.isHighSurrogate(buffer.charAt(length - 1))) {
+            length--;
+        }
+        if (length == 0) {
+            return;
+        }
+        String text = buffer.substring(0, length);
+        buffer.delete(0, length);
+        connection.send(WRITE_TEXT, text.getBytes("UTF-8"));
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer is closed.");
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.readerwriter.multifile;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Map;
+
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.helpers.ParameterHelper;
+
+/**
+ * Tells a following reader when the journal directory is worth scanning, and
+ * keeps track of the journal file that it is reading while it is written.
+ * <p>
+ * Listing a directory of many files is costly; looking at its modification
+ * time is not. A file that is created in the directory, or renamed into it,
+ * changes the modification time, so the directory is only scanned when the
+ * time changes. Some file systems record the time to the second, so a change
+ * soon after a scan may not show; the directory is scanned at every check
+ * until its time is safely in the past, and at the polling interval in any
+ * case.
+ */
+class JournalDirectoryWatcher
+        implements MultiFileJournalConstants {
+
+    /** Changes this close together may have the same modification time. */
+    static final long TIMESTAMP_RESOLUTION = 2000;
+
+    private final File directory;
+
+    private final String filenamePrefix;
+
+    private final long pollingIntervalMillis;
+
+    private final long checkIntervalMillis;
+
+    private final boolean followOpenFile;
+
+    private long lastModified = -1;
+
+    private long lastScan;
+
+    private volatile JournalFileTail tail;
+
+    private volatile boolean stopped;
+
+    JournalDirectoryWatcher(Map<String, String> parameters,
+                            File directory,
+                            long pollingIntervalMillis)
+            throws JournalException {
+        this.directory = directory;
+        this.pollingIntervalMillis = pollingIntervalMillis;
+        filenamePrefix =
+                ParameterHelper.parseParametersForFilenamePrefix(parameters);
+        checkIntervalMillis =
+                MultiFileJournalHelper
+                        .parseParametersForCheckInterval(parameters);
+        followOpenFile =
+                ParameterHelper
+                        .getOptionalBooleanParameter(parameters,
+                                                     PARAMETER_FOLLOW_OPEN_FILE,
+                                                     false);
+    }
+
+    /**
+     * How long to wait before checking again.
+     */
+    long getCheckInterval() {
+        return checkIntervalMillis;
+    }
+
+    /**
+     * Should the reader look for a journal file that is being written?
+     */
+    boolean isFollowingOpenFile() {
+        return followOpenFile;
+    }
+
+    /**
+     * Has the directory changed since it was last scanned, or might it have?
+     * If so, the caller should scan it now.
+     */
+    boolean isScanDue() {
+        long now = System.currentTimeMillis();
+        long modified = directory.lastModified();
+        if (modified != lastModified
+                || now - modified < TIMESTAMP_RESOLUTION
+                || now - lastScan >= pollingIntervalMillis) {
+            lastModified = modified;
+            lastScan = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Start reading a file that is being written. If the reader is shutting
+     * down, the tail is stopped already.
+     */
+    JournalFileTail follow(File file) throws JournalException {
+        try {
+            tail =
+                    new JournalFileTail(file,
+                                        filenamePrefix,
+                                        checkIntervalMillis);
+        } catch (IOException e) {
+            throw new JournalException("Unable to follow journal file '"
+                    + file.getPath() + "'", e);
+        }
+        if (stopped) {
+            tail.stop();
+        }
+        return tail;
+    }
+
+    /**
+     * Stop waiting for the file that is being written. This doesn't need the
+     * lock on the reader, which the reading thread may hold while it waits.
+     */
+    void stop() {
+        stopped = true;
+        JournalFileTail current = tail;
+        if (current != null) {
+            current.stop();
+        }
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+}
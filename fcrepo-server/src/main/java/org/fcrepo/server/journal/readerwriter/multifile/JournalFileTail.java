@@ -0,0 +1,215 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.readerwriter.multifile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a Journal file while it is being written.
+ * <p>
+ * When the reader catches up with the writer, it waits for more to be
+ * written. The file is complete when the writer has renamed it; then the rest
+ * of it is read, and the reader sees the end of the file. The size is taken
+ * from the open channel, not from the name, so the rename doesn't hide what
+ * was written before it.
+ * <p>
+ * If the tail is stopped, a reader that is waiting sees the end of the file
+ * at once, even though the file isn't complete.
+ * <p>
+ * A writer that crashes leaves its file with the temporary name. Once a newer
+ * Journal file appears, the writer of this one has gone; the tail gives up on
+ * it, and a reader that is waiting sees the end of the file.
+ */
+class JournalFileTail
+        extends InputStream {
+
+    private final File file;
+
+    /** The name that the writer will give the file when it is complete. */
+    private final String completedName;
+
+    private final String filenamePrefix;
+
+    private final FileInputStream in;
+
+    private final FileChannel channel;
+
+    private final long checkInterval;
+
+    private volatile boolean stopped;
+
+    private volatile boolean abandoned;
+
+    /** Have we read everything that has been written, so far? */
+    private volatile boolean paused;
+
+    /** When the directory was last scanned for newer files. */
+    private long directoryModified = -1;
+
+    /**
+     * @param file
+     *        the Journal file, under the name it has while it is being
+     *        written.
+     * @param filenamePrefix
+     *        the prefix of the Journal file names.
+     * @param checkInterval
+     *        how many milliseconds to wait before looking for more of the
+     *        file.
+     */
+    JournalFileTail(File file, String filenamePrefix, long checkInterval)
+            throws IOException {
+        this.file = file;
+        this.filenamePrefix = filenamePrefix;
+        this.checkInterval = checkInterval;
+        completedName = file.getName().substring(1);
+        in = new FileInputStream(file);
+        channel = in.getChannel();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int count = read(b, 0, 1);
+        return count == -1 ? -1 : b[0] & 0xff;
+    }
+
+    /**
+     * Read what has been written, if anything, or wait until something is.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            boolean complete = !file.exists();
+            int available = available();
+            if (available > 0) {
+                paused = false;
+                return in.read(b, off, Math.min(len, available));
+            }
+            if (complete || stopped || isSuperseded()) {
+                return -1;
+            }
+            pause();
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, channel.size()
+                - channel.position());
+    }
+
+    /**
+     * Wait until the writer has renamed the file.
+     *
+     * @return true if the file is complete, false if the tail was stopped or
+     *         gave up on the file first.
+     */
+    boolean awaitComplete() {
+        while (file.exists()) {
+            if (stopped || isSuperseded()) {
+                return false;
+            }
+            pause();
+        }
+        return true;
+    }
+
+    /**
+     * Stop waiting for the file to be written.
+     */
+    void stop() {
+        stopped = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Are we waiting for more to be written, having read what there is?
+     */
+    boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Did the tail give up on the file, because a newer one appeared?
+     */
+    boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Is there a Journal file that sorts after this one, complete or not? If
+     * so, the writer of this one has gone, and we give up on it. The
+     * directory is only listed when it may have changed.
+     */
+    private boolean isSuperseded() {
+        if (abandoned) {
+            return true;
+        }
+        File directory = file.getParentFile();
+        long modified = directory.lastModified();
+        if (modified == directoryModified
+                && System.currentTimeMillis() - modified >= JournalDirectoryWatcher.TIMESTAMP_RESOLUTION) {
+            return false;
+        }
+        directoryModified = modified;
+
+        File[] completed =
+                MultiFileJournalHelper
+                        .getSortedArrayOfJournalFiles(directory,
+                                                      filenamePrefix);
+        File[] beingWritten =
+                MultiFileJournalHelper
+                        .getSortedArrayOfJournalFilesBeingWritten(directory,
+                                                                  filenamePrefix);
+        if (sortsAfterThisFile(completed, 0)
+                || sortsAfterThisFile(beingWritten, 1)) {
+            abandoned = true;
+        }
+        return abandoned;
+    }
+
+    /**
+     * Does the last of these sorted files have a name that comes after the
+     * completed name of this file? Skip the underscore in front of the name
+     * of a file that is being written.
+     */
+    private boolean sortsAfterThisFile(File[] sortedFiles, int skip) {
+        if (sortedFiles.length == 0) {
+            return false;
+        }
+        String lastName = sortedFiles[sortedFiles.length - 1].getName();
+        return lastName.substring(skip).compareTo(completedName) > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private synchronized void pause() {
+        paused = true;
+        if (!stopped) {
+            try {
+                wait(checkInterval);
+            } catch (InterruptedException e) {
+                // no special action on interrupt.
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.readerwriter.multifile;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.JournalWriter;
+import org.fcrepo.server.journal.entry.CreatorJournalEntry;
+import org.fcrepo.server.utilities.GroupCommitQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes Journal entries for a {@link MultiFileJournalWriter} in groups, and
+ * syncs each group to disk once.
+ * <p>
+ * Entries are queued in the order that their management methods completed.
+ * The committer writes the queued entries to the current Journal file and
+ * syncs the file; only then are the threads that queued the entries
+ * released, so the management method of one request can run while the
+ * entries of earlier requests are synced.
+ * <p>
+ * The queues are guarded by the {@link JournalWriter#SYNCHRONIZER}, which is
+ * held while entries are written, but not while they are synced. Before the
+ * current Journal file is closed, the queued entries are written to it, so
+ * every entry goes to the file that was current when it was queued, and the
+ * repository hash at the start of the next file accounts for it.
+ */
+class JournalGroupCommitter {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(JournalGroupCommitter.class);
+
+    private final MultiFileJournalWriter parent;
+
+    /** Entries that have not been written yet. */
+    private final EntryQueue queue;
+
+    /** Entries that have been written, but not synced. */
+    private final List<PendingEntry> written = new ArrayList<PendingEntry>();
+
+    /** So a thread can find the entry it is waiting for. */
+    private final Map<CreatorJournalEntry, PendingEntry> pendingEntries =
+            Collections
+                    .synchronizedMap(new IdentityHashMap<CreatorJournalEntry, PendingEntry>());
+
+    /**
+     * @param parent
+     *        the writer that writes the entries to its current Journal file.
+     * @param delay
+     *        how many milliseconds to wait for more entries before writing a
+     *        group.
+     */
+    JournalGroupCommitter(MultiFileJournalWriter parent, long delay) {
+        this.parent = parent;
+        queue = new EntryQueue(delay);
+    }
+
+    /**
+     * Queue an entry to be written, and start a committer if none is running.
+     */
+    void queue(CreatorJournalEntry journalEntry) {
+        synchronized (JournalWriter.SYNCHRONIZER) {
+            PendingEntry pending = new PendingEntry(journalEntry);
+            pendingEntries.put(journalEntry, pending);
+            queue.add(pending);
+        }
+    }
+
+    /**
+     * Wait until the entry has been written and synced. If it was never
+     * queued, there is nothing to wait for.
+     */
+    void await(CreatorJournalEntry journalEntry) throws JournalException {
+        PendingEntry pending = pendingEntries.remove(journalEntry);
+        if (pending != null) {
+            pending.await();
+        }
+    }
+
+    /**
+     * Write the queued entries to the current Journal file. The caller must
+     * hold the {@link JournalWriter#SYNCHRONIZER}.
+     */
+    void writeQueuedEntries() {
+        for (PendingEntry pending : queue.drain()) {
+            try {
+                pending.file = parent.writeEntryToCurrentFile(pending.entry);
+                written.add(pending);
+            } catch (JournalException e) {
+                pending.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of groups that have been synced.
+     */
+    long getGroupCount() {
+        return queue.getGroupCount();
+    }
+
+    /**
+     * Gets the number of entries that have been synced.
+     */
+    long getEntryCount() {
+        return queue.getItemCount();
+    }
+
+    /**
+     * Sync each file that the group was written to, then release the threads
+     * that are waiting for the group.
+     */
+    private void sync(List<PendingEntry> group) {
+        Map<JournalOutputFile, JournalException> files =
+                new LinkedHashMap<JournalOutputFile, JournalException>();
+        for (PendingEntry pending : group) {
+            if (!files.containsKey(pending.file)) {
+                try {
+                    pending.file.sync();
+                    files.put(pending.file, null);
+                } catch (IOException e) {
+                    files.put(pending.file,
+                              new JournalException("Failed to sync journal file",
+                                                   e));
+                }
+            }
+        }
+
+        int synced = 0;
+        for (PendingEntry pending : group) {
+            if (files.get(pending.file) == null) {
+                synced++;
+            }
+        }
+        queue.countGroup(synced);
+
+        for (PendingEntry pending : group) {
+            JournalException e = files.get(pending.file);
+            if (e == null) {
+                pending.succeed();
+            } else {
+                pending.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the queued entries, and syncs them as one group.
+     */
+    private class EntryQueue
+            extends GroupCommitQueue<PendingEntry> {
+
+        EntryQueue(long delay) {
+            super("JournalGroupCommitter", delay, JournalWriter.SYNCHRONIZER);
+        }
+
+        /**
+         * Write the queued entries, and close the Journal file if it is
+         * time. The written entries are the group.
+         */
+        @Override
+        protected List<PendingEntry> takeGroup() {
+            writeQueuedEntries();
+            List<PendingEntry> group = new ArrayList<PendingEntry>(written);
+            written.clear();
+            if (group.isEmpty()) {
+                return group;
+            }
+            try {
+                parent.closeCurrentFileIfAppropriate();
+            } catch (JournalException e) {
+                logger.error("Failed to close journal file", e);
+                for (PendingEntry pending : group) {
+                    pending.fail(e);
+                }
+                // nothing can have been queued since, so the committer stops
+                return Collections.emptyList();
+            }
+            return group;
+        }
+
+        @Override
+        protected void commit(List<PendingEntry> group) {
+            sync(group);
+        }
+
+        @Override
+        protected void fail(PendingEntry pending, Throwable cause) {
+            pending.fail(new JournalException("Unexpected error syncing journal entries",
+                                              cause));
+        }
+    }
+
+    /**
+     * An entry that has not been synced yet, and the outcome of syncing it.
+     */
+    private static class PendingEntry
+            extends GroupCommitQueue.Pending<JournalException> {
+
+        final CreatorJournalEntry entry;
+
+        /** The file that the entry was written to. */
+        JournalOutputFile file;
+
+        PendingEntry(CreatorJournalEntry entry) {
+            this.entry = entry;
+        }
+    }
+}
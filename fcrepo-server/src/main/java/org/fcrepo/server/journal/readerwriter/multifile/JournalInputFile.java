@@ -4,21 +4,36 @@
  */
 package org.fcrepo.server.journal.readerwriter.multifile;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 
 import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.binaryhelpers.BinaryJournalInput;
+import org.fcrepo.server.journal.binaryhelpers.JournalContentStore;
 import org.fcrepo.server.journal.helpers.FileMovingUtil;
 
 
 /**
  * Encapsulate the information that goes with consuming a Journal file.
+ * <p>
+ * The file may be XML or binary; binary files are recognized by their
+ * signature. When a binary file is archived, the content files that it refers
+ * to are moved to the archive content store along with it.
+ * <p>
+ * A file that is still being written may be read through a
+ * {@link JournalFileTail}. It is archived when the writer has finished with it,
+ * under the name that the writer gave it, or under its temporary name if the
+ * writer is gone.
  * 
  * @author Jim Blake
  */
@@ -26,11 +41,28 @@ class JournalInputFile {
 
     private final File file;
 
-    private final FileReader fileReader;
+    /** The name that the file is read under. */
+    private final File readFile;
 
+    /** Null unless the file is being read while it is written. */
+    private final JournalFileTail tail;
+
+    /** Null if the file is binary. */
+    private final Reader fileReader;
+
+    /** Null if the file is binary. */
     private final XMLEventReader xmlReader;
 
-    public JournalInputFile(File file)
+    /** Null if the file is XML. */
+    private final BinaryJournalInput binaryReader;
+
+    private final JournalContentStore contentStore;
+
+    private final JournalContentStore archiveContentStore;
+
+    public JournalInputFile(File file,
+                            JournalContentStore contentStore,
+                            JournalContentStore archiveContentStore)
             throws JournalException {
         if (!file.isFile()) {
             throw new JournalException("Journal file '" + file.getPath()
@@ -43,18 +75,100 @@ class JournalInputFile {
 
         try {
             this.file = file;
-            XMLInputFactory factory = XMLInputFactory.newInstance();
-            fileReader = new FileReader(file);
-            xmlReader = factory.createXMLEventReader(fileReader);
+            readFile = file;
+            tail = null;
+            this.contentStore = contentStore;
+            this.archiveContentStore = archiveContentStore;
+            if (BinaryJournalInput.isBinaryJournal(file)) {
+                fileReader = null;
+                xmlReader = null;
+                binaryReader =
+                        new BinaryJournalInput(new BufferedInputStream(new FileInputStream(file)),
+                                               file.getPath(),
+                                               contentStore,
+                                               archiveContentStore);
+            } else {
+                XMLInputFactory factory = XMLInputFactory.newInstance();
+                fileReader = new FileReader(file);
+                xmlReader = factory.createXMLEventReader(fileReader);
+                binaryReader = null;
+            }
         } catch (FileNotFoundException e) {
             throw new JournalException(e);
         } catch (XMLStreamException e) {
             throw new JournalException(e);
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * Read a file while it is being written.
+     *
+     * @param tail
+     *        reads the file under the name it has while it is being written,
+     *        which is its final name with an underscore in front.
+     */
+    public JournalInputFile(File tempFile,
+                            JournalFileTail tail,
+                            JournalContentStore contentStore,
+                            JournalContentStore archiveContentStore)
+            throws JournalException {
+        try {
+            file =
+                    new File(tempFile.getParentFile(), tempFile.getName()
+                            .substring(1));
+            readFile = tempFile;
+            this.tail = tail;
+            this.contentStore = contentStore;
+            this.archiveContentStore = archiveContentStore;
+
+            // the writer may not have written the signature yet.
+            BufferedInputStream in = new BufferedInputStream(tail);
+            if (BinaryJournalInput.isBinaryJournal(in)) {
+                fileReader = null;
+                xmlReader = null;
+                binaryReader =
+                        new BinaryJournalInput(in,
+                                               tempFile.getPath(),
+                                               contentStore,
+                                               archiveContentStore);
+            } else {
+                XMLInputFactory factory = XMLInputFactory.newInstance();
+                fileReader = new InputStreamReader(in);
+                xmlReader = factory.createXMLEventReader(fileReader);
+                binaryReader = null;
+            }
+        } catch (XMLStreamException e) {
+            throw new JournalException(e);
+        } catch (IOException e) {
+            throw new JournalException(e);
         }
     }
 
     public String getFilename() {
-        return file.getPath();
+        return readFile.getPath();
+    }
+
+    /**
+     * Is the file being read while it is written?
+     */
+    public boolean isBeingWritten() {
+        return tail != null;
+    }
+
+    /**
+     * Are we waiting for the writer to write more of the file?
+     */
+    public boolean isWaitingForMore() {
+        return tail != null && tail.isPaused();
+    }
+
+    /**
+     * Did we give up on reading the file, because its writer has gone?
+     */
+    public boolean isAbandoned() {
+        return tail != null && tail.isAbandoned();
     }
 
     /**
@@ -62,9 +176,25 @@ class JournalInputFile {
      */
     public void closeAndRename(File archiveDirectory) throws JournalException {
         try {
-            xmlReader.close();
-            fileReader.close();
-            File archiveFile = new File(archiveDirectory, file.getName());
+            if (binaryReader != null) {
+                binaryReader.close();
+            } else {
+                xmlReader.close();
+                fileReader.close();
+            }
+
+            // the writer still has it, so leave it to be read again; but if
+            // the writer has gone, archive it under the name it has.
+            File completedFile = file;
+            if (tail != null && !tail.awaitComplete()) {
+                if (!tail.isAbandoned()) {
+                    return;
+                }
+                completedFile = readFile;
+            }
+
+            File archiveFile =
+                    new File(archiveDirectory, completedFile.getName());
 
             /*
              * java.io.File.renameTo() has a known bug when working across
@@ -74,11 +204,15 @@ class JournalInputFile {
              * following line, and check for exception...
              */
             try {
-                FileMovingUtil.move(file, archiveFile);
+                FileMovingUtil.move(completedFile, archiveFile);
             } catch (IOException e) {
                 throw new JournalException("Failed to rename file from '"
-                        + file.getPath() + "' to '" + archiveFile.getPath()
-                        + "'", e);
+                        + completedFile.getPath() + "' to '"
+                        + archiveFile.getPath() + "'", e);
+            }
+
+            if (binaryReader != null) {
+                archiveContent();
             }
         } catch (XMLStreamException e) {
             throw new JournalException(e);
@@ -87,8 +221,34 @@ class JournalInputFile {
         }
     }
 
+    /**
+     * Move the content files that this file refers to into the archive. A
+     * later file may refer to the same content, so the reader looks for
+     * content in the archive too.
+     */
+    private void archiveContent() throws JournalException {
+        for (String digest : binaryReader.getContentDigests()) {
+            try {
+                contentStore.moveTo(digest, archiveContentStore);
+            } catch (IOException e) {
+                throw new JournalException("Failed to archive content file '"
+                        + digest + "' from '" + contentStore.getDirectory()
+                        + "' to '" + archiveContentStore.getDirectory() + "'",
+                                           e);
+            }
+        }
+    }
+
+    public boolean isBinary() {
+        return binaryReader != null;
+    }
+
     public XMLEventReader getReader() {
         return xmlReader;
     }
 
+    public BinaryJournalInput getBinaryReader() {
+        return binaryReader;
+    }
+
 }
@@ -4,9 +4,12 @@
  */
 package org.fcrepo.server.journal.readerwriter.multifile;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 import java.util.Date;
 import java.util.Timer;
@@ -21,6 +24,7 @@ import javanet.staxutils.IndentingXMLEventWriter;
 
 import org.fcrepo.server.journal.JournalException;
 import org.fcrepo.server.journal.JournalWriter;
+import org.fcrepo.server.journal.binaryhelpers.BinaryJournalOutput;
 import org.fcrepo.server.journal.helpers.FileMovingUtil;
 import org.fcrepo.server.journal.helpers.JournalHelper;
 
@@ -32,8 +36,17 @@ import org.fcrepo.server.journal.helpers.JournalHelper;
  * close the file. The {@link #isOpen()} and {@link #close()} methods are
  * synchronized against the {@link JournalWriter#SYNCHRONIZER} to guard against
  * problems. Any other operations on the file or on its
- * <code>XMLEventWriter</code> should also be synchronized against the
- * {@link JournalWriter#SYNCHRONIZER}.
+ * <code>XMLEventWriter</code> or <code>BinaryJournalOutput</code> should also
+ * be synchronized against the {@link JournalWriter#SYNCHRONIZER}.
+ * <p>
+ * The file is written either as XML or in the binary format, as the parent
+ * JournalWriter is configured.
+ * <p>
+ * If the parent JournalWriter uses group commit, the file may be synced by the
+ * committer thread while other threads write to it, so {@link #sync()} is
+ * guarded by a separate lock, rather than by the
+ * {@link JournalWriter#SYNCHRONIZER}, and the file is synced before it is
+ * closed.
  * 
  * @author Jim Blake
  */
@@ -52,10 +65,18 @@ class JournalOutputFile
     /** The name of the file while it is being written. */
     private final File tempFile;
 
-    private final FileWriter fileWriter;
+    /** The stream to the temporary file, kept so the file can be synced. */
+    private final FileOutputStream fileOutputStream;
+
+    /** Null if the file is binary. */
+    private final Writer fileWriter;
 
+    /** Null if the file is binary. */
     private final XMLEventWriter xmlWriter;
 
+    /** Null if the file is XML. */
+    private final BinaryJournalOutput binaryWriter;
+
     /** If the file is larger than this (in bytes), close it. */
     private final long sizeLimit;
 
@@ -65,6 +86,9 @@ class JournalOutputFile
     /** Is this file still open? */
     private boolean open = true;
 
+    /** Guards the file descriptor against being synced while it is closed. */
+    private final Object syncLock = new Object();
+
     /**
      * This private constructor creates a "dummy" file that is closed to start
      * with.
@@ -73,8 +97,10 @@ class JournalOutputFile
         sizeLimit = 0;
         file = null;
         tempFile = null;
+        fileOutputStream = null;
         fileWriter = null;
         xmlWriter = null;
+        binaryWriter = null;
         parent = null;
         timer = null;
         open = false;
@@ -95,9 +121,20 @@ class JournalOutputFile
             this.sizeLimit = sizeLimit;
             file = createFilename(filenamePrefix, journalDirectory);
             tempFile = createTempFilename(file, journalDirectory);
-            fileWriter = createTempFile(tempFile);
-            xmlWriter = createXmlEventWriter(fileWriter);
-            this.parent.getDocumentHeader(xmlWriter);
+            createTempFile(tempFile);
+            fileOutputStream = new FileOutputStream(tempFile);
+            if (parent.isBinaryFormat()) {
+                fileWriter = null;
+                xmlWriter = null;
+                binaryWriter =
+                        parent.createBinaryOutput(new BufferedOutputStream(fileOutputStream));
+                this.parent.getDocumentHeader(binaryWriter);
+            } else {
+                fileWriter = new OutputStreamWriter(fileOutputStream);
+                xmlWriter = createXmlEventWriter(fileWriter);
+                binaryWriter = null;
+                this.parent.getDocumentHeader(xmlWriter);
+            }
             timer = createTimer(ageLimit);
         } catch (IOException e) {
             throw new JournalException(e);
@@ -135,23 +172,22 @@ class JournalOutputFile
     }
 
     /**
-     * Create and open the temporary file.
+     * Create the temporary file.
      */
-    private FileWriter createTempFile(File tempfile) throws IOException,
+    private void createTempFile(File tempfile) throws IOException,
             JournalException {
         boolean created = tempfile.createNewFile();
         if (!created) {
             throw new JournalException("Unable to create file '"
                     + tempfile.getPath() + "'.");
         }
-        return new FileWriter(tempfile);
     }
 
     /**
      * Create an XMLEventWriter for this file. Make it a pretty, indenting
      * writer.
      */
-    private XMLEventWriter createXmlEventWriter(FileWriter fileWriter)
+    private XMLEventWriter createXmlEventWriter(Writer fileWriter)
             throws FactoryConfigurationError, XMLStreamException {
         XMLOutputFactory factory = XMLOutputFactory.newInstance();
         return new IndentingXMLEventWriter(factory
@@ -183,6 +219,15 @@ class JournalOutputFile
         return xmlWriter;
     }
 
+    /**
+     * Get the BinaryJournalOutput that we can write the JournalEvents to, if
+     * this is a binary file. NOTE: any operations against this writer should
+     * be synchronized on the {@link JournalWriter#SYNCHRONIZER}.
+     */
+    public BinaryJournalOutput getBinaryWriter() {
+        return binaryWriter;
+    }
+
     /**
      * Check the size limit and see whether the file is big enough to close. We
      * could also check the age limit here, but we trust the timer to handle
@@ -211,9 +256,23 @@ class JournalOutputFile
         }
     }
 
+    /**
+     * Force everything that has been flushed to this file out to the disk. If
+     * the file is already closed, it was synced when it was closed, if it
+     * needed to be.
+     */
+    public void sync() throws IOException {
+        synchronized (syncLock) {
+            if (open) {
+                fileOutputStream.getFD().sync();
+            }
+        }
+    }
+
     /**
      * Write the document trailer, clean up everything and rename the file. Set
-     * the flag saying we are closed.
+     * the flag saying we are closed. If the parent uses group commit, sync the
+     * file before renaming it.
      */
     public void close() throws JournalException {
         synchronized (JournalWriter.SYNCHRONIZER) {
@@ -222,9 +281,25 @@ class JournalOutputFile
             }
 
             try {
-                parent.getDocumentTrailer(xmlWriter);
-                xmlWriter.close();
-                fileWriter.close();
+                if (binaryWriter != null) {
+                    parent.getDocumentTrailer(binaryWriter);
+                } else {
+                    parent.getDocumentTrailer(xmlWriter);
+                    xmlWriter.flush();
+                    fileWriter.flush();
+                }
+                synchronized (syncLock) {
+                    if (parent.isGroupCommit()) {
+                        fileOutputStream.getFD().sync();
+                    }
+                    if (binaryWriter != null) {
+                        binaryWriter.close();
+                    } else {
+                        xmlWriter.close();
+                        fileWriter.close();
+                    }
+                    open = false;
+                }
                 timer.cancel();
 
                 /*
@@ -241,8 +316,6 @@ class JournalOutputFile
                             + tempFile.getPath() + "' to '" + file.getPath()
                             + "'", e);
                 }
-
-                open = false;
             } catch (XMLStreamException e) {
                 throw new JournalException(e);
             } catch (IOException e) {
@@ -9,8 +9,11 @@ import java.io.IOException;
 
 import java.util.Map;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.fcrepo.server.journal.JournalException;
 import org.fcrepo.server.journal.ServerInterface;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
 import org.fcrepo.server.journal.helpers.ParameterHelper;
 import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
 
@@ -24,10 +27,16 @@ import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
  * locking protocol. If a lock has been requested, it will accept the lock, and
  * ignore any additional Journal files if present.
  * <p>
- * Polling continues, however. At each polling interval, the reader will check
+ * Polling continues, however. At each check interval, the reader will check
  * for the lock request. If the request has been removed, the lock acceptance
  * will be removed also, and the reader will process the next Journal file, if
  * one is found.
+ * <p>
+ * The journal directory is only scanned when it has changed (see
+ * {@link JournalDirectoryWatcher}). If the <code>followOpenFile</code>
+ * parameter is true, the journal file that is being written is read as it is
+ * written. A lock request is not seen until that file has been closed and
+ * read to the end.
  * 
  * @author Jim Blake
  */
@@ -55,6 +64,9 @@ public class LockingFollowingJournalReader
     /** Currently quiescent? */
     private boolean wasLocked = false;
 
+    /** When to scan the directory, and the file being written, if any. */
+    private final JournalDirectoryWatcher watcher;
+
     /**
      * Require parameters for polling interval, lock request filename and lock
      * acceptance filename.
@@ -81,13 +93,42 @@ public class LockingFollowingJournalReader
                         .getOptionalBooleanParameter(parameters,
                                                      PARAMETER_PAUSE_BEFORE_POLLING,
                                                      false);
+        watcher =
+                new JournalDirectoryWatcher(parameters,
+                                            getJournalDirectory(),
+                                            pollingIntervalMillis);
+    }
+
+    /**
+     * If we stopped reading a file that is being written because the server
+     * is shutting down, the entry we were reading is incomplete. That is no
+     * problem; there are no more entries.
+     */
+    @Override
+    public synchronized ConsumerJournalEntry readJournalEntry()
+            throws JournalException, XMLStreamException {
+        try {
+            return super.readJournalEntry();
+        } catch (JournalException e) {
+            if (watcher.isStopped()) {
+                return null;
+            }
+            throw e;
+        } catch (XMLStreamException e) {
+            if (watcher.isStopped()) {
+                return null;
+            }
+            throw e;
+        }
     }
 
     /**
      * Process the locking mechanism. If we are not locked, we should look for
      * another journal file to process. Ask for a new file, using the superclass
-     * method, but if none is found, wait for a while and repeat. This will
-     * continue until we get a server shutdown signal.
+     * method, whenever the directory may have changed. If none is found, and
+     * we are following open files, ask for the file that is being written.
+     * Otherwise, wait for a while and repeat. This will continue until we get
+     * a server shutdown signal.
      */
     @Override
     protected synchronized JournalInputFile openNextFile()
@@ -103,15 +144,23 @@ public class LockingFollowingJournalReader
                 }
             }
 
-            if (!locked) {
+            if (!locked && watcher.isScanDue()) {
                 JournalInputFile nextFile = super.openNextFile();
                 if (nextFile != null) {
                     return nextFile;
                 }
+                if (watcher.isFollowingOpenFile()) {
+                    nextFile = openFileBeingWritten(watcher);
+                    if (nextFile != null) {
+                        return nextFile;
+                    }
+                }
             }
 
+            // while we're locked, the journal may be getting ahead of us.
+            setWaitingForEntries(!locked);
             try {
-                wait(pollingIntervalMillis);
+                wait(watcher.getCheckInterval());
             } catch (InterruptedException e) {
                 // no special action on interrupt.
             }
@@ -120,12 +169,18 @@ public class LockingFollowingJournalReader
     }
 
     /**
-     * If the server requests a shutdown, stop waiting the next file to come in.
+     * If the server requests a shutdown, stop waiting the next file to come
+     * in, or for more of the file that is being written. The reading thread
+     * may hold the lock while it waits for more of the file, so stop that
+     * before taking the lock.
      */
     @Override
-    public synchronized void shutdown() throws JournalException {
-        super.shutdown();
-        notifyAll();
+    public void shutdown() throws JournalException {
+        watcher.stop();
+        synchronized (this) {
+            super.shutdown();
+            notifyAll();
+        }
     }
 
     /**
@@ -6,8 +6,11 @@ package org.fcrepo.server.journal.readerwriter.multifile;
 
 import java.util.Map;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.fcrepo.server.journal.JournalException;
 import org.fcrepo.server.journal.ServerInterface;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
 import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
 
 
@@ -18,6 +21,11 @@ import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
  * The recovery is never complete, as the reader continues to poll for
  * recently-created files, until the server shuts down.
  * <p>
+ * The journal directory is checked often, but only scanned when it has
+ * changed (see {@link JournalDirectoryWatcher}). If the
+ * <code>followOpenFile</code> parameter is true, the journal file that is
+ * being written is read as it is written, rather than when it is closed.
+ * <p>
  * This class should likely be superceded by
  * {@link LockingFollowingJournalReader}.
  * 
@@ -26,10 +34,11 @@ import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
 public class MultiFileFollowingJournalReader
         extends MultiFileJournalReader {
 
-    private final long pollingIntervalMillis;
+    private final JournalDirectoryWatcher watcher;
 
     /**
-     * Do the super-class constructor, and then find the polling interval.
+     * Do the super-class constructor, and then find the polling interval and
+     * how to watch the directory.
      */
     public MultiFileFollowingJournalReader(Map<String, String> parameters,
                                            String role,
@@ -37,26 +46,63 @@ public class MultiFileFollowingJournalReader
                                            ServerInterface server)
             throws JournalException {
         super(parameters, role, recoveryLog, server);
-        pollingIntervalMillis =
+        long pollingIntervalMillis =
                 MultiFileJournalHelper
                         .parseParametersForPollingInterval(parameters);
+        watcher =
+                new JournalDirectoryWatcher(parameters,
+                                            getJournalDirectory(),
+                                            pollingIntervalMillis);
     }
 
     /**
-     * Ask for a new file, using the superclass method, but if none is found,
-     * wait for a while and ask again. This will continue until we get a server
-     * shutdown signal.
+     * If we stopped reading a file that is being written because the server
+     * is shutting down, the entry we were reading is incomplete. That is no
+     * problem; there are no more entries.
+     */
+    @Override
+    public synchronized ConsumerJournalEntry readJournalEntry()
+            throws JournalException, XMLStreamException {
+        try {
+            return super.readJournalEntry();
+        } catch (JournalException e) {
+            if (watcher.isStopped()) {
+                return null;
+            }
+            throw e;
+        } catch (XMLStreamException e) {
+            if (watcher.isStopped()) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Ask for a new file, using the superclass method, whenever the directory
+     * may have changed. If none is found, and we are following open files,
+     * ask for the file that is being written. Otherwise, wait for a while and
+     * ask again. This will continue until we get a server shutdown signal.
      */
     @Override
     protected synchronized JournalInputFile openNextFile()
             throws JournalException {
         while (open) {
-            JournalInputFile nextFile = super.openNextFile();
-            if (nextFile != null) {
-                return nextFile;
+            if (watcher.isScanDue()) {
+                JournalInputFile nextFile = super.openNextFile();
+                if (nextFile != null) {
+                    return nextFile;
+                }
+                if (watcher.isFollowingOpenFile()) {
+                    nextFile = openFileBeingWritten(watcher);
+                    if (nextFile != null) {
+                        return nextFile;
+                    }
+                }
             }
+            setWaitingForEntries(true);
             try {
-                wait(pollingIntervalMillis);
+                wait(watcher.getCheckInterval());
             } catch (InterruptedException e) {
                 // no special action on interrupt.
             }
@@ -65,11 +111,17 @@ public class MultiFileFollowingJournalReader
     }
 
     /**
-     * If the server requests a shutdown, stop waiting the next file to come in.
+     * If the server requests a shutdown, stop waiting the next file to come
+     * in, or for more of the file that is being written. The reading thread
+     * may hold the lock while it waits for more of the file, so stop that
+     * before taking the lock.
      */
     @Override
-    public synchronized void shutdown() throws JournalException {
-        super.shutdown();
-        notifyAll();
+    public void shutdown() throws JournalException {
+        watcher.stop();
+        synchronized (this) {
+            super.shutdown();
+            notifyAll();
+        }
     }
 }
@@ -22,6 +22,22 @@ public interface MultiFileJournalConstants {
     /** Used by following readers */
     String DEFAULT_FOLLOW_POLLING_INTERVAL = "3";
 
+    /**
+     * Used by following readers: the number of milliseconds between checks
+     * for a change to the journal directory, or for more of the journal file
+     * that is being written.
+     */
+    String PARAMETER_FOLLOW_CHECK_INTERVAL = "followCheckInterval";
+
+    /** Used by following readers */
+    String DEFAULT_FOLLOW_CHECK_INTERVAL = "100";
+
+    /**
+     * Used by following readers: if true, read the journal file that is being
+     * written, instead of waiting for it to be closed.
+     */
+    String PARAMETER_FOLLOW_OPEN_FILE = "followOpenFile";
+
     /** Used by locking readers like {@link LockingFollowingJournalReader} */
     String PARAMETER_LOCK_REQUESTED_FILENAME = "lockRequestedFilename";
 
@@ -30,4 +46,27 @@ public interface MultiFileJournalConstants {
 
     /** Used by locking readers like {@link LockingFollowingJournalReader} */
     String PARAMETER_PAUSE_BEFORE_POLLING = "pauseBeforePolling";
+
+    /** Used by writers: the format of new Journal files, "xml" or "binary" */
+    String PARAMETER_JOURNAL_FORMAT = "journalFormat";
+
+    String VALUE_JOURNAL_FORMAT_XML = "xml";
+
+    String VALUE_JOURNAL_FORMAT_BINARY = "binary";
+
+    String DEFAULT_JOURNAL_FORMAT = VALUE_JOURNAL_FORMAT_XML;
+
+    /**
+     * Used by writers of binary Journal files: larger stream arguments are
+     * written to content files.
+     */
+    String PARAMETER_INLINE_CONTENT_LIMIT = "inlineContentLimit";
+
+    String DEFAULT_INLINE_CONTENT_LIMIT = "64K";
+
+    /**
+     * Used by writers: if present, the number of milliseconds to wait for more
+     * entries before writing and syncing a group of them.
+     */
+    String PARAMETER_GROUP_COMMIT_DELAY = "groupCommitDelay";
 }
@@ -15,6 +15,8 @@ import java.util.regex.Pattern;
 
 import org.fcrepo.server.journal.JournalConstants;
 import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.binaryhelpers.BinaryJournalConstants;
+import org.fcrepo.server.journal.binaryhelpers.JournalContentStore;
 
 
 /**
@@ -72,6 +74,121 @@ public class MultiFileJournalHelper
         return interval;
     }
 
+    /**
+     * Find the number of milliseconds between checks for a change to the
+     * journal directory, or for more of a journal file that is being written.
+     */
+    static long parseParametersForCheckInterval(Map<String, String> parameters)
+            throws JournalException {
+        String intervalString =
+                parameters.get(PARAMETER_FOLLOW_CHECK_INTERVAL);
+        if (intervalString == null) {
+            intervalString = DEFAULT_FOLLOW_CHECK_INTERVAL;
+        }
+        if (!intervalString.matches("[0-9]{1,9}")
+                || Long.parseLong(intervalString) == 0) {
+            throw new JournalException("Parameter '"
+                    + PARAMETER_FOLLOW_CHECK_INTERVAL
+                    + "' must be a positive integer number of milliseconds");
+        }
+        return Long.parseLong(intervalString);
+    }
+
+    /**
+     * Find out whether new Journal files should be written in the binary
+     * format, rather than in XML.
+     */
+    static boolean parseParametersForBinaryFormat(Map<String, String> parameters)
+            throws JournalException {
+        String format = parameters.get(PARAMETER_JOURNAL_FORMAT);
+        if (format == null) {
+            format = DEFAULT_JOURNAL_FORMAT;
+        }
+        if (VALUE_JOURNAL_FORMAT_BINARY.equals(format)) {
+            return true;
+        } else if (VALUE_JOURNAL_FORMAT_XML.equals(format)) {
+            return false;
+        } else {
+            throw new JournalException("Parameter '"
+                    + PARAMETER_JOURNAL_FORMAT + "' must be '"
+                    + VALUE_JOURNAL_FORMAT_XML + "'(default) or '"
+                    + VALUE_JOURNAL_FORMAT_BINARY + "'");
+        }
+    }
+
+    /**
+     * Find the size of the largest stream argument that will be written into a
+     * binary Journal file, rather than to a content file.
+     */
+    static long parseParametersForInlineContentLimit(Map<String, String> parameters)
+            throws JournalException {
+        String limitString = parameters.get(PARAMETER_INLINE_CONTENT_LIMIT);
+        if (limitString == null) {
+            limitString = DEFAULT_INLINE_CONTENT_LIMIT;
+        }
+        Pattern p = Pattern.compile("([0-9]+)([KM]?)");
+        Matcher m = p.matcher(limitString);
+        if (!m.matches()) {
+            throw new JournalException("Parameter '"
+                    + PARAMETER_INLINE_CONTENT_LIMIT
+                    + "' must be an integer number of bytes, "
+                    + "optionally followed by 'K' or 'M'");
+        }
+        long limit = Long.parseLong(m.group(1));
+        String factor = m.group(2);
+        if ("K".equals(factor)) {
+            limit *= 1024;
+        } else if ("M".equals(factor)) {
+            limit *= 1024 * 1024;
+        }
+        if (limit > BinaryJournalConstants.MAX_INLINE_CONTENT_LENGTH) {
+            throw new JournalException("Parameter '"
+                    + PARAMETER_INLINE_CONTENT_LIMIT
+                    + "' may not be more than "
+                    + BinaryJournalConstants.MAX_INLINE_CONTENT_LENGTH
+                    + " bytes");
+        }
+        return limit;
+    }
+
+    /**
+     * Find how long the writer should wait for more entries before writing and
+     * syncing a group of them, or -1 if entries are to be written one at a
+     * time.
+     */
+    static long parseParametersForGroupCommitDelay(Map<String, String> parameters)
+            throws JournalException {
+        String delayString = parameters.get(PARAMETER_GROUP_COMMIT_DELAY);
+        if (delayString == null) {
+            return -1;
+        }
+        if (!delayString.matches("[0-9]{1,9}")) {
+            throw new JournalException("Parameter '"
+                    + PARAMETER_GROUP_COMMIT_DELAY
+                    + "' must be a non-negative integer number of "
+                    + "milliseconds");
+        }
+        return Long.parseLong(delayString);
+    }
+
+    /**
+     * Get the store for the content files of the binary Journal files in a
+     * directory.
+     */
+    static JournalContentStore getContentStore(File directory) {
+        return getContentStore(directory, false);
+    }
+
+    /**
+     * Get the store for the content files of the binary Journal files in a
+     * directory, syncing each content file if the Journal files are synced.
+     */
+    static JournalContentStore getContentStore(File directory, boolean sync) {
+        return new JournalContentStore(new File(directory,
+                                                BinaryJournalConstants.CONTENT_DIRECTORY_NAME),
+                                       sync);
+    }
+
     /**
      * Get the Journal Files that exist the Journal Directory, sorted by name.
      */
@@ -83,6 +200,17 @@ public class MultiFileJournalHelper
         return journalFiles;
     }
 
+    /**
+     * Get the Journal Files that are still being written in the Journal
+     * Directory, sorted by name. While a file is being written, its name
+     * starts with an underscore.
+     */
+    static File[] getSortedArrayOfJournalFilesBeingWritten(File journalDirectory,
+                                                           String filenamePrefix) {
+        return getSortedArrayOfJournalFiles(journalDirectory, "_"
+                + filenamePrefix);
+    }
+
     /**
      * Allows us to search a directory for files that match the prefix.
      */
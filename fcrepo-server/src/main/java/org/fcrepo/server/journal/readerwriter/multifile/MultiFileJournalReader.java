@@ -5,6 +5,7 @@
 package org.fcrepo.server.journal.readerwriter.multifile;
 
 import java.io.File;
+import java.io.IOException;
 
 import java.util.Map;
 
@@ -17,7 +18,11 @@ import javax.xml.stream.events.XMLEvent;
 import org.fcrepo.server.journal.JournalException;
 import org.fcrepo.server.journal.JournalReader;
 import org.fcrepo.server.journal.ServerInterface;
+import org.fcrepo.server.journal.binaryhelpers.BinaryJournalInput;
+import org.fcrepo.server.journal.binaryhelpers.JournalContentStore;
 import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.helpers.FileMovingUtil;
+import org.fcrepo.server.journal.helpers.JournalHelper;
 import org.fcrepo.server.journal.helpers.ParameterHelper;
 import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
 
@@ -28,6 +33,11 @@ import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
  * <p>
  * The recovery is complete when the all of the files in the journal directory
  * have been processed and moved to the archive directory.
+ * <p>
+ * Journal files may be XML or binary, in any mixture. The content files of
+ * binary Journal files are expected in the <code>content</code>
+ * sub-directory of the journal directory, and are moved to the same
+ * sub-directory of the archive directory along with the Journal files.
  * 
  * @author Jim Blake
  */
@@ -44,7 +54,14 @@ public class MultiFileJournalReader
     // journal file names will start with this.
     private final String filenamePrefix;
 
-    protected JournalInputFile currentFile;
+    // content files of binary journal files, before they are processed.
+    private final JournalContentStore contentStore;
+
+    // content files of binary journal files, after they are processed.
+    private final JournalContentStore archiveContentStore;
+
+    /** Volatile, so another thread can ask whether we're waiting on it. */
+    protected volatile JournalInputFile currentFile;
 
     protected boolean open = true;
 
@@ -65,6 +82,9 @@ public class MultiFileJournalReader
         filenamePrefix =
                 ParameterHelper.parseParametersForFilenamePrefix(parameters);
         checkDirectoriesAreDifferent();
+        contentStore = MultiFileJournalHelper.getContentStore(journalDirectory);
+        archiveContentStore =
+                MultiFileJournalHelper.getContentStore(archiveDirectory);
     }
 
     private void checkDirectoriesAreDifferent() throws JournalException {
@@ -88,11 +108,29 @@ public class MultiFileJournalReader
 
     /*
      * Advance to the next tag. If its end of file, close and get next file. If
-     * null, return a null entry.
+     * null, return a null entry. If we gave up on the file that we were
+     * following, the problem is the end of that file, so go on to the next.
      */
     @Override
     public synchronized ConsumerJournalEntry readJournalEntry()
             throws JournalException, XMLStreamException {
+        while (true) {
+            try {
+                return readNextJournalEntry();
+            } catch (JournalException e) {
+                if (!abandonCurrentFile(e)) {
+                    throw e;
+                }
+            } catch (XMLStreamException e) {
+                if (!abandonCurrentFile(e)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private ConsumerJournalEntry readNextJournalEntry()
+            throws JournalException, XMLStreamException {
         if (!open) {
             return null;
         }
@@ -101,6 +139,14 @@ public class MultiFileJournalReader
 
         if (currentFile == null) {
             return null;
+        } else if (currentFile.isBinary()) {
+            ConsumerJournalEntry journalEntry =
+                    currentFile.getBinaryReader().readEntry();
+            journalEntry.setIdentifier("file='" + currentFile.getFilename()
+                    + "', entry='"
+                    + JournalHelper.formatDate(journalEntry.getContext().now())
+                    + "'");
+            return journalEntry;
         } else {
             String identifier = peekAtJournalEntryIdentifier(currentFile);
             ConsumerJournalEntry journalEntry =
@@ -144,7 +190,13 @@ public class MultiFileJournalReader
     private void scanThroughFilesForNextJournalEntry() throws JournalException {
         try {
             while (true) {
-                if (currentFile != null) {
+                if (currentFile != null && currentFile.isBinary()) {
+                    if (currentFile.getBinaryReader().hasNextEntry()) {
+                        return;
+                    } else {
+                        closeCurrentFile();
+                    }
+                } else if (currentFile != null) {
                     // Check to see whether the current file contains any more
                     // entries. 
                     advancePastWhitespace(currentFile.getReader());
@@ -167,6 +219,7 @@ public class MultiFileJournalReader
                 // If we don't have a file open, try to open one.
                 if (currentFile == null) {
                     currentFile = openNextFile();
+                    setWaitingForEntries(false);
                 }
 
                 // If we still don't have a file open, we're finished.
@@ -176,7 +229,11 @@ public class MultiFileJournalReader
                 }
 
                 // A new file needs to be advanced before using.
-                advanceIntoFile(currentFile.getReader());
+                if (currentFile.isBinary()) {
+                    advanceIntoFile(currentFile.getBinaryReader());
+                } else {
+                    advanceIntoFile(currentFile.getReader());
+                }
             }
         } catch (XMLStreamException e) {
             throw new JournalException(e);
@@ -197,12 +254,132 @@ public class MultiFileJournalReader
             return null;
         }
 
-        JournalInputFile nextFile = new JournalInputFile(journalFiles[0]);
+        JournalInputFile nextFile =
+                new JournalInputFile(journalFiles[0],
+                                     contentStore,
+                                     archiveContentStore);
         recoveryLog.log("Opening journal file: '" + nextFile.getFilename()
                 + "'");
         return nextFile;
     }
 
+    /**
+     * Look in the directory for files that are still being written. If there
+     * are none, or the writer renames the one we find before we can open it,
+     * return null. If we find one, start reading it, and let the watcher know,
+     * so it can stop the reading if we shut down.
+     */
+    protected JournalInputFile openFileBeingWritten(JournalDirectoryWatcher watcher)
+            throws JournalException {
+        File[] journalFiles =
+                MultiFileJournalHelper
+                        .getSortedArrayOfJournalFilesBeingWritten(journalDirectory,
+                                                                  filenamePrefix);
+
+        if (journalFiles.length == 0) {
+            return null;
+        }
+        File tempFile = journalFiles[0];
+
+        JournalFileTail tail;
+        try {
+            tail = watcher.follow(tempFile);
+        } catch (JournalException e) {
+            if (tempFile.exists()) {
+                throw e;
+            }
+            // the writer renamed it since we looked; look again.
+            return null;
+        }
+
+        // the writer may have completed a file, and started this one, since
+        // we looked for completed files; those come first.
+        if (isCompletedFileBefore(tempFile)) {
+            closeQuietly(tail);
+            return null;
+        }
+
+        recoveryLog.log("Following journal file: '" + tempFile.getPath() + "'");
+        try {
+            return new JournalInputFile(tempFile,
+                                        tail,
+                                        contentStore,
+                                        archiveContentStore);
+        } catch (JournalException e) {
+            closeQuietly(tail);
+            if (!tail.isAbandoned()) {
+                throw e;
+            }
+            archiveAbandonedFile(tempFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Is there a completed journal file that sorts before this file that is
+     * being written?
+     */
+    private boolean isCompletedFileBefore(File tempFile) {
+        File[] journalFiles =
+                MultiFileJournalHelper
+                        .getSortedArrayOfJournalFiles(journalDirectory,
+                                                      filenamePrefix);
+        return journalFiles.length > 0
+                && journalFiles[0].getName().compareTo(tempFile.getName()
+                        .substring(1)) < 0;
+    }
+
+    /**
+     * If we gave up on the file that we were following, because its writer
+     * has gone, log it and archive the file, so we can go on to the next.
+     *
+     * @return true if the file was abandoned, false if the problem is a real
+     *         one.
+     */
+    private boolean abandonCurrentFile(Exception e) throws JournalException {
+        if (currentFile == null || !currentFile.isAbandoned()) {
+            return false;
+        }
+        recoveryLog.log("Giving up on journal file: '"
+                + currentFile.getFilename()
+                + "': a newer journal file exists, so the writer has gone. "
+                + "Stopped at: " + e.getMessage());
+        closeCurrentFile();
+        return true;
+    }
+
+    /**
+     * We gave up on a file whose writer has gone before we could read its
+     * header. Archive it under its temporary name, so we can go on to the
+     * next.
+     */
+    private void archiveAbandonedFile(File tempFile, JournalException e)
+            throws JournalException {
+        recoveryLog.log("Giving up on journal file: '" + tempFile.getPath()
+                + "': a newer journal file exists, so the writer has gone. "
+                + "Stopped at: " + e.getMessage());
+        File archiveFile = new File(archiveDirectory, tempFile.getName());
+        try {
+            FileMovingUtil.move(tempFile, archiveFile);
+        } catch (IOException e1) {
+            throw new JournalException("Failed to rename file from '"
+                    + tempFile.getPath() + "' to '" + archiveFile.getPath()
+                    + "'", e1);
+        }
+    }
+
+    private static void closeQuietly(JournalFileTail tail) {
+        try {
+            tail.close();
+        } catch (IOException e) {
+            // the original problem is the one to report.
+        }
+    }
+
+    protected File getJournalDirectory() {
+        return journalDirectory;
+    }
+
     /**
      * Advance past the document header to the first JournalEntry.
      */
@@ -226,6 +403,15 @@ public class MultiFileJournalReader
         checkRepositoryHash(hash);
     }
 
+    /**
+     * Read the header of a binary file, up to the first JournalEntry.
+     */
+    private void advanceIntoFile(BinaryJournalInput reader)
+            throws JournalException {
+        reader.readHeader();
+        checkRepositoryHash(reader.getRepositoryHash());
+    }
+
     private void closeCurrentFile() throws JournalException {
         if (currentFile != null) {
             recoveryLog.log("Closing journal file: '"
@@ -235,6 +421,17 @@ public class MultiFileJournalReader
         }
     }
 
+    /**
+     * We're waiting if we're looking for the next file, or for more of the
+     * file that is being written.
+     */
+    @Override
+    public boolean isWaitingForEntries() {
+        JournalInputFile file = currentFile;
+        return super.isWaitingForEntries()
+                || (file != null && file.isWaitingForMore());
+    }
+
     @Override
     public String toString() {
         return super.toString() + ", journalDirectory='" + journalDirectory
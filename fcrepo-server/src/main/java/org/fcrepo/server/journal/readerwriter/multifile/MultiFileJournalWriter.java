@@ -5,6 +5,7 @@
 package org.fcrepo.server.journal.readerwriter.multifile;
 
 import java.io.File;
+import java.io.OutputStream;
 
 import java.util.Date;
 import java.util.Map;
@@ -15,6 +16,8 @@ import javax.xml.stream.XMLStreamException;
 import org.fcrepo.server.journal.JournalException;
 import org.fcrepo.server.journal.JournalWriter;
 import org.fcrepo.server.journal.ServerInterface;
+import org.fcrepo.server.journal.binaryhelpers.BinaryJournalOutput;
+import org.fcrepo.server.journal.binaryhelpers.JournalContentStore;
 import org.fcrepo.server.journal.entry.CreatorJournalEntry;
 import org.fcrepo.server.journal.helpers.JournalHelper;
 import org.fcrepo.server.journal.helpers.ParameterHelper;
@@ -24,6 +27,20 @@ import org.fcrepo.server.journal.helpers.ParameterHelper;
  * An implementation of JournalWriter that writes a series of Journal files to a
  * specified directory. New files are begun when the current file becomes too
  * large or too old.
+ * <p>
+ * Journal files are written as XML, unless the <code>journalFormat</code>
+ * parameter is <code>binary</code>. In the binary format, stream arguments
+ * are not Base64-encoded, and those larger than the
+ * <code>inlineContentLimit</code> parameter are written to content files in
+ * the <code>content</code> sub-directory of the journal directory. Content
+ * files are written before the Journal file that refers to them is renamed,
+ * so anything that moves Journal files to a follower must move the content
+ * sub-directory along with them.
+ * <p>
+ * If the <code>groupCommitDelay</code> parameter is given, entries are not
+ * written as they arrive. A {@link JournalGroupCommitter} writes them in
+ * groups, waiting that many milliseconds for more entries, and syncs each
+ * group to disk before the callers are released.
  * 
  * @author Jim Blake
  */
@@ -43,6 +60,18 @@ public class MultiFileJournalWriter
     /** number of milliseconds before we start a new file - 0 means no limit */
     private final long ageLimit;
 
+    /** write binary Journal files instead of XML? */
+    private final boolean binaryFormat;
+
+    /** in the binary format, larger stream arguments go to content files */
+    private final long inlineContentLimit;
+
+    /** where the content files go */
+    private final JournalContentStore contentStore;
+
+    /** writes and syncs entries in groups - null if entries are written singly */
+    private final JournalGroupCommitter groupCommitter;
+
     /** the current journal file - start with a dummy that is already closed. */
     private JournalOutputFile currentJournal = JournalOutputFile.DUMMY_FILE;
 
@@ -64,6 +93,24 @@ public class MultiFileJournalWriter
                 ParameterHelper.parseParametersForFilenamePrefix(parameters);
         sizeLimit = ParameterHelper.parseParametersForSizeLimit(parameters);
         ageLimit = ParameterHelper.parseParametersForAgeLimit(parameters);
+        binaryFormat =
+                MultiFileJournalHelper
+                        .parseParametersForBinaryFormat(parameters);
+        inlineContentLimit =
+                MultiFileJournalHelper
+                        .parseParametersForInlineContentLimit(parameters);
+        long groupCommitDelay =
+                MultiFileJournalHelper
+                        .parseParametersForGroupCommitDelay(parameters);
+        if (groupCommitDelay < 0) {
+            groupCommitter = null;
+        } else {
+            groupCommitter = new JournalGroupCommitter(this, groupCommitDelay);
+        }
+        // content must be on the disk before an entry that refers to it.
+        contentStore =
+                MultiFileJournalHelper.getContentStore(journalDirectory,
+                                                       isGroupCommit());
 
         checkForPotentialFilenameConflict();
     }
@@ -118,24 +165,69 @@ public class MultiFileJournalWriter
      * We've prepared for the entry, so just write it, but remember to
      * synchronize on the file, so we don't get an asynchronous close while
      * we're writing. After writing the entry, flush the file.
+     * <p>
+     * If entries are written in groups, just queue it.
      */
     @Override
     public void writeJournalEntry(CreatorJournalEntry journalEntry)
             throws JournalException {
         if (open) {
-            try {
-                synchronized (JournalWriter.SYNCHRONIZER) {
-                    XMLEventWriter xmlWriter = currentJournal.getXmlWriter();
-                    super.writeJournalEntry(journalEntry, xmlWriter);
-                    xmlWriter.flush();
+            synchronized (JournalWriter.SYNCHRONIZER) {
+                if (groupCommitter != null) {
+                    groupCommitter.queue(journalEntry);
+                } else {
+                    writeEntryToCurrentFile(journalEntry);
                     currentJournal.closeIfAppropriate();
                 }
-            } catch (XMLStreamException e) {
-                throw new JournalException(e);
             }
         }
     }
 
+    /**
+     * If entries are written in groups, wait until this one has been written
+     * and synced.
+     */
+    @Override
+    public void awaitJournalEntry(CreatorJournalEntry journalEntry)
+            throws JournalException {
+        if (groupCommitter != null) {
+            groupCommitter.await(journalEntry);
+        }
+    }
+
+    /**
+     * Write an entry to the current file and flush it. The caller must hold
+     * the {@link JournalWriter#SYNCHRONIZER}.
+     *
+     * @return the file that the entry was written to.
+     */
+    JournalOutputFile writeEntryToCurrentFile(CreatorJournalEntry journalEntry)
+            throws JournalException {
+        if (!currentJournal.isOpen()) {
+            throw new JournalException("No journal file is open for writing.");
+        }
+        try {
+            if (binaryFormat) {
+                currentJournal.getBinaryWriter().writeEntry(journalEntry);
+            } else {
+                XMLEventWriter xmlWriter = currentJournal.getXmlWriter();
+                super.writeJournalEntry(journalEntry, xmlWriter);
+                xmlWriter.flush();
+            }
+            return currentJournal;
+        } catch (XMLStreamException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * A convenience method so the JournalGroupCommitter can close the current
+     * file after writing a group, if it is large enough.
+     */
+    void closeCurrentFileIfAppropriate() throws JournalException {
+        currentJournal.closeIfAppropriate();
+    }
+
     /**
      * Close the current journal file.
      */
@@ -156,12 +248,72 @@ public class MultiFileJournalWriter
 
     /**
      * A convenience method so the JournalOutputFile can request its own
-     * trailer.
+     * trailer. Any entries that are still queued belong in this file, so
+     * write them first.
      */
     void getDocumentTrailer(XMLEventWriter xmlWriter) throws JournalException {
+        writeQueuedEntries();
         super.writeDocumentTrailer(xmlWriter);
     }
 
+    /**
+     * Should the JournalOutputFile be written in the binary format?
+     */
+    boolean isBinaryFormat() {
+        return binaryFormat;
+    }
+
+    /**
+     * A convenience method so the JournalOutputFile can create its writer, if
+     * it is binary.
+     */
+    BinaryJournalOutput createBinaryOutput(OutputStream out) {
+        return new BinaryJournalOutput(out, contentStore, inlineContentLimit);
+    }
+
+    /**
+     * A convenience method so the binary JournalOutputFile can request its own
+     * header.
+     */
+    void getDocumentHeader(BinaryJournalOutput binaryWriter)
+            throws JournalException {
+        binaryWriter.writeHeader(getRepositoryHash(), new Date());
+    }
+
+    /**
+     * A convenience method so the binary JournalOutputFile can request its own
+     * trailer. Any entries that are still queued belong in this file, so
+     * write them first.
+     */
+    void getDocumentTrailer(BinaryJournalOutput binaryWriter)
+            throws JournalException {
+        writeQueuedEntries();
+        binaryWriter.writeTrailer();
+    }
+
+    /**
+     * Are entries written in groups? If so, the JournalOutputFile must sync
+     * itself before it is closed.
+     */
+    boolean isGroupCommit() {
+        return groupCommitter != null;
+    }
+
+    /**
+     * Gets the JournalGroupCommitter, or null if entries are written singly.
+     */
+    JournalGroupCommitter getGroupCommitter() {
+        return groupCommitter;
+    }
+
+    private void writeQueuedEntries() {
+        if (groupCommitter != null) {
+            synchronized (JournalWriter.SYNCHRONIZER) {
+                groupCommitter.writeQueuedEntries();
+            }
+        }
+    }
+
     /**
      * Create an informative message for debugging purposes.
      */
@@ -169,7 +321,10 @@ public class MultiFileJournalWriter
     public String toString() {
         return super.toString() + ", journalDirectory='" + journalDirectory
                 + "', filenamePrefix='" + filenamePrefix + "', sizeLimit="
-                + sizeLimit + "(bytes), ageLimit=" + ageLimit + "(msec)";
+                + sizeLimit + "(bytes), ageLimit=" + ageLimit
+                + "(msec), binaryFormat=" + binaryFormat
+                + ", inlineContentLimit=" + inlineContentLimit + "(bytes)"
+                + ", groupCommit=" + isGroupCommit();
     }
 
 }
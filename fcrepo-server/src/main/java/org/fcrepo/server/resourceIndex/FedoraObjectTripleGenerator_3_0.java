@@ -6,6 +6,7 @@ package org.fcrepo.server.resourceIndex;
 
 import java.net.URI;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -38,7 +39,7 @@ import org.fcrepo.server.utilities.DCFields;
  */
 public class FedoraObjectTripleGenerator_3_0
         extends TripleGeneratorBase
-        implements Constants, TripleGenerator {
+        implements Constants, IncrementalTripleGenerator {
 
     /**
      * {@inheritDoc}
@@ -53,6 +54,83 @@ public class FedoraObjectTripleGenerator_3_0
         return set;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The object properties are always regenerated. Each datastream's triples
+     * are regenerated only if the datastream was added, removed or its
+     * properties changed, and the DC triples only if the content of DC
+     * changed. Relationships are regenerated only if the content of RELS-EXT
+     * or RELS-INT changed. This relies on each kind of source implying
+     * distinct triples, which holds because relationships may not use the
+     * reserved DC, model and view predicates that the other sources generate.
+     */
+    public void getTripleDiffs(DOReader oldReader,
+                               DOReader newReader,
+                               Set<Triple> deletes,
+                               Set<Triple> adds) throws ResourceIndexException {
+        try {
+            URIReference objURI = new SimpleURIReference(
+                    new URI(PID.toURI(newReader.GetObjectPID())));
+
+            Set<Triple> before = new HashSet<Triple>();
+            Set<Triple> after = new HashSet<Triple>();
+            addCoreObjectTriples(oldReader, objURI, before);
+            addCoreObjectTriples(newReader, objURI, after);
+
+            Map<String, Datastream> oldDatastreams = getDatastreams(oldReader);
+            Map<String, Datastream> newDatastreams = getDatastreams(newReader);
+            Set<String> dsIDs = new HashSet<String>(oldDatastreams.keySet());
+            dsIDs.addAll(newDatastreams.keySet());
+            for (String dsID : dsIDs) {
+                Datastream oldDS = oldDatastreams.get(dsID);
+                Datastream newDS = newDatastreams.get(dsID);
+                if (!sameProperties(oldDS, newDS)) {
+                    if (oldDS != null) {
+                        addCoreDatastreamTriples(oldDS, objURI, before);
+                    }
+                    if (newDS != null) {
+                        addCoreDatastreamTriples(newDS, objURI, after);
+                    }
+                }
+                if (dsID.equals("DC") && !sameContent(oldDS, newDS)) {
+                    if (oldDS != null) {
+                        addDCTriples(oldDS, objURI, before);
+                    }
+                    if (newDS != null) {
+                        addDCTriples(newDS, objURI, after);
+                    }
+                }
+            }
+
+            if (!sameContent(oldDatastreams.get("RELS-EXT"),
+                             newDatastreams.get("RELS-EXT"))
+                    || !sameContent(oldDatastreams.get("RELS-INT"),
+                                    newDatastreams.get("RELS-INT"))) {
+                addRelationshipTriples(oldReader, objURI, before);
+                addRelationshipTriples(newReader, objURI, after);
+            }
+
+            diff(before, after, deletes, adds);
+        } catch (ResourceIndexException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ResourceIndexException("Error generating triples", e);
+        }
+    }
+
+    /**
+     * Gets the current version of each of the object's datastreams, by ID.
+     */
+    private static Map<String, Datastream> getDatastreams(DOReader reader)
+            throws Exception {
+        Map<String, Datastream> map = new HashMap<String, Datastream>();
+        for (Datastream ds : reader.GetDatastreams(null, null)) {
+            map.put(ds.DatastreamID, ds);
+        }
+        return map;
+    }
+
     /**
      * Add the common core and datastream triples for the given object.
      */
@@ -0,0 +1,44 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.util.Set;
+
+import org.jrdf.graph.Triple;
+
+import org.fcrepo.server.errors.ResourceIndexException;
+import org.fcrepo.server.storage.DOReader;
+
+/**
+ * A <code>TripleGenerator</code> that can work out how an object's triples
+ * changed between two versions of the object by regenerating only the
+ * triples whose source (object properties, a datastream, DC, RELS-EXT or
+ * RELS-INT) changed.
+ */
+public interface IncrementalTripleGenerator
+        extends TripleGenerator {
+
+    /**
+     * Gets the difference between the triples implied by two versions of an
+     * object. The result is the same as diffing the full
+     * {@link #getTriplesForObject(DOReader)} sets of both versions.
+     *
+     * @param oldReader
+     *        The object before the change.
+     * @param newReader
+     *        The object after the change.
+     * @param deletes
+     *        Receives the triples implied by the old version only.
+     * @param adds
+     *        Receives the triples implied by the new version only.
+     * @throws ResourceIndexException
+     */
+    public void getTripleDiffs(DOReader oldReader,
+                               DOReader newReader,
+                               Set<Triple> deletes,
+                               Set<Triple> adds)
+            throws ResourceIndexException;
+
+}
@@ -27,11 +27,17 @@ import static org.fcrepo.common.Models.SERVICE_DEPLOYMENT_3_0;
  * {@link TripleGenerator} for that model. Returns the union of all triples
  * created by these generators.
  * </p>
+ * <p>
+ * When an object is modified, generators that implement
+ * {@link IncrementalTripleGenerator} only regenerate the triples of the parts
+ * of the object that changed; others regenerate all their triples for both
+ * versions.
+ * </p>
  *
  * @author Aaron Birkland
  */
 public class ModelBasedTripleGenerator
-        implements TripleGenerator {
+        implements IncrementalTripleGenerator {
 
     /**
      * Map of model-specific triple generators. Right now, this is entirely
@@ -111,4 +117,42 @@ public class ModelBasedTripleGenerator
 
         return objectTriples;
     }
+
+    /**
+     * Gets the difference between the triples implied by two versions of an
+     * object's models. If the object's models changed, all triples of both
+     * versions are generated and compared.
+     */
+    public void getTripleDiffs(DOReader oldReader,
+                               DOReader newReader,
+                               Set<Triple> deletes,
+                               Set<Triple> adds) throws ResourceIndexException {
+        Set<String> models;
+        try {
+            models = new HashSet<String>(newReader.getContentModels());
+            if (!models.equals(new HashSet<String>(oldReader.getContentModels()))) {
+                TripleGeneratorBase.diff(getTriplesForObject(oldReader),
+                                         getTriplesForObject(newReader),
+                                         deletes,
+                                         adds);
+                return;
+            }
+        } catch (ServerException e) {
+            throw new ResourceIndexException("Could not read object's content model",
+                                             e);
+        }
+
+        for (String model : models) {
+            TripleGenerator generator = m_generators.get(model);
+            if (generator instanceof IncrementalTripleGenerator) {
+                ((IncrementalTripleGenerator) generator)
+                        .getTripleDiffs(oldReader, newReader, deletes, adds);
+            } else if (generator != null) {
+                TripleGeneratorBase.diff(generator.getTriplesForObject(oldReader),
+                                         generator.getTriplesForObject(newReader),
+                                         deletes,
+                                         adds);
+            }
+        }
+    }
 }
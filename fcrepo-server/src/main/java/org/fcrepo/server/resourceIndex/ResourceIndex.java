@@ -78,6 +78,17 @@ public interface ResourceIndex
      */
     void deleteObject(DOReader oldReader) throws ResourceIndexException;
 
+    /**
+     * Waits until all changes made so far to the given object are visible
+     * to queries. Returns immediately unless updates are asynchronous.
+     * 
+     * @param pid
+     *        the object whose changes should be visible.
+     * @throws ResourceIndexException
+     *         If the changes can't be applied within a reasonable time.
+     */
+    void awaitObject(String pid) throws ResourceIndexException;
+
     /**
      * Exports all triples in the RI.
      * 
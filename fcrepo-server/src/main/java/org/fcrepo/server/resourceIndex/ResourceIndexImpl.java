@@ -4,9 +4,11 @@
  */
 package org.fcrepo.server.resourceIndex;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -62,6 +64,15 @@ public class ResourceIndexImpl
      */
     private final boolean _syncUpdates;
 
+    /** How long to wait for queued updates of an object to be applied. */
+    private static final long AWAIT_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Queue that object changes go through when updates are asynchronous;
+     * null if they are written directly.
+     */
+    private ResourceIndexUpdateQueue _queue;
+
     ////////////////////
     // Initialization //
     ////////////////////
@@ -77,6 +88,48 @@ public class ResourceIndexImpl
         _syncUpdates = syncUpdates;
     }
 
+    /**
+     * Creates an instance that applies object changes asynchronously, in
+     * batches, through a durable <code>ResourceIndexUpdateQueue</code>.
+     *
+     * @param updateLog the queue's write-ahead log.
+     * @param syncUpdateLog whether to fsync the log on every change.
+     * @param batchDelayMillis how long to collect changes before writing.
+     * @param maxBatchSize how many objects' changes to write at most at once.
+     */
+    public ResourceIndexImpl(TriplestoreConnector connector,
+                             TripleGenerator generator,
+                             int indexLevel,
+                             boolean syncUpdates,
+                             File updateLog,
+                             boolean syncUpdateLog,
+                             long batchDelayMillis,
+                             int maxBatchSize)
+            throws ResourceIndexException {
+        this(connector, generator, indexLevel, syncUpdates);
+        _queue = new ResourceIndexUpdateQueue(
+                new ResourceIndexUpdateQueue.BatchWriter() {
+
+                    public void apply(Set<Triple> deletes, Set<Triple> adds)
+                            throws Exception {
+                        _writer.delete(getTripleIterator(deletes), _syncUpdates);
+                        _writer.add(getTripleIterator(adds), _syncUpdates);
+                    }
+                },
+                updateLog,
+                syncUpdateLog,
+                batchDelayMillis,
+                maxBatchSize);
+    }
+
+    /**
+     * Gets the queue that object changes go through, or null if they are
+     * written directly.
+     */
+    public ResourceIndexUpdateQueue getUpdateQueue() {
+        return _queue;
+    }
+
     ///////////////////////////
     // ResourceIndex methods //
     ///////////////////////////
@@ -93,7 +146,14 @@ public class ResourceIndexImpl
      */
     public void addObject(DOReader reader) throws ResourceIndexException {
         if (_indexLevel > INDEX_LEVEL_OFF) {
-            updateTriples(_generator.getTriplesForObject(reader), false);
+            Set<Triple> triples = _generator.getTriplesForObject(reader);
+            if (_queue != null) {
+                _queue.enqueue(reader.getObject().getPid(),
+                               Collections.<Triple> emptySet(),
+                               triples);
+            } else {
+                updateTriples(triples, false);
+            }
         }
     }
 
@@ -103,8 +163,22 @@ public class ResourceIndexImpl
     public void modifyObject(DOReader oldReader, DOReader newReader)
             throws ResourceIndexException {
         if (_indexLevel > INDEX_LEVEL_OFF) {
-            updateTripleDiffs(_generator.getTriplesForObject(oldReader),
-                              _generator.getTriplesForObject(newReader));
+            String pid = newReader.getObject().getPid();
+            if (_generator instanceof IncrementalTripleGenerator) {
+                // only regenerate the triples of what changed
+                Set<Triple> obsoleteTriples = new HashSet<Triple>();
+                Set<Triple> newTriples = new HashSet<Triple>();
+                ((IncrementalTripleGenerator) _generator)
+                        .getTripleDiffs(oldReader,
+                                        newReader,
+                                        obsoleteTriples,
+                                        newTriples);
+                applyTripleDiffs(pid, obsoleteTriples, newTriples);
+            } else {
+                updateTripleDiffs(pid,
+                                  _generator.getTriplesForObject(oldReader),
+                                  _generator.getTriplesForObject(newReader));
+            }
         }
     }
 
@@ -113,7 +187,31 @@ public class ResourceIndexImpl
      */
     public void deleteObject(DOReader oldReader) throws ResourceIndexException {
         if (_indexLevel > INDEX_LEVEL_OFF) {
-            updateTriples(_generator.getTriplesForObject(oldReader), true);
+            Set<Triple> triples = _generator.getTriplesForObject(oldReader);
+            if (_queue != null) {
+                _queue.enqueue(oldReader.getObject().getPid(),
+                               triples,
+                               Collections.<Triple> emptySet());
+            } else {
+                updateTriples(triples, true);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void awaitObject(String pid) throws ResourceIndexException {
+        if (_queue != null) {
+            _queue.awaitObject(pid, AWAIT_TIMEOUT_MILLIS);
+            if (!_syncUpdates) {
+                try {
+                    _writer.flushBuffer();
+                } catch (Exception e) {
+                    throw new ResourceIndexException("Error flushing triples",
+                                                     e);
+                }
+            }
         }
     }
 
@@ -154,23 +252,41 @@ public class ResourceIndexImpl
 
     /**
      * Computes the difference between the given sets and applies the
-     * appropriate deletes and adds to the triplestore. If _syncUpdates is true,
-     * changes will be flushed before returning.
+     * appropriate deletes and adds to the triplestore, or queues them if
+     * updates are asynchronous. If _syncUpdates is true, changes will be
+     * flushed before returning.
      */
-    private void updateTripleDiffs(Set<Triple> existing, Set<Triple> desired)
+    private void updateTripleDiffs(String pid,
+                                   Set<Triple> existing,
+                                   Set<Triple> desired)
             throws ResourceIndexException {
 
         // Delete any existing triples that are no longer desired,
         // leaving the ones we want in place
         HashSet<Triple> obsoleteTriples = new HashSet<Triple>(existing);
         obsoleteTriples.removeAll(desired);
-        updateTriples(obsoleteTriples, true);
 
         // Add only new desired triples
         HashSet<Triple> newTriples = new HashSet<Triple>(desired);
         newTriples.removeAll(existing);
-        updateTriples(newTriples, false);
 
+        applyTripleDiffs(pid, obsoleteTriples, newTriples);
+    }
+
+    /**
+     * Applies the given deletes and adds to the triplestore, or queues them if
+     * updates are asynchronous.
+     */
+    private void applyTripleDiffs(String pid,
+                                  Set<Triple> obsoleteTriples,
+                                  Set<Triple> newTriples)
+            throws ResourceIndexException {
+        if (_queue != null) {
+            _queue.enqueue(pid, obsoleteTriples, newTriples);
+            return;
+        }
+        updateTriples(obsoleteTriples, true);
+        updateTriples(newTriples, false);
     }
 
     /**
@@ -378,6 +494,9 @@ public class ResourceIndexImpl
      * {@inheritDoc}
      */
     public void close() throws TrippiException {
+        if (_queue != null) {
+            _queue.close(AWAIT_TIMEOUT_MILLIS);
+        }
         _connector.close();
     }
 
@@ -437,6 +556,13 @@ public class ResourceIndexImpl
      * {@inheritDoc}
      */
     public void flushBuffer() throws IOException, TrippiException {
+        if (_queue != null) {
+            try {
+                _queue.awaitAll(AWAIT_TIMEOUT_MILLIS);
+            } catch (ResourceIndexException e) {
+                throw new TrippiException(e.getMessage(), e);
+            }
+        }
         _writer.flushBuffer();
     }
 
@@ -4,6 +4,7 @@
  */
 package org.fcrepo.server.resourceIndex;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -86,6 +87,19 @@ public class ResourceIndexModule
      * triple buffer before returning from object modification operations.
      * Specifying this as true will ensure that RI queries always reflect the
      * latest triples. </li>
+     * <li> asyncUpdates (optional, default is false)<br/> Whether to queue
+     * object changes in a local write-ahead log and apply them to the
+     * triplestore in batches, in the background, rather than as part of each
+     * commit. </li>
+     * <li> asyncUpdateLog (optional, default is data/ri-update.log)<br/>
+     * The write-ahead log used when asyncUpdates is true. Relative paths are
+     * resolved against FEDORA_HOME. </li>
+     * <li> asyncSyncLog (optional, default is true)<br/> Whether to force the
+     * write-ahead log to disk on every change. </li>
+     * <li> asyncBatchDelayMillis (optional, default is 500)<br/> How long
+     * changes are collected before a batch is written. </li>
+     * <li> asyncMaxBatchSize (optional, default is 500)<br/> The number of
+     * changed objects that triggers a batch without waiting. </li>
      * <li> alias:xyz (optional, uri)<br/> Any parameter starting with "alias:"
      * will be put into Trippi's alias map, and can be used for queries. For
      * example, alias:xyz with a value of urn:example:long:uri:x:y:z: will make
@@ -117,10 +131,30 @@ public class ResourceIndexModule
             TripleGenerator generator =
                 getServer().getBean(TripleGenerator.class.getName(), TripleGenerator.class);
 
-            _ri = new ResourceIndexImpl(connector,
-                                        generator,
-                                        level,
-                                        syncUpdates);
+            if (getBoolean("asyncUpdates", false)) {
+                File log = new File(getOptional("asyncUpdateLog",
+                                                "data/ri-update.log"));
+                if (!log.isAbsolute()) {
+                    log = new File(getServer().getHomeDir(), log.getPath());
+                }
+                _ri = new ResourceIndexImpl(connector,
+                                            generator,
+                                            level,
+                                            syncUpdates,
+                                            log,
+                                            getBoolean("asyncSyncLog", true),
+                                            getPositiveInt("asyncBatchDelayMillis",
+                                                           500),
+                                            getPositiveInt("asyncMaxBatchSize",
+                                                           500));
+                logger.info("Resource Index updates are asynchronous, "
+                        + "logged to " + log);
+            } else {
+                _ri = new ResourceIndexImpl(connector,
+                                            generator,
+                                            level,
+                                            syncUpdates);
+            }
             setAliasMap(getAliases());
 
         } catch (Exception e) {
@@ -208,6 +242,28 @@ public class ResourceIndexModule
         }
     }
 
+    private int getPositiveInt(String name, int defaultValue)
+            throws ModuleInitializationException {
+        String value = getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int i = Integer.parseInt(value);
+            if (i > 0) {
+                return i;
+            }
+        } catch (NumberFormatException e) {
+        }
+        throw new ModuleInitializationException(name + " parameter, if "
+                + "specified, must be a positive integer", getRole());
+    }
+
+    private String getOptional(String name, String defaultValue) {
+        String value = getParameter(name);
+        return value == null ? defaultValue : value;
+    }
+
     private String getRequired(String name)
             throws ModuleInitializationException {
         String value = getParameter(name);
@@ -228,6 +284,11 @@ public class ResourceIndexModule
     @Override
     public void shutdownModule() throws ModuleShutdownException {
         if (_ri != null) {
+            if (_ri instanceof ResourceIndexImpl
+                    && ((ResourceIndexImpl) _ri).getUpdateQueue() != null) {
+                logger.info("Shutting down RI update queue: "
+                        + ((ResourceIndexImpl) _ri).getUpdateQueue());
+            }
             try {
                 _ri.close();
             } catch (TrippiException e) {
@@ -275,6 +336,15 @@ public class ResourceIndexModule
         _ri.deleteObject(oldReader);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void awaitObject(String pid) throws ResourceIndexException {
+        if (_ri != null) {
+            _ri.awaitObject(pid);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -9,12 +9,21 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Resource;
 
+import org.jrdf.graph.Triple;
+
 import org.trippi.TriplestoreConnector;
 import org.trippi.impl.mulgara.MulgaraConnector;
 
@@ -25,7 +34,7 @@ import org.fcrepo.server.config.ServerConfiguration;
 import org.fcrepo.server.errors.ResourceIndexException;
 import org.fcrepo.server.storage.SimpleDOReader;
 import org.fcrepo.server.storage.types.DigitalObject;
-import org.fcrepo.server.utilities.rebuild.Rebuilder;
+import org.fcrepo.server.utilities.rebuild.ResumableRebuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -38,13 +47,41 @@ import org.springframework.context.ApplicationContextAware;
  * A Rebuilder for the resource index.
  */
 public class ResourceIndexRebuilder
-        implements ApplicationContextAware, Rebuilder {
+        implements ApplicationContextAware, ResumableRebuilder {
 
     private static Logger logger = LoggerFactory.getLogger(ResourceIndexRebuilder.class.getName());
 
     private static final String moduleName = "org.fcrepo.server.resourceIndex.ResourceIndex";
     private static final String configName = "org.fcrepo.server.resourceIndex.ResourceIndexConfiguration";
 
+    /** The system property giving the number of triples written at once. */
+    private static final String CHUNK_SIZE_PROPERTY =
+            "fedora.rebuild.tripleChunkSize";
+
+    private static final int DEFAULT_CHUNK_SIZE = 100000;
+
+    /** Orders triples by subject, predicate and object. */
+    private static final Comparator<Triple> TRIPLE_ORDER =
+            new Comparator<Triple>() {
+
+                public int compare(Triple a, Triple b) {
+                    int c =
+                            a.getSubject().toString()
+                                    .compareTo(b.getSubject().toString());
+                    if (c == 0) {
+                        c =
+                                a.getPredicate().toString()
+                                        .compareTo(b.getPredicate().toString());
+                    }
+                    if (c == 0) {
+                        c =
+                                a.getObject().toString()
+                                        .compareTo(b.getObject().toString());
+                    }
+                    return c;
+                }
+            };
+
     private ModuleConfiguration m_riConfig;
 
     private ApplicationContext m_context;
@@ -55,8 +92,32 @@ public class ResourceIndexRebuilder
 
     private TripleGenerator m_generator;
 
+    /**
+     * The triples of the objects added since they were last written, by
+     * PID, in the order the objects were added.
+     */
+    private final Map<String, Set<Triple>> m_objectTriples =
+            new LinkedHashMap<String, Set<Triple>>();
+
+    /** The number of triples in m_objectTriples. */
+    private int m_tripleCount;
+
+    private final int m_chunkSize;
+
     public ResourceIndexRebuilder(){
+        m_chunkSize = Integer.getInteger(CHUNK_SIZE_PROPERTY, DEFAULT_CHUNK_SIZE);
+    }
 
+    /**
+     * Creates an instance that writes to the given, already started,
+     * Resource Index.
+     */
+    ResourceIndexRebuilder(ResourceIndex ri,
+                           TripleGenerator generator,
+                           int chunkSize) {
+        m_ri = ri;
+        m_generator = generator;
+        m_chunkSize = chunkSize;
     }
 
     @Resource(name = "org.trippi.TriplestoreConnector")
@@ -116,6 +177,27 @@ public class ResourceIndexRebuilder
      */
     public void start(Map<String, String> options)
     throws ResourceIndexException {
+        start(true);
+    }
+
+    /**
+     * Prepare to continue an interrupted rebuild, keeping the triples
+     * already in the triplestore.
+     */
+    public void resume(Map<String, String> options)
+    throws ResourceIndexException {
+        start(false);
+    }
+
+    /**
+     * Write any collected or buffered triples to the triplestore.
+     */
+    public void flush() throws Exception {
+        writeTriples();
+        m_ri.flushBuffer();
+    }
+
+    private void start(boolean clear) throws ResourceIndexException {
         // validate options
 
         // do startup tasks
@@ -152,7 +234,7 @@ public class ResourceIndexRebuilder
 
         System.out.println("Initializing triplestore interface...");
         try {
-            if (m_conn instanceof MulgaraConnector){
+            if (clear && m_conn instanceof MulgaraConnector){
                 String path = m_conn.getConfiguration().get("path");
                 dropIndex(path);
             }
@@ -196,12 +278,84 @@ public class ResourceIndexRebuilder
     }
 
     /**
-     * Add the data of interest for the given object.
+     * Add the data of interest for the given object. Its triples are
+     * collected with those of other objects, and written in large chunks.
      *
      * @throws ResourceIndexException
      */
     public void addObject(DigitalObject obj) throws ResourceIndexException {
-        m_ri.addObject(new SimpleDOReader(null, null, null, null, null, obj));
+        if (m_ri.getIndexLevel() > ResourceIndex.INDEX_LEVEL_OFF) {
+            Set<Triple> triples =
+                    m_generator.getTriplesForObject(new SimpleDOReader(null,
+                                                                       null,
+                                                                       null,
+                                                                       null,
+                                                                       null,
+                                                                       obj));
+            Set<Triple> previous = m_objectTriples.get(obj.getPid());
+            if (previous != null) {
+                // added again, as when a rebuild is resumed
+                m_tripleCount -= previous.size();
+                Set<Triple> merged = new HashSet<Triple>(previous);
+                merged.addAll(triples);
+                triples = merged;
+            }
+            m_objectTriples.put(obj.getPid(), triples);
+            m_tripleCount += triples.size();
+            if (m_tripleCount >= m_chunkSize) {
+                writeTriples();
+            }
+        }
+    }
+
+    /**
+     * Writes the collected triples to the triplestore in one update, sorted
+     * so that the triples of each subject are together. If that fails, the
+     * triples of each object are written separately, so only the objects in
+     * error are left out of the index.
+     */
+    private void writeTriples() {
+        if (m_objectTriples.isEmpty()) {
+            return;
+        }
+        try {
+            List<Triple> chunk = new ArrayList<Triple>(m_tripleCount);
+            for (Set<Triple> triples : m_objectTriples.values()) {
+                chunk.addAll(triples);
+            }
+            Collections.sort(chunk, TRIPLE_ORDER);
+            try {
+                m_ri.add(chunk, true);
+            } catch (Exception e) {
+                logger.warn("Error writing " + chunk.size() + " triples of "
+                        + m_objectTriples.size()
+                        + " objects; writing them one object at a time", e);
+                for (Map.Entry<String, Set<Triple>> entry : m_objectTriples
+                        .entrySet()) {
+                    writeTriples(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            m_objectTriples.clear();
+            m_tripleCount = 0;
+        }
+    }
+
+    /**
+     * Writes the triples of one object, reporting a failure rather than
+     * throwing it.
+     */
+    private void writeTriples(String pid, Set<Triple> triples) {
+        List<Triple> sorted = new ArrayList<Triple>(triples);
+        Collections.sort(sorted, TRIPLE_ORDER);
+        try {
+            m_ri.add(sorted, true);
+        } catch (Exception e) {
+            logger.error("Error writing the triples of " + pid
+                    + "; it is not in the Resource Index", e);
+            System.out.println("Error writing the triples of " + pid + ": "
+                    + e.getClass().getName() + ": " + e.getMessage());
+        }
     }
 
     /**
@@ -209,6 +363,7 @@ public class ResourceIndexRebuilder
      */
     public void finish() throws Exception {
         if (m_ri != null) {
+            writeTriples();
             m_ri.flushBuffer();
             m_ri.close();
         }
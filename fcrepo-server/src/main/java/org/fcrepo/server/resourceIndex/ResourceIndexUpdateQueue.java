@@ -0,0 +1,823 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.net.URI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jrdf.graph.Literal;
+import org.jrdf.graph.Node;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.common.rdf.SimpleLiteral;
+import org.fcrepo.common.rdf.SimpleTriple;
+import org.fcrepo.common.rdf.SimpleURIReference;
+import org.fcrepo.server.errors.ResourceIndexException;
+
+/**
+ * A durable, per-object coalescing queue of Resource Index updates.
+ * <p>
+ * Each update (the triples to delete and add for one object) is appended to a
+ * local write-ahead log before <code>enqueue</code> returns, so it survives a
+ * crash. A background thread periodically takes everything queued, merges
+ * the pending updates for each object into one, and applies the whole batch
+ * with a single delete and a single add call on the triplestore. Log segments
+ * are deleted once the batch they hold has been applied; anything left over
+ * at startup is replayed.
+ * <p>
+ * A batch that fails is retried after a delay. Once it has failed a few
+ * times in a row, its objects are applied one at a time, and an object that
+ * fails on its own while others succeed is moved to a dead-letter log next to
+ * the write-ahead log (named with a <code>.failed</code> suffix, in the same
+ * format), with its error, so it can't hold up the rest. If every object fails, the triplestore
+ * is taken to be unavailable, and the batch is retried as before.
+ * <p>
+ * Callers that need to see their own changes can wait for a single object's
+ * updates with {@link #awaitObject(String, long)}, or for everything with
+ * {@link #awaitAll(long)}.
+ */
+public class ResourceIndexUpdateQueue {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(ResourceIndexUpdateQueue.class);
+
+    private static final String ENCODING = "UTF-8";
+
+    /** How long to wait before retrying a batch that failed. */
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
+    /** How many times a batch fails before its objects are applied singly. */
+    private static final int MAX_BATCH_FAILURES = 3;
+
+    private static final String DEAD_LETTER_SUFFIX = ".failed";
+
+    /**
+     * Applies a batch of triple changes to the triplestore, deletes first.
+     */
+    public interface BatchWriter {
+
+        void apply(Set<Triple> deletes, Set<Triple> adds) throws Exception;
+    }
+
+    private final BatchWriter m_batchWriter;
+
+    private final File m_logFile;
+
+    private final boolean m_syncLog;
+
+    private final long m_batchDelayMillis;
+
+    private final int m_maxBatchSize;
+
+    private long m_retryDelayMillis = RETRY_DELAY_MILLIS;
+
+    /** Updates not yet taken by the writer, in arrival order of each PID. */
+    private LinkedHashMap<String, Update> m_pending =
+            new LinkedHashMap<String, Update>();
+
+    /** PIDs (and their oldest queue time) in the batch being applied. */
+    private Map<String, Long> m_inFlight = new LinkedHashMap<String, Long>();
+
+    /** Log segments whose updates have not been applied yet. */
+    private List<File> m_unappliedLogs = new ArrayList<File>();
+
+    private FileOutputStream m_logOut;
+
+    private Writer m_log;
+
+    private int m_nextSegment;
+
+    private boolean m_flushRequested;
+
+    private boolean m_closed;
+
+    private long m_appliedBatches;
+
+    private long m_appliedObjects;
+
+    private long m_failedBatches;
+
+    private long m_failedObjects;
+
+    private final Thread m_worker;
+
+    /**
+     * Creates the queue, replays any updates left in the log by a previous
+     * run, and starts the writer thread.
+     *
+     * @param batchWriter applies batches to the triplestore.
+     * @param logFile the write-ahead log; segments are created next to it.
+     * @param syncLog whether to fsync the log after each update.
+     * @param batchDelayMillis how long the writer waits to collect a batch.
+     * @param maxBatchSize the number of objects that triggers a batch
+     *        without waiting for the delay.
+     */
+    public ResourceIndexUpdateQueue(BatchWriter batchWriter,
+                                    File logFile,
+                                    boolean syncLog,
+                                    long batchDelayMillis,
+                                    int maxBatchSize)
+            throws ResourceIndexException {
+        m_batchWriter = batchWriter;
+        m_logFile = logFile;
+        m_syncLog = syncLog;
+        m_batchDelayMillis = batchDelayMillis;
+        m_maxBatchSize = maxBatchSize;
+        try {
+            File dir = logFile.getAbsoluteFile().getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Cannot create directory " + dir);
+            }
+            recover();
+            openLog();
+        } catch (IOException e) {
+            throw new ResourceIndexException("Error initializing RI update "
+                    + "queue at " + logFile, e);
+        }
+        m_worker = new Thread("ResourceIndexUpdateQueue") {
+
+            @Override
+            public void run() {
+                runWorker();
+            }
+        };
+        m_worker.setDaemon(true);
+        m_worker.start();
+    }
+
+    /**
+     * Durably queues the given changes for an object.
+     */
+    public void enqueue(String pid, Set<Triple> deletes, Set<Triple> adds)
+            throws ResourceIndexException {
+        if (deletes.isEmpty() && adds.isEmpty()) {
+            return;
+        }
+        String record = encode(pid, deletes, adds);
+        Update update = new Update(deletes, adds, System.currentTimeMillis());
+        synchronized (this) {
+            if (m_closed) {
+                throw new ResourceIndexException("RI update queue is closed");
+            }
+            try {
+                m_log.write(record);
+                m_log.flush();
+                if (m_syncLog) {
+                    m_logOut.getFD().sync();
+                }
+            } catch (IOException e) {
+                throw new ResourceIndexException("Error writing to RI update "
+                        + "log " + m_logFile, e);
+            }
+            add(m_pending, pid, update);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until every update queued so far for the given object has been
+     * applied to the triplestore.
+     *
+     * @throws ResourceIndexException if that doesn't happen within the timeout.
+     */
+    public synchronized void awaitObject(String pid, long timeoutMillis)
+            throws ResourceIndexException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (m_pending.containsKey(pid) || m_inFlight.containsKey(pid)) {
+            awaitChange(deadline, pid);
+        }
+    }
+
+    /**
+     * Waits until every update queued so far has been applied to the
+     * triplestore.
+     *
+     * @throws ResourceIndexException if that doesn't happen within the timeout.
+     */
+    public synchronized void awaitAll(long timeoutMillis)
+            throws ResourceIndexException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!m_pending.isEmpty() || !m_inFlight.isEmpty()) {
+            awaitChange(deadline, "all objects");
+        }
+    }
+
+    private void awaitChange(long deadline, String what)
+            throws ResourceIndexException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new ResourceIndexException("Timed out waiting for RI "
+                    + "updates of " + what);
+        }
+        m_flushRequested = true;
+        notifyAll();
+        try {
+            wait(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceIndexException("Interrupted waiting for RI "
+                    + "updates of " + what);
+        }
+    }
+
+    /**
+     * Applies what's queued (waiting up to the given time), then stops the
+     * writer thread. Anything not applied stays in the log for the next run.
+     */
+    public void close(long timeoutMillis) {
+        try {
+            awaitAll(timeoutMillis);
+        } catch (ResourceIndexException e) {
+            logger.warn("RI update queue not empty at shutdown; " + "remaining "
+                    + "updates will be applied on next startup");
+        }
+        synchronized (this) {
+            m_closed = true;
+            notifyAll();
+        }
+        try {
+            m_worker.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                m_log.close();
+            } catch (IOException e) {
+                logger.warn("Error closing RI update log", e);
+            }
+        }
+    }
+
+    /** For testing: how long to wait before retrying a failed batch. */
+    synchronized void setRetryDelay(long retryDelayMillis) {
+        m_retryDelayMillis = retryDelayMillis;
+    }
+
+    /** The number of objects with updates not yet applied. */
+    public synchronized int getQueueDepth() {
+        return m_pending.size() + m_inFlight.size();
+    }
+
+    /** The number of triple changes waiting for the next batch. */
+    public synchronized int getPendingTripleCount() {
+        int count = 0;
+        for (Update update : m_pending.values()) {
+            count += update.deletes.size() + update.adds.size();
+        }
+        return count;
+    }
+
+    /**
+     * How long the oldest update not yet applied has been waiting, in
+     * milliseconds, or zero if there is none.
+     */
+    public synchronized long getLagMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (Long queued : m_inFlight.values()) {
+            oldest = Math.min(oldest, queued.longValue());
+        }
+        for (Update update : m_pending.values()) {
+            oldest = Math.min(oldest, update.queued);
+        }
+        if (oldest == Long.MAX_VALUE) {
+            return 0;
+        }
+        return System.currentTimeMillis() - oldest;
+    }
+
+    /** The number of batches applied so far. */
+    public synchronized long getAppliedBatchCount() {
+        return m_appliedBatches;
+    }
+
+    /** The number of (coalesced) object updates applied so far. */
+    public synchronized long getAppliedObjectCount() {
+        return m_appliedObjects;
+    }
+
+    /** The number of batches that failed and were retried. */
+    public synchronized long getFailedBatchCount() {
+        return m_failedBatches;
+    }
+
+    /** The number of object updates moved to the dead-letter log. */
+    public synchronized long getFailedObjectCount() {
+        return m_failedObjects;
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceIndexUpdateQueue[depth=" + getQueueDepth()
+                + ", pendingTriples=" + getPendingTripleCount()
+                + ", lagMillis=" + getLagMillis() + ", appliedBatches="
+                + getAppliedBatchCount() + ", appliedObjects="
+                + getAppliedObjectCount() + ", failedBatches="
+                + getFailedBatchCount() + ", failedObjects="
+                + getFailedObjectCount() + "]";
+    }
+
+    //////////////////
+    // Writer thread //
+    //////////////////
+
+    private void runWorker() {
+        // consecutive failures of the batch being retried
+        int failures = 0;
+        while (true) {
+            LinkedHashMap<String, Update> batch;
+            List<File> batchLogs;
+            synchronized (this) {
+                try {
+                    while (!m_closed && m_pending.isEmpty()) {
+                        wait();
+                    }
+                    // give the batch a chance to fill up
+                    long deadline =
+                            System.currentTimeMillis() + m_batchDelayMillis;
+                    long remaining = m_batchDelayMillis;
+                    while (!m_closed && !m_flushRequested && remaining > 0
+                            && m_pending.size() < m_maxBatchSize) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (m_closed) {
+                    // anything left stays in the log for the next run
+                    return;
+                }
+                m_flushRequested = false;
+                batch = m_pending;
+                m_pending = new LinkedHashMap<String, Update>();
+                m_inFlight = new LinkedHashMap<String, Long>();
+                for (Map.Entry<String, Update> entry : batch.entrySet()) {
+                    m_inFlight.put(entry.getKey(), entry.getValue().queued);
+                }
+                batchLogs = m_unappliedLogs;
+                m_unappliedLogs = new ArrayList<File>();
+                try {
+                    batchLogs.add(rollLog());
+                } catch (IOException e) {
+                    logger.error("Error rolling RI update log", e);
+                }
+            }
+
+            Map<String, Throwable> rejected =
+                    new LinkedHashMap<String, Throwable>();
+            boolean applied;
+            if (failures < MAX_BATCH_FAILURES) {
+                Throwable error = applyBatch(batch);
+                applied = error == null;
+                if (!applied) {
+                    logger.error("Error applying RI batch of " + batch.size()
+                            + " objects; will retry", error);
+                }
+            } else {
+                applied = applyEach(batch, failures, rejected);
+            }
+
+            synchronized (this) {
+                m_inFlight = new LinkedHashMap<String, Long>();
+                if (applied) {
+                    failures = 0;
+                    m_appliedBatches++;
+                    m_appliedObjects += batch.size() - rejected.size();
+                    for (Map.Entry<String, Throwable> entry : rejected
+                            .entrySet()) {
+                        String pid = entry.getKey();
+                        deadLetter(pid, batch.get(pid), entry.getValue());
+                    }
+                    for (File log : batchLogs) {
+                        if (!log.delete()) {
+                            logger.warn("Could not delete applied RI update "
+                                    + "log " + log);
+                        }
+                    }
+                } else {
+                    failures++;
+                    m_failedBatches++;
+                    // put the batch back in front of anything newer
+                    for (Map.Entry<String, Update> entry : m_pending.entrySet()) {
+                        add(batch, entry.getKey(), entry.getValue());
+                    }
+                    m_pending = batch;
+                    batchLogs.addAll(m_unappliedLogs);
+                    m_unappliedLogs = batchLogs;
+                }
+                notifyAll();
+                if (!applied) {
+                    // back off; flush requests don't cut this short
+                    long retryAt =
+                            System.currentTimeMillis() + m_retryDelayMillis;
+                    long remaining = m_retryDelayMillis;
+                    try {
+                        while (!m_closed && remaining > 0) {
+                            wait(remaining);
+                            remaining = retryAt - System.currentTimeMillis();
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the batch as a whole.
+     *
+     * @return null if it was applied, or the error if it wasn't.
+     */
+    private Throwable applyBatch(Map<String, Update> batch) {
+        Set<Triple> deletes = new HashSet<Triple>();
+        Set<Triple> adds = new HashSet<Triple>();
+        for (Update update : batch.values()) {
+            deletes.addAll(update.deletes);
+            adds.addAll(update.adds);
+        }
+        long start = System.currentTimeMillis();
+        try {
+            m_batchWriter.apply(deletes, adds);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Applied RI batch of " + batch.size()
+                        + " objects (" + deletes.size() + " deletes, "
+                        + adds.size() + " adds) in "
+                        + (System.currentTimeMillis() - start) + "ms");
+            }
+            return null;
+        } catch (Throwable th) {
+            return th;
+        }
+    }
+
+    /**
+     * Applies the objects of the batch one at a time, after the batch has
+     * failed repeatedly, and collects the objects that failed.
+     *
+     * @return false if every object failed, so none was applied.
+     */
+    private boolean applyEach(Map<String, Update> batch,
+                              int failures,
+                              Map<String, Throwable> rejected) {
+        logger.warn("RI batch of " + batch.size() + " objects failed "
+                + failures + " times; applying objects one at a time");
+        for (Map.Entry<String, Update> entry : batch.entrySet()) {
+            Throwable error =
+                    applyBatch(Collections.singletonMap(entry.getKey(), entry
+                            .getValue()));
+            if (error != null) {
+                rejected.put(entry.getKey(), error);
+            }
+        }
+        if (rejected.size() < batch.size()) {
+            return true;
+        }
+        logger.error("Error applying each of the " + batch.size()
+                + " objects of an RI batch; will retry", rejected.values()
+                .iterator().next());
+        rejected.clear();
+        return false;
+    }
+
+    /**
+     * Moves an object's update that can't be applied to the dead-letter log,
+     * with its error, so it no longer holds up the queue.
+     */
+    private void deadLetter(String pid, Update update, Throwable error) {
+        File deadLetters = new File(m_logFile.getPath() + DEAD_LETTER_SUFFIX);
+        logger.error("Giving up on RI update of " + pid + "; it is saved in "
+                + deadLetters, error);
+        m_failedObjects++;
+        try {
+            FileOutputStream out = new FileOutputStream(deadLetters, true);
+            try {
+                Writer writer = new OutputStreamWriter(out, ENCODING);
+                writer.write("# " + new Date() + " "
+                        + escape(String.valueOf(error)) + "\n");
+                writer.write(encode(pid, update.deletes, update.adds));
+                writer.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } catch (Exception e) {
+            logger.error("Error saving RI update of " + pid + " in "
+                    + deadLetters + "; the update is lost", e);
+        }
+    }
+
+    /**
+     * Merges an update into the map, as if it were applied after whatever is
+     * already there for the same object.
+     */
+    private static void add(Map<String, Update> updates,
+                            String pid,
+                            Update later) {
+        Update earlier = updates.get(pid);
+        if (earlier == null) {
+            updates.put(pid, later.copy());
+        } else {
+            earlier.adds.removeAll(later.deletes);
+            earlier.adds.addAll(later.adds);
+            earlier.deletes.addAll(later.deletes);
+            earlier.deletes.removeAll(earlier.adds);
+        }
+    }
+
+    private static class Update {
+
+        final Set<Triple> deletes;
+
+        final Set<Triple> adds;
+
+        final long queued;
+
+        Update(Set<Triple> deletes, Set<Triple> adds, long queued) {
+            this.deletes = deletes;
+            this.adds = adds;
+            this.queued = queued;
+        }
+
+        Update copy() {
+            return new Update(new HashSet<Triple>(deletes),
+                              new HashSet<Triple>(adds),
+                              queued);
+        }
+    }
+
+    /////////////////////
+    // Write-ahead log //
+    /////////////////////
+
+    // Each update is written as a header line "U<tab>pid", one line per
+    // triple starting with "-" (delete) or "+" (add), and an end line "E".
+    // Updates without an end line were torn by a crash and are ignored.
+
+    private void openLog() throws IOException {
+        m_logOut = new FileOutputStream(m_logFile, true);
+        m_log = new BufferedWriter(new OutputStreamWriter(m_logOut, ENCODING));
+    }
+
+    /**
+     * Closes the current log, renames it to the next segment, and opens a new
+     * one. Returns the segment.
+     */
+    private File rollLog() throws IOException {
+        m_log.close();
+        File segment = new File(m_logFile.getPath() + "." + m_nextSegment++);
+        boolean renamed = m_logFile.renameTo(segment);
+        openLog();
+        if (!renamed) {
+            throw new IOException("Could not rename " + m_logFile + " to "
+                    + segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Loads any updates left over from a previous run into the pending map.
+     */
+    private void recover() throws IOException {
+        final String prefix = m_logFile.getName() + ".";
+        File[] segments =
+                m_logFile.getAbsoluteFile().getParentFile().listFiles();
+        List<File> logs = new ArrayList<File>();
+        if (segments != null) {
+            Arrays.sort(segments, new Comparator<File>() {
+
+                public int compare(File a, File b) {
+                    return segmentNumber(a, prefix) - segmentNumber(b, prefix);
+                }
+            });
+            for (File segment : segments) {
+                if (segmentNumber(segment, prefix) >= 0) {
+                    logs.add(segment);
+                    m_nextSegment = segmentNumber(segment, prefix) + 1;
+                }
+            }
+        }
+        if (m_logFile.exists()) {
+            File segment = new File(m_logFile.getPath() + "." + m_nextSegment++);
+            if (!m_logFile.renameTo(segment)) {
+                throw new IOException("Could not rename " + m_logFile + " to "
+                        + segment);
+            }
+            logs.add(segment);
+        }
+        for (File log : logs) {
+            int count = readLog(log);
+            if (count > 0) {
+                logger.info("Recovered " + count + " RI updates from " + log);
+                m_unappliedLogs.add(log);
+            } else if (!log.delete()) {
+                logger.warn("Could not delete empty RI update log " + log);
+            }
+        }
+    }
+
+    private static int segmentNumber(File file, String prefix) {
+        String name = file.getName();
+        if (!name.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int readLog(File log) throws IOException {
+        BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(log),
+                                                         ENCODING));
+        int count = 0;
+        try {
+            String pid = null;
+            Set<Triple> deletes = null;
+            Set<Triple> adds = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("U\t")) {
+                    pid = unescape(line.substring(2));
+                    deletes = new HashSet<Triple>();
+                    adds = new HashSet<Triple>();
+                } else if (pid == null) {
+                    continue;
+                } else if (line.equals("E")) {
+                    add(m_pending, pid,
+                        new Update(deletes, adds, System.currentTimeMillis()));
+                    count++;
+                    pid = null;
+                } else if (line.startsWith("-\t")) {
+                    deletes.add(decodeTriple(line.substring(2)));
+                } else if (line.startsWith("+\t")) {
+                    adds.add(decodeTriple(line.substring(2)));
+                } else {
+                    logger.warn("Ignoring malformed line in RI update log "
+                            + log);
+                    pid = null;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    private static String encode(String pid,
+                                 Set<Triple> deletes,
+                                 Set<Triple> adds) throws ResourceIndexException {
+        StringBuilder out = new StringBuilder();
+        out.append("U\t").append(escape(pid)).append('\n');
+        for (Triple triple : deletes) {
+            out.append("-\t");
+            encodeTriple(triple, out);
+            out.append('\n');
+        }
+        for (Triple triple : adds) {
+            out.append("+\t");
+            encodeTriple(triple, out);
+            out.append('\n');
+        }
+        out.append("E\n");
+        return out.toString();
+    }
+
+    /**
+     * Writes subject, predicate and object separated by tabs. The object is
+     * prefixed with "<" for a resource or '"' for a literal; literals are
+     * followed by a tab and "@lang", "^^datatype" or nothing.
+     */
+    private static void encodeTriple(Triple triple, StringBuilder out)
+            throws ResourceIndexException {
+        out.append(escape(getURI(triple.getSubject()))).append('\t');
+        out.append(escape(getURI(triple.getPredicate()))).append('\t');
+        ObjectNode object = triple.getObject();
+        if (object instanceof Literal) {
+            Literal literal = (Literal) object;
+            out.append('"').append(escape(literal.getLexicalForm()));
+            out.append('\t');
+            if (literal.getDatatypeURI() != null) {
+                out.append("^^").append(
+                        escape(literal.getDatatypeURI().toString()));
+            } else if (literal.getLanguage() != null
+                    && literal.getLanguage().length() > 0) {
+                out.append('@').append(escape(literal.getLanguage()));
+            }
+        } else {
+            out.append('<').append(escape(getURI(object)));
+        }
+    }
+
+    private static Triple decodeTriple(String line) throws IOException {
+        String[] parts = line.split("\t", -1);
+        try {
+            URIReference subject = toResource(unescape(parts[0]));
+            URIReference predicate = toResource(unescape(parts[1]));
+            ObjectNode object;
+            String value = unescape(parts[2].substring(1));
+            if (parts[2].charAt(0) == '<') {
+                object = toResource(value);
+            } else if (parts[3].startsWith("^^")) {
+                object = new SimpleLiteral(value,
+                                           new URI(unescape(parts[3].substring(2))));
+            } else if (parts[3].startsWith("@")) {
+                object = new SimpleLiteral(value, unescape(parts[3].substring(1)));
+            } else {
+                object = new SimpleLiteral(value);
+            }
+            return new SimpleTriple(subject, predicate, object);
+        } catch (Exception e) {
+            IOException ioe =
+                    new IOException("Malformed triple in RI update log: " + line);
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    private static URIReference toResource(String uri) throws Exception {
+        return new SimpleURIReference(new URI(uri), false);
+    }
+
+    private static String getURI(Node node) throws ResourceIndexException {
+        if (node instanceof URIReference) {
+            return ((URIReference) node).getURI().toString();
+        }
+        throw new ResourceIndexException("Cannot queue triple; "
+                + node.getClass().getName() + " is not a URIReference");
+    }
+
+    private static String escape(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '\t') {
+                out.append("\\t");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\r') {
+                out.append("\\r");
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') == -1) {
+            return s;
+        }
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                if (n == 't') {
+                    out.append('\t');
+                } else if (n == 'n') {
+                    out.append('\n');
+                } else if (n == 'r') {
+                    out.append('\r');
+                } else {
+                    out.append(n);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -38,7 +38,7 @@ import static org.fcrepo.common.Constants.MODEL;
  */
 public class ServiceDefinitionTripleGenerator_3_0
         extends TripleGeneratorBase
-        implements TripleGenerator {
+        implements IncrementalTripleGenerator {
 
     private static final String METHODMAP_DS = "METHODMAP";
 
@@ -61,6 +61,29 @@ public class ServiceDefinitionTripleGenerator_3_0
         return set;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The triples only change when the content of METHODMAP changes.
+     */
+    public void getTripleDiffs(DOReader oldReader,
+                               DOReader newReader,
+                               Set<Triple> deletes,
+                               Set<Triple> adds) throws ResourceIndexException {
+        try {
+            if (sameContent(oldReader.GetDatastream(METHODMAP_DS, null),
+                            newReader.GetDatastream(METHODMAP_DS, null))) {
+                return;
+            }
+        } catch (ServerException e) {
+            throw new ResourceIndexException("Could not generate triples", e);
+        }
+        diff(getTriplesForObject(oldReader),
+             getTriplesForObject(newReader),
+             deletes,
+             adds);
+    }
+
     /**
      * Add a "defines" statement for the given sDef for each abstract method it
      * defines.
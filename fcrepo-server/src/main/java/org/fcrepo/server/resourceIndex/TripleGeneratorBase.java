@@ -4,6 +4,7 @@
  */
 package org.fcrepo.server.resourceIndex;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Set;
 
@@ -15,6 +16,8 @@ import org.fcrepo.common.rdf.RDFName;
 import org.fcrepo.common.rdf.SimpleLiteral;
 import org.fcrepo.common.rdf.SimpleTriple;
 import org.fcrepo.server.errors.ResourceIndexException;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
 import org.fcrepo.utilities.DateUtility;
 
 import static org.fcrepo.common.Constants.MODEL;
@@ -23,6 +26,68 @@ import static org.fcrepo.common.Constants.RDF_XSD;
 
 
 public abstract class TripleGeneratorBase {
+
+    // Helper methods for incremental generation
+
+    /**
+     * Adds the triples only in <code>before</code> to <code>deletes</code> and
+     * the triples only in <code>after</code> to <code>adds</code>.
+     */
+    protected static void diff(Set<Triple> before,
+                               Set<Triple> after,
+                               Set<Triple> deletes,
+                               Set<Triple> adds) {
+        for (Triple triple : before) {
+            if (!after.contains(triple)) {
+                deletes.add(triple);
+            }
+        }
+        for (Triple triple : after) {
+            if (!before.contains(triple)) {
+                adds.add(triple);
+            }
+        }
+    }
+
+    /**
+     * Tells whether two datastreams (either of which may be null) have the
+     * same content: the same version, and for inline XML, the same XML.
+     */
+    protected static boolean sameContent(Datastream a, Datastream b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (!equal(a.DSVersionID, b.DSVersionID)
+                || !equal(a.DSCreateDT, b.DSCreateDT)
+                || !equal(a.DSLocation, b.DSLocation)) {
+            return false;
+        }
+        if (a instanceof DatastreamXMLMetadata
+                && b instanceof DatastreamXMLMetadata) {
+            return Arrays.equals(((DatastreamXMLMetadata) a).xmlContent,
+                                 ((DatastreamXMLMetadata) b).xmlContent);
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether two datastreams (either of which may be null) imply the
+     * same core datastream triples.
+     */
+    protected static boolean sameProperties(Datastream a, Datastream b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return equal(a.DSCreateDT, b.DSCreateDT)
+                && equal(a.DSState, b.DSState)
+                && equal(a.DSMIME, b.DSMIME)
+                && equal(a.DSControlGrp, b.DSControlGrp);
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     // Helper methods for creating RDF components
 
     protected RDFName getStateResource(String state)
@@ -5,15 +5,24 @@
 package org.fcrepo.server.rest;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
@@ -44,6 +53,8 @@ import org.fcrepo.server.errors.authorization.AuthzException;
 import org.fcrepo.server.management.Management;
 import org.fcrepo.server.storage.types.MIMETypedStream;
 import org.fcrepo.server.storage.types.Property;
+import org.fcrepo.server.utilities.ResponseUtility;
+import org.fcrepo.server.utilities.StreamUtility;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,6 +77,10 @@ public class BaseRestResource {
     public static final String XML = "text/xml";
     public static final String ZIP = "application/zip";
 
+    static final int HTTP_PARTIAL_CONTENT = 206;
+    static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    static final Charset ASCII = Charset.forName("US-ASCII");
+
     public static final MediaType TEXT_HTML = new MediaType("text", "html");
     public static final MediaType TEXT_XML = new MediaType("text", "xml");
 
@@ -86,6 +101,9 @@ public class BaseRestResource {
     @javax.ws.rs.core.Context
     protected HttpHeaders headers;
 
+    @javax.ws.rs.core.Context
+    protected Request request;
+
     public BaseRestResource() {
         try {
             this.fedoraServer = Server.getInstance(new File(Constants.FEDORA_HOME), false);
@@ -130,29 +148,143 @@ public class BaseRestResource {
             return Response.temporaryRedirect(location).build();
         } else {
             ResponseBuilder builder = Response.ok();
-
-            if (result.header != null) {
-                for (Property header : result.header) {
-                    if (header.name != null
-                            && !(header.name.equalsIgnoreCase("transfer-encoding"))
-                            && !(header.name.equalsIgnoreCase("content-length"))
-                            && !(header.name.equalsIgnoreCase("content-type"))) {
-                        builder.header(header.name, header.value);
+            addHeaders(builder, result);
+            final InputStream content = result.getStream();
+            long length = ResponseUtility.sendFile(servletRequest, content);
+            if (length != -1L) {
+                // the container will send the file once the response is done
+                builder.header("content-length", length);
+                builder.entity(new StreamingOutput() {
+                    public void write(OutputStream out) {
                     }
+                });
+            } else {
+                if (result.getSize() != -1L){
+                    builder.header("content-length",result.getSize());
                 }
-            }
-            if (result.getSize() != -1L){
-                builder.header("content-length",result.getSize());
+                builder.entity(new StreamingOutput() {
+                    public void write(OutputStream out) throws IOException {
+                        try {
+                            StreamUtility.copy(content, out);
+                        } finally {
+                            content.close();
+                        }
+                    }
+                });
             }
 
             if (!result.MIMEType.equals("")){
                 builder.type(result.MIMEType);
             }
-            builder.entity(result.getStream());
             return builder.build();
         }
     }
 
+    /**
+     * Builds a 206 (Partial Content) response holding the given ranges of
+     * the content. A single range is sent as it is, and several ranges are
+     * sent as a multipart/byteranges entity.
+     *
+     * @param result
+     *        the content, which must not have been read from.
+     * @param contentLength
+     *        the length of the whole content.
+     * @param ranges
+     *        the ranges to send, in order and not overlapping.
+     */
+    protected Response buildRangeResponse(MIMETypedStream result,
+                                          final long contentLength,
+                                          final List<ByteRange> ranges) {
+        ResponseBuilder builder = Response.status(HTTP_PARTIAL_CONTENT);
+        addHeaders(builder, result);
+        final InputStream content = result.getStream();
+        if (ranges.size() == 1) {
+            final ByteRange range = ranges.get(0);
+            builder.header("Content-Range", range.getContentRange(contentLength));
+            builder.header("content-length", range.getLength());
+            if (!result.MIMEType.equals("")) {
+                builder.type(result.MIMEType);
+            }
+            if (ResponseUtility.sendFile(servletRequest,
+                                         content,
+                                         range.getStart(),
+                                         range.getLength())) {
+                builder.entity(new StreamingOutput() {
+                    public void write(OutputStream out) {
+                    }
+                });
+            } else {
+                builder.entity(new StreamingOutput() {
+                    public void write(OutputStream out) throws IOException {
+                        try {
+                            StreamUtility.skip(content, range.getStart());
+                            StreamUtility.copy(content, out, range.getLength());
+                        } finally {
+                            content.close();
+                        }
+                    }
+                });
+            }
+            return builder.build();
+        }
+
+        String boundary = UUID.randomUUID().toString();
+        final List<byte[]> partHeaders = new ArrayList<byte[]>();
+        long length = 0;
+        for (ByteRange range : ranges) {
+            StringBuilder part = new StringBuilder();
+            part.append("\r\n--").append(boundary).append("\r\n");
+            if (!result.MIMEType.equals("")) {
+                part.append("Content-Type: ").append(result.MIMEType).append("\r\n");
+            }
+            part.append("Content-Range: ").append(range.getContentRange(contentLength));
+            part.append("\r\n\r\n");
+            partHeaders.add(part.toString().getBytes(ASCII));
+            length += partHeaders.get(partHeaders.size() - 1).length;
+            length += range.getLength();
+        }
+        final byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(ASCII);
+        length += end.length;
+        builder.header("content-length", length);
+        builder.type("multipart/byteranges; boundary=" + boundary);
+        builder.entity(new StreamingOutput() {
+            public void write(OutputStream out) throws IOException {
+                try {
+                    long position = 0;
+                    for (int i = 0; i < ranges.size(); i++) {
+                        ByteRange range = ranges.get(i);
+                        out.write(partHeaders.get(i));
+                        StreamUtility.skip(content, range.getStart() - position);
+                        StreamUtility.copy(content, out, range.getLength());
+                        position = range.getEnd() + 1;
+                    }
+                    out.write(end);
+                } finally {
+                    content.close();
+                }
+            }
+        });
+        return builder.build();
+    }
+
+    /**
+     * Adds the headers of a MIMETypedStream to a response, except for those
+     * that describe the entity, which are set by the caller.
+     */
+    private static void addHeaders(ResponseBuilder builder,
+                                   MIMETypedStream result) {
+        if (result.header != null) {
+            for (Property header : result.header) {
+                if (header.name != null
+                        && !(header.name.equalsIgnoreCase("transfer-encoding"))
+                        && !(header.name.equalsIgnoreCase("content-length"))
+                        && !(header.name.equalsIgnoreCase("content-type"))) {
+                    builder.header(header.name, header.value);
+                }
+            }
+        }
+    }
+
     protected Response handleException(Exception ex) {
         if (ex instanceof ObjectNotInLowlevelStorageException ||
             ex instanceof DatastreamNotFoundException) {
@@ -0,0 +1,175 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range of bytes requested with an HTTP <code>Range</code> header.
+ */
+public class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    /**
+     * The most ranges a header may ask for. A header that asks for more is
+     * ignored, so a client can't make one request cost many passes over the
+     * content or a response of many parts.
+     */
+    public static final int MAX_RANGES = 50;
+
+    private static final Comparator<ByteRange> BY_START =
+            new Comparator<ByteRange>() {
+
+                public int compare(ByteRange a, ByteRange b) {
+                    return a.m_start < b.m_start ? -1
+                            : a.m_start > b.m_start ? 1 : 0;
+                }
+            };
+
+    private final long m_start;
+
+    private final long m_end;
+
+    /**
+     * @param start
+     *        the position of the first byte.
+     * @param end
+     *        the position of the last byte.
+     */
+    public ByteRange(long start, long end) {
+        m_start = start;
+        m_end = end;
+    }
+
+    public long getStart() {
+        return m_start;
+    }
+
+    public long getEnd() {
+        return m_end;
+    }
+
+    public long getLength() {
+        return m_end - m_start + 1;
+    }
+
+    /**
+     * Gets the value of the <code>Content-Range</code> header for this range
+     * of content of the given length.
+     */
+    public String getContentRange(long contentLength) {
+        return "bytes " + m_start + "-" + m_end + "/" + contentLength;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ByteRange)) {
+            return false;
+        }
+        ByteRange other = (ByteRange) o;
+        return m_start == other.m_start && m_end == other.m_end;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (m_start ^ m_end);
+    }
+
+    @Override
+    public String toString() {
+        return m_start + "-" + m_end;
+    }
+
+    /**
+     * Parses a <code>Range</code> header for content of the given length.
+     * <p>
+     * The satisfiable ranges are returned in order, with ranges that overlap
+     * or touch merged, as HTTP allows, so the content can be sent in a single
+     * pass. A header that asks for more than {@link #MAX_RANGES} ranges is
+     * ignored.
+     * </p>
+     *
+     * @param header
+     *        the header value, or null.
+     * @param contentLength
+     *        the length of the content.
+     * @return the ranges, an empty list if none of them can be satisfied, or
+     *         null if the header is missing, invalid or asks for too many
+     *         ranges, and the whole content should be sent.
+     */
+    public static List<ByteRange> parse(String header, long contentLength) {
+        if (header == null || !header.trim().startsWith(BYTES_UNIT)) {
+            return null;
+        }
+        String specs = header.trim().substring(BYTES_UNIT.length());
+        // count before splitting, so a huge header isn't parsed at all
+        int count = 1;
+        for (int i = 0; i < specs.length(); i++) {
+            if (specs.charAt(i) == ',' && ++count > MAX_RANGES) {
+                return null;
+            }
+        }
+        List<ByteRange> ranges = new ArrayList<ByteRange>();
+        for (String spec : specs.split(",")) {
+            spec = spec.trim();
+            if (spec.length() == 0) {
+                continue;
+            }
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    // the last n bytes
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, contentLength - suffix);
+                    end = contentLength - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    end = contentLength - 1;
+                    if (dash < spec.length() - 1) {
+                        long last = Long.parseLong(spec.substring(dash + 1));
+                        if (last < start) {
+                            return null;
+                        }
+                        end = Math.min(end, last);
+                    }
+                    if (start < 0) {
+                        return null;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < contentLength) {
+                ranges.add(new ByteRange(start, end));
+            }
+        }
+        Collections.sort(ranges, BY_START);
+        List<ByteRange> merged = new ArrayList<ByteRange>();
+        for (ByteRange range : ranges) {
+            ByteRange last =
+                    merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range.m_start <= last.m_end + 1) {
+                merged.set(merged.size() - 1,
+                           new ByteRange(last.m_start, Math.max(last.m_end,
+                                                                range.m_end)));
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+}
@@ -24,6 +24,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
@@ -38,6 +40,8 @@ import org.fcrepo.server.rest.param.DateTimeParam;
 import org.fcrepo.server.storage.types.Datastream;
 import org.fcrepo.server.storage.types.DatastreamDef;
 import org.fcrepo.server.storage.types.MIMETypedStream;
+import org.fcrepo.server.storage.types.Property;
+import org.fcrepo.server.utilities.FileContentInputStream;
 import org.fcrepo.utilities.DateUtility;
 
 /**
@@ -229,6 +233,26 @@ public class DatastreamResource
         Context context = getContext();
         try {
             Date asOfDateTime = DateUtility.parseDateOrNull(dateTime);
+
+            // answer conditional requests before opening the content
+            Datastream version =
+                    apiAService.getDatastreamVersion(context,
+                                                     pid,
+                                                     dsID,
+                                                     asOfDateTime);
+            String tag = version.getEntityTag();
+            if (tag != null) {
+                EntityTag entityTag = new EntityTag(tag);
+                ResponseBuilder precondition =
+                        version.DSCreateDT == null ? request
+                                .evaluatePreconditions(entityTag) : request
+                                .evaluatePreconditions(version.DSCreateDT,
+                                                       entityTag);
+                if (precondition != null) {
+                    return precondition.tag(entityTag).build();
+                }
+            }
+
             MIMETypedStream stream =
                     apiAService.getDatastreamDissemination(context,
                                                            pid,
@@ -245,12 +269,81 @@ public class DatastreamResource
 
             }
 
-            return buildResponse(stream);
+            // ranges are only sent for content with validators, so a client
+            // can't be given parts of different versions
+            String etag = getHeader(stream, HttpHeaders.ETAG);
+            if (etag == null) {
+                return buildResponse(stream);
+            }
+            long length = getContentLength(stream);
+            List<ByteRange> ranges = null;
+            if (length >= 0 && isRangeCurrent(etag, getHeader(stream,
+                    HttpHeaders.LAST_MODIFIED))) {
+                ranges = ByteRange.parse(headers.getRequestHeaders()
+                        .getFirst("Range"), length);
+            }
+            Response response;
+            if (ranges == null) {
+                response = buildResponse(stream);
+            } else if (ranges.isEmpty()) {
+                stream.close();
+                response =
+                        Response.status(HTTP_RANGE_NOT_SATISFIABLE)
+                                .header("Content-Range", "bytes */" + length)
+                                .build();
+            } else {
+                response = buildRangeResponse(stream, length, ranges);
+            }
+            return Response.fromResponse(response)
+                    .header("Accept-Ranges", "bytes").build();
         } catch (Exception ex) {
             return handleException(ex);
         }
     }
 
+    /**
+     * Gets the length of the content of a datastream, from the file it is
+     * read from if there is one.
+     *
+     * @return the length, or -1 if it isn't known.
+     */
+    private static long getContentLength(MIMETypedStream stream) {
+        InputStream content = stream.getStream();
+        if (content instanceof FileContentInputStream) {
+            return ((FileContentInputStream) content).getFile().length();
+        }
+        return stream.getSize() > 0 ? stream.getSize() : -1;
+    }
+
+    /**
+     * Checks the request's <code>If-Range</code> header, which asks for the
+     * ranges only if the content hasn't changed and for all of it
+     * otherwise.
+     */
+    private boolean isRangeCurrent(String etag, String lastModified) {
+        String ifRange = headers.getRequestHeaders().getFirst("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // weak tags never match
+            return ifRange.equals(etag);
+        }
+        return ifRange.equals(lastModified);
+    }
+
+    private static String getHeader(MIMETypedStream stream, String name) {
+        if (stream.header != null) {
+            for (Property header : stream.header) {
+                if (name.equalsIgnoreCase(header.name)) {
+                    return header.value;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Invoke API-M.purgeDatastream
      * <p/>
@@ -4,6 +4,8 @@
  */
 package org.fcrepo.server.search;
 
+import java.util.List;
+
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.storage.DOReader;
 
@@ -36,6 +38,20 @@ public interface FieldSearch {
      */
     public void update(DOReader reader) throws ServerException;
 
+    /**
+     * Update the search indexes with information from each of the provided
+     * DOReaders, as one unit of work. This is more efficient than updating
+     * the objects one at a time when many objects change at once, as during
+     * a bulk ingest or a rebuild.
+     * 
+     * @param readers
+     *        the DOReaders containing all the field information for the
+     *        objects
+     * @throws ServerException
+     *         if anything went wrong
+     */
+    public void update(List<DOReader> readers) throws ServerException;
+
     /**
      * Remove an object from the search indexes.
      * 
@@ -31,7 +31,7 @@ import org.fcrepo.server.storage.ConnectionPool;
 import org.fcrepo.server.storage.DOReader;
 import org.fcrepo.server.storage.RepositoryReader;
 import org.fcrepo.server.storage.types.Datastream;
-import org.fcrepo.server.utilities.MD5Utility;
+import org.fcrepo.server.utilities.SQLUtility;
 import org.fcrepo.utilities.DateUtility;
 
 
@@ -39,8 +39,10 @@ import org.fcrepo.utilities.DateUtility;
  * A FieldSearchResults object returned as the result of a FieldSearchSQLImpl
  * search.
  * <p>
- * A FieldSearchResultSQLImpl is intended to be re-used in cases where the
- * results of a query require more than one call to the server.
+ * Each FieldSearchResultSQLImpl holds one page of results, ordered by PID.
+ * If there are more, the session token records where the page ended, and the
+ * next page is obtained by running the query again for PIDs after that one.
+ * No database resources are held between pages.
  * </p>
  *
  * @author Chris Wilper
@@ -62,11 +64,7 @@ public class FieldSearchResultSQLImpl
 
     private Date m_expirationDate;
 
-    private String m_nextPID;
-
     /* invariants */
-    private final Connection m_conn;
-
     private final ConnectionPool m_cPool;
 
     private final RepositoryReader m_repoReader;
@@ -77,27 +75,26 @@ public class FieldSearchResultSQLImpl
 
     private final int m_maxSeconds;
 
-    private long m_startMillis;
+    private final FieldSearchQuery m_query;
+
+    private final boolean m_project;
+
+    private final boolean m_projectDC;
 
-    /* internal state */
-    private PreparedStatement m_statement;
+    private final boolean m_useTermIndex;
 
-    private ResultSet m_resultSet;
+    private final String m_afterPid;
 
-    private long m_nextCursor = 0;
+    private final long m_startCursor;
 
-    private boolean m_expired;
+    private final String m_queryText;
 
     /**
-     * Construct a FieldSearchResultSQLImpl object.
+     * Construct a FieldSearchResultSQLImpl object for the first page of
+     * results.
      * <p />
-     * Upon construction, a connection is obtained from the connectionPool, and
-     * the query is executed. (The connection will be returned to the pool only
-     * after the last result has been obtained from the ResultSet, the session
-     * is expired, or some non-recoverable error has occurred)
-     * <p />
-     * Once the ResultSet is obtained, one result is requested of it (and
-     * remembered for use in step()); then the call returns.
+     * The query is checked upon construction, but it is not run until step()
+     * is called.
      *
      * @param cPool
      *        the connectionPool
@@ -109,77 +106,127 @@ public class FieldSearchResultSQLImpl
      *        how many results should be returned at one time. This should be
      *        the smaller of a) the FieldSearchImpl's limit [the server limit]
      *        and b) the requested limit [the client limit]
+     * @param maxSeconds
+     *        how long the session token stays valid
      * @param query
      *        the end-user query
+     * @param projectResultFields
+     *        whether result fields should be read from the doFieldValues
+     *        table rather than from each object
+     * @param dcFieldsStored
+     *        whether DC field values are being stored in the doFieldValues
+     *        table
+     * @param useTermIndex
+     *        whether the doTerms table should be used to narrow down the rows
+     *        matching wildcard searches
+     */
+    protected FieldSearchResultSQLImpl(ConnectionPool cPool,
+                                       RepositoryReader repoReader,
+                                       String[] resultFields,
+                                       int maxResults,
+                                       int maxSeconds,
+                                       FieldSearchQuery query,
+                                       boolean projectResultFields,
+                                       boolean dcFieldsStored,
+                                       boolean useTermIndex)
+            throws QueryParseException {
+        this(cPool,
+             repoReader,
+             resultFields,
+             maxResults,
+             maxSeconds,
+             query,
+             projectResultFields,
+             dcFieldsStored,
+             useTermIndex,
+             null,
+             0);
+    }
+
+    /**
+     * Construct a FieldSearchResultSQLImpl object for the page of results
+     * that follows the given PID.
+     *
+     * @param afterPid
+     *        the PID of the last result of the previous page, or null for the
+     *        first page
+     * @param startCursor
+     *        the number of results in the previous pages
+     * @see #FieldSearchResultSQLImpl(ConnectionPool, RepositoryReader,
+     *      String[], int, int, FieldSearchQuery, boolean, boolean, boolean)
      */
     protected FieldSearchResultSQLImpl(ConnectionPool cPool,
                                        RepositoryReader repoReader,
                                        String[] resultFields,
                                        int maxResults,
                                        int maxSeconds,
-                                       FieldSearchQuery query)
-            throws SQLException, QueryParseException {
+                                       FieldSearchQuery query,
+                                       boolean projectResultFields,
+                                       boolean dcFieldsStored,
+                                       boolean useTermIndex,
+                                       String afterPid,
+                                       long startCursor)
+            throws QueryParseException {
         m_cPool = cPool;
         m_repoReader = repoReader;
         m_resultFields = resultFields;
         m_maxResults = maxResults;
         m_maxSeconds = maxSeconds;
-        m_conn = m_cPool.getReadOnlyConnection();
-        boolean success = false;
-        try {
-            m_statement = m_conn.prepareStatement(logAndGetQueryText(query,
-                    m_resultFields));
-            m_resultSet =
-                    m_statement.executeQuery(); //2004.05.02 wdn5e
-            success = true;
-        } finally {
-            if (!success) {
-                try {
-                    if (m_resultSet != null) {
-                        m_resultSet.close();
-                    }
-                    if (m_statement != null) {
-                        m_statement.close();
-                    }
-                    if (m_conn != null) {
-                        m_cPool.free(m_conn);
-                    }
-                } catch (SQLException e) {
-                    logger.warn("SQL error during failed query cleanup", e);
-                } finally {
-                    m_resultSet = null;
-                    m_statement = null;
-                }
+        m_query = query;
+        boolean wantsDC = false;
+        for (String field : resultFields) {
+            if (isDCProp(field)) {
+                wantsDC = true;
             }
         }
+        // without stored DC values, every hit would need its object anyway
+        m_project = projectResultFields && (dcFieldsStored || !wantsDC);
+        m_projectDC = m_project && wantsDC;
+        m_useTermIndex = useTermIndex;
+        m_afterPid = afterPid;
+        m_startCursor = startCursor;
+        m_queryText = logAndGetQueryText(query);
     }
 
-    //2004.05.02 wdn5e -- sort on selected fields
-    private String logAndGetQueryText(FieldSearchQuery query,
-                                      String[] resultFields) //2004.05.02 wdn5e
-            throws SQLException, QueryParseException {
+    private String logAndGetQueryText(FieldSearchQuery query)
+            throws QueryParseException {
         StringBuffer queryText = new StringBuffer("SELECT");
+        if (m_project) {
+            // everything needed to build results, whatever the query type
+            queryText.append(" doFields.pid, doFields.state, doFields.cDate,"
+                    + " doFields.mDate, doFields.dcmDate,"
+                    + " doFieldValues.pid AS storedPid,"
+                    + " doFieldValues.label AS storedLabel,"
+                    + " doFieldValues.ownerId AS storedOwnerId");
+            if (m_projectDC) {
+                queryText.append(", doFieldValues.dcValues AS storedDCValues");
+            }
+            queryText.append(" FROM doFields LEFT JOIN doFieldValues"
+                    + " ON doFields.pid=doFieldValues.pid");
+        } else {
+            // the other fields are read from each object
+            queryText.append(" doFields.pid FROM doFields");
+        }
+        String whereClause;
         if (query.getType() == FieldSearchQuery.TERMS_TYPE) {
-            queryText.append(" doFields.pid FROM doFields"
-                    + getWhereClause(query.getTerms()));
+            whereClause = getWhereClause(query.getTerms());
         } else {
-            StringBuffer resultFieldsString = new StringBuffer();
-            if (resultFields.length > 0) {
-                String delimiter = " ";
-                for (String element : resultFields) {
-                    String dbColumn = "doFields." + dcFixup(element);
-                    resultFieldsString.append(delimiter + dbColumn);
-                    delimiter = ", ";
-                }
+            whereClause = getWhereClause(query.getConditions());
+        }
+        if (m_afterPid != null) {
+            // continue after the previous page
+            int where = whereClause.indexOf(" WHERE");
+            if (where == -1) {
+                whereClause += " WHERE doFields.pid > ?";
+            } else {
+                whereClause = whereClause.substring(0, where) + " WHERE ("
+                        + whereClause.substring(where + " WHERE".length())
+                        + ") AND doFields.pid > ?";
             }
-            queryText.append(resultFieldsString);
-            queryText.append(" FROM doFields");
-            queryText.append(getWhereClause(query.getConditions()));
-            // disabled sorting: see bug 78
-            //            queryText.append(" ORDER BY");
-            //            queryText.append(resultFieldsString);
-
         }
+        queryText.append(whereClause);
+        // pages are keyed on pid, so results must come in pid order
+        queryText.append(" ORDER BY doFields.pid");
         String qt = queryText.toString();
         logger.debug(qt);
         return qt;
@@ -207,7 +254,7 @@ public class FieldSearchResultSQLImpl
                     if (usedCount > 0) {
                         whereClause.append(" OR");
                     }
-                    String qPart = toSql(column, terms);
+                    String qPart = toSql("doFields." + column, terms);
                     if (qPart.charAt(0) == ' ') {
                         needsEscape = true;
                     } else {
@@ -220,10 +267,49 @@ public class FieldSearchResultSQLImpl
             if (needsEscape) {
                 //    whereClause.append(" {escape '/'}");
             }
+            String filter = getTermFilter(null, terms);
+            if (filter != null) {
+                whereClause.insert(" WHERE".length(), " " + filter + " AND (");
+                whereClause.append(")");
+            }
         }
         return whereClause.toString();
     }
 
+    /**
+     * Get a condition that narrows down the rows in which the given column
+     * can match the given pattern, if the term index is in use and can help.
+     *
+     * @param column
+     *        the doFields column, or null for any string-valued column
+     * @param pattern
+     *        the pattern, as given in the query
+     * @return the condition, or null if there is none
+     */
+    private String getTermFilter(String column, String pattern) {
+        if (!m_useTermIndex) {
+            return null;
+        }
+        // pid has an index of its own, and state has only three values
+        if ("pid".equals(column) || "state".equals(column)) {
+            return null;
+        }
+        return FieldSearchTermIndex.getFilter(column, pattern);
+    }
+
+    /**
+     * Append a term index condition for the given column and pattern, joined
+     * to what follows with AND, if there is one.
+     */
+    private void appendTermFilter(StringBuffer whereClause,
+                                  String column,
+                                  String pattern) {
+        String filter = getTermFilter(column, pattern);
+        if (filter != null) {
+            whereClause.append(" " + filter + " AND");
+        }
+    }
+
     private String getWhereClause(List conditions) throws QueryParseException {
         StringBuffer whereClause = new StringBuffer();
         boolean willJoin = false;
@@ -242,6 +328,9 @@ public class FieldSearchResultSQLImpl
                     if (op.equals("~")) {
                         if (prop.equals("date")) {
                             // query for dcDate as string
+                            appendTermFilter(whereClause,
+                                             "dcDate",
+                                             cond.getValue());
                             String sqlPart =
                                     toSql("doFields.dcDate", cond.getValue());
                             if (sqlPart.startsWith(" ")) {
@@ -298,6 +387,7 @@ public class FieldSearchResultSQLImpl
                         } else {
                             // do a real equals check... do a toSql but
                             // reject it if it uses "LIKE"
+                            appendTermFilter(whereClause, prop, cond.getValue());
                             String sqlPart =
                                     toSql("doFields." + prop, cond.getValue());
                             if (sqlPart.indexOf("LIKE ") != -1) {
@@ -320,6 +410,7 @@ public class FieldSearchResultSQLImpl
                                             + prop.substring(1);
                         }
                         // the field name is ok, so toSql it
+                        appendTermFilter(whereClause, prop, cond.getValue());
                         String sqlPart =
                                 toSql("doFields." + prop, cond.getValue());
                         if (sqlPart.startsWith(" ")) {
@@ -341,123 +432,86 @@ public class FieldSearchResultSQLImpl
         return whereClause.toString();
     }
 
-    protected boolean isExpired() {
-        long passedSeconds =
-                (System.currentTimeMillis() - m_startMillis) / 1000;
-        m_expired = passedSeconds > m_maxSeconds;
-        logger.debug("has fieldSearchResultSQL expired? "+m_expired +
-                  ", passed: "+passedSeconds);
-        if (m_expired) {
-            // clean up
-            try {
-                if (m_resultSet != null) {
-                    m_resultSet.close();
-                }
-                if (m_statement != null) {
-                    m_statement.close();
-                }
-                if (m_conn != null) {
-                    m_cPool.free(m_conn);
-                }
-            } catch (SQLException sqle) {
-            } finally {
-                m_resultSet = null;
-                m_statement = null;
-            }
-        }
-        return m_expired;
-    }
-
     /**
-     * Update object with the next chunk of results. if getToken() is null after
-     * this call, the resultSet was exhausted.
+     * Get this page of results. If there are more results after it, a
+     * session token for getting the next page is set; otherwise getToken()
+     * is null after this call.
      */
     protected void step() throws UnrecognizedFieldException,
             ObjectIntegrityException, RepositoryConfigurationException,
             StreamIOException, ServerException {
-        m_objectFields = new ArrayList();
-        int resultCount = 0;
-        // Run through resultSet, adding each result to m_objectFields
-        // for up to maxResults objects, or until the result set is
-        // empty, whichever comes first.
-        // Note: If this is the first chunk of results for the entire search,
-        // m_nextPID will be null, and will require the cursor to be advanced
-        // to the first result.  For all remaining chunks, the cursor will
-        // already be in the correct position (and m_nextPID will have been set)
-        // so a call to m_resultSet.next() is not initially necessary.
+        List<String> pids = new ArrayList<String>();
+        List<ObjectFields> storedFields = new ArrayList<ObjectFields>();
+        boolean more = false;
+        Connection conn = null;
+        PreparedStatement st = null;
+        ResultSet results = null;
+        // Read up to maxResults rows, plus one more to find out whether
+        // there's another page.  The connection is given back before any
+        // objects are read.
         try {
-            while (resultCount < m_maxResults
-                    && (m_nextPID != null || m_resultSet.next())) {
-                resultCount++;
-                // add the current object's info to m_objectFields
-                String pid;
-                if (m_nextPID == null) {
-                    pid = m_resultSet.getString("pid");
-                } else {
-                    pid = m_nextPID;
-                    m_nextPID = null;
-                }
-                m_objectFields.add(getObjectFields(pid));
-            }
-            // done with this block. now, are there more results?
-            if (resultCount == m_maxResults && m_resultSet.next()) {
-                // yes, and we've now advanced the cursor so we must remember
-                // the pid so the next chunk can use it
-                m_nextPID = m_resultSet.getString("pid");
-                // generate a token, make sure the cursor is set,
-                // and make sure the expirationDate is set
-                long now = System.currentTimeMillis();
-                m_token = MD5Utility.getBase16Hash(hashCode() + "" + now);
-                m_cursor = m_nextCursor;
-                // keep m_nextCursor updated for next block
-                m_nextCursor += resultCount;
-                m_startMillis = now;
-                Date dt = new Date();
-                dt.setTime(m_startMillis + 1000 * m_maxSeconds);
-                m_expirationDate = dt;
-            } else {
-                // no, so make sure the token is null and clean up
-                m_token = null;
-                try {
-                    if (m_resultSet != null) {
-                        m_resultSet.close();
-                    }
-                    if (m_statement != null) {
-                        m_statement.close();
-                    }
-                    if (m_conn != null) {
-                        m_cPool.free(m_conn);
-                    }
-                } catch (SQLException sqle2) {
-                    throw new StorageDeviceException("Error closing statement "
-                            + "or result set." + sqle2.getMessage());
-                } finally {
-                    m_resultSet = null;
-                    m_statement = null;
+            conn = m_cPool.getReadOnlyConnection();
+            st = conn.prepareStatement(m_queryText);
+            if (m_afterPid != null) {
+                st.setString(1, m_afterPid);
+            }
+            st.setMaxRows(m_maxResults + 1);
+            results = st.executeQuery();
+            while (results.next()) {
+                if (pids.size() == m_maxResults) {
+                    more = true;
+                    break;
                 }
+                String pid = results.getString("pid");
+                pids.add(pid);
+                storedFields.add(getStoredObjectFields(results, pid));
             }
         } catch (SQLException sqle) {
+            throw new StorageDeviceException("Error with sql database. "
+                    + sqle.getMessage(), sqle);
+        } finally {
             try {
-                if (m_resultSet != null) {
-                    m_resultSet.close();
-                }
-                if (m_statement != null) {
-                    m_statement.close();
+                if (results != null) {
+                    results.close();
                 }
-                if (m_conn != null) {
-                    m_cPool.free(m_conn);
+                if (st != null) {
+                    st.close();
                 }
-                throw new StorageDeviceException("Error with sql database. "
-                        + sqle.getMessage());
             } catch (SQLException sqle2) {
-                throw new StorageDeviceException("Error closing statement "
-                        + "or result set." + sqle.getMessage()
-                        + sqle2.getMessage());
+                logger.warn("Error closing statement or result set", sqle2);
             } finally {
-                m_resultSet = null;
-                m_statement = null;
+                if (conn != null) {
+                    m_cPool.free(conn);
+                }
             }
         }
+
+        m_objectFields = new ArrayList();
+        for (int i = 0; i < pids.size(); i++) {
+            ObjectFields fields = storedFields.get(i);
+            if (fields == null) {
+                fields = getObjectFields(pids.get(i));
+            }
+            m_objectFields.add(fields);
+        }
+
+        // the last page has a cursor too, though it has no token
+        m_cursor = m_startCursor;
+        if (more) {
+            long now = System.currentTimeMillis();
+            Date dt = new Date();
+            dt.setTime(now + 1000L * m_maxSeconds);
+            m_expirationDate = dt;
+            m_token =
+                    new FieldSearchSessionToken(m_resultFields,
+                                                m_maxResults,
+                                                m_query,
+                                                pids.get(pids.size() - 1),
+                                                m_startCursor + pids.size(),
+                                                dt.getTime()).encode();
+        } else {
+            m_token = null;
+        }
     }
 
     /**
@@ -535,6 +589,68 @@ public class FieldSearchResultSQLImpl
         return f;
     }
 
+    /**
+     * For the given pid, build an ObjectFields object with resultFields
+     * fields populated from the stored values in the current row of the
+     * result set.
+     *
+     * @param results
+     *        the result set, positioned on the object's row
+     * @param pid
+     *        the unique identifier of the object in the current row
+     * @return ObjectFields populated with the requested fields, or null if
+     *         the values aren't stored and the object must be read instead
+     * @throws UnrecognizedFieldException
+     *         if a resultFields value isn't valid
+     * @throws SQLException
+     *         if the values can't be read from the result set
+     */
+    private ObjectFields getStoredObjectFields(ResultSet results, String pid)
+            throws UnrecognizedFieldException, SQLException {
+        // rows indexed before doFieldValues existed have no stored values
+        if (!m_project || results.getString("storedPid") == null) {
+            return null;
+        }
+        ObjectFields f = new ObjectFields(m_resultFields);
+        if (m_projectDC) {
+            String dcValues =
+                    SQLUtility.getLongString(results, results
+                            .findColumn("storedDCValues"));
+            if (dcValues != null) {
+                FieldSearchSQLImpl.decodeDCValues(dcValues, f);
+            }
+        }
+        for (String n : m_resultFields) {
+            if (n.equals("pid")) {
+                f.setPid(pid);
+            }
+            if (n.equals("label")) {
+                f.setLabel(results.getString("storedLabel"));
+            }
+            if (n.equals("state")) {
+                // stored in lowercase for searching
+                f.setState(results.getString("state").toUpperCase());
+            }
+            if (n.equals("ownerId")) {
+                f.setOwnerId(results.getString("storedOwnerId"));
+            }
+            if (n.equals("cDate")) {
+                f.setCDate(new Date(results.getLong("cDate")));
+            }
+            if (n.equals("mDate")) {
+                f.setMDate(new Date(results.getLong("mDate")));
+            }
+            if (n.equals("dcmDate")) {
+                // zero means the object has no DC datastream
+                long dcmDate = results.getLong("dcmDate");
+                if (dcmDate != 0) {
+                    f.setDCMDate(new Date(dcmDate));
+                }
+            }
+        }
+        return f;
+    }
+
     public List objectFieldsList() {
         return m_objectFields;
     }
@@ -725,15 +841,4 @@ public class FieldSearchResultSQLImpl
         return false;
     }
 
-    //2004.05.18 wdn5e --  logic now needed > 1 places
-    private static final String dcFixup(String st) {
-        String dcFixed;
-        if (isDCProp(st)) {
-            dcFixed = "dc" + st.substring(0, 1).toUpperCase() + st.substring(1);
-        } else {
-            dcFixed = st;
-        }
-        return dcFixed;
-    }
-
 }
@@ -8,18 +8,25 @@ import java.io.InputStream;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.fcrepo.common.rdf.RDFName;
 import org.fcrepo.server.errors.ObjectIntegrityException;
 import org.fcrepo.server.errors.RepositoryConfigurationException;
 import org.fcrepo.server.errors.ServerException;
@@ -33,6 +40,7 @@ import org.fcrepo.server.storage.RepositoryReader;
 import org.fcrepo.server.storage.types.Datastream;
 import org.fcrepo.server.utilities.DCField;
 import org.fcrepo.server.utilities.DCFields;
+import org.fcrepo.server.utilities.DDLConverter;
 import org.fcrepo.server.utilities.SQLUtility;
 import org.fcrepo.utilities.DateUtility;
 
@@ -50,6 +58,12 @@ public class FieldSearchSQLImpl
     /** Whether DC fields are being indexed or not. */
     private boolean m_indexDCFields = true;
 
+    /** Whether findObjects results are built from stored values. */
+    private boolean m_projectResultFields = true;
+
+    /** Whether the words of searchable fields are kept in doTerms. */
+    private boolean m_useTermIndex = false;
+
     private final ConnectionPool m_cPool;
 
     private final RepositoryReader m_repoReader;
@@ -77,9 +91,20 @@ public class FieldSearchSQLImpl
     private static boolean[] s_dbColumnNumericNoDC =
             new boolean[] {false, false, false, false, true, true, true};
 
-    // a hash of token-keyed FieldSearchResultSQLImpls
-    private final HashMap<String, FieldSearchResultSQLImpl> m_currentResults =
-            new HashMap<String, FieldSearchResultSQLImpl>();
+    public static String[] VALUE_COLUMN_NAMES =
+            new String[] {"pid", "label", "ownerId", "dcValues"};
+
+    private static boolean[] s_valueColumnNumeric =
+            new boolean[] {false, false, false, false};
+
+    /** The maximum number of PIDs in a query for existing dcDates rows. */
+    private static final int DC_DATES_QUERY_SIZE = 100;
+
+    static String[] DC_FIELD_NAMES =
+            new String[] {"title", "creator", "subject", "description",
+                    "publisher", "contributor", "date", "type", "format",
+                    "identifier", "source", "language", "relation",
+                    "coverage", "rights"};
 
     /**
      * Construct a FieldSearchSQLImpl that indexes DC fields.
@@ -127,150 +152,362 @@ public class FieldSearchSQLImpl
                               int maxResults,
                               int maxSecondsPerSession,
                               boolean indexDCFields) {
+        this(cPool,
+             repoReader,
+             maxResults,
+             maxSecondsPerSession,
+             indexDCFields,
+             true,
+             false);
+    }
+
+    /**
+     * Construct a FieldSearchSQLImpl that indexes DC fields only if specified,
+     * that builds search results from stored field values only if specified,
+     * and that uses the doTerms inverted index only if specified.
+     *
+     * @param cPool
+     *        the ConnectionPool with connections to the db containing the
+     *        fields
+     * @param repoReader
+     *        the RepositoryReader to use when getting the original values of
+     *        the fields
+     * @param maxResults
+     *        the maximum number of results to return at a time, regardless of
+     *        what the user might request
+     * @param maxSecondsPerSession
+     *        maximum number of seconds per session.
+     * @param indexDCFields
+     *        whether DC field values should be examined and updated in the
+     *        database. If false, queries will behave as if no values had been
+     *        specified for the DC fields.
+     * @param projectResultFields
+     *        whether the fields of each search result should be read from the
+     *        doFieldValues table. If false, or if a requested field isn't
+     *        stored there, each hit is read from the repository instead.
+     * @param useTermIndex
+     *        whether the words of the searchable fields should be kept in the
+     *        doTerms table, and used to avoid scanning doFields for wildcard
+     *        searches.
+     */
+    public FieldSearchSQLImpl(ConnectionPool cPool,
+                              RepositoryReader repoReader,
+                              int maxResults,
+                              int maxSecondsPerSession,
+                              boolean indexDCFields,
+                              boolean projectResultFields,
+                              boolean useTermIndex) {
         logger.debug("Entering constructor");
         m_cPool = cPool;
         m_repoReader = repoReader;
         m_maxResults = maxResults;
         m_maxSecondsPerSession = maxSecondsPerSession;
         m_indexDCFields = indexDCFields;
+        m_projectResultFields = projectResultFields;
+        m_useTermIndex = useTermIndex;
         logger.debug("Exiting constructor");
     }
 
     public void update(DOReader reader) throws ServerException {
-        logger.debug("Entering update(DOReader)");
-        String pid = reader.GetObjectPID();
+        update(Collections.singletonList(reader));
+    }
+
+    /**
+     * Updates the search indexes for all of the given objects in one
+     * transaction. Rows of each table are written with JDBC batches, using
+     * the database's upsert statement where the DDLConverter provides one,
+     * and only the dcDates rows that changed are written.
+     */
+    public void update(List<DOReader> readers) throws ServerException {
+        logger.debug("Entering update(List)");
+        List<String[]> valueRows = new ArrayList<String[]>();
+        List<String[]> dcRows = new ArrayList<String[]>();
+        List<String[]> noDCRows = new ArrayList<String[]>();
+        Map<String, Set<Long>> dcDates =
+                new LinkedHashMap<String, Set<Long>>();
+        // only the last update of each object counts
+        Map<String, DOReader> latest = new LinkedHashMap<String, DOReader>();
+        for (DOReader reader : readers) {
+            latest.remove(reader.GetObjectPID());
+            latest.put(reader.GetObjectPID(), reader);
+        }
+        for (DOReader reader : latest.values()) {
+            addRows(reader, valueRows, dcRows, noDCRows, dcDates);
+        }
+
         Connection conn = null;
-        PreparedStatement st = null;
+        boolean autoCommit = true;
+        boolean committed = false;
         try {
             conn = m_cPool.getReadWriteConnection();
-            String[] dbRowValues;
-            if (m_indexDCFields) {
-                dbRowValues = new String[DB_COLUMN_NAMES.length];
-            } else {
-                dbRowValues = new String[DB_COLUMN_NAMES_NODC.length];
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            DDLConverter converter = m_cPool.getDDLConverter();
+            SQLUtility.replaceInto(conn,
+                                   "doFieldValues",
+                                   VALUE_COLUMN_NAMES,
+                                   valueRows,
+                                   "pid",
+                                   s_valueColumnNumeric,
+                                   converter);
+            logger.debug("Formulating SQL and inserting/updating WITH DC...");
+            SQLUtility.replaceInto(conn,
+                                   "doFields",
+                                   DB_COLUMN_NAMES,
+                                   dcRows,
+                                   "pid",
+                                   s_dbColumnNumeric,
+                                   converter);
+            logger.debug("Formulating SQL and inserting/updating WITHOUT DC...");
+            SQLUtility.replaceInto(conn,
+                                   "doFields",
+                                   DB_COLUMN_NAMES_NODC,
+                                   noDCRows,
+                                   "pid",
+                                   s_dbColumnNumericNoDC,
+                                   converter);
+            updateDCDates(conn, dcDates);
+            if (m_useTermIndex) {
+                for (String[] dbRowValues : dcRows) {
+                    FieldSearchTermIndex.update(conn,
+                                                dbRowValues[0],
+                                                DB_COLUMN_NAMES,
+                                                dbRowValues);
+                }
+                for (String[] dbRowValues : noDCRows) {
+                    FieldSearchTermIndex.update(conn,
+                                                dbRowValues[0],
+                                                DB_COLUMN_NAMES_NODC,
+                                                dbRowValues);
+                }
             }
-            dbRowValues[0] = reader.GetObjectPID();
-            String v;
-            v = reader.GetObjectLabel();
-            if (v != null) {
-                v = v.toLowerCase();
+            conn.commit();
+            committed = true;
+        } catch (SQLException sqle) {
+            throw new StorageDeviceException("Error attempting FieldSearch "
+                    + "update of " + readers.size() + " object(s)", sqle);
+        } finally {
+            try {
+                if (conn != null) {
+                    // whatever went wrong, restoring auto-commit mustn't
+                    // commit part of the batch
+                    if (!committed) {
+                        rollback(conn);
+                    }
+                    conn.setAutoCommit(autoCommit);
+                    m_cPool.free(conn);
+                }
+            } catch (SQLException sqle2) {
+                throw new StorageDeviceException("Error closing connection "
+                        + "while attempting update of objects"
+                        + sqle2.getMessage());
+            } finally {
+                logger.debug("Exiting update(List)");
             }
-            dbRowValues[1] = v;
+        }
+    }
 
-            dbRowValues[2] = reader.GetObjectState().toLowerCase();
-            v = reader.getOwnerId();
-            if (v != null) {
-                v = v.toLowerCase();
-            }
-            dbRowValues[3] = v;
-            Date date = reader.getCreateDate();
-            if (date == null) { // should never happen, but if it does, don't die
-                date = new Date();
-            }
-            dbRowValues[4] = "" + date.getTime();
-            date = reader.getLastModDate();
-            if (date == null) { // should never happen, but if it does, don't die
-                date = new Date();
-            }
-            dbRowValues[5] = "" + date.getTime();
+    /**
+     * Adds the doFieldValues and doFields rows of an object to the given
+     * lists, and its well-formed dc:date values to the given map if its DC
+     * fields are indexed.
+     */
+    private void addRows(DOReader reader,
+                         List<String[]> valueRows,
+                         List<String[]> dcRows,
+                         List<String[]> noDCRows,
+                         Map<String, Set<Long>> dcDates)
+            throws ServerException {
+        String pid = reader.GetObjectPID();
+        String[] dbRowValues;
+        if (m_indexDCFields) {
+            dbRowValues = new String[DB_COLUMN_NAMES.length];
+        } else {
+            dbRowValues = new String[DB_COLUMN_NAMES_NODC.length];
+        }
+        dbRowValues[0] = pid;
+        String v;
+        v = reader.GetObjectLabel();
+        if (v != null) {
+            v = v.toLowerCase();
+        }
+        dbRowValues[1] = v;
 
-            // do dc stuff if needed
-            Datastream dcmd = null;
-            try {
-                dcmd = reader.GetDatastream("DC", null);
-            } catch (ClassCastException cce) {
-                throw new ObjectIntegrityException("Object "
-                        + reader.GetObjectPID()
-                        + " has a DC datastream, but it's not inline XML.");
+        dbRowValues[2] = reader.GetObjectState().toLowerCase();
+        v = reader.getOwnerId();
+        if (v != null) {
+            v = v.toLowerCase();
+        }
+        dbRowValues[3] = v;
+        Date date = reader.getCreateDate();
+        if (date == null) { // should never happen, but if it does, don't die
+            date = new Date();
+        }
+        dbRowValues[4] = "" + date.getTime();
+        date = reader.getLastModDate();
+        if (date == null) { // should never happen, but if it does, don't die
+            date = new Date();
+        }
+        dbRowValues[5] = "" + date.getTime();
+
+        // do dc stuff if needed
+        Datastream dcmd = null;
+        try {
+            dcmd = reader.GetDatastream("DC", null);
+        } catch (ClassCastException cce) {
+            throw new ObjectIntegrityException("Object "
+                    + reader.GetObjectPID()
+                    + " has a DC datastream, but it's not inline XML.");
+        }
+        if (dcmd == null) {
+            dbRowValues[6] = "0";
+        } else {
+            dbRowValues[6] = "" + dcmd.DSCreateDT.getTime();
+        }
+
+        // keep the original values for building search results
+        String[] valueRowValues = new String[VALUE_COLUMN_NAMES.length];
+        valueRowValues[0] = pid;
+        valueRowValues[1] = reader.GetObjectLabel();
+        valueRowValues[2] = reader.getOwnerId();
+        if (dcmd != null && m_indexDCFields) {
+            valueRowValues[3] = encodeDCValues(new ObjectFields(
+                    DC_FIELD_NAMES, dcmd.getContentStream()));
+        }
+        valueRows.add(valueRowValues);
+
+        if (dcmd != null && m_indexDCFields) {
+            InputStream in = dcmd.getContentStream();
+            DCFields dc = new DCFields(in);
+
+            dbRowValues[7] = getDbValue(dc.titles());
+            dbRowValues[8] = getDbValue(dc.creators());
+            dbRowValues[9] = getDbValue(dc.subjects());
+            dbRowValues[10] = getDbValue(dc.descriptions());
+            dbRowValues[11] = getDbValue(dc.publishers());
+            dbRowValues[12] = getDbValue(dc.contributors());
+            dbRowValues[13] = getDbValue(dc.dates());
+            dbRowValues[14] = getDbValue(dc.types());
+            dbRowValues[15] = getDbValue(dc.formats());
+            dbRowValues[16] = getDbValue(dc.identifiers());
+            dbRowValues[17] = getDbValue(dc.sources());
+            dbRowValues[18] = getDbValue(dc.languages());
+            dbRowValues[19] = getDbValue(dc.relations());
+            dbRowValues[20] = getDbValue(dc.coverages());
+            dbRowValues[21] = getDbValue(dc.rights());
+            dcRows.add(dbRowValues);
+
+            // get any dc.dates strings that are formed such that they
+            // can be treated as a timestamp
+            Set<Long> wellFormedDates = new TreeSet<Long>();
+            for (DCField dcDate : dc.dates()) {
+                Date p = DateUtility.parseDateLoose(dcDate.getValue());
+                if (p != null) {
+                    wellFormedDates.add(p.getTime());
+                }
             }
-            if (dcmd == null) {
-                dbRowValues[6] = "0";
-            } else {
-                dbRowValues[6] = "" + dcmd.DSCreateDT.getTime();
+            dcDates.put(pid, wellFormedDates);
+        } else {
+            noDCRows.add(dbRowValues);
+        }
+    }
+
+    /**
+     * Makes the dcDates rows of each object match the given dates, deleting
+     * the rows of dates that are gone and adding those of new dates.
+     */
+    private static void updateDCDates(Connection conn,
+                                      Map<String, Set<Long>> dcDates)
+            throws SQLException {
+        if (dcDates.isEmpty()) {
+            return;
+        }
+        List<String> pids = new ArrayList<String>(dcDates.keySet());
+        Map<String, Set<Long>> oldDates = new HashMap<String, Set<Long>>();
+        for (int start = 0; start < pids.size(); start += DC_DATES_QUERY_SIZE) {
+            List<String> chunk =
+                    pids.subList(start, Math.min(pids.size(), start
+                            + DC_DATES_QUERY_SIZE));
+            StringBuffer query =
+                    new StringBuffer("SELECT pid, dcDate FROM dcDates "
+                            + "WHERE pid IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                query.append(i == 0 ? "?" : ", ?");
             }
-            if (dcmd != null && m_indexDCFields) {
-                InputStream in = dcmd.getContentStream();
-                DCFields dc = new DCFields(in);
-
-                dbRowValues[7] = getDbValue(dc.titles());
-                dbRowValues[8] = getDbValue(dc.creators());
-                dbRowValues[9] = getDbValue(dc.subjects());
-                dbRowValues[10] = getDbValue(dc.descriptions());
-                dbRowValues[11] = getDbValue(dc.publishers());
-                dbRowValues[12] = getDbValue(dc.contributors());
-                dbRowValues[13] = getDbValue(dc.dates());
-
-                // delete any dc.dates that survive from earlier versions
-                st = conn.prepareStatement("DELETE FROM dcDates WHERE pid=?");
-                st.setString(1, pid);
-                st.executeUpdate();
-
-                // get any dc.dates strings that are formed such that they
-                // can be treated as a timestamp
-                List<Date> wellFormedDates = null;
-                for (int i = 0; i < dc.dates().size(); i++) {
-                    if (i == 0) {
-                        wellFormedDates = new ArrayList<Date>();
+            query.append(")");
+            PreparedStatement st = conn.prepareStatement(query.toString());
+            ResultSet results = null;
+            try {
+                for (int i = 0; i < chunk.size(); i++) {
+                    st.setString(i + 1, chunk.get(i));
+                }
+                results = st.executeQuery();
+                while (results.next()) {
+                    String pid = results.getString(1);
+                    Set<Long> dates = oldDates.get(pid);
+                    if (dates == null) {
+                        dates = new HashSet<Long>();
+                        oldDates.put(pid, dates);
                     }
-                    Date p = DateUtility.parseDateLoose(dc.dates().get(i).getValue());
-                    if (p != null) {
-                        wellFormedDates.add(p);
+                    dates.add(results.getLong(2));
+                }
+            } finally {
+                if (results != null) {
+                    results.close();
+                }
+                st.close();
+            }
+        }
+
+        PreparedStatement delete =
+                conn.prepareStatement("DELETE FROM dcDates WHERE pid=? "
+                        + "AND dcDate=?");
+        PreparedStatement insert =
+                conn.prepareStatement("INSERT INTO dcDates (pid, dcDate) "
+                        + "values (?, ?)");
+        try {
+            int deletes = 0;
+            int inserts = 0;
+            for (String pid : pids) {
+                Set<Long> dates = dcDates.get(pid);
+                Set<Long> old = oldDates.get(pid);
+                if (old != null) {
+                    for (Long dt : old) {
+                        if (!dates.contains(dt)) {
+                            delete.setString(1, pid);
+                            delete.setLong(2, dt);
+                            delete.addBatch();
+                            deletes++;
+                        }
                     }
                 }
-                if (wellFormedDates != null && wellFormedDates.size() > 0) {
-                    // found at least one valid date, so add them.
-                    for (int i = 0; i < wellFormedDates.size(); i++) {
-                        Date dt = wellFormedDates.get(i);
-                        String query = 
-                        	"INSERT INTO dcDates (pid, dcDate) values (?, ?)";
-                        st = conn.prepareStatement(query);
-                        st.setString(1, pid);
-                        st.setLong(2, dt.getTime());
-                        st.executeUpdate();
+                for (Long dt : dates) {
+                    if (old == null || !old.contains(dt)) {
+                        insert.setString(1, pid);
+                        insert.setLong(2, dt);
+                        insert.addBatch();
+                        inserts++;
                     }
                 }
-                dbRowValues[14] = getDbValue(dc.types());
-                dbRowValues[15] = getDbValue(dc.formats());
-                dbRowValues[16] = getDbValue(dc.identifiers());
-                dbRowValues[17] = getDbValue(dc.sources());
-                dbRowValues[18] = getDbValue(dc.languages());
-                dbRowValues[19] = getDbValue(dc.relations());
-                dbRowValues[20] = getDbValue(dc.coverages());
-                dbRowValues[21] = getDbValue(dc.rights());
-                logger.debug("Formulating SQL and inserting/updating WITH DC...");
-                SQLUtility.replaceInto(conn,
-                                       "doFields",
-                                       DB_COLUMN_NAMES,
-                                       dbRowValues,
-                                       "pid",
-                                       s_dbColumnNumeric);
-            } else {
-                logger.debug("Formulating SQL and inserting/updating WITHOUT DC...");
-                SQLUtility.replaceInto(conn,
-                                       "doFields",
-                                       DB_COLUMN_NAMES_NODC,
-                                       dbRowValues,
-                                       "pid",
-                                       s_dbColumnNumericNoDC);
             }
-        } catch (SQLException sqle) {
-            throw new StorageDeviceException("Error attempting FieldSearch "
-                    + "update of " + pid, sqle);
+            if (deletes > 0) {
+                delete.executeBatch();
+            }
+            if (inserts > 0) {
+                insert.executeBatch();
+            }
         } finally {
+            delete.close();
+            insert.close();
+        }
+    }
+
+    private static void rollback(Connection conn) {
+        if (conn != null) {
             try {
-                if (st != null) {
-                    st.close();
-                }
-                if (conn != null) {
-                    m_cPool.free(conn);
-                }
-            } catch (SQLException sqle2) {
-                throw new StorageDeviceException("Error closing statement "
-                        + "while attempting update of object"
-                        + sqle2.getMessage());
-            } finally {
-                st = null;
-                logger.debug("Exiting update(DOReader)");
+                conn.rollback();
+            } catch (SQLException e) {
+                logger.warn("Unable to roll back FieldSearch update", e);
             }
         }
     }
@@ -287,6 +524,12 @@ public class FieldSearchSQLImpl
             st = conn.prepareStatement("DELETE FROM dcDates WHERE pid=?");
             st.setString(1, pid);
             st.executeUpdate();
+            st = conn.prepareStatement("DELETE FROM doFieldValues WHERE pid=?");
+            st.setString(1, pid);
+            st.executeUpdate();
+            if (m_useTermIndex) {
+                FieldSearchTermIndex.delete(conn, pid);
+            }
             return true;
         } catch (SQLException sqle) {
             throw new StorageDeviceException("Error attempting delete of "
@@ -316,67 +559,55 @@ public class FieldSearchSQLImpl
             throws UnrecognizedFieldException, ObjectIntegrityException,
             RepositoryConfigurationException, StreamIOException,
             ServerException, StorageDeviceException {
-        closeAndForgetOldResults();
-        int actualMax = maxResults;
-        if (m_maxResults < maxResults) {
-            actualMax = m_maxResults;
-        }
-        try {
-            return stepAndRemember(new FieldSearchResultSQLImpl(m_cPool,
-                                                                m_repoReader,
-                                                                resultFields,
-                                                                actualMax,
-                                                                m_maxSecondsPerSession,
-                                                                query));
-        } catch (SQLException sqle) {
-            throw new StorageDeviceException("Error querying sql db: "
-                    + sqle.getMessage(), sqle);
-        }
+        return step(new FieldSearchResultSQLImpl(m_cPool,
+                                                 m_repoReader,
+                                                 resultFields,
+                                                 getActualMax(maxResults),
+                                                 m_maxSecondsPerSession,
+                                                 query,
+                                                 m_projectResultFields,
+                                                 m_indexDCFields,
+                                                 m_useTermIndex));
     }
 
     public FieldSearchResult resumeFindObjects(String sessionToken)
             throws UnrecognizedFieldException, ObjectIntegrityException,
             RepositoryConfigurationException, StreamIOException,
             ServerException, UnknownSessionTokenException {
-        closeAndForgetOldResults();
-        FieldSearchResultSQLImpl result =
-                m_currentResults
-                .remove(sessionToken);
-        if (result == null) {
+        FieldSearchSessionToken session =
+                FieldSearchSessionToken.decode(sessionToken);
+        if (session.getExpires() < System.currentTimeMillis()) {
             throw new UnknownSessionTokenException("Session is expired "
                     + "or never existed.");
         }
-        return stepAndRemember(result);
+        return step(new FieldSearchResultSQLImpl(m_cPool,
+                                                 m_repoReader,
+                                                 session.getResultFields(),
+                                                 getActualMax(session
+                                                         .getMaxResults()),
+                                                 m_maxSecondsPerSession,
+                                                 session.getQuery(),
+                                                 m_projectResultFields,
+                                                 m_indexDCFields,
+                                                 m_useTermIndex,
+                                                 session.getLastPid(),
+                                                 session.getCursor()));
     }
 
-    private FieldSearchResult stepAndRemember(FieldSearchResultSQLImpl result)
+    private FieldSearchResult step(FieldSearchResultSQLImpl result)
             throws UnrecognizedFieldException, ObjectIntegrityException,
             RepositoryConfigurationException, StreamIOException,
-            ServerException, UnrecognizedFieldException {
+            ServerException {
         result.step();
-        if (result.getToken() != null) {
-            m_currentResults.put(result.getToken(), result);
-        }
         return result;
     }
 
-    // erase and cleanup expired stuff
-    private void closeAndForgetOldResults() {
-        Iterator<FieldSearchResultSQLImpl> iter =
-                m_currentResults.values().iterator();
-        ArrayList<String> toRemove = new ArrayList<String>();
-        while (iter.hasNext()) {
-            FieldSearchResultSQLImpl r = iter.next();
-            if (r.isExpired()) {
-                logger.debug("listSession " + r.getToken()
-                        + " expired; will forget it.");
-                toRemove.add(r.getToken());
-            }
-        }
-        for (int i = 0; i < toRemove.size(); i++) {
-            String token = toRemove.get(i);
-            m_currentResults.remove(token);
-        }
+    /**
+     * Get the number of results to return per page: the requested number,
+     * but no more than the server limit, and at least one.
+     */
+    private int getActualMax(int maxResults) {
+        return Math.max(1, Math.min(maxResults, m_maxResults));
     }
 
     /**
@@ -402,6 +633,87 @@ public class FieldSearchSQLImpl
         return out.toString();
     }
 
+    /**
+     * Get the string that should be stored in the dcValues column, given the
+     * parsed DC values. Each value is written on its own line as the field
+     * name, a tab, and the value, with backslashes, tabs and line breaks in
+     * the value escaped.
+     *
+     * @param dc
+     *        the dublin core values, as they should be returned by searches
+     * @return String the string to store
+     */
+    static String encodeDCValues(DCFields dc) {
+        Map<String, List<DCField>> byName = new HashMap<String, List<DCField>>();
+        for (Map.Entry<RDFName, List<DCField>> entry : dc.getMap().entrySet()) {
+            byName.put(entry.getKey().localName, entry.getValue());
+        }
+        StringBuilder out = new StringBuilder();
+        for (String name : DC_FIELD_NAMES) {
+            for (DCField dcField : byName.get(name)) {
+                out.append(name);
+                out.append('\t');
+                String value = dcField.getValue();
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (c == '\\') {
+                        out.append("\\\\");
+                    } else if (c == '\t') {
+                        out.append("\\t");
+                    } else if (c == '\n') {
+                        out.append("\\n");
+                    } else if (c == '\r') {
+                        out.append("\\r");
+                    } else {
+                        out.append(c);
+                    }
+                }
+                out.append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Add the values stored by <code>encodeDCValues</code> to the given
+     * fields. Only the fields wanted by <code>fields</code> are added.
+     *
+     * @param stored
+     *        the stored dcValues string
+     * @param fields
+     *        the fields to add the values to
+     */
+    static void decodeDCValues(String stored, ObjectFields fields) {
+        int start = 0;
+        while (start < stored.length()) {
+            int end = stored.indexOf('\n', start);
+            if (end == -1) {
+                end = stored.length();
+            }
+            int tab = stored.indexOf('\t', start);
+            if (tab != -1 && tab < end) {
+                StringBuilder value = new StringBuilder();
+                for (int i = tab + 1; i < end; i++) {
+                    char c = stored.charAt(i);
+                    if (c == '\\' && i + 1 < end) {
+                        c = stored.charAt(++i);
+                        if (c == 't') {
+                            c = '\t';
+                        } else if (c == 'n') {
+                            c = '\n';
+                        } else if (c == 'r') {
+                            c = '\r';
+                        }
+                    }
+                    value.append(c);
+                }
+                fields.addDCValue(stored.substring(start, tab),
+                                  value.toString());
+            }
+            start = end + 1;
+        }
+    }
+
     // same as above, but for case sensitive repeating values
     private static String getDbValueCaseSensitive(List<String> dcItem) {
         if (dcItem.size() == 0) {
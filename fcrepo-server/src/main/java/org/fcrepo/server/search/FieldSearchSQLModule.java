@@ -4,6 +4,7 @@
  */
 package org.fcrepo.server.search;
 
+import java.util.List;
 import java.util.Map;
 
 import org.fcrepo.server.Module;
@@ -92,6 +93,36 @@ public class FieldSearchSQLModule
             }
         }
 
+        //
+        // get projectResultFields parameter (default to true if unspecified)
+        //
+        boolean projectResultFields = true;
+        String projectResultFieldsValue = getParameter("projectResultFields");
+        if (projectResultFieldsValue != null) {
+            String val = projectResultFieldsValue.trim().toLowerCase();
+            if (val.equals("false") || val.equals("no")) {
+                projectResultFields = false;
+            } else if (!val.equals("true") && !val.equals("yes")) {
+                throw new ModuleInitializationException("projectResultFields "
+                        + "param was not a boolean", getRole());
+            }
+        }
+
+        //
+        // get useTermIndex parameter (default to false if unspecified)
+        //
+        boolean useTermIndex = false;
+        String useTermIndexValue = getParameter("useTermIndex");
+        if (useTermIndexValue != null) {
+            String val = useTermIndexValue.trim().toLowerCase();
+            if (val.equals("true") || val.equals("yes")) {
+                useTermIndex = true;
+            } else if (!val.equals("false") && !val.equals("no")) {
+                throw new ModuleInitializationException("useTermIndex "
+                        + "param was not a boolean", getRole());
+            }
+        }
+
         //
         // get connectionPool from ConnectionPoolManager
         //
@@ -137,7 +168,9 @@ public class FieldSearchSQLModule
                                        doManager,
                                        maxResults,
                                        maxSecondsPerSession,
-                                       indexDCFields);
+                                       indexDCFields,
+                                       projectResultFields,
+                                       useTermIndex);
     }
 
     @Override
@@ -150,6 +183,10 @@ public class FieldSearchSQLModule
         m_wrappedFieldSearch.update(reader);
     }
 
+    public void update(List<DOReader> readers) throws ServerException {
+        m_wrappedFieldSearch.update(readers);
+    }
+
     public boolean delete(String pid) throws ServerException {
         return m_wrappedFieldSearch.delete(pid);
     }
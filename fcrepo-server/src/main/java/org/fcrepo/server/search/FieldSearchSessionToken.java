@@ -0,0 +1,196 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.fcrepo.server.errors.InvalidOperatorException;
+import org.fcrepo.server.errors.QueryParseException;
+import org.fcrepo.server.errors.UnknownSessionTokenException;
+
+/**
+ * The state of a paged findObjects session, carried by the session token
+ * itself.
+ * <p>
+ * Results are returned in PID order, so all that is needed to get the next
+ * page is the original request and the last PID returned. Encoding these in
+ * the token lets any later <code>resumeFindObjects</code> call reissue the
+ * query with a <code>pid &gt; ?</code> condition, and the server doesn't need
+ * to keep anything between pages. Tokens are URL-safe Base64 strings.
+ * </p>
+ */
+public class FieldSearchSessionToken {
+
+    private static final int VERSION = 1;
+
+    private final String[] m_resultFields;
+
+    private final int m_maxResults;
+
+    private final FieldSearchQuery m_query;
+
+    private final String m_lastPid;
+
+    private final long m_cursor;
+
+    private final long m_expires;
+
+    /**
+     * @param resultFields
+     *        the requested fields
+     * @param maxResults
+     *        the page size
+     * @param query
+     *        the query
+     * @param lastPid
+     *        the PID of the last result returned so far
+     * @param cursor
+     *        the number of results returned so far
+     * @param expires
+     *        when the session expires, in milliseconds since the epoch
+     */
+    public FieldSearchSessionToken(String[] resultFields,
+                                   int maxResults,
+                                   FieldSearchQuery query,
+                                   String lastPid,
+                                   long cursor,
+                                   long expires) {
+        m_resultFields = resultFields;
+        m_maxResults = maxResults;
+        m_query = query;
+        m_lastPid = lastPid;
+        m_cursor = cursor;
+        m_expires = expires;
+    }
+
+    public String[] getResultFields() {
+        return m_resultFields;
+    }
+
+    public int getMaxResults() {
+        return m_maxResults;
+    }
+
+    public FieldSearchQuery getQuery() {
+        return m_query;
+    }
+
+    public String getLastPid() {
+        return m_lastPid;
+    }
+
+    public long getCursor() {
+        return m_cursor;
+    }
+
+    public long getExpires() {
+        return m_expires;
+    }
+
+    /**
+     * Gets the token string for this session.
+     */
+    public String encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeLong(m_expires);
+            out.writeLong(m_cursor);
+            out.writeInt(m_maxResults);
+            out.writeUTF(m_lastPid);
+            out.writeInt(m_resultFields.length);
+            for (String field : m_resultFields) {
+                out.writeUTF(field);
+            }
+            out.writeByte(m_query.getType());
+            if (m_query.getType() == FieldSearchQuery.TERMS_TYPE) {
+                out.writeUTF(m_query.getTerms());
+            } else {
+                List<Condition> conditions = m_query.getConditions();
+                out.writeInt(conditions.size());
+                for (Condition condition : conditions) {
+                    out.writeUTF(condition.getProperty());
+                    out.writeUTF(condition.getOperator().getAbbreviation());
+                    out.writeUTF(condition.getValue());
+                }
+            }
+            out.close();
+        } catch (IOException e) {
+            // can't happen with an in-memory stream
+            throw new RuntimeException(e);
+        }
+        return Base64.encodeBase64URLSafeString(bytes.toByteArray());
+    }
+
+    /**
+     * Parses a token string.
+     *
+     * @throws UnknownSessionTokenException
+     *         if the token wasn't created by <code>encode()</code>.
+     */
+    public static FieldSearchSessionToken decode(String token)
+            throws UnknownSessionTokenException {
+        try {
+            DataInputStream in =
+                    new DataInputStream(new ByteArrayInputStream(Base64
+                            .decodeBase64(token)));
+            if (in.readByte() != VERSION) {
+                throw new IOException("Unknown token version");
+            }
+            long expires = in.readLong();
+            long cursor = in.readLong();
+            int maxResults = in.readInt();
+            String lastPid = in.readUTF();
+            String[] resultFields = new String[in.readInt()];
+            for (int i = 0; i < resultFields.length; i++) {
+                resultFields[i] = in.readUTF();
+            }
+            FieldSearchQuery query;
+            if (in.readByte() == FieldSearchQuery.TERMS_TYPE) {
+                query = new FieldSearchQuery(in.readUTF());
+            } else {
+                int size = in.readInt();
+                List<Condition> conditions = new ArrayList<Condition>();
+                for (int i = 0; i < size; i++) {
+                    conditions.add(new Condition(in.readUTF(),
+                                                 in.readUTF(),
+                                                 in.readUTF()));
+                }
+                query = new FieldSearchQuery(conditions);
+            }
+            if (in.read() != -1) {
+                throw new IOException("Unexpected data at end of token");
+            }
+            return new FieldSearchSessionToken(resultFields,
+                                               maxResults,
+                                               query,
+                                               lastPid,
+                                               cursor,
+                                               expires);
+        } catch (IOException e) {
+            throw new UnknownSessionTokenException("Session token is not "
+                    + "valid.");
+        } catch (NegativeArraySizeException e) {
+            throw new UnknownSessionTokenException("Session token is not "
+                    + "valid.");
+        } catch (InvalidOperatorException e) {
+            throw new UnknownSessionTokenException("Session token is not "
+                    + "valid.");
+        } catch (QueryParseException e) {
+            throw new UnknownSessionTokenException("Session token is not "
+                    + "valid.");
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * An inverted index of the words in the string-valued doFields columns, kept
+ * in the doTerms table.
+ * <p>
+ * Wildcard searches on doFields are evaluated with <code>LIKE</code>
+ * predicates that no database can answer from an index, so each one scans the
+ * whole table. This class stores every space-separated word of each indexed
+ * column as a row of doTerms, and turns a search pattern into a filter of the
+ * form <code>doFields.pid IN (SELECT pid FROM doTerms WHERE ...)</code> that
+ * can be answered from the index on doTerms.term.
+ * </p>
+ * <p>
+ * A filter only narrows down the candidate rows: it is derived from a word of
+ * the pattern that every matching value must contain (or start a word with),
+ * and is always combined with the original predicate, so the results of a
+ * search are exactly the same as without it. Patterns without such a word,
+ * like <code>*ing</code>, get no filter and are still evaluated with a scan.
+ * </p>
+ */
+public class FieldSearchTermIndex {
+
+    /** Terms are truncated to the size of the doTerms.term column. */
+    public static final int MAX_TERM_LENGTH = 64;
+
+    /** The doFields columns whose words are indexed. */
+    private static final Set<String> INDEXED_COLUMNS =
+            new LinkedHashSet<String>();
+    static {
+        for (String column : FieldSearchSQLImpl.DB_COLUMN_NAMES) {
+            if (column.indexOf("Date") == -1 || column.equals("dcDate")) {
+                INDEXED_COLUMNS.add(column);
+            }
+        }
+    }
+
+    /** The marker appended to the value of every DC column in doFields. */
+    private static final String DC_VALUE_END = " .";
+
+    /**
+     * Replaces the terms of the given object with those of the given doFields
+     * row.
+     *
+     * @param conn
+     *        a read-write connection
+     * @param pid
+     *        the object's PID
+     * @param columns
+     *        the doFields column names
+     * @param values
+     *        the doFields values, as written to the database
+     * @throws SQLException
+     *         if the terms can't be written
+     */
+    public static void update(Connection conn,
+                              String pid,
+                              String[] columns,
+                              String[] values) throws SQLException {
+        delete(conn, pid);
+        PreparedStatement st =
+                conn.prepareStatement("INSERT INTO doTerms (pid, field, term) "
+                        + "VALUES (?, ?, ?)");
+        try {
+            boolean added = false;
+            for (int i = 0; i < columns.length; i++) {
+                if (!INDEXED_COLUMNS.contains(columns[i])) {
+                    continue;
+                }
+                for (String term : getTerms(columns[i], values[i])) {
+                    st.setString(1, pid);
+                    st.setString(2, columns[i]);
+                    st.setString(3, term);
+                    st.addBatch();
+                    added = true;
+                }
+            }
+            if (added) {
+                st.executeBatch();
+            }
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Removes all terms of the given object.
+     *
+     * @param conn
+     *        a read-write connection
+     * @param pid
+     *        the object's PID
+     * @throws SQLException
+     *         if the terms can't be deleted
+     */
+    public static void delete(Connection conn, String pid)
+            throws SQLException {
+        PreparedStatement st =
+                conn.prepareStatement("DELETE FROM doTerms WHERE pid=?");
+        try {
+            st.setString(1, pid);
+            st.executeUpdate();
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Gets the distinct terms of a doFields value: its lowercased,
+     * space-separated words, truncated to <code>MAX_TERM_LENGTH</code>.
+     *
+     * @param column
+     *        the doFields column name
+     * @param value
+     *        the value as written to doFields, or null
+     * @return the terms, in order of first occurrence
+     */
+    static Set<String> getTerms(String column, String value) {
+        Set<String> terms = new LinkedHashSet<String>();
+        if (value == null) {
+            return terms;
+        }
+        if (column.startsWith("dc") && value.endsWith(DC_VALUE_END)) {
+            value = value.substring(0, value.length() - DC_VALUE_END.length());
+        }
+        for (String word : value.toLowerCase().split(" ")) {
+            if (word.length() > 0) {
+                terms.add(truncate(word));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Gets a filter that selects a superset of the doFields rows for which
+     * the given pattern matches the given column, or for which it matches any
+     * indexed column if the column is null.
+     * <p>
+     * The pattern has the syntax accepted by <code>FieldSearchQuery</code>,
+     * where <code>*</code> and <code>?</code> are wildcards. A word of the
+     * pattern can be used if it is known to start a word of the value: it is
+     * at the start of the pattern (values are matched from their start, and
+     * DC patterns are prefixed with "* "), or follows a space. If it contains
+     * no wildcards it must be a whole word of the value, otherwise a word of
+     * the value must start with the part before the first wildcard.
+     * </p>
+     *
+     * @param column
+     *        the doFields column name, or null for any column
+     * @param pattern
+     *        the search pattern
+     * @return a SQL condition, or null if the pattern has no usable word
+     */
+    public static String getFilter(String column, String pattern) {
+        if (column != null && !INDEXED_COLUMNS.contains(column)) {
+            return null;
+        }
+        String word = null;
+        boolean whole = false;
+        String[] words = pattern.toLowerCase().split(" ", -1);
+        for (int i = 0; i < words.length; i++) {
+            int end = getLiteralLength(words[i]);
+            if (end == 0) {
+                continue;
+            }
+            boolean candidateWhole = end == words[i].length();
+            String candidate = words[i].substring(0, end);
+            // "." also ends every DC value, so it isn't indexed there
+            if (candidate.equals(".")) {
+                continue;
+            }
+            if (word == null || (candidateWhole && !whole)
+                    || (candidateWhole == whole
+                    && candidate.length() > word.length())) {
+                word = candidate;
+                whole = candidateWhole;
+            }
+        }
+        if (word == null) {
+            return null;
+        }
+        StringBuilder filter =
+                new StringBuilder("doFields.pid IN (SELECT pid FROM doTerms "
+                        + "WHERE ");
+        if (column != null) {
+            filter.append("field='" + column + "' AND ");
+        }
+        if (whole || word.length() >= MAX_TERM_LENGTH) {
+            filter.append("term='" + truncate(word) + "')");
+        } else {
+            filter.append("term LIKE '" + word + "%')");
+        }
+        return filter.toString();
+    }
+
+    /**
+     * Gets the number of leading characters of a pattern word that are
+     * matched literally. Besides wildcards, this stops at characters that
+     * have a special meaning in SQL strings or patterns, so the result can
+     * always be used in a filter as is.
+     */
+    private static int getLiteralLength(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c == '*' || c == '?' || c == '\\' || c == '%' || c == '_'
+                    || c == '\'' || c == '"') {
+                return i;
+            }
+        }
+        return word.length();
+    }
+
+    private static String truncate(String term) {
+        if (term.length() > MAX_TERM_LENGTH) {
+            return term.substring(0, MAX_TERM_LENGTH);
+        }
+        return term;
+    }
+
+    private FieldSearchTermIndex() {
+    }
+}
@@ -240,6 +240,16 @@ public class ObjectFields
         }
     }
 
+    /**
+     * Adds a value for the named dublin core field (for example "title"),
+     * just as if it had been parsed from a DC record. Nothing is added if the
+     * field isn't wanted.
+     */
+    public void addDCValue(String name, String value) {
+        m_currentContent = new StringBuffer(value);
+        endElement(null, name, name);
+    }
+
     public void setPid(String pid) {
         m_pid = pid;
     }
@@ -276,6 +276,16 @@ public class ConnectionPool {
         }
     }
 
+    /**
+     * Gets the DDLConverter for this pool's database.
+     *
+     * @return the DDLConverter, or null if this ConnectionPool hasn't been
+     *         configured with one (see constructor).
+     */
+    public DDLConverter getDDLConverter() {
+        return ddlConverter;
+    }
+
     /**
      * <p>
      * Gets the next available connection.  Connection is read-only, see
@@ -1,79 +1,85 @@
 /* The contents of this file are subject to the license and copyright terms
- * detailed in the license directory at the root of the source tree (also 
+ * detailed in the license directory at the root of the source tree (also
  * available online at http://fedora-commons.org/license/).
  */
 package org.fcrepo.server.storage;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-public class DOReaderCache
-        extends Thread {
+import org.fcrepo.server.storage.types.AuditRecord;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
+import org.fcrepo.server.storage.types.DigitalObject;
 
-    private final int m_maxReaders;
+/**
+ * A size-bounded, segmented LRU cache of <code>DOReader</code>s.
+ * <p>
+ * Entries are spread over a fixed number of independently locked segments by
+ * PID hash, so concurrent readers of different objects rarely contend for the
+ * same monitor. Each segment is an access-ordered <code>LinkedHashMap</code>,
+ * giving O(1) hits and O(1) eviction of the least recently used entry. The
+ * cache is bounded both by entry count and, optionally, by the estimated heap
+ * footprint of the cached objects. Expiry is checked lazily when an entry is
+ * accessed or when a put finds expired entries at the eldest end of its
+ * segment; there is no background sweeper thread.
+ * <p>
+ * Hit, miss, eviction and expiration counts are kept per segment and summed
+ * on request.
+ */
+public class DOReaderCache {
 
-    private final int m_maxCachedSeconds;
+    /** Fewest entries we want in a segment before adding another one. */
+    private static final int MIN_SEGMENT_CAPACITY = 8;
 
-    private final Map m_readers;
+    private static final int MAX_SEGMENTS = 16;
 
-    private final List m_pidList;
+    /** Rough per-object and per-component overheads, in bytes. */
+    private static final long OBJECT_OVERHEAD = 1024;
 
-    private boolean m_stopRequested;
+    private static final long DATASTREAM_OVERHEAD = 512;
 
-    public DOReaderCache(int maxReaders, int maxCachedSeconds) {
+    private static final long AUDIT_RECORD_OVERHEAD = 256;
+
+    private final long m_maxCachedMillis;
 
-        m_maxReaders = maxReaders;
-        m_maxCachedSeconds = maxCachedSeconds;
+    private final Segment[] m_segments;
 
-        m_readers = new HashMap();
-        m_pidList = new ArrayList();
+    private final int m_segmentMask;
 
-        m_stopRequested = false;
-        start();
+    /**
+     * Creates a cache bounded only by entry count.
+     */
+    public DOReaderCache(int maxReaders, int maxCachedSeconds) {
+        this(maxReaders, 0, maxCachedSeconds);
     }
 
     /**
-     * Until closed, check for and remove any expired entries every second.
+     * Creates a cache bounded by entry count and estimated heap bytes.
+     *
+     * @param maxReaders the maximum number of readers to hold.
+     * @param maxBytes the maximum estimated size of all cached readers, in
+     *        bytes, or zero (or less) for no byte bound.
+     * @param maxCachedSeconds how long an unused reader stays valid.
      */
-    @Override
-    public void run() {
-        while (!m_stopRequested) {
-            removeExpired();
-            if (!m_stopRequested) {
-                try {
-                    Thread.sleep(1000);
-                } catch (Exception e) {
-                }
-            }
+    public DOReaderCache(int maxReaders, long maxBytes, int maxCachedSeconds) {
+        m_maxCachedMillis = 1000L * maxCachedSeconds;
+
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS
+                && segmentCount * 2 * MIN_SEGMENT_CAPACITY <= maxReaders) {
+            segmentCount *= 2;
         }
-    }
+        m_segmentMask = segmentCount - 1;
+        m_segments = new Segment[segmentCount];
 
-    private void removeExpired() {
-        long cutoffTime =
-                System.currentTimeMillis() - 1000 * m_maxCachedSeconds;
-        synchronized (m_readers) {
-            if (m_pidList.size() > 0) {
-                boolean done = false;
-                List expiredList = new ArrayList();
-                Iterator pids = m_pidList.iterator();
-                while (pids.hasNext() && !done) {
-                    String pid = (String) pids.next();
-                    List l = (List) m_readers.get(pid);
-                    long cachedTime = ((Long) l.get(1)).longValue();
-                    if (cachedTime < cutoffTime) {
-                        expiredList.add(pid);
-                    } else {
-                        done = true;
-                    }
-                }
-                pids = expiredList.iterator();
-                while (pids.hasNext()) {
-                    remove((String) pids.next());
-                }
-            }
+        int entriesPerSegment =
+                Math.max(1, (maxReaders + segmentCount - 1) / segmentCount);
+        long bytesPerSegment = maxBytes > 0 ? maxBytes / segmentCount : 0;
+        for (int i = 0; i < segmentCount; i++) {
+            m_segments[i] = new Segment(entriesPerSegment, bytesPerSegment);
         }
     }
 
@@ -82,11 +88,7 @@ public class DOReaderCache
      * nothing.
      */
     public void remove(String pid) {
-        synchronized (m_readers) {
-            if (m_readers.remove(pid) != null) {
-                m_pidList.remove(pid);
-            }
-        }
+        segmentFor(pid).remove(pid);
     }
 
     /**
@@ -99,47 +101,253 @@ public class DOReaderCache
             pid = reader.GetObjectPID();
         } catch (Exception e) {
         }
-        Long time = new Long(System.currentTimeMillis());
-        List l = new ArrayList();
-        l.add(reader);
-        l.add(time);
-        synchronized (m_readers) {
-            m_readers.put(pid, l);
-            if (m_pidList.contains(pid)) {
-                // ensure it only appears in the list once, at the end
-                m_pidList.remove(pid);
+        if (pid == null) {
+            return;
+        }
+        segmentFor(pid).put(pid,
+                            new Entry(reader, estimateSize(reader),
+                                      System.currentTimeMillis()));
+    }
+
+    /**
+     * Get a DOReader from the cache. If it doesn't exist in the cache, or has
+     * expired, return null. If it does exist, set its time to the current time
+     * and return it.
+     */
+    public DOReader get(String pid) {
+        return segmentFor(pid).get(pid, System.currentTimeMillis());
+    }
+
+    /**
+     * Discard all cached readers.
+     */
+    public void close() {
+        for (Segment segment : m_segments) {
+            segment.clear();
+        }
+    }
+
+    /** The number of requests that were answered from the cache. */
+    public long getHitCount() {
+        long count = 0;
+        for (Segment segment : m_segments) {
+            synchronized (segment) {
+                count += segment.hits;
+            }
+        }
+        return count;
+    }
+
+    /** The number of requests that were not answered from the cache. */
+    public long getMissCount() {
+        long count = 0;
+        for (Segment segment : m_segments) {
+            synchronized (segment) {
+                count += segment.misses;
+            }
+        }
+        return count;
+    }
+
+    /** The number of readers dropped to keep the cache within its bounds. */
+    public long getEvictionCount() {
+        long count = 0;
+        for (Segment segment : m_segments) {
+            synchronized (segment) {
+                count += segment.evictions;
+            }
+        }
+        return count;
+    }
+
+    /** The number of readers dropped because they were too old. */
+    public long getExpirationCount() {
+        long count = 0;
+        for (Segment segment : m_segments) {
+            synchronized (segment) {
+                count += segment.expirations;
+            }
+        }
+        return count;
+    }
+
+    /** The number of readers currently cached. */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : m_segments) {
+            synchronized (segment) {
+                size += segment.map.size();
             }
-            m_pidList.add(pid);
-            if (m_readers.size() > m_maxReaders) {
-                Object overflowPid = m_pidList.remove(0);
-                m_readers.remove(overflowPid);
+        }
+        return size;
+    }
+
+    /** The estimated heap footprint of the readers currently cached. */
+    public long getEstimatedBytes() {
+        long bytes = 0;
+        for (Segment segment : m_segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
             }
         }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "DOReaderCache[size=" + getSize() + ", estimatedBytes="
+                + getEstimatedBytes() + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions="
+                + getEvictionCount() + ", expirations="
+                + getExpirationCount() + "]";
+    }
+
+    private Segment segmentFor(String pid) {
+        int h = pid.hashCode();
+        // spread the high bits down, as in HashMap
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return m_segments[h & m_segmentMask];
     }
 
     /**
-     * Get a DOReader from the cache. If it doesn't exist in the cache, return
-     * null. If it does exist, set its time to the current time and return it.
+     * Gives a rough estimate of the heap held by a reader: a fixed overhead
+     * per object, datastream version and audit record, plus the inline
+     * content of XML datastreams.
      */
-    public DOReader get(String pid) {
-        DOReader reader = null;
-        synchronized (m_readers) {
-            List l = (List) m_readers.get(pid);
-            if (l != null) {
-                reader = (DOReader) l.get(0);
-                l.remove(1);
-                l.add(new Long(System.currentTimeMillis()));
-                // move it to the end of the list so the list stays sorted
-                m_pidList.remove(pid);
-                m_pidList.add(pid);
+    static long estimateSize(DOReader reader) {
+        DigitalObject obj = reader.getObject();
+        if (obj == null) {
+            return OBJECT_OVERHEAD;
+        }
+        long size = OBJECT_OVERHEAD;
+        Iterator<String> dsIds = obj.datastreamIdIterator();
+        while (dsIds.hasNext()) {
+            for (Datastream ds : obj.datastreams(dsIds.next())) {
+                size += DATASTREAM_OVERHEAD;
+                if (ds instanceof DatastreamXMLMetadata) {
+                    byte[] content = ((DatastreamXMLMetadata) ds).xmlContent;
+                    if (content != null) {
+                        size += content.length;
+                    }
+                }
             }
         }
-        return reader;
+        List<AuditRecord> audits = obj.getAuditRecords();
+        if (audits != null) {
+            size += audits.size() * AUDIT_RECORD_OVERHEAD;
+        }
+        return size;
     }
 
-    public void close() {
-        // make sure the thread finishes
-        m_stopRequested = true;
+    private static class Entry {
+
+        final DOReader reader;
+
+        final long size;
+
+        long accessTime;
+
+        Entry(DOReader reader, long size, long accessTime) {
+            this.reader = reader;
+            this.size = size;
+            this.accessTime = accessTime;
+        }
     }
 
-}
\ No newline at end of file
+    /**
+     * One independently locked part of the cache. Because the map is access
+     * ordered and every access refreshes the entry's time, the eldest entry
+     * is always the one closest to expiry.
+     */
+    private class Segment {
+
+        final LinkedHashMap<String, Entry> map =
+                new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+        final int maxEntries;
+
+        final long maxBytes;
+
+        long bytes;
+
+        long hits;
+
+        long misses;
+
+        long evictions;
+
+        long expirations;
+
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized DOReader get(String pid, long now) {
+            Entry entry = map.get(pid);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            if (now - entry.accessTime > m_maxCachedMillis) {
+                map.remove(pid);
+                bytes -= entry.size;
+                expirations++;
+                misses++;
+                return null;
+            }
+            entry.accessTime = now;
+            hits++;
+            return entry.reader;
+        }
+
+        synchronized void put(String pid, Entry entry) {
+            Entry old = map.put(pid, entry);
+            if (old != null) {
+                bytes -= old.size;
+            }
+            bytes += entry.size;
+
+            Iterator<Map.Entry<String, Entry>> eldest =
+                    map.entrySet().iterator();
+            // drop anything that has already expired...
+            while (eldest.hasNext()) {
+                Entry e = eldest.next().getValue();
+                if (e == entry
+                        || entry.accessTime - e.accessTime <= m_maxCachedMillis) {
+                    break;
+                }
+                eldest.remove();
+                bytes -= e.size;
+                expirations++;
+            }
+            // ...then least recently used entries until we're within bounds,
+            // always keeping the one just added
+            eldest = map.entrySet().iterator();
+            while (map.size() > 1
+                    && (map.size() > maxEntries
+                            || (maxBytes > 0 && bytes > maxBytes))) {
+                Entry e = eldest.next().getValue();
+                if (e == entry) {
+                    break;
+                }
+                eldest.remove();
+                bytes -= e.size;
+                evictions++;
+            }
+        }
+
+        synchronized void remove(String pid) {
+            Entry old = map.remove(pid);
+            if (old != null) {
+                bytes -= old.size;
+            }
+        }
+
+        synchronized void clear() {
+            map.clear();
+            bytes = 0;
+        }
+    }
+}
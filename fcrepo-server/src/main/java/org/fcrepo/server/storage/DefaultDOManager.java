@@ -14,6 +14,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -59,6 +62,7 @@ import org.fcrepo.server.resourceIndex.ResourceIndex;
 import org.fcrepo.server.search.FieldSearch;
 import org.fcrepo.server.search.FieldSearchQuery;
 import org.fcrepo.server.search.FieldSearchResult;
+import org.fcrepo.server.storage.lowlevel.ICopyable;
 import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
 import org.fcrepo.server.storage.translation.DOTranslationUtility;
 import org.fcrepo.server.storage.translation.DOTranslator;
@@ -76,6 +80,7 @@ import org.fcrepo.server.utilities.SQLUtility;
 import org.fcrepo.server.utilities.StreamUtility;
 import org.fcrepo.server.validation.DOObjectValidator;
 import org.fcrepo.server.validation.DOValidator;
+import org.fcrepo.server.validation.StructuralObjectValidator;
 import org.fcrepo.server.validation.ValidationUtility;
 
 /**
@@ -113,6 +118,10 @@ public class DefaultDOManager extends Module implements DOManager {
 
 	private DOObjectValidator m_objectValidator;
 
+	private final StructuralObjectValidator m_structureValidator = new StructuralObjectValidator();
+
+	private boolean m_paranoidCommit;
+
 	protected FieldSearch m_fieldSearch;
 
 	protected ExternalContentManager m_contentManager;
@@ -125,7 +134,7 @@ public class DefaultDOManager extends Module implements DOManager {
 
 	private DOReaderCache m_readerCache;
 
-	private final Set<String> m_lockedPIDs;
+	private ObjectLockManager m_lockManager;
 
 	protected ConnectionPool m_connectionPool;
 
@@ -141,7 +150,6 @@ public class DefaultDOManager extends Module implements DOManager {
 	public DefaultDOManager(Map<String, String> moduleParameters,
 			Server server, String role) throws ModuleInitializationException {
 		super(moduleParameters, server, role);
-		m_lockedPIDs = new HashSet<String>();
 	}
 
 	/**
@@ -249,11 +257,51 @@ public class DefaultDOManager extends Module implements DOManager {
 							+ e.getMessage(), getRole());
 		}
 
+		// readerCacheMaxBytes (optional, default = 0, meaning no byte bound)
+		String rcBytes = getParameter("readerCacheMaxBytes");
+		long readerCacheMaxBytes = 0;
+		if (rcBytes != null) {
+			try {
+				readerCacheMaxBytes = Long.parseLong(rcBytes);
+				if (readerCacheMaxBytes < 0) {
+					throw new Exception("Cannot be less than zero");
+				}
+			} catch (Exception e) {
+				throw new ModuleInitializationException(
+						"Bad value for readerCacheMaxBytes parameter: "
+								+ e.getMessage(), getRole());
+			}
+		}
+
 		if (readerCacheSize > 0) {
 			m_readerCache = new DOReaderCache(readerCacheSize,
-					readerCacheSeconds);
+					readerCacheMaxBytes, readerCacheSeconds);
 		}
 		
+		// writeLockTimeoutMillis (optional, default = 0, meaning fail fast)
+		String lockTimeout = getParameter("writeLockTimeoutMillis");
+		long writeLockTimeoutMillis = 0;
+		if (lockTimeout != null) {
+			try {
+				writeLockTimeoutMillis = Long.parseLong(lockTimeout);
+				if (writeLockTimeoutMillis < 0) {
+					throw new Exception("Cannot be less than zero");
+				}
+			} catch (Exception e) {
+				throw new ModuleInitializationException(
+						"Bad value for writeLockTimeoutMillis parameter: "
+								+ e.getMessage(), getRole());
+			}
+		}
+		m_lockManager = new ObjectLockManager(writeLockTimeoutMillis);
+
+		// paranoidCommit (optional, default = false)
+		m_paranoidCommit = "true".equalsIgnoreCase(getParameter("paranoidCommit"));
+		if (m_paranoidCommit) {
+			logger.info("Paranoid commit enabled: every commit will be "
+					+ "schema-validated and re-parsed before storage");
+		}
+
 		// configuration of ingest validation
 		String ingestValidationLevel = getParameter("ingestValidationLevel");
 		if (ingestValidationLevel == null) {
@@ -552,8 +600,12 @@ public class DefaultDOManager extends Module implements DOManager {
 	@Override
 	public void shutdownModule() {
 		if (m_readerCache != null) {
+			logger.info("Shutting down reader cache: " + m_readerCache);
 			m_readerCache.close();
 		}
+		if (m_lockManager != null) {
+			logger.info("Object write locks at shutdown: " + m_lockManager);
+		}
 	}
 
 	public void releaseWriter(DOWriter writer) {
@@ -586,20 +638,19 @@ public class DefaultDOManager extends Module implements DOManager {
 	}
 
 	private void releaseWriteLock(String pid) {
-		synchronized (m_lockedPIDs) {
-			m_lockedPIDs.remove(pid);
-		}
+		m_lockManager.unlock(pid);
 	}
 
 	private void getWriteLock(String pid) throws ObjectLockedException {
-		synchronized (m_lockedPIDs) {
-			if (m_lockedPIDs.contains(pid)) {
-				throw new ObjectLockedException(pid + " is currently being "
-						+ "modified by another thread");
-			} else {
-				m_lockedPIDs.add(pid);
-			}
-		}
+		m_lockManager.lock(pid);
+	}
+
+	/**
+	 * Gets the per-PID write lock manager, mainly for its contention
+	 * statistics.
+	 */
+	public ObjectLockManager getLockManager() {
+		return m_lockManager;
 	}
 
 	public ConnectionPool getConnectionPool() {
@@ -728,6 +779,11 @@ public class DefaultDOManager extends Module implements DOManager {
 	 * validation or generation, object registry functions, getting a writer for
 	 * the digital object, and ultimately writing the object to persistent
 	 * storage via the writer.
+	 * <p>
+	 * This method is not synchronized: spooling, validation and
+	 * deserialization of concurrent ingests run in parallel. The only
+	 * serialization is per PID, via the write lock taken before the registry
+	 * check, so two ingests can never both register the same PID.
 	 * 
 	 * @param context
 	 * @param in
@@ -742,13 +798,14 @@ public class DefaultDOManager extends Module implements DOManager {
 	 *            otherwise the value of the additional pid parameter for
 	 *            ingests (may be null or any valid pid)
 	 */
-	public synchronized DOWriter getIngestWriter(boolean cachedObjectRequired,
+	public DOWriter getIngestWriter(boolean cachedObjectRequired,
 			Context context, InputStream in, String format, String encoding,
 			String pid) throws ServerException {
 		logger.debug("Entered getIngestWriter");
 
 		DOWriter w = null;
 		BasicDigitalObject obj = null;
+		boolean locked = false;
 
 		File tempFile = null;
 		if (cachedObjectRequired) {
@@ -894,6 +951,13 @@ public class DefaultDOManager extends Module implements DOManager {
 
 				logger.info("New object PID is {}", obj.getPid());
 
+				// WRITE LOCK:
+				// ensure no one else can create or modify the object now; this
+				// also makes the registry check and registration below atomic
+				// with respect to other ingests of the same PID
+				getWriteLock(obj.getPid());
+				locked = true;
+
 				// CHECK REGISTRY:
 				// ensure the object doesn't already exist
 				if (objectExists(obj.getPid())) {
@@ -912,10 +976,6 @@ public class DefaultDOManager extends Module implements DOManager {
 				w = new SimpleDOWriter(context, this, m_translator,
 						m_defaultExportFormat, m_storageCharacterEncoding, obj);
 
-				// WRITE LOCK:
-				// ensure no one else can modify the object now
-				getWriteLock(obj.getPid());
-
 				// DEFAULT DATASTREAMS:
 				populateDC(context, obj, w, nowUTC);
 
@@ -929,7 +989,7 @@ public class DefaultDOManager extends Module implements DOManager {
 				return w;
 			} catch (IOException e) {
 
-				if (w != null) {
+				if (locked) {
 					releaseWriteLock(obj.getPid());
 				}
 
@@ -937,7 +997,7 @@ public class DefaultDOManager extends Module implements DOManager {
 						+ "ingest file", e);
 			} catch (Exception e) {
 
-				if (w != null) {
+				if (locked) {
 					releaseWriteLock(obj.getPid());
 				}
 
@@ -1037,9 +1097,14 @@ public class DefaultDOManager extends Module implements DOManager {
 				logger.info("Committing modification of " + obj.getPid());
 			}
 
+			CommitTimer timer = new CommitTimer();
+
 			// Object validation
 			m_objectValidator.validate(context, new SimpleDOReader(null, null, null, null, null, obj));
-			
+			// Structural validation of the in-memory object, in place of
+			// validating its serialization
+			m_structureValidator.validate(obj);
+			timer.mark("validate");
 
 			try { // for cleanup catch
 
@@ -1060,7 +1125,7 @@ public class DefaultDOManager extends Module implements DOManager {
 							// if it's a url, we need to grab content for this
 							// version
 							if (URL_PROTOCOL.matcher(dmc.DSLocation).matches()) {
-								MIMETypedStream mimeTypedStream;
+								MIMETypedStream mimeTypedStream = null;
 								if (dmc.DSLocation
 										.startsWith(DatastreamManagedContent.UPLOADED_SCHEME)) {
 									mimeTypedStream = new MIMETypedStream(
@@ -1072,13 +1137,24 @@ public class DefaultDOManager extends Module implements DOManager {
 											+ "location: " + dmc.DSLocation + " for " + pid);
 								} else if (dmc.DSLocation
 										.startsWith(DatastreamManagedContent.COPY_SCHEME)) {
-									// make a copy of the pre-existing content
-									mimeTypedStream = new MIMETypedStream(
-											null,
-											m_permanentStore
-													.retrieveDatastream(dmc.DSLocation
-															.substring(7)),
-											null, dmc.DSSize);
+									if (m_permanentStore instanceof ICopyable) {
+										// let the store share the pre-existing
+										// content instead of copying it
+										String sourceId = dmc.DSLocation
+												.substring(7);
+										dmc.DSSize = ((ICopyable) m_permanentStore)
+												.copyDatastream(sourceId, internalId);
+										copyChecksum(obj.datastreams(dsID),
+												sourceId, dmc);
+									} else {
+										// make a copy of the pre-existing content
+										mimeTypedStream = new MIMETypedStream(
+												null,
+												m_permanentStore
+														.retrieveDatastream(dmc.DSLocation
+																.substring(7)),
+												null, dmc.DSSize);
+									}
 								} else if (dmc.DSLocation
 										.startsWith(DatastreamManagedContent.TEMP_SCHEME)) {
 									File file = new File(
@@ -1108,28 +1184,43 @@ public class DefaultDOManager extends Module implements DOManager {
 									logger.info("Getting managed datastream from remote location: "
 											+ dmc.DSLocation + " (" + pid + " / " + dsID + ")");
 								}
-								if (obj.isNew()) {
-									dmc.DSSize = m_permanentStore
-											.addDatastream(internalId,
-													mimeTypedStream.getStream());
-								} else {
-									// object already existed...so we may need
-									// to call
-									// replace if "add" indicates that it was
-									// already there
-									try {
+								if (mimeTypedStream != null) {
+									// compute the checksum while the content
+									// is stored, rather than reading it back
+									// from storage when serializing
+									InputStream content = mimeTypedStream
+											.getStream();
+									MessageDigest digest = dmc
+											.getChecksumDigest();
+									if (digest != null) {
+										content = new DigestInputStream(
+												content, digest);
+									}
+									if (obj.isNew()) {
 										dmc.DSSize = m_permanentStore
 												.addDatastream(internalId,
-														mimeTypedStream
-																.getStream());
-									} catch (ObjectAlreadyInLowlevelStorageException oailse) {
-										dmc.DSSize = m_permanentStore
-												.replaceDatastream(internalId,
-														mimeTypedStream
-																.getStream());
+														content);
+									} else {
+										// object already existed...so we may
+										// need to call
+										// replace if "add" indicates that it
+										// was already there
+										try {
+											dmc.DSSize = m_permanentStore
+													.addDatastream(internalId,
+															content);
+										} catch (ObjectAlreadyInLowlevelStorageException oailse) {
+											if (digest != null) {
+												digest.reset();
+											}
+											dmc.DSSize = m_permanentStore
+													.replaceDatastream(internalId,
+															content);
+										}
+									}
+									if (digest != null) {
+										dmc.setComputedChecksum(digest);
 									}
-								}
-								if (mimeTypedStream != null) {
 									mimeTypedStream.close();
 									if (dmc.DSLocation
 											.startsWith(DatastreamManagedContent.TEMP_SCHEME)) {
@@ -1147,13 +1238,13 @@ public class DefaultDOManager extends Module implements DOManager {
 											logger.warn("Cannot delete temp file as it no longer exists: "
 													+ file.getAbsolutePath());
 									}
-									// Reset dsLocation in object to new
-									// internal location.
-									dmc.DSLocation = internalId;
-									dmc.DSLocationType = Datastream.DS_LOCATION_TYPE_INTERNAL;
-									logger.info("Replaced managed datastream location with internal id: "
-											+ internalId);
 								}
+								// Reset dsLocation in object to new
+								// internal location.
+								dmc.DSLocation = internalId;
+								dmc.DSLocationType = Datastream.DS_LOCATION_TYPE_INTERNAL;
+								logger.info("Replaced managed datastream location with internal id: "
+										+ internalId);
 							} else if (!internalId.equals(dmc.DSLocation)) {
 								logger.error("Unrecognized DSLocation \""
 										+ dmc.DSLocation
@@ -1182,6 +1273,7 @@ public class DefaultDOManager extends Module implements DOManager {
 				if (!obj.isNew()) {
 					deletePurgedDatastreams(obj, context);
 				}
+				timer.mark("datastreams");
 
 				// MODIFIED DATE:
 				// set digital object last modified date, in UTC
@@ -1194,33 +1286,28 @@ public class DefaultDOManager extends Module implements DOManager {
 				m_translator.serialize(obj, out, m_defaultStorageFormat,
 						m_storageCharacterEncoding,
 						DOTranslationUtility.SERIALIZE_STORAGE_INTERNAL);
+				timer.mark("serialize");
 
 				// FINAL VALIDATION:
-				// As of version 2.0, final validation is only performed in
-				// DEBUG mode.
-				// This is to help performance during the ingest process since
-				// validation
-				// is a large amount of the overhead of ingest. Instead of a
-				// second run
-				// of the validation module, we depend on the integrity of our
-				// code to
-				// create valid XML files for persistent storage of digital
-				// objects. As
-				// a sanity check, we check that we can deserialize the object
-				// we just serialized
-				if (logger.isDebugEnabled()) {
+				// The in-memory object has already been structurally
+				// validated above, so we depend on the integrity of our
+				// serializer to create valid XML for persistent storage.
+				// Only in paranoid mode do we validate the serialization
+				// against the schema and check that we can deserialize it.
+				if (m_paranoidCommit) {
 					ByteArrayInputStream inV = new ByteArrayInputStream(
 							out.toByteArray());
 					logger.debug("Final Validation (storage phase)");
 					m_validator.validate(inV, m_defaultStorageFormat,
 							DOValidator.VALIDATE_ALL, DOValidator.PHASE_STORE);
+					/* Verify that we can deserialize our object. */
+					m_translator.deserialize(
+							new ByteArrayInputStream(out.toByteArray()),
+							new BasicDigitalObject(), m_defaultStorageFormat,
+							m_storageCharacterEncoding,
+							DOTranslationUtility.SERIALIZE_STORAGE_INTERNAL);
+					timer.mark("verify");
 				}
-				/* Verify that we can deserialize our object. */
-				m_translator.deserialize(
-						new ByteArrayInputStream(out.toByteArray()),
-						new BasicDigitalObject(), m_defaultStorageFormat,
-						m_storageCharacterEncoding,
-						DOTranslationUtility.SERIALIZE_STORAGE_INTERNAL);
 
 				// RESOURCE INDEX:
 				if (m_resourceIndex != null
@@ -1238,6 +1325,7 @@ public class DefaultDOManager extends Module implements DOManager {
 					}
 					logger.debug("Finished adding " + pid + " to ResourceIndex.");
 				}
+				timer.mark("resourceIndex");
 
 				// STORAGE:
 				// write XML serialization of object to persistent storage
@@ -1256,6 +1344,7 @@ public class DefaultDOManager extends Module implements DOManager {
 				if (m_readerCache != null) {
 					m_readerCache.remove(pid);
 				}
+				timer.mark("store");
 
 				// REGISTRY:
 				/*
@@ -1312,6 +1401,7 @@ public class DefaultDOManager extends Module implements DOManager {
 						s = null;
 					}
 				}
+				timer.mark("registry");
 
 				// REPLICATE:
 				// add to replication jobs table and do replication to db
@@ -1334,6 +1424,11 @@ public class DefaultDOManager extends Module implements DOManager {
 					logger.error(msg, th);
 					throw new GeneralException(msg, th);
 				}
+				timer.mark("fieldSearch");
+
+				if (logger.isDebugEnabled()) {
+					logger.debug("Committed " + pid + " in " + timer);
+				}
 			} catch (Throwable th) {
 				if (obj.isNew()) {
 					// Clean up after a failed attempt to add
@@ -1474,6 +1569,31 @@ public class DefaultDOManager extends Module implements DOManager {
 	
 	
 	
+	/**
+	 * Gives a copied datastream version the checksum of the version it was
+	 * copied from, so it doesn't need to be computed from the content, unless
+	 * its checksum is already known or of another type.
+	 */
+	private static void copyChecksum(Iterable<Datastream> versions,
+			String sourceId, Datastream copy) {
+		String csType = copy.getChecksumType();
+		if (csType == null || (copy.DSChecksum != null
+				&& !copy.DSChecksum.equals(Datastream.CHECKSUM_NONE))) {
+			return;
+		}
+		for (Datastream version : versions) {
+			if (sourceId.equals(version.DSLocation)
+					&& csType.equals(version.DSChecksumType)
+					&& version.DSChecksum != null
+					&& !version.DSChecksum.equals(Datastream.CHECKSUM_NONE)
+					&& !version.DSChecksum
+							.equals(Datastream.CHECKSUM_IOEXCEPTION)) {
+				copy.DSChecksum = version.DSChecksum;
+				return;
+			}
+		}
+	}
+
 	private Set<Long> getDatastreamDates(Iterable<Datastream> ds) {
 		Set<Long> dates = new HashSet<Long>();
 		for (Datastream d : ds) {
@@ -2033,6 +2153,32 @@ public class DefaultDOManager extends Module implements DOManager {
 		}
 	}
 
+	/**
+	 * Records how long each stage of a commit takes.
+	 */
+	private static class CommitTimer {
+
+		private final StringBuilder m_stages = new StringBuilder();
+
+		private final long m_start = System.nanoTime();
+
+		private long m_last = m_start;
+
+		/** Ends the current stage, giving it the specified name. */
+		public void mark(String stage) {
+			long now = System.nanoTime();
+			m_stages.append(", ").append(stage).append('=')
+					.append((now - m_last) / 1000000).append("ms");
+			m_last = now;
+		}
+
+		@Override
+		public String toString() {
+			return ((m_last - m_start) / 1000000) + "ms (" + m_stages.substring(2)
+					+ ")";
+		}
+	}
+
 	private static class ServiceContext {
 
 		public final String cModel;
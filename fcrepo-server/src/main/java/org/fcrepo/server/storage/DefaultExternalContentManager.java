@@ -35,6 +35,7 @@ import org.fcrepo.server.security.BackendSecurity;
 import org.fcrepo.server.security.BackendSecuritySpec;
 import org.fcrepo.server.storage.types.MIMETypedStream;
 import org.fcrepo.server.storage.types.Property;
+import org.fcrepo.server.utilities.FileContentInputStream;
 import org.fcrepo.server.utilities.ServerUtility;
 
 
@@ -251,7 +252,7 @@ public class DefaultExternalContentManager
             if (mimeType == null || mimeType.equalsIgnoreCase("")){
                 mimeType = determineMimeType(cFile);
             }
-            return new MIMETypedStream(mimeType,fileUrl.openStream(),null,cFile.length());
+            return new MIMETypedStream(mimeType,new FileContentInputStream(cFile),null,cFile.length());
         }
         catch(AuthzException ae){
             logger.error(ae.getMessage(),ae);
@@ -0,0 +1,238 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fcrepo.server.errors.ObjectLockedException;
+
+/**
+ * Hands out exclusive per-PID write locks.
+ * <p>
+ * Each locked PID gets its own fair, single-permit semaphore, so writers of
+ * different objects never contend, and writers of the same object are
+ * granted the lock in arrival order. A writer that finds the object locked
+ * waits for at most the configured timeout before failing with an
+ * <code>ObjectLockedException</code>; a timeout of zero keeps the old
+ * fail-fast behaviour. Locks are not reentrant and are not tied to a thread,
+ * so a lock may be released by a different thread than the one that took it.
+ * <p>
+ * Lock entries are reference counted and dropped as soon as nobody holds or
+ * waits for them, so the table only ever contains PIDs that are in use.
+ */
+public class ObjectLockManager {
+
+    private final ConcurrentMap<String, PIDLock> m_locks =
+            new ConcurrentHashMap<String, PIDLock>();
+
+    private final long m_timeoutMillis;
+
+    private final AtomicInteger m_holders = new AtomicInteger();
+
+    private final AtomicInteger m_waiters = new AtomicInteger();
+
+    private final AtomicLong m_acquisitions = new AtomicLong();
+
+    private final AtomicLong m_contended = new AtomicLong();
+
+    private final AtomicLong m_timeouts = new AtomicLong();
+
+    private final AtomicLong m_totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong m_maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param timeoutMillis how long a writer waits for a locked object before
+     *        giving up; zero means don't wait at all.
+     */
+    public ObjectLockManager(long timeoutMillis) {
+        m_timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Locks the given PID, waiting up to the configured timeout if another
+     * writer holds it.
+     *
+     * @throws ObjectLockedException if the lock could not be obtained in time.
+     */
+    public void lock(String pid) throws ObjectLockedException {
+        PIDLock lock = reference(pid);
+        boolean acquired = false;
+        try {
+            // a zero timeout still respects the fair ordering of any waiters
+            acquired = lock.permit.tryAcquire(0, TimeUnit.MILLISECONDS);
+            if (!acquired && m_timeoutMillis > 0) {
+                m_contended.incrementAndGet();
+                m_waiters.incrementAndGet();
+                long start = System.nanoTime();
+                try {
+                    acquired = lock.permit.tryAcquire(m_timeoutMillis,
+                                                      TimeUnit.MILLISECONDS);
+                } finally {
+                    m_waiters.decrementAndGet();
+                    recordWait(System.nanoTime() - start);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!acquired) {
+                dereference(pid, lock);
+            }
+        }
+        if (!acquired) {
+            m_timeouts.incrementAndGet();
+            throw new ObjectLockedException(pid + " is currently being "
+                    + "modified by another thread");
+        }
+        synchronized (lock) {
+            lock.held = true;
+        }
+        m_holders.incrementAndGet();
+        m_acquisitions.incrementAndGet();
+    }
+
+    /**
+     * Releases the lock on the given PID, letting the next waiter (if any)
+     * through. Does nothing if the PID isn't locked.
+     */
+    public void unlock(String pid) {
+        PIDLock lock = m_locks.get(pid);
+        if (lock == null) {
+            return;
+        }
+        synchronized (lock) {
+            if (!lock.held) {
+                return;
+            }
+            lock.held = false;
+        }
+        m_holders.decrementAndGet();
+        lock.permit.release();
+        dereference(pid, lock);
+    }
+
+    /**
+     * Tells whether the given PID is currently locked.
+     */
+    public boolean isLocked(String pid) {
+        PIDLock lock = m_locks.get(pid);
+        if (lock == null) {
+            return false;
+        }
+        synchronized (lock) {
+            return lock.held;
+        }
+    }
+
+    /** The number of PIDs currently locked. */
+    public int getHolderCount() {
+        return m_holders.get();
+    }
+
+    /** The number of writers currently waiting for a lock. */
+    public int getWaiterCount() {
+        return m_waiters.get();
+    }
+
+    /** The number of locks granted so far. */
+    public long getAcquisitionCount() {
+        return m_acquisitions.get();
+    }
+
+    /** The number of lock requests that found the PID already locked. */
+    public long getContendedCount() {
+        return m_contended.get();
+    }
+
+    /** The number of lock requests that failed. */
+    public long getTimeoutCount() {
+        return m_timeouts.get();
+    }
+
+    /** The total time writers have spent waiting for locks. */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(m_totalWaitNanos.get());
+    }
+
+    /** The longest time any writer has spent waiting for a lock. */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(m_maxWaitNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "ObjectLockManager[holders=" + getHolderCount() + ", waiters="
+                + getWaiterCount() + ", acquisitions="
+                + getAcquisitionCount() + ", contended="
+                + getContendedCount() + ", timeouts=" + getTimeoutCount()
+                + ", totalWaitMillis=" + getTotalWaitMillis()
+                + ", maxWaitMillis=" + getMaxWaitMillis() + "]";
+    }
+
+    private void recordWait(long nanos) {
+        m_totalWaitNanos.addAndGet(nanos);
+        long max = m_maxWaitNanos.get();
+        while (nanos > max && !m_maxWaitNanos.compareAndSet(max, nanos)) {
+            max = m_maxWaitNanos.get();
+        }
+    }
+
+    /**
+     * Gets the live lock entry for the PID, creating it if needed, and
+     * registers one more user of it.
+     */
+    private PIDLock reference(String pid) {
+        while (true) {
+            PIDLock lock = m_locks.get(pid);
+            if (lock == null) {
+                PIDLock created = new PIDLock();
+                lock = m_locks.putIfAbsent(pid, created);
+                if (lock == null) {
+                    lock = created;
+                }
+            }
+            synchronized (lock) {
+                if (!lock.retired) {
+                    lock.users++;
+                    return lock;
+                }
+            }
+            // lost a race with the last user removing it; try again
+        }
+    }
+
+    /**
+     * Registers one less user of the lock entry, removing it from the table
+     * when nobody is left.
+     */
+    private void dereference(String pid, PIDLock lock) {
+        synchronized (lock) {
+            if (--lock.users == 0) {
+                lock.retired = true;
+                m_locks.remove(pid, lock);
+            }
+        }
+    }
+
+    private static class PIDLock {
+
+        final Semaphore permit = new Semaphore(1, true);
+
+        /** Holders plus waiters; guarded by this. */
+        int users;
+
+        /** Set once the entry has been removed from the table. */
+        boolean retired;
+
+        /** Whether the permit is currently taken; guarded by this. */
+        boolean held;
+    }
+}
@@ -19,8 +19,13 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.fcrepo.server.errors.LowlevelStorageException;
 import org.fcrepo.server.errors.LowlevelStorageInconsistencyException;
@@ -31,6 +36,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * A PathRegistry that keeps paths in a database table.
+ * <p>
+ * If the <code>indexPaths</code> configuration value is "true", a copy of the
+ * table is also kept in a {@link PathIndex}. It is loaded on the first
+ * lookup, and kept up to date by each <code>put</code> and
+ * <code>remove</code>, so lookups don't need to query the database. The
+ * database stays the durable copy, so this must only be used when no other
+ * process changes the table while the server is running.
+ * </p>
+ *
  * @author Bill Niebel
  */
 public class DBPathRegistry
@@ -43,6 +58,23 @@ public class DBPathRegistry
 
     private final boolean backslashIsEscape;
 
+    /** How many index lookups there are between statistics log messages. */
+    private static final long LOOKUP_REPORT_INTERVAL = 100000;
+
+    /** The in-memory copy of the registry, or null if there is none. */
+    private final PathIndex index;
+
+    /** Tokens whose rows were inconsistent when the index was loaded. */
+    private final Set<String> unindexed = new HashSet<String>();
+
+    private volatile boolean indexLoaded;
+
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    private final AtomicLong lookups = new AtomicLong();
+
+    private final AtomicLong lookupNanos = new AtomicLong();
+
     public DBPathRegistry(Map<String, ?> configuration) {
         super(configuration);
         connectionPool = (ConnectionPool) configuration.get("connectionPool");
@@ -50,11 +82,38 @@ public class DBPathRegistry
                 Boolean
                         .valueOf((String) configuration
                                 .get("backslashIsEscape")).booleanValue();
+        if (Boolean.valueOf((String) configuration.get("indexPaths"))) {
+            index = new PathIndex();
+        } else {
+            index = null;
+        }
     }
 
     @Override
     public String get(String pid) throws ObjectNotInLowlevelStorageException,
             LowlevelStorageInconsistencyException, LowlevelStorageException {
+        if (index != null) {
+            ensureIndexLoaded();
+            long start = System.nanoTime();
+            String path;
+            boolean indexed;
+            indexLock.readLock().lock();
+            try {
+                path = index.get(pid);
+                indexed = !unindexed.contains(pid);
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            recordLookup(System.nanoTime() - start);
+            if (indexed) {
+                if (path == null) {
+                    throw new ObjectNotInLowlevelStorageException("no path in db registry for ["
+                            + pid + "]");
+                }
+                return path;
+            }
+            // let the database report the inconsistency
+        }
         String path = null;
         Connection connection = null;
         PreparedStatement statement = null;
@@ -107,6 +166,120 @@ public class DBPathRegistry
         return path;
     }
 
+    /**
+     * Loads the index from the database, unless it's already loaded.
+     */
+    private void ensureIndexLoaded() throws LowlevelStorageException {
+        if (indexLoaded) {
+            return;
+        }
+        indexLock.writeLock().lock();
+        Connection connection = null;
+        Statement statement = null;
+        ResultSet rs = null;
+        try {
+            if (indexLoaded) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            index.clear();
+            unindexed.clear();
+            connection = connectionPool.getReadOnlyConnection();
+            statement = connection.createStatement();
+            rs = statement.executeQuery("SELECT token, path FROM "
+                    + getRegistryName());
+            while (rs.next()) {
+                String token = rs.getString(1);
+                String path = rs.getString(2);
+                if (path == null || path.length() == 0
+                        || index.get(token) != null) {
+                    // get() will query the database and report the problem
+                    unindexed.add(token);
+                } else {
+                    index.put(token, path);
+                }
+            }
+            indexLoaded = true;
+            logger.info("Loaded " + index.size() + " paths from "
+                    + getRegistryName() + " in "
+                    + (System.currentTimeMillis() - start) + "ms; index "
+                    + "size is about " + index.getMemoryUsage() / 1024 + "KB");
+        } catch (SQLException e) {
+            throw new LowlevelStorageException(true,
+                                               "sql failure (loading index)",
+                                               e);
+        } finally {
+            try {
+                if (rs != null) {
+                    rs.close();
+                }
+                if (statement != null) {
+                    statement.close();
+                }
+                if (connection != null) {
+                    connectionPool.free(connection);
+                }
+            } catch (SQLException e) {
+                throw new LowlevelStorageException(true,
+                                                   "sql failure closing statement, connection, pool (loading index)",
+                                                   e);
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Discards the index, so it will be loaded again on the next lookup.
+     */
+    private void invalidateIndex() {
+        if (index != null) {
+            indexLock.writeLock().lock();
+            try {
+                indexLoaded = false;
+                index.clear();
+                unindexed.clear();
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void recordLookup(long nanos) {
+        long count = lookups.incrementAndGet();
+        long total = lookupNanos.addAndGet(nanos);
+        if (count % LOOKUP_REPORT_INTERVAL == 0) {
+            logger.info(getIndexStatistics(count, total));
+        }
+    }
+
+    /**
+     * Gets the size, memory use and average lookup time of the index.
+     *
+     * @return a description of the index, or null if there is none
+     */
+    public String getIndexStatistics() {
+        if (index == null) {
+            return null;
+        }
+        return getIndexStatistics(lookups.get(), lookupNanos.get());
+    }
+
+    private String getIndexStatistics(long count, long totalNanos) {
+        int size;
+        long memory;
+        indexLock.readLock().lock();
+        try {
+            size = index.size();
+            memory = index.getMemoryUsage();
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        return getRegistryName() + " index: " + size + " paths, about "
+                + memory / 1024 + "KB, " + count + " lookups averaging "
+                + (count == 0 ? 0 : totalNanos / count) + "ns";
+    }
+
     private void ensureSingleUpdate(Statement statement)
         throws ObjectNotInLowlevelStorageException,
         LowlevelStorageInconsistencyException, LowlevelStorageException {
@@ -140,6 +313,8 @@ public class DBPathRegistry
         } catch (SQLException e1) {
             throw new LowlevelStorageException(true, "sql failurex (exec)", e1);
         } finally {
+            // the statement may have changed anything, so reload the index
+            invalidateIndex();
             try {
                 if (statement != null) {
                     statement.close();
@@ -195,6 +370,7 @@ public class DBPathRegistry
     public void put(String pid, String path)
             throws ObjectNotInLowlevelStorageException,
             LowlevelStorageInconsistencyException, LowlevelStorageException {
+        String unescapedPath = path;
         if (backslashIsEscape) {
             StringBuffer buffer = new StringBuffer();
             String backslash = "\\"; //Java quotes will interpolate this as 1 backslash
@@ -215,6 +391,16 @@ public class DBPathRegistry
             conn = connectionPool.getReadWriteConnection();
             SQLUtility.replaceInto(conn, getRegistryName(), new String[] {
                     "token", "path"}, new String[] {pid, path}, "token");
+            if (index != null) {
+                indexLock.writeLock().lock();
+                try {
+                    if (indexLoaded) {
+                        index.put(pid, unescapedPath);
+                    }
+                } finally {
+                    indexLock.writeLock().unlock();
+                }
+            }
         } catch (SQLException e1) {
             throw new ObjectNotInLowlevelStorageException("put into db registry failed for ["
                                                                   + pid + "]",
@@ -233,6 +419,17 @@ public class DBPathRegistry
             String query = "DELETE FROM " + getRegistryName() + " WHERE "
             + getRegistryName() + ".token=?";
             executeUpdate(query, pid);
+            if (index != null) {
+                indexLock.writeLock().lock();
+                try {
+                    if (indexLoaded) {
+                        index.remove(pid);
+                        unindexed.remove(pid);
+                    }
+                } finally {
+                    indexLock.writeLock().unlock();
+                }
+            }
 
         } catch (ObjectNotInLowlevelStorageException e1) {
             throw new ObjectNotInLowlevelStorageException("[" + pid
@@ -251,6 +448,17 @@ public class DBPathRegistry
         } catch (ObjectNotInLowlevelStorageException e1) {
         } catch (LowlevelStorageInconsistencyException e2) {
         }
+        if (index != null) {
+            // the table is empty now, so the rebuilt index is complete
+            indexLock.writeLock().lock();
+            try {
+                index.clear();
+                unindexed.clear();
+                indexLoaded = true;
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        }
         try {
             logger.info("begin rebuilding registry from files");
             traverseFiles(storeBases, REBUILD, false, report); // continues, ignoring bad files
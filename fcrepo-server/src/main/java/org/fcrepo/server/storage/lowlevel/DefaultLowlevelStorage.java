@@ -44,6 +44,12 @@ public class DefaultLowlevelStorage
 
     public static final String PATH_REGISTRY = "path_registry";
 
+    /**
+     * If given, the number of milliseconds to wait for concurrent object
+     * writes before syncing them together; see {@link GroupCommitFileSystem}.
+     */
+    public static final String GROUP_COMMIT_DELAY = "group_commit_delay";
+
     private final Store objectStore;
 
     private final Store datastreamStore;
@@ -66,6 +72,7 @@ public class DefaultLowlevelStorage
         dsConfig.put(REGISTRY_NAME, DATASTREAM_REGISTRY_TABLE);
         dsConfig.put("storeBase", datastreamStoreBase);
         dsConfig.put("storeBases", new String[] {datastreamStoreBase});
+        dsConfig.remove(GROUP_COMMIT_DELAY);
         datastreamStore = new Store(dsConfig);
     }
 
@@ -163,7 +170,18 @@ public class DefaultLowlevelStorage
                 failureReason = FILESYSTEM;
                 cclass = loader.loadClass(filesystem);
                 constructor = cclass.getConstructor(parameterTypes);
-                fileSystem = (FileSystem) constructor.newInstance(parameters);
+                FileSystem configuredFileSystem =
+                        (FileSystem) constructor.newInstance(parameters);
+                String groupCommitDelay =
+                        (String) configuration.get(GROUP_COMMIT_DELAY);
+                if (groupCommitDelay == null) {
+                    fileSystem = configuredFileSystem;
+                } else {
+                    fileSystem =
+                            new GroupCommitFileSystem(configuration,
+                                                      configuredFileSystem,
+                                                      Long.parseLong(groupCommitDelay));
+                }
 
                 failureReason = PATH_ALGORITHM;
                 cclass = loader.loadClass(pathAlgorithm);
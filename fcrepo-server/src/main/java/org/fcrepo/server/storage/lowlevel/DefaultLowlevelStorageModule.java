@@ -72,6 +72,31 @@ public class DefaultLowlevelStorageModule
             throw new ModuleInitializationException("backslash_is_escape parameter must be either true or false",
                                                     getRole());
         }
+        String indexPaths = "false";
+        param = getParameter("index_paths");
+        if (param != null) {
+            indexPaths = param.toLowerCase();
+            if (!indexPaths.equals("true") && !indexPaths.equals("false")) {
+                throw new ModuleInitializationException("index_paths parameter must be either true or false",
+                                                        getRole());
+            }
+        }
+
+        String groupCommitDelay = getParameter("group_commit_delay");
+        if (groupCommitDelay != null && groupCommitDelay.trim().length() == 0) {
+            groupCommitDelay = null;
+        }
+        if (groupCommitDelay != null) {
+            groupCommitDelay = groupCommitDelay.trim();
+            try {
+                if (Long.parseLong(groupCommitDelay) < 0) {
+                    throw new NumberFormatException(groupCommitDelay);
+                }
+            } catch (NumberFormatException e) {
+                throw new ModuleInitializationException("group_commit_delay parameter must be a non-negative number of milliseconds",
+                                                        getRole());
+            }
+        }
 
         // get connectionPool from ConnectionPoolManager
         ConnectionPoolManager cpm =
@@ -101,6 +126,11 @@ public class DefaultLowlevelStorageModule
                           datastreamStoreBase);
         configuration.put("connectionPool", cPool);
         configuration.put("backslashIsEscape", backslashIsEscape);
+        configuration.put("indexPaths", indexPaths);
+        if (groupCommitDelay != null) {
+            configuration.put(DefaultLowlevelStorage.GROUP_COMMIT_DELAY,
+                              groupCommitDelay);
+        }
 
         return configuration;
     }
@@ -19,6 +19,7 @@ import java.io.InputStream;
 import java.util.Map;
 
 import org.fcrepo.server.errors.LowlevelStorageException;
+import org.fcrepo.server.utilities.FileContentInputStream;
 import org.fcrepo.utilities.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -189,7 +190,7 @@ public class GenericFileSystem
             }
 
             try {
-                fileInputStream = new FileInputStream(file);
+                fileInputStream = new FileContentInputStream(file);
             } catch (IOException eCaughtOpenFile) {
                 throw new LowlevelStorageException(true,
                                                    "file "
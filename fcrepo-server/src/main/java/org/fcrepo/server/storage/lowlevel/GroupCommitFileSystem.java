@@ -0,0 +1,344 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.List;
+import java.util.Map;
+
+import org.fcrepo.server.errors.LowlevelStorageException;
+import org.fcrepo.server.utilities.GroupCommitQueue;
+import org.fcrepo.server.utilities.StreamUtility;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A <code>FileSystem</code> that makes writes durable and atomic, syncing
+ * concurrent writes to disk together.
+ * <p>
+ * Each write goes to a temporary file next to the target, named with a
+ * <code>_</code> prefix and a <code>.new</code> suffix, and waits. No
+ * encoded PID starts with an underscore, so the temporary file can't be the
+ * file of another object. The committer syncs the waiting temporary files
+ * as one batch, renames each over its target, and only then lets the writes
+ * return.
+ * <p>
+ * A target is only ever replaced by renaming a complete, synced file over
+ * it, so if the process or machine dies during a write, the target holds
+ * either its old content or its new content, and at worst a stale temporary
+ * file is left behind, which the next write of the target overwrites. On
+ * platforms that can't rename over a file, the old target is first renamed
+ * to a backup with an <code>.old</code> suffix; if the target is missing, it
+ * is restored from the backup when it is next read or written, or when the
+ * path registry is rebuilt.
+ * <p>
+ * The same file must not be written by two threads at once, which the
+ * object locks of the <code>DOManager</code> already ensure. Reads, deletes
+ * and listings are passed to another <code>FileSystem</code>.
+ */
+public class GroupCommitFileSystem
+        extends FileSystem {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(GroupCommitFileSystem.class);
+
+    /** The prefix of the files that a write leaves next to its target. */
+    private static final String TEMP_PREFIX = "_";
+
+    /** The suffix of the temporary file a write goes to. */
+    private static final String TEMP_SUFFIX = ".new";
+
+    /** The suffix of the old target, while it is being replaced. */
+    private static final String BACKUP_SUFFIX = ".old";
+
+    private final FileSystem delegate;
+
+    private final WriteQueue queue;
+
+    /**
+     * @param configuration the store configuration.
+     * @param delegate the file system to read, delete and list files with.
+     * @param delay how many milliseconds to wait for more writes before
+     *        syncing a batch.
+     */
+    public GroupCommitFileSystem(Map<String, ?> configuration,
+                                 FileSystem delegate,
+                                 long delay) {
+        super(configuration);
+        this.delegate = delegate;
+        queue = new WriteQueue(delay);
+    }
+
+    @Override
+    public InputStream read(File file) throws LowlevelStorageException {
+        restoreBackup(file);
+        return delegate.read(file);
+    }
+
+    @Override
+    public void write(File file, InputStream content)
+            throws LowlevelStorageException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            close(content);
+            throw new LowlevelStorageException(true,
+                                               "couldn't make directories for "
+                                                       + file.getPath());
+        }
+        commit(file, content);
+    }
+
+    @Override
+    public void rewrite(File file, InputStream content)
+            throws LowlevelStorageException {
+        restoreBackup(file);
+        if (!file.exists()) {
+            close(content);
+            throw new LowlevelStorageException(true, "file " + file.getPath()
+                    + " doesn't exist for rewriting");
+        }
+        commit(file, content);
+    }
+
+    @Override
+    public void delete(File file) throws LowlevelStorageException {
+        getBackupFile(file).delete();
+        delegate.delete(file);
+    }
+
+    @Override
+    public String[] list(File directory) {
+        return delegate.list(directory);
+    }
+
+    @Override
+    public boolean isDirectory(File file) {
+        return delegate.isDirectory(file);
+    }
+
+    /**
+     * Gets the number of batches that have been synced.
+     */
+    public long getBatchCount() {
+        return queue.getGroupCount();
+    }
+
+    /**
+     * Gets the number of writes that have been synced.
+     */
+    public long getWriteCount() {
+        return queue.getItemCount();
+    }
+
+    /**
+     * Is this a file that a write leaves next to its target, rather than the
+     * file of an object or datastream?
+     */
+    public static boolean isLeftover(File file) {
+        String name = file.getName();
+        return name.startsWith(TEMP_PREFIX)
+                && (name.endsWith(TEMP_SUFFIX) || name.endsWith(BACKUP_SUFFIX));
+    }
+
+    /**
+     * Cleans up a file left by a write that was interrupted. A temporary file
+     * was never committed, so it is deleted. A backup is the committed
+     * content if its target is missing, so it is renamed back to the target;
+     * otherwise it is deleted.
+     *
+     * @return the restored target, or null if there was nothing to restore.
+     */
+    public static File recover(File leftover) {
+        String name = leftover.getName();
+        if (name.endsWith(BACKUP_SUFFIX)) {
+            File file =
+                    new File(leftover.getParentFile(), name
+                            .substring(TEMP_PREFIX.length(), name.length()
+                                    - BACKUP_SUFFIX.length()));
+            if (!file.exists() && leftover.renameTo(file)) {
+                logger.warn("Restored {} from its backup", file.getPath());
+                return file;
+            }
+        }
+        leftover.delete();
+        return null;
+    }
+
+    static File getTempFile(File file) {
+        return new File(file.getParentFile(), TEMP_PREFIX + file.getName()
+                + TEMP_SUFFIX);
+    }
+
+    static File getBackupFile(File file) {
+        return new File(file.getParentFile(), TEMP_PREFIX + file.getName()
+                + BACKUP_SUFFIX);
+    }
+
+    /**
+     * If a replacement was interrupted after the target was moved aside,
+     * put it back.
+     */
+    private static void restoreBackup(File file) {
+        if (!file.exists()) {
+            File backup = getBackupFile(file);
+            if (backup.exists()) {
+                recover(backup);
+            }
+        }
+    }
+
+    /**
+     * Writes the content to a temporary file and waits until a committer
+     * has synced it and renamed it over the target.
+     */
+    private void commit(File file, InputStream content)
+            throws LowlevelStorageException {
+        File temp = getTempFile(file);
+        FileOutputStream out;
+        try {
+            out = new FileOutputStream(temp);
+        } catch (IOException e) {
+            close(content);
+            throw new LowlevelStorageException(true, "couldn't create file "
+                    + temp.getPath(), e);
+        }
+        boolean written = false;
+        try {
+            StreamUtility.copy(content, out);
+            written = true;
+        } catch (IOException e) {
+            throw new LowlevelStorageException(true,
+                                               "failed to write content to file "
+                                                       + temp.getPath(), e);
+        } finally {
+            close(content);
+            if (!written) {
+                close(out);
+                temp.delete();
+            }
+        }
+
+        PendingWrite write = new PendingWrite(out, temp, file);
+        queue.add(write);
+        write.await();
+    }
+
+    /**
+     * Syncs a batch of writes, then renames each temporary file over its
+     * target, so no target is replaced before all of the batch is on disk.
+     */
+    private void commit(List<PendingWrite> batch) {
+        int synced = 0;
+        for (PendingWrite write : batch) {
+            try {
+                write.out.getFD().sync();
+                write.out.close();
+                synced++;
+            } catch (IOException e) {
+                close(write.out);
+                write.temp.delete();
+                write.fail(new LowlevelStorageException(true,
+                                                        "failed to sync file "
+                                                                + write.temp.getPath(),
+                                                        e));
+            }
+        }
+        queue.countGroup(synced);
+        for (PendingWrite write : batch) {
+            if (write.isDone()) {
+                continue;
+            }
+            if (rename(write.temp, write.file)) {
+                write.succeed();
+            } else {
+                write.temp.delete();
+                write.fail(new LowlevelStorageException(true,
+                                                        "failed to rename "
+                                                                + write.temp.getPath()
+                                                                + " to "
+                                                                + write.file.getPath()));
+            }
+        }
+    }
+
+    private static boolean rename(File temp, File file) {
+        if (temp.renameTo(file)) {
+            return true;
+        }
+        if (!file.exists()) {
+            return false;
+        }
+        // some platforms can't rename over an existing file, so move it
+        // aside; until the backup is deleted, it can be restored.
+        File backup = getBackupFile(file);
+        backup.delete();
+        if (!file.renameTo(backup)) {
+            return false;
+        }
+        if (temp.renameTo(file)) {
+            backup.delete();
+            return true;
+        }
+        backup.renameTo(file);
+        return false;
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.warn("Could not close stream", e);
+        }
+    }
+
+    /**
+     * Commits the pending writes in batches.
+     */
+    private class WriteQueue
+            extends GroupCommitQueue<PendingWrite> {
+
+        WriteQueue(long delay) {
+            super("GroupCommitFileSystem committer", delay);
+        }
+
+        @Override
+        protected void commit(List<PendingWrite> batch) {
+            GroupCommitFileSystem.this.commit(batch);
+        }
+
+        @Override
+        protected void fail(PendingWrite write, Throwable cause) {
+            write.fail(new LowlevelStorageException(true,
+                                                    "unexpected error committing "
+                                                            + write.file.getPath(),
+                                                    cause));
+        }
+    }
+
+    /**
+     * A written but not yet synced temporary file, and the outcome of
+     * committing it.
+     */
+    private static class PendingWrite
+            extends GroupCommitQueue.Pending<LowlevelStorageException> {
+
+        final FileOutputStream out;
+
+        final File temp;
+
+        final File file;
+
+        PendingWrite(FileOutputStream out, File temp, File file) {
+            this.out = out;
+            this.temp = temp;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel;
+
+import org.fcrepo.server.errors.LowlevelStorageException;
+
+/**
+ * Interface for {@link ILowlevelStorage} implementations that can copy
+ * datastream content from one key to another without the caller streaming
+ * it through.
+ */
+public interface ICopyable {
+
+    /**
+     * Gives a datastream the same content as another, replacing any content
+     * it already has.
+     *
+     * @param sourceKey the key of the datastream to copy.
+     * @param destKey the key of the datastream to copy to.
+     * @return the size of the content in bytes.
+     * @throws LowlevelStorageException
+     */
+    public long copyDatastream(String sourceKey, String destKey)
+            throws LowlevelStorageException;
+
+}
@@ -0,0 +1,238 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel;
+
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact in-memory map from registry tokens to paths.
+ * <p>
+ * Each entry is kept as a single byte array holding the UTF-8 token, a zero
+ * byte, the number of the path's directory and the UTF-8 file name, in an
+ * open-addressing hash table. Directories are shared by many paths, so each
+ * one is stored only once. This takes a fraction of the memory of a
+ * <code>HashMap</code> of Strings, so the paths of millions of objects can
+ * be held in memory.
+ * </p>
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+public class PathIndex {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Rough size of an object header, used for memory estimates. */
+    private static final int OBJECT_OVERHEAD = 16;
+
+    private byte[][] m_entries = new byte[INITIAL_CAPACITY][];
+
+    private int[] m_hashes = new int[INITIAL_CAPACITY];
+
+    private int m_size;
+
+    private long m_entryBytes;
+
+    private final List<String> m_dirs = new ArrayList<String>();
+
+    private final Map<String, Integer> m_dirNumbers =
+            new HashMap<String, Integer>();
+
+    private long m_dirBytes;
+
+    /**
+     * Gets the path of the given token.
+     *
+     * @return the path, or null if the token isn't in the index
+     */
+    public String get(String token) {
+        byte[] key = token.getBytes(UTF8);
+        int slot = find(key, hash(token));
+        if (m_entries[slot] == null) {
+            return null;
+        }
+        byte[] entry = m_entries[slot];
+        int pos = key.length + 1;
+        int dir = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = entry[pos++];
+            dir |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return m_dirs.get(dir) + new String(entry, pos, entry.length - pos, UTF8);
+    }
+
+    /**
+     * Sets the path of the given token, replacing any previous path.
+     */
+    public void put(String token, String path) {
+        byte[] key = token.getBytes(UTF8);
+        int hash = hash(token);
+
+        int split = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1;
+        Integer dir = m_dirNumbers.get(path.substring(0, split));
+        if (dir == null) {
+            dir = m_dirs.size();
+            m_dirs.add(path.substring(0, split));
+            m_dirNumbers.put(path.substring(0, split), dir);
+            m_dirBytes += 4 * OBJECT_OVERHEAD + 2 * split;
+        }
+        byte[] name = path.substring(split).getBytes(UTF8);
+        byte[] entry = new byte[key.length + 1 + 5 + name.length];
+        System.arraycopy(key, 0, entry, 0, key.length);
+        int pos = key.length + 1;
+        int n = dir;
+        while (n >= 0x80) {
+            entry[pos++] = (byte) (n & 0x7f | 0x80);
+            n >>>= 7;
+        }
+        entry[pos++] = (byte) n;
+        System.arraycopy(name, 0, entry, pos, name.length);
+        pos += name.length;
+        if (pos < entry.length) {
+            byte[] trimmed = new byte[pos];
+            System.arraycopy(entry, 0, trimmed, 0, pos);
+            entry = trimmed;
+        }
+
+        int slot = find(key, hash);
+        if (m_entries[slot] != null) {
+            m_entryBytes -= getSize(m_entries[slot]);
+        } else {
+            m_size++;
+        }
+        m_entries[slot] = entry;
+        m_hashes[slot] = hash;
+        m_entryBytes += getSize(entry);
+        if (m_size > m_entries.length / 4 * 3) {
+            resize(m_entries.length * 2);
+        }
+    }
+
+    /**
+     * Removes the given token.
+     *
+     * @return whether the token was in the index
+     */
+    public boolean remove(String token) {
+        int slot = find(token.getBytes(UTF8), hash(token));
+        if (m_entries[slot] == null) {
+            return false;
+        }
+        m_entryBytes -= getSize(m_entries[slot]);
+        m_size--;
+        // move later entries of the same run back, so lookups never stop
+        // early at the emptied slot
+        int mask = m_entries.length - 1;
+        int empty = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            if (m_entries[i] == null) {
+                break;
+            }
+            int home = m_hashes[i] & mask;
+            if (empty <= i ? (home <= empty || home > i)
+                    : (home <= empty && home > i)) {
+                m_entries[empty] = m_entries[i];
+                m_hashes[empty] = m_hashes[i];
+                empty = i;
+            }
+        }
+        m_entries[empty] = null;
+        return true;
+    }
+
+    /**
+     * Removes all tokens.
+     */
+    public void clear() {
+        m_entries = new byte[INITIAL_CAPACITY][];
+        m_hashes = new int[INITIAL_CAPACITY];
+        m_size = 0;
+        m_entryBytes = 0;
+        m_dirs.clear();
+        m_dirNumbers.clear();
+        m_dirBytes = 0;
+    }
+
+    /**
+     * Gets the number of tokens in the index.
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Gets an estimate of the memory used by the index, in bytes.
+     */
+    public long getMemoryUsage() {
+        // table slots are a reference and an int each
+        return m_entries.length * 12L + m_entryBytes + m_dirBytes;
+    }
+
+    /**
+     * Gets the slot that holds the given key, or the empty slot where it
+     * would go.
+     */
+    private int find(byte[] key, int hash) {
+        int mask = m_entries.length - 1;
+        int slot = hash & mask;
+        while (m_entries[slot] != null
+                && (m_hashes[slot] != hash || !hasKey(m_entries[slot], key))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        byte[][] entries = m_entries;
+        int[] hashes = m_hashes;
+        m_entries = new byte[capacity][];
+        m_hashes = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] != null) {
+                int slot = hashes[i] & mask;
+                while (m_entries[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                m_entries[slot] = entries[i];
+                m_hashes[slot] = hashes[i];
+            }
+        }
+    }
+
+    private static boolean hasKey(byte[] entry, byte[] key) {
+        if (entry.length <= key.length || entry[key.length] != 0) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (entry[i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(String token) {
+        int h = token.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /** Gets the approximate heap size of an entry, aligned to 8 bytes. */
+    private static long getSize(byte[] entry) {
+        return (OBJECT_OVERHEAD + entry.length + 7) & ~7L;
+    }
+}
@@ -39,9 +39,14 @@ public abstract class PathRegistry {
 
     protected final String[] storeBases;
 
+    /** Are the files written by a {@link GroupCommitFileSystem}? */
+    private final boolean groupCommit;
+
     public PathRegistry(Map<String, ?> configuration) {
         registryName = (String) configuration.get("registryName");
         storeBases = (String[]) configuration.get("storeBases");
+        groupCommit =
+                configuration.get(DefaultLowlevelStorage.GROUP_COMMIT_DELAY) != null;
     }
 
     public abstract String get(String pid) throws LowlevelStorageException;
@@ -88,6 +93,12 @@ public abstract class PathRegistry {
                                      int report)
             throws LowlevelStorageException {
         for (File element : files) {
+            if (groupCommit && GroupCommitFileSystem.isLeftover(element)) {
+                element = recoverLeftover(element, operation, report);
+                if (element == null) {
+                    continue;
+                }
+            }
             if (element.exists()) {
                 if (element.isDirectory()) {
                     traverseFiles(element.listFiles(),
@@ -166,6 +177,25 @@ public abstract class PathRegistry {
         }
     }
 
+    /**
+     * A file left by an interrupted group commit isn't the file of an
+     * object, but it may hold the committed content of one whose file is
+     * missing. When rebuilding, restore that; otherwise skip it.
+     *
+     * @return the restored file, or null if there is none.
+     */
+    private File recoverLeftover(File leftover, int operation, int report) {
+        File restored = null;
+        if (operation == REBUILD) {
+            restored = GroupCommitFileSystem.recover(leftover);
+        }
+        if (restored == null && report != NO_REPORT) {
+            logger.info("skipping uncommitted file [" + leftover.getPath()
+                    + "]");
+        }
+        return restored;
+    }
+
     public void traverseFiles(String[] storeBases,
                               int operation,
                               boolean stopOnError,
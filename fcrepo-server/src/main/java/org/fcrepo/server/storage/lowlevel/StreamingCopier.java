@@ -0,0 +1,46 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel;
+
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.server.errors.LowlevelStorageException;
+import org.fcrepo.server.errors.ObjectAlreadyInLowlevelStorageException;
+
+/**
+ * Copies datastream content for {@link ICopyable} implementations whose
+ * underlying storage can't copy it, by streaming it from one key to the
+ * other.
+ */
+public abstract class StreamingCopier {
+
+    /**
+     * Gives a datastream the same content as another, replacing any content
+     * it already has. Each stream that is retrieved is closed, whether or not
+     * the storage consumed it.
+     *
+     * @return the size of the content in bytes.
+     */
+    public static long copyDatastream(ILowlevelStorage storage,
+                                      String sourceKey,
+                                      String destKey)
+            throws LowlevelStorageException {
+        InputStream content = storage.retrieveDatastream(sourceKey);
+        try {
+            return storage.addDatastream(destKey, content);
+        } catch (ObjectAlreadyInLowlevelStorageException e) {
+            // fall through and replace it
+        } finally {
+            IOUtils.closeQuietly(content);
+        }
+        content = storage.retrieveDatastream(sourceKey);
+        try {
+            return storage.replaceDatastream(destKey, content);
+        } finally {
+            IOUtils.closeQuietly(content);
+        }
+    }
+}
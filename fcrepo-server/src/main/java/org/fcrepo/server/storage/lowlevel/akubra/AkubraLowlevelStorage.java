@@ -29,6 +29,7 @@ import org.fcrepo.common.PID;
 import org.fcrepo.server.errors.LowlevelStorageException;
 import org.fcrepo.server.errors.ObjectAlreadyInLowlevelStorageException;
 import org.fcrepo.server.errors.ObjectNotInLowlevelStorageException;
+import org.fcrepo.server.storage.lowlevel.ICopyable;
 import org.fcrepo.server.storage.lowlevel.IListable;
 import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
 import org.fcrepo.server.storage.lowlevel.ISizable;
@@ -41,24 +42,32 @@ import org.slf4j.LoggerFactory;
  * Akubra-backed implementation of ILowlevelStorage.
  * <p>
  * This implementation uses two Akubra <code>BlobStore</code>s; one for
- * objects and another for datastreams.
+ * objects and another for datastreams. Datastream content may optionally be
+ * deduplicated, see {@link ContentAddressedStore}.
  *
  * @author Chris Wilper
  */
 public class AkubraLowlevelStorage
-        implements ILowlevelStorage, IListable, ISizable {
+        implements ILowlevelStorage, IListable, ISizable, ICopyable {
 
     private static final Logger logger =
             LoggerFactory.getLogger(AkubraLowlevelStorage.class);
 
-    private final BlobStore objectStore;
+    /**
+     * The default number of unused connections kept open to each store.
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
 
-    private final BlobStore datastreamStore;
+    private final BlobStoreConnectionPool objectStore;
+
+    private final BlobStoreConnectionPool datastreamStore;
 
     private final boolean forceSafeObjectOverwrites;
 
     private final boolean forceSafeDatastreamOverwrites;
 
+    private final ContentAddressedStore datastreamContent;
+
     /**
      * Creates an instance using the given blob stores.
      * <p>
@@ -90,10 +99,87 @@ public class AkubraLowlevelStorage
                                  BlobStore datastreamStore,
                                  boolean forceSafeObjectOverwrites,
                                  boolean forceSafeDatastreamOverwrites) {
-        this.objectStore = objectStore;
-        this.datastreamStore = datastreamStore;
+        this(objectStore,
+             datastreamStore,
+             forceSafeObjectOverwrites,
+             forceSafeDatastreamOverwrites,
+             false);
+    }
+
+    /**
+     * Creates an instance using the given blob stores, optionally storing
+     * each distinct datastream content only once.
+     * <p>
+     * The blob stores have the same requirements as above. If
+     * <code>deduplicateDatastreams</code> is true, no other instance may use
+     * the datastream store, which must also be able to accept ids starting
+     * with <code>info:fedora/.sha256/</code>. It may already contain
+     * datastreams written without deduplication.
+     *
+     * @param objectStore the store for serialized objects.
+     * @param datastreamStore the store for datastream content.
+     * @param forceSafeObjectOverwrites see above.
+     * @param forceSafeDatastreamOverwrites see above.
+     * @param deduplicateDatastreams if true, datastream content is stored
+     *        once per distinct content, and copying a datastream only adds
+     *        a reference to its content.
+     */
+    public AkubraLowlevelStorage(BlobStore objectStore,
+                                 BlobStore datastreamStore,
+                                 boolean forceSafeObjectOverwrites,
+                                 boolean forceSafeDatastreamOverwrites,
+                                 boolean deduplicateDatastreams) {
+        this(objectStore,
+             datastreamStore,
+             forceSafeObjectOverwrites,
+             forceSafeDatastreamOverwrites,
+             deduplicateDatastreams,
+             DEFAULT_MAX_IDLE_CONNECTIONS);
+    }
+
+    /**
+     * Creates an instance using the given blob stores, keeping up to the
+     * given number of unused connections open to each of them.
+     * <p>
+     * Each operation takes a connection that is not in use, or opens one, and
+     * gives it back when it's done, or when the stream or iterator it
+     * returned is closed or exhausted. Reusing connections saves opening one
+     * for every datastream and object written when an object is committed.
+     *
+     * @param objectStore the store for serialized objects.
+     * @param datastreamStore the store for datastream content.
+     * @param forceSafeObjectOverwrites see above.
+     * @param forceSafeDatastreamOverwrites see above.
+     * @param deduplicateDatastreams see above.
+     * @param maxIdleConnections the most unused connections to keep open to
+     *        each store. If 0, a connection is opened for each operation and
+     *        closed afterwards.
+     */
+    public AkubraLowlevelStorage(BlobStore objectStore,
+                                 BlobStore datastreamStore,
+                                 boolean forceSafeObjectOverwrites,
+                                 boolean forceSafeDatastreamOverwrites,
+                                 boolean deduplicateDatastreams,
+                                 int maxIdleConnections) {
+        if (maxIdleConnections < 0) {
+            throw new IllegalArgumentException(
+                    "maxIdleConnections must not be negative: "
+                    + maxIdleConnections);
+        }
+        this.objectStore =
+                new BlobStoreConnectionPool(objectStore, maxIdleConnections);
+        this.datastreamStore =
+                new BlobStoreConnectionPool(datastreamStore,
+                                            maxIdleConnections);
         this.forceSafeObjectOverwrites = forceSafeObjectOverwrites;
         this.forceSafeDatastreamOverwrites = forceSafeDatastreamOverwrites;
+        if (deduplicateDatastreams) {
+            datastreamContent =
+                    new ContentAddressedStore(this.datastreamStore,
+                                              forceSafeDatastreamOverwrites);
+        } else {
+            datastreamContent = null;
+        }
     }
 
     //
@@ -103,6 +189,9 @@ public class AkubraLowlevelStorage
     @Override
     public long addDatastream(String dsKey, InputStream content)
             throws LowlevelStorageException {
+        if (datastreamContent != null) {
+            return datastreamContent.add(dsKey, content);
+        }
         return add(datastreamStore, dsKey, content);
     }
 
@@ -135,6 +224,10 @@ public class AkubraLowlevelStorage
     @Override
     public void removeDatastream(String dsKey)
             throws LowlevelStorageException {
+        if (datastreamContent != null) {
+            datastreamContent.remove(dsKey);
+            return;
+        }
         remove(datastreamStore, dsKey);
     }
 
@@ -147,6 +240,9 @@ public class AkubraLowlevelStorage
     @Override
     public long replaceDatastream(String dsKey, InputStream content)
             throws LowlevelStorageException {
+        if (datastreamContent != null) {
+            return datastreamContent.replace(dsKey, content);
+        }
         return replace(datastreamStore, dsKey, content, forceSafeDatastreamOverwrites);
     }
 
@@ -159,6 +255,9 @@ public class AkubraLowlevelStorage
     @Override
     public InputStream retrieveDatastream(String dsKey)
             throws LowlevelStorageException {
+        if (datastreamContent != null) {
+            return datastreamContent.retrieve(dsKey);
+        }
         return retrieve(datastreamStore, dsKey);
     }
 
@@ -174,6 +273,9 @@ public class AkubraLowlevelStorage
 
     @Override
     public Iterator<String> listDatastreams() {
+        if (datastreamContent != null) {
+            return datastreamContent.list();
+        }
         return list(datastreamStore);
     }
 
@@ -188,21 +290,74 @@ public class AkubraLowlevelStorage
     //
     @Override
     public long getDatastreamSize(String dsKey) throws LowlevelStorageException {
+        if (datastreamContent != null) {
+            return datastreamContent.getSize(dsKey);
+        }
         return getSize(datastreamStore, dsKey);
     }
 
+    //
+    // ICopyable methods
+    //
+    @Override
+    public long copyDatastream(String sourceKey, String destKey)
+            throws LowlevelStorageException {
+        if (datastreamContent != null) {
+            return datastreamContent.copy(sourceKey, destKey);
+        }
+        InputStream content = retrieve(datastreamStore, sourceKey);
+        try {
+            return add(datastreamStore, destKey, content);
+        } catch (ObjectAlreadyInLowlevelStorageException e) {
+            IOUtils.closeQuietly(content);
+            return replace(datastreamStore,
+                           destKey,
+                           retrieve(datastreamStore, sourceKey),
+                           forceSafeDatastreamOverwrites);
+        }
+    }
+
+    /**
+     * Gets the number of connections opened to the object and datastream
+     * stores, and the number of times an open one was reused.
+     *
+     * @return the counts, in the order objects opened, objects reused,
+     *         datastreams opened, datastreams reused.
+     */
+    public long[] getConnectionCounts() {
+        return new long[] {objectStore.getOpenedCount(),
+                           objectStore.getReusedCount(),
+                           datastreamStore.getOpenedCount(),
+                           datastreamStore.getReusedCount()};
+    }
+
+    /**
+     * Closes the unused connections to both stores. Connections in use are
+     * closed when they are given back.
+     */
+    public void closeIdleConnections() {
+        objectStore.close();
+        datastreamStore.close();
+        if (logger.isDebugEnabled()) {
+            long[] counts = getConnectionCounts();
+            logger.debug("Blob store connections opened/reused: objects "
+                    + counts[0] + "/" + counts[1] + ", datastreams "
+                    + counts[2] + "/" + counts[3]);
+        }
+    }
+
     //
     // Private implementation methods
     //
 
-    private static long add(BlobStore store,
+    private static long add(BlobStoreConnectionPool store,
                             String key,
                             InputStream content)
             throws ObjectAlreadyInLowlevelStorageException {
         BlobStoreConnection connection = null;
         try {
             URI blobId = getBlobId(key);
-            connection = getConnection(store);
+            connection = store.get();
             Blob blob = getBlob(connection, blobId, null);
             OutputStream out = openOutputStream(blob, -1, false);
             copy(content, out);
@@ -216,27 +371,27 @@ public class AkubraLowlevelStorage
         } catch (DuplicateBlobException e) {
             throw new ObjectAlreadyInLowlevelStorageException(key, e);
         } finally {
-            closeConnection(connection);
+            store.release(connection);
         }
     }
 
-    private static void audit(BlobStore store) {
+    private static void audit(BlobStoreConnectionPool store) {
         // N/A: Akubra does not trigger consistency checks of a store's
         // internal index. If necessary, such a check must be done out-of-band.
     }
 
-    private static void rebuild(BlobStore store) {
+    private static void rebuild(BlobStoreConnectionPool store) {
         // N/A: Akubra does not trigger rebuilds of a store's internal index.
         // If necessary, such a rebuild must be done out-of-band.
     }
 
-    private static void remove(BlobStore store,
+    private static void remove(BlobStoreConnectionPool store,
                                String key)
             throws ObjectNotInLowlevelStorageException {
         BlobStoreConnection connection = null;
         try {
             URI blobId = getBlobId(key);
-            connection = getConnection(store);
+            connection = store.get();
             Blob blob = getBlob(connection, blobId, null);
             if (exists(blob)) {
                 delete(blob);
@@ -244,11 +399,11 @@ public class AkubraLowlevelStorage
                 throw new ObjectNotInLowlevelStorageException("Object not found in low-level storage: " + key);
             }
         } finally {
-            closeConnection(connection);
+            store.release(connection);
         }
     }
 
-    private static long replace(BlobStore store,
+    private static long replace(BlobStoreConnectionPool store,
                                 String key,
                                 InputStream content,
                                 boolean forceSafeOverwrite)
@@ -256,7 +411,7 @@ public class AkubraLowlevelStorage
         BlobStoreConnection connection = null;
         try {
             URI blobId = getBlobId(key);
-            connection = getConnection(store);
+            connection = store.get();
             Blob blob = getBlob(connection, blobId, null);
             if (exists(blob)) {
                 if (forceSafeOverwrite) {
@@ -279,21 +434,21 @@ public class AkubraLowlevelStorage
         } catch (DuplicateBlobException wontHappen) {
             throw new FaultException(wontHappen);
         } finally {
-            closeConnection(connection);
+            store.release(connection);
         }
     }
 
-    private static Iterator<String> list(BlobStore store) {
+    private static Iterator<String> list(BlobStoreConnectionPool store) {
         BlobStoreConnection connection = null;
         boolean successful = false;
         try {
-            connection = getConnection(store);
+            connection = store.get();
             Iterator<URI> blobIds = listBlobIds(connection);
             successful = true;
-            return new ConnectionClosingKeyIterator(connection, blobIds);
+            return new ConnectionReleasingKeyIterator(store, connection, blobIds);
         } finally {
             if (!successful) {
-                closeConnection(connection);
+                store.release(connection);
             }
         }
     }
@@ -303,7 +458,7 @@ public class AkubraLowlevelStorage
      * original content is not destroyed until the replacement is successfully
      * put in its place.
      */
-    private static void safeOverwrite(Blob origBlob, InputStream content) {
+    static void safeOverwrite(Blob origBlob, InputStream content) {
         BlobStoreConnection connection = origBlob.getConnection();
         String origId = origBlob.getId().toString();
 
@@ -375,7 +530,7 @@ public class AkubraLowlevelStorage
         }
     }
 
-    private static Blob rename(Blob blob, String newId) {
+    static Blob rename(Blob blob, String newId) {
         try {
             return blob.moveTo(new URI(newId), null);
         } catch (IOException e) {
@@ -385,7 +540,7 @@ public class AkubraLowlevelStorage
         }
     }
 
-    private static InputStream retrieve(BlobStore store,
+    private static InputStream retrieve(BlobStoreConnectionPool store,
                                         String key)
             throws ObjectNotInLowlevelStorageException {
         BlobStoreConnection connection = null;
@@ -393,29 +548,29 @@ public class AkubraLowlevelStorage
         boolean successful = false;
         try {
             URI blobId = getBlobId(key);
-            connection = getConnection(store);
+            connection = store.get();
             Blob blob = getBlob(connection, blobId, null);
             content = openInputStream(blob);
             successful = true;
-            return new ConnectionClosingInputStream(connection, content);
+            return new ConnectionReleasingInputStream(store, connection, content);
         } catch (MissingBlobException e) {
             throw new ObjectNotInLowlevelStorageException("Object not found in low-level storage: " + key);
         } finally {
             if (!successful) {
                 IOUtils.closeQuietly(content);
-                closeConnection(connection);
+                store.release(connection);
             }
         }
     }
 
-    private static long getSize(BlobStore store,
+    private static long getSize(BlobStoreConnectionPool store,
                                         String key)
             throws ObjectNotInLowlevelStorageException {
         BlobStoreConnection connection = null;
         boolean successful = false;
         try {
             URI blobId = getBlobId(key);
-            connection = getConnection(store);
+            connection = store.get();
             Blob blob = getBlob(connection, blobId, null);
             return blob.getSize();
         } catch (MissingBlobException e) {
@@ -424,13 +579,13 @@ public class AkubraLowlevelStorage
             throw new RuntimeException("Error reading blob size: " +e.getMessage(), e);
         } finally {
             if (!successful) {
-                closeConnection(connection);
+                store.release(connection);
             }
         }
     }
 
 
-    private static BlobStoreConnection getConnection(BlobStore store) {
+    static BlobStoreConnection getConnection(BlobStore store) {
         try {
             return store.openConnection(null, null);
         } catch (IOException e) {
@@ -439,7 +594,7 @@ public class AkubraLowlevelStorage
         }
     }
 
-    private static void closeConnection(BlobStoreConnection connection) {
+    static void closeConnection(BlobStoreConnection connection) {
         try {
             if (connection != null) {
                 connection.close();
@@ -449,7 +604,7 @@ public class AkubraLowlevelStorage
         }
     }
 
-    private static Blob getBlob(BlobStoreConnection connection,
+    static Blob getBlob(BlobStoreConnection connection,
                                 URI blobId,
                                 Map<String, String> hints) {
         try {
@@ -460,7 +615,7 @@ public class AkubraLowlevelStorage
         }
     }
 
-    private static InputStream openInputStream(Blob blob)
+    static InputStream openInputStream(Blob blob)
             throws MissingBlobException {
         try {
             return blob.openInputStream();
@@ -472,7 +627,7 @@ public class AkubraLowlevelStorage
         }
     }
 
-    private static OutputStream openOutputStream(Blob blob,
+    static OutputStream openOutputStream(Blob blob,
                                                  long estimatedSize,
                                                  boolean overwrite)
             throws DuplicateBlobException {
@@ -486,7 +641,7 @@ public class AkubraLowlevelStorage
         }
     }
 
-    private static boolean exists(Blob blob) {
+    static boolean exists(Blob blob) {
         try {
             return blob.exists();
         } catch (IOException e) {
@@ -496,7 +651,7 @@ public class AkubraLowlevelStorage
         }
     }
 
-    private static void delete(Blob blob) {
+    static void delete(Blob blob) {
         try {
             if (blob.exists()){
                 blob.delete();
@@ -510,7 +665,7 @@ public class AkubraLowlevelStorage
         }
     }
 
-    private static Iterator<URI> listBlobIds(BlobStoreConnection connection) {
+    static Iterator<URI> listBlobIds(BlobStoreConnection connection) {
         try {
             return connection.listBlobIds(null); // all
         } catch (IOException e) {
@@ -519,7 +674,7 @@ public class AkubraLowlevelStorage
         }
     }
 
-    private static long copy(InputStream source, OutputStream sink) {
+    static long copy(InputStream source, OutputStream sink) {
         try {
             return IOUtils.copyLarge(source, sink);
         } catch (IOException e) {
@@ -546,7 +701,7 @@ public class AkubraLowlevelStorage
      * @throws IllegalArgumentException if the token is not a well-formed
      *         pid or datastream token.
      */
-    private static URI getBlobId(String token) {
+    static URI getBlobId(String token) {
         try {
             int i = token.indexOf('+');
             if (i == -1) {
@@ -607,27 +762,35 @@ public class AkubraLowlevelStorage
     }
 
     /**
-     * Closes the stream and connection automatically when closed or finalized.
+     * Closes the stream and gives back its connection automatically when
+     * closed or finalized.
      */
-    static class ConnectionClosingInputStream extends FilterInputStream {
+    static class ConnectionReleasingInputStream extends FilterInputStream {
+
+        private final BlobStoreConnectionPool connections;
 
         private final BlobStoreConnection connection;
 
-        public ConnectionClosingInputStream(BlobStoreConnection connection,
-                                            InputStream wrapped) {
+        private boolean released;
+
+        public ConnectionReleasingInputStream(BlobStoreConnectionPool connections,
+                                              BlobStoreConnection connection,
+                                              InputStream wrapped) {
             super(wrapped);
+            this.connections = connections;
             this.connection = connection;
         }
 
         @Override
-        public void close() {
-            if (!connection.isClosed()) {
+        public synchronized void close() {
+            if (!released) {
+                released = true;
                 try {
                     super.close();
                 } catch (IOException e) {
                     throw new FaultException("System error closing stream", e);
                 } finally {
-                    connection.close();
+                    connections.release(connection);
                 }
             }
         }
@@ -640,24 +803,31 @@ public class AkubraLowlevelStorage
     }
 
     /**
-     * Converts a blob id iterator to a key iterator and closes the
+     * Converts a blob id iterator to a key iterator and gives back the
      * connection automatically when exhausted or finalized.
      */
-    static class ConnectionClosingKeyIterator implements Iterator<String> {
+    static class ConnectionReleasingKeyIterator implements Iterator<String> {
 
+        private final BlobStoreConnectionPool connections;
         private final BlobStoreConnection connection;
         private final Iterator<URI> blobIds;
+        private boolean released;
 
-        public ConnectionClosingKeyIterator(BlobStoreConnection connection,
-                                            Iterator<URI> blobIds) {
+        public ConnectionReleasingKeyIterator(BlobStoreConnectionPool connections,
+                                              BlobStoreConnection connection,
+                                              Iterator<URI> blobIds) {
+            this.connections = connections;
             this.connection = connection;
             this.blobIds = blobIds;
         }
 
         @Override
         public boolean hasNext() {
+            if (released) {
+                return false;
+            }
             if (!blobIds.hasNext()) {
-                connection.close();
+                release();
                 return false;
             }
             return true;
@@ -675,7 +845,14 @@ public class AkubraLowlevelStorage
 
         @Override
         protected void finalize() {
-            connection.close();
+            release();
+        }
+
+        private synchronized void release() {
+            if (!released) {
+                released = true;
+                connections.release(connection);
+            }
         }
 
     }
@@ -4,6 +4,7 @@
  */
 package org.fcrepo.server.storage.lowlevel.akubra;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 import java.util.Iterator;
@@ -13,9 +14,13 @@ import org.fcrepo.server.Module;
 import org.fcrepo.server.Server;
 import org.fcrepo.server.errors.LowlevelStorageException;
 import org.fcrepo.server.errors.ModuleInitializationException;
+import org.fcrepo.server.errors.ModuleShutdownException;
+import org.fcrepo.server.storage.lowlevel.ICopyable;
 import org.fcrepo.server.storage.lowlevel.IListable;
 import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
 import org.fcrepo.server.storage.lowlevel.ISizable;
+import org.fcrepo.server.storage.lowlevel.StreamingCopier;
+import org.fcrepo.server.storage.lowlevel.packed.PackedLowlevelStorage;
 import org.springframework.beans.factory.annotation.Required;
 
 
@@ -37,7 +42,7 @@ import org.springframework.beans.factory.annotation.Required;
  */
 public class AkubraLowlevelStorageModule
         extends Module
-        implements ILowlevelStorage, IListable, ISizable {
+        implements ILowlevelStorage, IListable, ISizable, ICopyable {
 
     private ILowlevelStorage m_impl;
 
@@ -65,6 +70,21 @@ public class AkubraLowlevelStorageModule
         }
     }
 
+    @Override
+    public void shutdownModule() throws ModuleShutdownException {
+        if (m_impl instanceof AkubraLowlevelStorage) {
+            ((AkubraLowlevelStorage) m_impl).closeIdleConnections();
+        } else if (m_impl instanceof PackedLowlevelStorage) {
+            try {
+                ((PackedLowlevelStorage) m_impl).close();
+            } catch (IOException e) {
+                throw new ModuleShutdownException("Error closing object store",
+                                                  getRole(),
+                                                  e);
+            }
+        }
+    }
+
     public void addObject(String pid, InputStream content)
             throws LowlevelStorageException {
         m_impl.addObject(pid, content);
@@ -134,4 +154,14 @@ public class AkubraLowlevelStorageModule
     public long getDatastreamSize(String dsKey) throws LowlevelStorageException {
         return ((ISizable) m_impl).getDatastreamSize(dsKey);
     }
+
+    // ICopyable methods
+
+    public long copyDatastream(String sourceKey, String destKey)
+            throws LowlevelStorageException {
+        if (m_impl instanceof ICopyable) {
+            return ((ICopyable) m_impl).copyDatastream(sourceKey, destKey);
+        }
+        return StreamingCopier.copyDatastream(m_impl, sourceKey, destKey);
+    }
 }
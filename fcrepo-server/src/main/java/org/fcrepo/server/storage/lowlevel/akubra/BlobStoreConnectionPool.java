@@ -0,0 +1,111 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel.akubra;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.akubraproject.BlobStore;
+import org.akubraproject.BlobStoreConnection;
+
+import static org.fcrepo.server.storage.lowlevel.akubra.AkubraLowlevelStorage.closeConnection;
+import static org.fcrepo.server.storage.lowlevel.akubra.AkubraLowlevelStorage.getConnection;
+
+/**
+ * Keeps connections to a non-transactional blob store open between
+ * operations.
+ * <p>
+ * Committing an object adds, replaces or sizes each of its datastreams and
+ * then writes the object, and each of these used to open and close its own
+ * connection. Instead, connections are taken from this pool and given back
+ * when the operation, or the stream or iterator it returned, is done with.
+ * A connection is only used by one caller at a time. Up to
+ * <code>maxIdle</code> unused connections are kept; any more are closed.
+ */
+class BlobStoreConnectionPool {
+
+    private final BlobStore store;
+
+    private final BlockingQueue<BlobStoreConnection> idle;
+
+    private final AtomicLong opened = new AtomicLong();
+
+    private final AtomicLong reused = new AtomicLong();
+
+    /**
+     * @param store the store to connect to.
+     * @param maxIdle the most unused connections to keep open; if 0,
+     *        connections are closed as soon as they are released.
+     */
+    BlobStoreConnectionPool(BlobStore store, int maxIdle) {
+        this.store = store;
+        idle = maxIdle > 0
+                ? new ArrayBlockingQueue<BlobStoreConnection>(maxIdle) : null;
+    }
+
+    BlobStore getStore() {
+        return store;
+    }
+
+    /**
+     * Gets an open connection, which must be given back with
+     * <code>release</code>.
+     */
+    BlobStoreConnection get() {
+        if (idle != null) {
+            BlobStoreConnection connection;
+            while ((connection = idle.poll()) != null) {
+                if (!connection.isClosed()) {
+                    reused.incrementAndGet();
+                    return connection;
+                }
+            }
+        }
+        opened.incrementAndGet();
+        return getConnection(store);
+    }
+
+    /**
+     * Gives back a connection obtained from <code>get</code>. The caller
+     * must not use it, or any blob obtained from it, afterwards.
+     *
+     * @param connection the connection, or null.
+     */
+    void release(BlobStoreConnection connection) {
+        if (connection == null || connection.isClosed()) {
+            return;
+        }
+        if (idle == null || !idle.offer(connection)) {
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * Closes all unused connections.
+     */
+    void close() {
+        if (idle != null) {
+            BlobStoreConnection connection;
+            while ((connection = idle.poll()) != null) {
+                closeConnection(connection);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of connections that have been opened.
+     */
+    long getOpenedCount() {
+        return opened.get();
+    }
+
+    /**
+     * Gets the number of times an open connection has been reused.
+     */
+    long getReusedCount() {
+        return reused.get();
+    }
+}
@@ -0,0 +1,461 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel.akubra;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import org.akubraproject.Blob;
+import org.akubraproject.BlobStoreConnection;
+import org.akubraproject.DuplicateBlobException;
+import org.akubraproject.MissingBlobException;
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.common.Constants;
+import org.fcrepo.common.FaultException;
+import org.fcrepo.server.errors.LowlevelStorageException;
+import org.fcrepo.server.errors.ObjectAlreadyInLowlevelStorageException;
+import org.fcrepo.server.errors.ObjectNotInLowlevelStorageException;
+
+import static org.fcrepo.server.storage.lowlevel.akubra.AkubraLowlevelStorage.delete;
+import static org.fcrepo.server.storage.lowlevel.akubra.AkubraLowlevelStorage.exists;
+import static org.fcrepo.server.storage.lowlevel.akubra.AkubraLowlevelStorage.getBlob;
+import static org.fcrepo.server.storage.lowlevel.akubra.AkubraLowlevelStorage.getBlobId;
+import static org.fcrepo.server.storage.lowlevel.akubra.AkubraLowlevelStorage.listBlobIds;
+import static org.fcrepo.server.storage.lowlevel.akubra.AkubraLowlevelStorage.openInputStream;
+import static org.fcrepo.server.storage.lowlevel.akubra.AkubraLowlevelStorage.openOutputStream;
+import static org.fcrepo.server.storage.lowlevel.akubra.AkubraLowlevelStorage.rename;
+import static org.fcrepo.server.storage.lowlevel.akubra.AkubraLowlevelStorage.safeOverwrite;
+
+/**
+ * Keeps datastream content in an Akubra blob store once per distinct
+ * content, keyed by its SHA-256 digest.
+ * <p>
+ * Content blobs have ids of the form <code>info:fedora/.sha256/digest</code>,
+ * and each has a count blob, <code>info:fedora/.sha256/digest/count</code>,
+ * holding the number of datastreams that refer to it. A datastream is a small
+ * reference blob at its usual blob id plus <code>/ref</code>, holding the
+ * digest of its content. Adding content that is already in the store only
+ * writes a reference, and copying a datastream never reads its content.
+ * <p>
+ * Counts are incremented before a reference is written and decremented after
+ * one is removed, so a failure can leave unreferenced content behind, but
+ * never removes content that is still referenced. They are updated under
+ * locks held by this instance, so only one instance may use a blob store.
+ * <p>
+ * Datastreams written without deduplication are plain blobs at their usual
+ * ids. They can still be read, replaced and removed, and are converted to
+ * references when they are replaced.
+ */
+class ContentAddressedStore {
+
+    private static final String CONTENT_PREFIX = Constants.FEDORA.uri
+            + ".sha256/";
+
+    private static final String TEMP_PREFIX = CONTENT_PREFIX + "tmp-";
+
+    private static final String COUNT_SUFFIX = "/count";
+
+    private static final String REF_SUFFIX = "/ref";
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final BlobStoreConnectionPool connections;
+
+    private final boolean forceSafeOverwrites;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * Creates an instance.
+     *
+     * @param connections connections to the store for datastream content.
+     * @param forceSafeOverwrites if true, references and counts are replaced
+     *        in a way that ensures the old value is not deleted until the new
+     *        one is safely written.
+     */
+    ContentAddressedStore(BlobStoreConnectionPool connections,
+                          boolean forceSafeOverwrites) {
+        this.connections = connections;
+        this.forceSafeOverwrites = forceSafeOverwrites;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    long add(String key, InputStream content)
+            throws ObjectAlreadyInLowlevelStorageException {
+        BlobStoreConnection connection = null;
+        try {
+            connection = connections.get();
+            URI blobId = getBlobId(key);
+            Blob ref = getBlob(connection, getRefId(blobId), null);
+            if (exists(ref) || exists(getBlob(connection, blobId, null))) {
+                // the caller still owns the stream, and may replace with it
+                throw new ObjectAlreadyInLowlevelStorageException(key);
+            }
+            String digest = addContent(connection, content);
+            write(ref, digest);
+            return getContentSize(connection, digest);
+        } finally {
+            connections.release(connection);
+        }
+    }
+
+    long replace(String key, InputStream content)
+            throws ObjectNotInLowlevelStorageException {
+        BlobStoreConnection connection = null;
+        try {
+            connection = connections.get();
+            URI blobId = getBlobId(key);
+            Blob ref = getBlob(connection, getRefId(blobId), null);
+            Blob plain = getBlob(connection, blobId, null);
+            String oldDigest = read(ref);
+            if (oldDigest == null && !exists(plain)) {
+                throw new ObjectNotInLowlevelStorageException("Object not found in low-level storage: " + key);
+            }
+            String digest = addContent(connection, content);
+            write(ref, digest);
+            release(connection, oldDigest, plain);
+            return getContentSize(connection, digest);
+        } finally {
+            connections.release(connection);
+        }
+    }
+
+    long copy(String sourceKey, String destKey)
+            throws LowlevelStorageException {
+        BlobStoreConnection connection = null;
+        try {
+            connection = connections.get();
+            String digest = read(getBlob(connection,
+                                         getRefId(getBlobId(sourceKey)),
+                                         null));
+            if (digest == null) {
+                // a plain blob; store its content under its digest
+                InputStream content = retrieve(sourceKey);
+                try {
+                    return add(destKey, content);
+                } catch (ObjectAlreadyInLowlevelStorageException e) {
+                    IOUtils.closeQuietly(content);
+                    return replace(destKey, retrieve(sourceKey));
+                }
+            }
+            URI blobId = getBlobId(destKey);
+            Blob ref = getBlob(connection, getRefId(blobId), null);
+            Blob plain = getBlob(connection, blobId, null);
+            String oldDigest = read(ref);
+            boolean hadPlain = oldDigest == null && exists(plain);
+            synchronized (getLock(digest)) {
+                setCount(connection, digest, getCount(connection, digest) + 1);
+            }
+            write(ref, digest);
+            release(connection, oldDigest, hadPlain ? plain : null);
+            return getContentSize(connection, digest);
+        } finally {
+            connections.release(connection);
+        }
+    }
+
+    InputStream retrieve(String key)
+            throws ObjectNotInLowlevelStorageException {
+        BlobStoreConnection connection = null;
+        InputStream content = null;
+        boolean successful = false;
+        try {
+            connection = connections.get();
+            URI blobId = getBlobId(key);
+            String digest = read(getBlob(connection, getRefId(blobId), null));
+            Blob blob;
+            if (digest == null) {
+                blob = getBlob(connection, blobId, null);
+            } else {
+                blob = getBlob(connection, getContentId(digest), null);
+            }
+            content = openInputStream(blob);
+            successful = true;
+            return new AkubraLowlevelStorage.ConnectionReleasingInputStream(connections,
+                                                                            connection,
+                                                                            content);
+        } catch (MissingBlobException e) {
+            throw new ObjectNotInLowlevelStorageException("Object not found in low-level storage: " + key);
+        } finally {
+            if (!successful) {
+                IOUtils.closeQuietly(content);
+                connections.release(connection);
+            }
+        }
+    }
+
+    void remove(String key) throws ObjectNotInLowlevelStorageException {
+        BlobStoreConnection connection = null;
+        try {
+            connection = connections.get();
+            URI blobId = getBlobId(key);
+            Blob ref = getBlob(connection, getRefId(blobId), null);
+            Blob plain = getBlob(connection, blobId, null);
+            String digest = read(ref);
+            if (digest != null) {
+                delete(ref);
+                release(connection, digest, null);
+            } else if (exists(plain)) {
+                delete(plain);
+            } else {
+                throw new ObjectNotInLowlevelStorageException("Object not found in low-level storage: " + key);
+            }
+        } finally {
+            connections.release(connection);
+        }
+    }
+
+    long getSize(String key) throws ObjectNotInLowlevelStorageException {
+        BlobStoreConnection connection = null;
+        try {
+            connection = connections.get();
+            URI blobId = getBlobId(key);
+            String digest = read(getBlob(connection, getRefId(blobId), null));
+            if (digest == null) {
+                return getBlob(connection, blobId, null).getSize();
+            } else {
+                return getContentSize(connection, digest);
+            }
+        } catch (MissingBlobException e) {
+            throw new ObjectNotInLowlevelStorageException("Object not found in low-level storage: " + key);
+        } catch (IOException e) { // should never happen
+            throw new RuntimeException("Error reading blob size: " + e.getMessage(), e);
+        } finally {
+            connections.release(connection);
+        }
+    }
+
+    Iterator<String> list() {
+        BlobStoreConnection connection = null;
+        boolean successful = false;
+        try {
+            connection = connections.get();
+            Iterator<URI> blobIds =
+                    new DatastreamBlobIdIterator(listBlobIds(connection));
+            successful = true;
+            return new AkubraLowlevelStorage.ConnectionReleasingKeyIterator(connections,
+                                                                            connection,
+                                                                            blobIds);
+        } finally {
+            if (!successful) {
+                connections.release(connection);
+            }
+        }
+    }
+
+    /**
+     * Stores the given content unless it's already in the store, and counts
+     * one more reference to it.
+     *
+     * @return the digest of the content.
+     */
+    private String addContent(BlobStoreConnection connection,
+                              InputStream content) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException wontHappen) {
+            throw new FaultException(wontHappen);
+        }
+        Blob temp = getBlob(connection,
+                            URI.create(TEMP_PREFIX + UUID.randomUUID()),
+                            null);
+        try {
+            AkubraLowlevelStorage.copy(new DigestInputStream(content, md),
+                                       openOutputStream(temp, -1, false));
+        } catch (DuplicateBlobException wontHappen) {
+            throw new FaultException(wontHappen);
+        }
+        String digest = toHex(md.digest());
+        synchronized (getLock(digest)) {
+            Blob blob = getBlob(connection, getContentId(digest), null);
+            if (exists(blob)) {
+                delete(temp);
+            } else {
+                rename(temp, blob.getId().toString());
+            }
+            setCount(connection, digest, getCount(connection, digest) + 1);
+        }
+        return digest;
+    }
+
+    /**
+     * Counts one less reference to the given content, and removes it if
+     * there are none left. If a plain blob is given instead, it's deleted.
+     */
+    private void release(BlobStoreConnection connection,
+                         String digest,
+                         Blob plain) {
+        if (plain != null && exists(plain)) {
+            delete(plain);
+        }
+        if (digest == null) {
+            return;
+        }
+        synchronized (getLock(digest)) {
+            long count = getCount(connection, digest) - 1;
+            if (count > 0) {
+                setCount(connection, digest, count);
+            } else {
+                delete(getBlob(connection, getContentId(digest), null));
+                delete(getBlob(connection, getCountId(digest), null));
+            }
+        }
+    }
+
+    private long getContentSize(BlobStoreConnection connection,
+                                String digest) {
+        try {
+            return getBlob(connection, getContentId(digest), null).getSize();
+        } catch (IOException e) { // should never happen
+            throw new RuntimeException("Error reading blob size: " + e.getMessage(), e);
+        }
+    }
+
+    private long getCount(BlobStoreConnection connection, String digest) {
+        String count = read(getBlob(connection, getCountId(digest), null));
+        if (count == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(count);
+        } catch (NumberFormatException e) {
+            throw new FaultException("Malformed reference count for "
+                    + digest + ": " + count, e);
+        }
+    }
+
+    private void setCount(BlobStoreConnection connection,
+                          String digest,
+                          long count) {
+        write(getBlob(connection, getCountId(digest), null),
+              Long.toString(count));
+    }
+
+    /**
+     * Gets the text content of a reference or count blob.
+     *
+     * @return the content, or null if the blob doesn't exist.
+     */
+    private static String read(Blob blob) {
+        InputStream in = null;
+        try {
+            in = openInputStream(blob);
+            return IOUtils.toString(in, "UTF-8");
+        } catch (MissingBlobException e) {
+            return null;
+        } catch (IOException e) {
+            throw new FaultException("System error reading blob", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void write(Blob blob, String value) {
+        InputStream content;
+        try {
+            content = new ByteArrayInputStream(value.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException wontHappen) {
+            throw new FaultException(wontHappen);
+        }
+        try {
+            if (forceSafeOverwrites && exists(blob)) {
+                safeOverwrite(blob, content);
+            } else {
+                AkubraLowlevelStorage.copy(content,
+                                           openOutputStream(blob, -1, true));
+            }
+        } catch (DuplicateBlobException wontHappen) {
+            throw new FaultException(wontHappen);
+        }
+    }
+
+    private Object getLock(String digest) {
+        return locks[(digest.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    private static URI getContentId(String digest) {
+        return URI.create(CONTENT_PREFIX + digest);
+    }
+
+    private static URI getCountId(String digest) {
+        return URI.create(CONTENT_PREFIX + digest + COUNT_SUFFIX);
+    }
+
+    private static URI getRefId(URI blobId) {
+        return URI.create(blobId.toString() + REF_SUFFIX);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Converts an iterator of all blob ids in the store to one of the blob
+     * ids of the datastreams, skipping content, counts and leftovers of
+     * interrupted overwrites.
+     */
+    static class DatastreamBlobIdIterator implements Iterator<URI> {
+
+        private final Iterator<URI> blobIds;
+
+        private URI next;
+
+        DatastreamBlobIdIterator(Iterator<URI> blobIds) {
+            this.blobIds = blobIds;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && blobIds.hasNext()) {
+                String id = blobIds.next().toString();
+                if (id.startsWith(CONTENT_PREFIX)) {
+                    continue;
+                }
+                if (id.endsWith(REF_SUFFIX)) {
+                    id = id.substring(0, id.length() - REF_SUFFIX.length());
+                }
+                URI blobId = URI.create(id);
+                if (blobId.getSchemeSpecificPart().split("/").length == 4) {
+                    next = blobId;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public URI next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            URI result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
@@ -0,0 +1,247 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel.packed;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.server.errors.LowlevelStorageException;
+import org.fcrepo.server.storage.lowlevel.ICopyable;
+import org.fcrepo.server.storage.lowlevel.IListable;
+import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
+import org.fcrepo.server.storage.lowlevel.ISizable;
+import org.fcrepo.server.storage.lowlevel.StreamingCopier;
+
+/**
+ * ILowlevelStorage implementation that keeps serialized objects packed in
+ * a few large segment files, see {@link PackedObjectStore}, and passes
+ * datastream calls to another implementation.
+ * <p>
+ * With tens of millions of objects, keeping each in its own file makes
+ * listing, backing up and rebuilding the object store slow, as every file
+ * has to be found and opened. Here they are in segment files of a
+ * configurable size, and <code>listObjects</code> returns them in the order
+ * they're stored, so a rebuild reads the segments sequentially.
+ * <p>
+ * To use it, give it as the impl of the
+ * <code>AkubraLowlevelStorageModule</code>, with the usual
+ * <code>AkubraLowlevelStorage</code> as its datastream storage; see
+ * <code>akubra-llstore.xml</code>. Objects already in another object store
+ * aren't moved, so switch before ingesting, or export and re-ingest them.
+ */
+public class PackedLowlevelStorage
+        implements ILowlevelStorage, IListable, ISizable, ICopyable {
+
+    /** The default size in bytes at which a new segment is started. */
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** The default number of milliseconds between compactions. */
+    public static final long DEFAULT_COMPACTION_INTERVAL = 10 * 60 * 1000;
+
+    private final PackedObjectStore objectStore;
+
+    private final ILowlevelStorage datastreamStorage;
+
+    /**
+     * Creates an instance with segments of the default size, syncing each
+     * object write to disk.
+     *
+     * @param objectStoreBase the directory of the segment files.
+     * @param datastreamStorage the storage for datastreams.
+     * @throws IOException if the segments can't be read.
+     */
+    public PackedLowlevelStorage(File objectStoreBase,
+                                 ILowlevelStorage datastreamStorage)
+            throws IOException {
+        this(objectStoreBase,
+             datastreamStorage,
+             DEFAULT_MAX_SEGMENT_SIZE,
+             true,
+             DEFAULT_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param objectStoreBase the directory of the segment files.
+     * @param datastreamStorage the storage for datastreams.
+     * @param maxSegmentSize the size in bytes at which a new segment is
+     *        started.
+     * @param syncWrites whether each object write is synced to disk before
+     *        it returns.
+     * @param compactionInterval the number of milliseconds between
+     *        compactions of segments that are mostly replaced or removed
+     *        objects, or 0 to never compact.
+     * @throws IOException if the segments can't be read.
+     */
+    public PackedLowlevelStorage(File objectStoreBase,
+                                 ILowlevelStorage datastreamStorage,
+                                 long maxSegmentSize,
+                                 boolean syncWrites,
+                                 long compactionInterval)
+            throws IOException {
+        objectStore = new PackedObjectStore(objectStoreBase,
+                                            maxSegmentSize,
+                                            syncWrites,
+                                            compactionInterval);
+        this.datastreamStorage = datastreamStorage;
+    }
+
+    /**
+     * Closes the object store, which can't be used afterwards.
+     */
+    public void close() throws IOException {
+        objectStore.close();
+    }
+
+    //
+    // ILowlevelStorage methods
+    //
+
+    public void addObject(String pid, InputStream content)
+            throws LowlevelStorageException {
+        byte[] bytes = toBytes(pid, content);
+        try {
+            objectStore.add(pid, bytes);
+        } catch (IOException e) {
+            throw new LowlevelStorageException(true, "Error adding object "
+                    + pid, e);
+        }
+    }
+
+    public void replaceObject(String pid, InputStream content)
+            throws LowlevelStorageException {
+        byte[] bytes = toBytes(pid, content);
+        try {
+            objectStore.replace(pid, bytes);
+        } catch (IOException e) {
+            throw new LowlevelStorageException(true, "Error replacing object "
+                    + pid, e);
+        }
+    }
+
+    public InputStream retrieveObject(String pid)
+            throws LowlevelStorageException {
+        try {
+            return new ByteArrayInputStream(objectStore.retrieve(pid));
+        } catch (IOException e) {
+            throw new LowlevelStorageException(true, "Error reading object "
+                    + pid, e);
+        }
+    }
+
+    public void removeObject(String pid) throws LowlevelStorageException {
+        try {
+            objectStore.remove(pid);
+        } catch (IOException e) {
+            throw new LowlevelStorageException(true, "Error removing object "
+                    + pid, e);
+        }
+    }
+
+    public void rebuildObject() throws LowlevelStorageException {
+        try {
+            objectStore.rebuild();
+        } catch (IOException e) {
+            throw new LowlevelStorageException(true,
+                                               "Error rebuilding object index",
+                                               e);
+        }
+    }
+
+    public void auditObject() throws LowlevelStorageException {
+        int corrupt;
+        try {
+            corrupt = objectStore.audit();
+        } catch (IOException e) {
+            throw new LowlevelStorageException(true,
+                                               "Error auditing object store",
+                                               e);
+        }
+        if (corrupt > 0) {
+            throw new LowlevelStorageException(true, corrupt
+                    + " object segments have corrupt records; see the log");
+        }
+    }
+
+    public long addDatastream(String dsKey, InputStream content)
+            throws LowlevelStorageException {
+        return datastreamStorage.addDatastream(dsKey, content);
+    }
+
+    public long replaceDatastream(String dsKey, InputStream content)
+            throws LowlevelStorageException {
+        return datastreamStorage.replaceDatastream(dsKey, content);
+    }
+
+    public InputStream retrieveDatastream(String dsKey)
+            throws LowlevelStorageException {
+        return datastreamStorage.retrieveDatastream(dsKey);
+    }
+
+    public void removeDatastream(String dsKey) throws LowlevelStorageException {
+        datastreamStorage.removeDatastream(dsKey);
+    }
+
+    public void rebuildDatastream() throws LowlevelStorageException {
+        datastreamStorage.rebuildDatastream();
+    }
+
+    public void auditDatastream() throws LowlevelStorageException {
+        datastreamStorage.auditDatastream();
+    }
+
+    //
+    // IListable methods
+    //
+
+    public Iterator<String> listObjects() {
+        return objectStore.list();
+    }
+
+    public Iterator<String> listDatastreams() {
+        return ((IListable) datastreamStorage).listDatastreams();
+    }
+
+    //
+    // ISizable methods
+    //
+
+    public long getDatastreamSize(String dsKey)
+            throws LowlevelStorageException {
+        return ((ISizable) datastreamStorage).getDatastreamSize(dsKey);
+    }
+
+    //
+    // ICopyable methods
+    //
+
+    public long copyDatastream(String sourceKey, String destKey)
+            throws LowlevelStorageException {
+        if (datastreamStorage instanceof ICopyable) {
+            return ((ICopyable) datastreamStorage).copyDatastream(sourceKey,
+                                                                  destKey);
+        }
+        return StreamingCopier.copyDatastream(datastreamStorage,
+                                              sourceKey,
+                                              destKey);
+    }
+
+    private static byte[] toBytes(String pid, InputStream content)
+            throws LowlevelStorageException {
+        try {
+            return IOUtils.toByteArray(content);
+        } catch (IOException e) {
+            throw new LowlevelStorageException(true, "Error reading content of "
+                    + pid, e);
+        } finally {
+            IOUtils.closeQuietly(content);
+        }
+    }
+}
@@ -0,0 +1,945 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel.packed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+
+import java.nio.ByteBuffer;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.fcrepo.common.FaultException;
+import org.fcrepo.server.errors.ObjectAlreadyInLowlevelStorageException;
+import org.fcrepo.server.errors.ObjectNotInLowlevelStorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps small items, such as serialized objects, appended to a few large
+ * segment files instead of one file each.
+ * <p>
+ * Every add, replace and remove appends a record to the newest segment, and
+ * a new segment is started once it reaches its maximum size. A record holds
+ * its key, its content and a CRC-32 of both, so a record torn by a crash is
+ * recognized and ignored. An in-memory index maps each key to the offset of
+ * its latest record, so reading an item is a single read.
+ * <p>
+ * When a segment is full, the keys and offsets of its records are written
+ * to a small index file next to it, so the index can be loaded at startup
+ * without reading the segments themselves. A segment without a valid index
+ * file, such as the newest one after a crash, is read instead, and a torn
+ * record at its end is cut off.
+ * <p>
+ * Replaced and removed items leave dead records behind. A compactor thread
+ * periodically copies the live records of segments that are mostly dead to
+ * the newest segment, then deletes them.
+ */
+class PackedObjectStore {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(PackedObjectStore.class);
+
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    static final String INDEX_SUFFIX = ".idx";
+
+    /** The fraction of a segment that must be dead before it's compacted. */
+    static final double COMPACTION_THRESHOLD = 0.5;
+
+    private static final int RECORD_MAGIC = 0x46504b52;
+
+    private static final int INDEX_MAGIC = 0x46504b49;
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    /** Magic, type, key length and content length. */
+    private static final int HEADER_LENGTH = 13;
+
+    /** The CRC-32 of the header and body. */
+    private static final int TRAILER_LENGTH = 4;
+
+    private static final int MAX_KEY_LENGTH = 65535;
+
+    private final File dir;
+
+    private final long maxSegmentSize;
+
+    private final boolean syncWrites;
+
+    private final Map<String, Location> index = new HashMap<String, Location>();
+
+    private final TreeMap<Integer, Segment> segments =
+            new TreeMap<Integer, Segment>();
+
+    private Segment active;
+
+    private boolean closed;
+
+    private final Object compactionLock = new Object();
+
+    private Thread compactor;
+
+    private long compactions;
+
+    /**
+     * Opens the store in the given directory, creating it if necessary.
+     *
+     * @param dir the directory of the segment files.
+     * @param maxSegmentSize the size in bytes at which a new segment is
+     *        started.
+     * @param syncWrites whether each write is synced to disk before it
+     *        returns.
+     * @param compactionInterval the number of milliseconds between
+     *        compactions, or 0 to only compact when asked to.
+     * @throws IOException if the segments can't be read.
+     */
+    PackedObjectStore(File dir,
+                      long maxSegmentSize,
+                      boolean syncWrites,
+                      long compactionInterval) throws IOException {
+        this.dir = dir;
+        this.maxSegmentSize = maxSegmentSize;
+        this.syncWrites = syncWrites;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        open();
+        if (compactionInterval > 0) {
+            startCompactor(compactionInterval);
+        }
+    }
+
+    /**
+     * Adds an item that is not already in the store.
+     */
+    synchronized void add(String key, byte[] content) throws IOException,
+            ObjectAlreadyInLowlevelStorageException {
+        checkOpen();
+        if (index.containsKey(key)) {
+            throw new ObjectAlreadyInLowlevelStorageException(key);
+        }
+        append(PUT, key, content);
+    }
+
+    /**
+     * Replaces an item that is already in the store.
+     */
+    synchronized void replace(String key, byte[] content) throws IOException,
+            ObjectNotInLowlevelStorageException {
+        checkOpen();
+        if (!index.containsKey(key)) {
+            throw new ObjectNotInLowlevelStorageException("Object not found in low-level storage: "
+                    + key);
+        }
+        append(PUT, key, content);
+    }
+
+    /**
+     * Removes an item that is in the store.
+     */
+    synchronized void remove(String key) throws IOException,
+            ObjectNotInLowlevelStorageException {
+        checkOpen();
+        if (!index.containsKey(key)) {
+            throw new ObjectNotInLowlevelStorageException("Object not found in low-level storage: "
+                    + key);
+        }
+        append(DELETE, key, new byte[0]);
+    }
+
+    /**
+     * Gets the content of an item.
+     */
+    byte[] retrieve(String key) throws IOException,
+            ObjectNotInLowlevelStorageException {
+        while (true) {
+            Location location;
+            Segment segment;
+            synchronized (this) {
+                checkOpen();
+                location = index.get(key);
+                if (location == null) {
+                    throw new ObjectNotInLowlevelStorageException("Object not found in low-level storage: "
+                            + key);
+                }
+                segment = segments.get(location.segment);
+            }
+            byte[] bytes = segment.read(location.offset, location.length);
+            if (bytes == null) {
+                // compacted in the meantime; look it up again
+                continue;
+            }
+            Record record = decode(bytes);
+            if (record == null || !record.key.equals(key)) {
+                throw new IOException("Corrupt record for " + key + " at "
+                        + location.offset + " in " + segment.file);
+            }
+            return record.content;
+        }
+    }
+
+    /**
+     * Gets the keys of all items, in the order their records are stored, so
+     * reading the items in that order reads the segments sequentially.
+     */
+    Iterator<String> list() {
+        List<Map.Entry<String, Location>> entries =
+                new ArrayList<Map.Entry<String, Location>>();
+        synchronized (this) {
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                entries.add(new AbstractMap.SimpleEntry<String, Location>(entry));
+            }
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Location>>() {
+
+            public int compare(Map.Entry<String, Location> a,
+                               Map.Entry<String, Location> b) {
+                Location x = a.getValue();
+                Location y = b.getValue();
+                if (x.segment != y.segment) {
+                    return x.segment < y.segment ? -1 : 1;
+                }
+                return x.offset < y.offset ? -1 : x.offset > y.offset ? 1 : 0;
+            }
+        });
+        List<String> keys = new ArrayList<String>(entries.size());
+        for (Map.Entry<String, Location> entry : entries) {
+            keys.add(entry.getKey());
+        }
+        return keys.iterator();
+    }
+
+    /**
+     * Reads every segment and checks every record.
+     *
+     * @return the number of segments with a corrupt record.
+     */
+    int audit() throws IOException {
+        List<Segment> all;
+        synchronized (this) {
+            checkOpen();
+            all = new ArrayList<Segment>(segments.values());
+        }
+        int corrupt = 0;
+        for (Segment segment : all) {
+            long end = scan(segment, null);
+            if (end >= 0 && end < segment.getSize()) {
+                logger.error("Corrupt record at " + end + " in "
+                        + segment.file);
+                corrupt++;
+            }
+        }
+        return corrupt;
+    }
+
+    /**
+     * Rebuilds the index by reading every segment, and rewrites the index
+     * files of full segments.
+     */
+    synchronized void rebuild() throws IOException {
+        checkOpen();
+        index.clear();
+        for (Segment segment : segments.values()) {
+            segment.dead = 0;
+            List<Entry> entries = new ArrayList<Entry>();
+            long end = scan(segment, entries);
+            if (end < segment.getSize()) {
+                logger.error("Corrupt record at " + end + " in "
+                        + segment.file + "; ignoring the rest of the segment");
+            }
+            for (Entry entry : entries) {
+                apply(segment, entry);
+            }
+            if (segment == active) {
+                segment.entries = entries;
+            } else {
+                writeIndex(segment, entries);
+            }
+        }
+        logger.info("Rebuilt index of " + index.size() + " items in "
+                + segments.size() + " segments in " + dir);
+    }
+
+    /**
+     * Copies the live records of mostly dead segments to the newest one and
+     * deletes them.
+     *
+     * @return the number of segments compacted.
+     */
+    int compact() throws IOException {
+        List<Segment> candidates = new ArrayList<Segment>();
+        synchronized (this) {
+            checkOpen();
+            for (Segment segment : segments.values()) {
+                if (segment != active && segment.getSize() > 0
+                        && segment.dead >= segment.getSize()
+                                * COMPACTION_THRESHOLD) {
+                    candidates.add(segment);
+                }
+            }
+        }
+        int compacted = 0;
+        synchronized (compactionLock) {
+            for (Segment segment : candidates) {
+                if (compact(segment)) {
+                    compacted++;
+                }
+            }
+        }
+        return compacted;
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    synchronized long getCompactionCount() {
+        return compactions;
+    }
+
+    /**
+     * Stops the compactor and closes the segments. The index of the newest
+     * segment is written, so it needn't be read when the store is opened
+     * again.
+     */
+    void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = compactor;
+            notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                active.sync();
+                writeIndex(active, active.entries);
+            } finally {
+                for (Segment segment : segments.values()) {
+                    segment.close();
+                }
+            }
+        }
+    }
+
+    //
+    // Private implementation methods
+    //
+
+    private void open() throws IOException {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (String name : dir.list()) {
+            if (name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    ids.add(Integer.valueOf(name.substring(0, name.length()
+                            - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected file " + name + " in "
+                            + dir);
+                }
+            }
+        }
+        Collections.sort(ids);
+        for (int i = 0; i < ids.size(); i++) {
+            boolean last = i == ids.size() - 1;
+            Segment segment = new Segment(ids.get(i), getSegmentFile(ids.get(i)));
+            segments.put(segment.id, segment);
+            List<Entry> entries = readIndex(segment);
+            if (entries == null) {
+                entries = new ArrayList<Entry>();
+                long end = scan(segment, entries);
+                if (end < segment.getSize()) {
+                    if (last) {
+                        logger.warn("Truncating torn record at " + end
+                                + " in " + segment.file);
+                        segment.truncate(end);
+                    } else {
+                        logger.error("Corrupt record at " + end + " in "
+                                + segment.file
+                                + "; ignoring the rest of the segment");
+                    }
+                }
+                if (!last) {
+                    writeIndex(segment, entries);
+                }
+            }
+            for (Entry entry : entries) {
+                apply(segment, entry);
+            }
+            if (last) {
+                // it will be appended to, so its index file is out of date
+                File indexFile = getIndexFile(segment.id);
+                if (indexFile.exists() && !indexFile.delete()) {
+                    throw new IOException("Unable to delete " + indexFile);
+                }
+                segment.entries = entries;
+                active = segment;
+            }
+        }
+        if (active == null || active.getSize() >= maxSegmentSize) {
+            roll();
+        }
+        logger.info("Opened " + index.size() + " items in " + segments.size()
+                + " segments in " + dir);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Store is closed: " + dir);
+        }
+    }
+
+    /**
+     * Appends a record to the newest segment and indexes it.
+     */
+    private void append(byte type, String key, byte[] content)
+            throws IOException {
+        byte[] record = encode(type, key, content);
+        long offset = active.append(record);
+        if (syncWrites) {
+            active.sync();
+        }
+        Entry entry = new Entry(type, key, offset, record.length);
+        active.entries.add(entry);
+        apply(active, entry);
+        if (active.getSize() >= maxSegmentSize) {
+            roll();
+        }
+    }
+
+    /**
+     * Updates the index and dead byte counts for a record.
+     */
+    private void apply(Segment segment, Entry entry) {
+        Location previous;
+        if (entry.type == PUT) {
+            previous = index.put(entry.key, new Location(segment.id,
+                                                         entry.offset,
+                                                         entry.length));
+        } else {
+            previous = index.remove(entry.key);
+            segment.dead += entry.length;
+        }
+        if (previous != null) {
+            segments.get(previous.segment).dead += previous.length;
+        }
+    }
+
+    /**
+     * Finishes the newest segment and starts a new one.
+     */
+    private void roll() throws IOException {
+        int id = 1;
+        if (active != null) {
+            active.sync();
+            writeIndex(active, active.entries);
+            active.entries = null;
+            id = active.id + 1;
+        }
+        Segment segment = new Segment(id, getSegmentFile(id));
+        segment.entries = new ArrayList<Entry>();
+        segments.put(id, segment);
+        active = segment;
+    }
+
+    private boolean compact(Segment segment) throws IOException {
+        InputStream in =
+                new BufferedInputStream(new FileInputStream(segment.file));
+        int copied = 0;
+        try {
+            long offset = 0;
+            Record record;
+            while ((record = readRecord(in, segment.getSize() - offset)) != null) {
+                synchronized (this) {
+                    if (closed) {
+                        return false;
+                    }
+                    if (record.type == PUT) {
+                        Location location = index.get(record.key);
+                        if (location != null && location.segment == segment.id
+                                && location.offset == offset) {
+                            append(PUT, record.key, record.content);
+                            copied++;
+                        }
+                    } else if (!index.containsKey(record.key)
+                            && segments.firstKey() < segment.id) {
+                        // an older segment may still hold a record it hides
+                        append(DELETE, record.key, record.content);
+                    }
+                }
+                offset += record.length;
+            }
+        } finally {
+            in.close();
+        }
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            active.sync();
+            segments.remove(segment.id);
+            segment.close();
+            File indexFile = getIndexFile(segment.id);
+            if (indexFile.exists() && !indexFile.delete()) {
+                logger.warn("Unable to delete " + indexFile);
+            }
+            if (!segment.file.delete()) {
+                logger.warn("Unable to delete " + segment.file);
+            }
+            compactions++;
+        }
+        logger.info("Compacted " + segment.file + ", keeping " + copied
+                + " items");
+        return true;
+    }
+
+    private void startCompactor(final long interval) {
+        compactor = new Thread(new Runnable() {
+
+            public void run() {
+                while (true) {
+                    synchronized (PackedObjectStore.this) {
+                        long until = System.currentTimeMillis() + interval;
+                        long remaining;
+                        while (!closed
+                                && (remaining = until - System.currentTimeMillis()) > 0) {
+                            try {
+                                PackedObjectStore.this.wait(remaining);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                        if (closed) {
+                            return;
+                        }
+                    }
+                    try {
+                        compact();
+                    } catch (Exception e) {
+                        logger.error("Error compacting segments in " + dir, e);
+                    }
+                }
+            }
+        }, "PackedObjectStore compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Reads the records of a segment from the start.
+     *
+     * @param segment the segment.
+     * @param entries the list to add an entry for each record to, or null.
+     * @return the offset of the end of the last valid record.
+     */
+    private static long scan(Segment segment, List<Entry> entries)
+            throws IOException {
+        InputStream in =
+                new BufferedInputStream(new FileInputStream(segment.file));
+        try {
+            long size = segment.getSize();
+            long offset = 0;
+            Record record;
+            while ((record = readRecord(in, size - offset)) != null) {
+                if (entries != null) {
+                    entries.add(new Entry(record.type,
+                                          record.key,
+                                          offset,
+                                          record.length));
+                }
+                offset += record.length;
+            }
+            return offset;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the next record from a stream.
+     *
+     * @param in the stream.
+     * @param remaining the number of bytes left in the segment.
+     * @return the record, or null if there are no more valid records.
+     */
+    private static Record readRecord(InputStream in, long remaining)
+            throws IOException {
+        if (remaining < HEADER_LENGTH + TRAILER_LENGTH) {
+            return null;
+        }
+        byte[] header = new byte[HEADER_LENGTH];
+        if (!readFully(in, header)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        int keyLength = buffer.getInt(5);
+        int contentLength = buffer.getInt(9);
+        if (buffer.getInt(0) != RECORD_MAGIC || keyLength < 0
+                || keyLength > MAX_KEY_LENGTH || contentLength < 0
+                || (long) HEADER_LENGTH + keyLength + contentLength
+                        + TRAILER_LENGTH > remaining) {
+            return null;
+        }
+        byte[] record =
+                new byte[HEADER_LENGTH + keyLength + contentLength
+                        + TRAILER_LENGTH];
+        System.arraycopy(header, 0, record, 0, HEADER_LENGTH);
+        byte[] rest = new byte[record.length - HEADER_LENGTH];
+        if (!readFully(in, rest)) {
+            return null;
+        }
+        System.arraycopy(rest, 0, record, HEADER_LENGTH, rest.length);
+        return decode(record);
+    }
+
+    private static boolean readFully(InputStream in, byte[] bytes)
+            throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0) {
+                return false;
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    private static byte[] encode(byte type, String key, byte[] content) {
+        byte[] keyBytes = toBytes(key);
+        if (keyBytes.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Key too long: " + key);
+        }
+        long length = (long) HEADER_LENGTH + keyBytes.length + content.length
+                + TRAILER_LENGTH;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Content too large for "
+                    + key);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        buffer.putInt(RECORD_MAGIC);
+        buffer.put(type);
+        buffer.putInt(keyBytes.length);
+        buffer.putInt(content.length);
+        buffer.put(keyBytes);
+        buffer.put(content);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a whole record.
+     *
+     * @return the record, or null if it isn't valid.
+     */
+    private static Record decode(byte[] record) {
+        if (record.length < HEADER_LENGTH + TRAILER_LENGTH) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        int magic = buffer.getInt();
+        byte type = buffer.get();
+        int keyLength = buffer.getInt();
+        int contentLength = buffer.getInt();
+        if (magic != RECORD_MAGIC || (type != PUT && type != DELETE)
+                || keyLength < 0 || contentLength < 0
+                || (long) HEADER_LENGTH + keyLength + contentLength
+                        + TRAILER_LENGTH != record.length) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length - TRAILER_LENGTH);
+        if (buffer.getInt(record.length - TRAILER_LENGTH) != (int) crc
+                .getValue()) {
+            return null;
+        }
+        String key = fromBytes(record, HEADER_LENGTH, keyLength);
+        byte[] content = new byte[contentLength];
+        System.arraycopy(record,
+                         HEADER_LENGTH + keyLength,
+                         content,
+                         0,
+                         contentLength);
+        return new Record(type, key, content, record.length);
+    }
+
+    /**
+     * Reads the index file of a segment.
+     *
+     * @return its entries, or null if it doesn't exist or isn't valid.
+     */
+    private List<Entry> readIndex(Segment segment) {
+        File file = getIndexFile(segment.id);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in =
+                    new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != INDEX_MAGIC) {
+                    throw new IOException("Not an index file");
+                }
+                int count = in.readInt();
+                long end = in.readLong();
+                if (end != segment.getSize()) {
+                    throw new IOException("Index is for a segment of "
+                            + end + " bytes");
+                }
+                List<Entry> entries = new ArrayList<Entry>(count);
+                for (int i = 0; i < count; i++) {
+                    byte type = in.readByte();
+                    String key = in.readUTF();
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (offset + length > end) {
+                        throw new IOException("Entry past end of segment");
+                    }
+                    entries.add(new Entry(type, key, offset, length));
+                }
+                return entries;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Ignoring invalid index file " + file + ": "
+                    + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index file of a segment that won't be appended to, so it
+     * is complete once it exists.
+     */
+    private void writeIndex(Segment segment, List<Entry> entries)
+            throws IOException {
+        File file = getIndexFile(segment.id);
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        try {
+            DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(entries.size());
+            out.writeLong(segment.getSize());
+            for (Entry entry : entries) {
+                out.writeByte(entry.type);
+                out.writeUTF(entry.key);
+                out.writeLong(entry.offset);
+                out.writeInt(entry.length);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp + " to "
+                        + file);
+            }
+        }
+    }
+
+    private File getSegmentFile(int id) {
+        return new File(dir, getName(id) + SEGMENT_SUFFIX);
+    }
+
+    private File getIndexFile(int id) {
+        return new File(dir, getName(id) + INDEX_SUFFIX);
+    }
+
+    private static String getName(int id) {
+        String name = Integer.toString(id);
+        while (name.length() < 10) {
+            name = "0" + name;
+        }
+        return name;
+    }
+
+    private static byte[] toBytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException wontHappen) {
+            throw new FaultException(wontHappen);
+        }
+    }
+
+    private static String fromBytes(byte[] bytes, int offset, int length) {
+        try {
+            return new String(bytes, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException wontHappen) {
+            throw new FaultException(wontHappen);
+        }
+    }
+
+    /**
+     * Where the latest record of an item is.
+     */
+    private static class Location {
+
+        final int segment;
+
+        final long offset;
+
+        final int length;
+
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The key, type and position of a record.
+     */
+    private static class Entry {
+
+        final byte type;
+
+        final String key;
+
+        final long offset;
+
+        final int length;
+
+        Entry(byte type, String key, long offset, int length) {
+            this.type = type;
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A decoded record.
+     */
+    private static class Record {
+
+        final byte type;
+
+        final String key;
+
+        final byte[] content;
+
+        final int length;
+
+        Record(byte type, String key, byte[] content, int length) {
+            this.type = type;
+            this.key = key;
+            this.content = content;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A segment file. Reads and writes of it are serialized, and reads
+     * return null once it has been closed by compaction.
+     */
+    private static class Segment {
+
+        final int id;
+
+        final File file;
+
+        private final RandomAccessFile raf;
+
+        private long size;
+
+        private boolean closed;
+
+        /** The number of bytes of replaced or removed records. */
+        long dead;
+
+        /** The entries of the newest segment, for its index file. */
+        List<Entry> entries;
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            raf = new RandomAccessFile(file, "rw");
+            size = raf.length();
+        }
+
+        synchronized long getSize() {
+            return size;
+        }
+
+        synchronized byte[] read(long offset, int length) throws IOException {
+            if (closed) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            raf.seek(offset);
+            try {
+                raf.readFully(bytes);
+            } catch (EOFException e) {
+                throw new IOException("Record at " + offset + " is past the end of "
+                        + file);
+            }
+            return bytes;
+        }
+
+        synchronized long append(byte[] record) throws IOException {
+            long offset = size;
+            raf.seek(offset);
+            raf.write(record);
+            size += record.length;
+            return offset;
+        }
+
+        synchronized void truncate(long length) throws IOException {
+            raf.setLength(length);
+            size = length;
+        }
+
+        synchronized void sync() throws IOException {
+            raf.getFD().sync();
+        }
+
+        synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                raf.close();
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ import org.fcrepo.server.Context;
 import org.fcrepo.server.ReadOnlyContext;
 import org.fcrepo.server.errors.GeneralException;
 import org.fcrepo.server.errors.StreamIOException;
+import org.fcrepo.server.errors.ValidationException;
 import org.fcrepo.server.utilities.StringUtility;
 
 
@@ -182,6 +183,73 @@ public class Datastream {
         return false;
     }
 
+    /**
+     * Gets a digest for the checksum type of this datastream, so the checksum
+     * can be computed while the content is being read for another purpose,
+     * such as storing it, instead of reading it again later.
+     *
+     * @return the digest, or null if checksums are disabled or the checksum
+     *         type isn't supported.
+     */
+    public MessageDigest getChecksumDigest() {
+        String csType = getChecksumType();
+        if (csType == null || csType.equals(CHECKSUMTYPE_DISABLED)) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance(csType);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sets the checksum from a digest of the whole content, obtained from
+     * <code>getChecksumDigest()</code>. If the checksum was already known,
+     * the digest must match it.
+     *
+     * @param digest the digest, which has been updated with all the content.
+     * @return the checksum.
+     * @throws ValidationException if the digest doesn't match the known
+     *         checksum.
+     */
+    public String setComputedChecksum(MessageDigest digest) throws ValidationException {
+        String checksum = StringUtility.byteArraytoHexString(digest.digest());
+        if (DSChecksum == null || DSChecksum.equals(CHECKSUM_NONE)
+                || DSChecksum.equals(CHECKSUM_IOEXCEPTION)) {
+            DSChecksum = checksum;
+        } else if (!DSChecksum.equals(checksum)) {
+            throw new ValidationException("Checksum Mismatch: " + checksum);
+        }
+        return DSChecksum;
+    }
+
+    /**
+     * Gets a value that identifies the content of this version, for use as a
+     * strong HTTP entity tag. It is taken from the checksum if one is known,
+     * otherwise from the version ID and creation date. Nothing is read to
+     * compute it.
+     *
+     * @return the tag, without quotes, or null for externally referenced
+     *         and redirected content, which can change without the
+     *         repository knowing.
+     */
+    public String getEntityTag() {
+        if ("E".equals(DSControlGrp) || "R".equals(DSControlGrp)) {
+            return null;
+        }
+        if (DSChecksumType != null
+                && !DSChecksumType.equals(CHECKSUMTYPE_DISABLED)
+                && DSChecksum != null && !DSChecksum.equals(CHECKSUM_NONE)
+                && !DSChecksum.equals(CHECKSUM_IOEXCEPTION)) {
+            return DSChecksumType + ":" + DSChecksum;
+        }
+        if (DSVersionID == null || DSCreateDT == null) {
+            return null;
+        }
+        return DSVersionID + ":" + DSCreateDT.getTime();
+    }
+
     private String computeChecksum(String csType) {
         logger.debug("checksumType is " + csType);
         String checksum = CHECKSUM_NONE;
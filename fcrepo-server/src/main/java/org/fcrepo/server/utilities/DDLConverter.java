@@ -23,4 +23,27 @@ public interface DDLConverter {
 
     public abstract List<String> getDDL(TableSpec tableSpec);
 
+    /**
+     * Gets a statement that adds or replaces one row of a table, keyed on a
+     * column that isn't necessarily unique.
+     * <p>
+     * The statement's parameters are the key value, followed by the values of
+     * the other columns in the given order (to update an existing row), then
+     * the values of all columns in the given order (to add a missing row).
+     * </p>
+     *
+     * @param table
+     *        the name of the table
+     * @param columns
+     *        the names of the columns to set, including the key column
+     * @param keyColumn
+     *        the name of the column that identifies the row
+     * @return the statement, or null if the database has no single statement
+     *         for this. Callers then update the row, and add it if no row was
+     *         updated.
+     */
+    public abstract String getUpsert(String table,
+                                     String[] columns,
+                                     String keyColumn);
+
 }
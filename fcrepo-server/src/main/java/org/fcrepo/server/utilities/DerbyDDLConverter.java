@@ -174,4 +174,11 @@ public class DerbyDDLConverter
         return out.toString();
     }
 
+    /**
+     * Returns null: Derby doesn't support MERGE before 10.11.
+     */
+    public String getUpsert(String table, String[] columns, String keyColumn) {
+        return null;
+    }
+
 }
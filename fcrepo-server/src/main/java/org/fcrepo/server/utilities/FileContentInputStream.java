@@ -0,0 +1,36 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+
+/**
+ * A <code>FileInputStream</code> that remembers the file it reads.
+ * <p>
+ * Content that is read from a file is returned as one of these, so code that
+ * serves it can hand the file to the servlet container or copy it from its
+ * channel instead of reading it through the heap.
+ * </p>
+ */
+public class FileContentInputStream
+        extends FileInputStream {
+
+    private final File m_file;
+
+    public FileContentInputStream(File file)
+            throws FileNotFoundException {
+        super(file);
+        m_file = file;
+    }
+
+    /**
+     * Gets the file being read.
+     */
+    public File getFile() {
+        return m_file;
+    }
+}
@@ -0,0 +1,230 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queues work that must reach the disk, and commits it in groups on a
+ * committer thread, so the threads that queued the work can wait together
+ * for one sync instead of each waiting for its own.
+ * <p>
+ * The first item queued starts a committer, which waits a few milliseconds
+ * for more items, then takes everything queued and commits it as one group.
+ * Items that are queued while a group is being committed form the next
+ * group. When no items are left, the committer ends, and the next item
+ * starts a new one.
+ * <p>
+ * Subclasses say how a group is committed, and settle each of its items, so
+ * that the threads waiting in {@link Pending#await()} are released.
+ *
+ * @param <T> the items that are queued.
+ */
+public abstract class GroupCommitQueue<T extends GroupCommitQueue.Pending<?>> {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(GroupCommitQueue.class);
+
+    private final String name;
+
+    private final long delay;
+
+    /** Guards the queue. */
+    private final Object lock;
+
+    private final List<T> queued = new ArrayList<T>();
+
+    private boolean committing;
+
+    private final AtomicLong groups = new AtomicLong();
+
+    private final AtomicLong items = new AtomicLong();
+
+    /**
+     * @param name the name of the committer thread.
+     * @param delay how many milliseconds to wait for more items before
+     *        committing a group.
+     */
+    protected GroupCommitQueue(String name, long delay) {
+        this(name, delay, null);
+    }
+
+    /**
+     * @param name the name of the committer thread.
+     * @param delay how many milliseconds to wait for more items before
+     *        committing a group.
+     * @param lock the object that guards the queue, if the queue must be
+     *        consistent with other state that the caller guards; if null,
+     *        the queue guards itself.
+     */
+    protected GroupCommitQueue(String name, long delay, Object lock) {
+        this.name = name;
+        this.delay = delay;
+        this.lock = lock == null ? this : lock;
+    }
+
+    /**
+     * Queue an item, and start a committer if none is running.
+     */
+    public void add(T item) {
+        synchronized (lock) {
+            queued.add(item);
+            if (!committing) {
+                committing = true;
+                Thread committer = new Thread(new Committer(), name);
+                committer.setDaemon(true);
+                committer.start();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of groups that have been committed.
+     */
+    public long getGroupCount() {
+        return groups.get();
+    }
+
+    /**
+     * Gets the number of items that have been committed.
+     */
+    public long getItemCount() {
+        return items.get();
+    }
+
+    /**
+     * Takes all of the queued items. The caller must hold the lock.
+     */
+    public List<T> drain() {
+        List<T> drained = new ArrayList<T>(queued);
+        queued.clear();
+        return drained;
+    }
+
+    /**
+     * Takes the next group to commit, while the committer holds the lock. By
+     * default, the group is everything queued.
+     *
+     * @return the group, or an empty list if there is nothing to commit.
+     */
+    protected List<T> takeGroup() {
+        return drain();
+    }
+
+    /**
+     * Commits a group, without holding the lock, and settles each of its
+     * items. Before settling them, it reports the group with
+     * {@link #countGroup(int)}, so a thread that is released sees the counts
+     * that include its item.
+     */
+    protected abstract void commit(List<T> group);
+
+    /**
+     * Counts a group that has been committed.
+     *
+     * @param committed the number of items of the group that were committed.
+     */
+    public void countGroup(int committed) {
+        groups.incrementAndGet();
+        items.addAndGet(committed);
+        if (logger.isDebugEnabled()) {
+            logger.debug(name + " committed " + committed
+                    + " items in one group");
+        }
+    }
+
+    /**
+     * Settles an item that an unexpected error left unsettled.
+     */
+    protected abstract void fail(T item, Throwable cause);
+
+    /**
+     * Commits groups until none are left.
+     */
+    private class Committer
+            implements Runnable {
+
+        public void run() {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // commit what's there
+            }
+            while (true) {
+                List<T> group;
+                synchronized (lock) {
+                    group = takeGroup();
+                    if (group.isEmpty()) {
+                        committing = false;
+                        return;
+                    }
+                }
+                try {
+                    commit(group);
+                } catch (Throwable th) {
+                    logger.error("Unexpected error in " + name, th);
+                    for (T item : group) {
+                        if (!item.isDone()) {
+                            fail(item, th);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * An item that has not been committed yet, and the outcome of committing
+     * it.
+     *
+     * @param <E> the exception that a failed commit is reported with.
+     */
+    public static class Pending<E extends Exception> {
+
+        private boolean done;
+
+        private E error;
+
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        public synchronized void succeed() {
+            done = true;
+            notifyAll();
+        }
+
+        public synchronized void fail(E e) {
+            error = e;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Wait until the item has been committed, or has failed.
+         */
+        public synchronized void await() throws E {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
@@ -119,4 +119,39 @@ public class MsSQLDDLConverter
         }
         return list;
     }
+
+    /**
+     * Gets a MERGE statement. This needs SQL Server 2008 or later.
+     */
+    public String getUpsert(String table, String[] columns, String keyColumn) {
+        StringBuffer out = new StringBuffer();
+        out.append("MERGE INTO " + table + " WITH (HOLDLOCK) USING (SELECT ? AS "
+                + keyColumn + ") AS k ON " + table + "." + keyColumn + " = k."
+                + keyColumn + " WHEN MATCHED THEN UPDATE SET ");
+        int set = 0;
+        for (String column : columns) {
+            if (!column.equals(keyColumn)) {
+                if (set++ > 0) {
+                    out.append(", ");
+                }
+                out.append(column + " = ?");
+            }
+        }
+        out.append(" WHEN NOT MATCHED THEN INSERT (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(columns[i]);
+        }
+        out.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append("?");
+        }
+        out.append(");");
+        return out.toString();
+    }
 }
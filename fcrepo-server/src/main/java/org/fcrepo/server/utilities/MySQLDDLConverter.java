@@ -117,4 +117,13 @@ public class MySQLDDLConverter
         return l;
     }
 
+    /**
+     * Returns null: <code>INSERT ... ON DUPLICATE KEY UPDATE</code> needs a
+     * unique index on the key column, and Fedora's tables don't always have
+     * one.
+     */
+    public String getUpsert(String table, String[] columns, String keyColumn) {
+        return null;
+    }
+
 }
@@ -142,4 +142,40 @@ public class OracleDDLConverter
         return l;
     }
 
+    /**
+     * Gets a MERGE statement. The values are bound in the UPDATE and INSERT
+     * clauses rather than in the source query, so long values can still be
+     * written to CLOB columns.
+     */
+    public String getUpsert(String table, String[] columns, String keyColumn) {
+        StringBuffer out = new StringBuffer();
+        out.append("MERGE INTO " + table + " t USING dual ON (t." + keyColumn
+                + " = ?) WHEN MATCHED THEN UPDATE SET ");
+        int set = 0;
+        for (String column : columns) {
+            if (!column.equals(keyColumn)) {
+                if (set++ > 0) {
+                    out.append(", ");
+                }
+                out.append("t." + column + " = ?");
+            }
+        }
+        out.append(" WHEN NOT MATCHED THEN INSERT (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append("t." + columns[i]);
+        }
+        out.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append("?");
+        }
+        out.append(")");
+        return out.toString();
+    }
+
 }
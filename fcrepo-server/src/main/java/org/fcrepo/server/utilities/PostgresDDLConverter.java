@@ -118,4 +118,42 @@ public class PostgresDDLConverter
         return l;
     }
 
+    /**
+     * Gets a statement that updates the row in a data-modifying WITH query,
+     * and only inserts it if nothing was updated. This needs Postgres 9.1 or
+     * later.
+     */
+    public String getUpsert(String table, String[] columns, String keyColumn) {
+        StringBuffer out = new StringBuffer();
+        out.append("WITH k AS (SELECT ? AS " + keyColumn + "), u AS (UPDATE "
+                + table + " SET ");
+        int set = 0;
+        for (String column : columns) {
+            if (!column.equals(keyColumn)) {
+                if (set++ > 0) {
+                    out.append(", ");
+                }
+                out.append(column + " = ?");
+            }
+        }
+        out.append(" FROM k WHERE " + table + "." + keyColumn + " = k."
+                + keyColumn + " RETURNING " + table + "." + keyColumn
+                + ") INSERT INTO " + table + " (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(columns[i]);
+        }
+        out.append(") SELECT ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append("?");
+        }
+        out.append(" WHERE NOT EXISTS (SELECT 1 FROM u)");
+        return out.toString();
+    }
+
 }
@@ -0,0 +1,115 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility methods for sending content in servlet responses.
+ */
+public abstract class ResponseUtility {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(ResponseUtility.class);
+
+    /**
+     * Request attribute set by containers that can send files themselves.
+     */
+    public static final String SENDFILE_SUPPORT =
+            "org.apache.tomcat.sendfile.support";
+
+    public static final String SENDFILE_FILENAME =
+            "org.apache.tomcat.sendfile.filename";
+
+    public static final String SENDFILE_START =
+            "org.apache.tomcat.sendfile.start";
+
+    public static final String SENDFILE_END =
+            "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Asks the servlet container to send the given content itself, if it is
+     * read from a file and the container supports it.
+     * <p>
+     * Containers that support sendfile (such as Tomcat with the NIO or APR
+     * connectors) write the file to the socket once the response is
+     * complete, with the operating system copying it straight from the page
+     * cache. The caller must set the content length to the returned value
+     * and must not write anything to the response body. The stream is
+     * closed if the container will send the file. Only GET requests are
+     * sent this way.
+     * </p>
+     *
+     * @param request
+     *        The servlet request.
+     * @param content
+     *        The content to send.
+     * @return The number of bytes the container will send, or -1 if the
+     *         content must be written to the response by the caller.
+     */
+    public static long sendFile(HttpServletRequest request, InputStream content) {
+        if (!(content instanceof FileContentInputStream)) {
+            return -1;
+        }
+        long length = ((FileContentInputStream) content).getFile().length();
+        if (sendFile(request, content, 0, length)) {
+            return length;
+        }
+        return -1;
+    }
+
+    /**
+     * Asks the servlet container to send part of the given content itself,
+     * as <code>sendFile(HttpServletRequest, InputStream)</code> does.
+     *
+     * @param request
+     *        The servlet request.
+     * @param content
+     *        The content to send, which must not have been read from.
+     * @param offset
+     *        The position of the first byte to send.
+     * @param length
+     *        The number of bytes to send.
+     * @return Whether the container will send the content.
+     */
+    public static boolean sendFile(HttpServletRequest request,
+                                   InputStream content,
+                                   long offset,
+                                   long length) {
+        // HEAD requests must not get a body, so only GETs use sendfile
+        if (!(content instanceof FileContentInputStream)
+                || !"GET".equals(request.getMethod())
+                || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            return false;
+        }
+        try {
+            FileContentInputStream fileContent =
+                    (FileContentInputStream) content;
+            if (fileContent.getChannel().position() != 0) {
+                return false;
+            }
+            File file = fileContent.getFile().getCanonicalFile();
+            request.setAttribute(SENDFILE_FILENAME, file.getPath());
+            request.setAttribute(SENDFILE_START, Long.valueOf(offset));
+            request.setAttribute(SENDFILE_END, Long.valueOf(offset + length));
+            try {
+                content.close();
+            } catch (IOException e) {
+                logger.warn("Unable to close stream", e);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn("Unable to use sendfile, content will be copied", e);
+            return false;
+        }
+    }
+}
@@ -98,6 +98,46 @@ public abstract class SQLUtility {
                                numeric);
     }
 
+    /**
+     * Adds or replaces several rows in the given table using JDBC batches.
+     * If the DDLConverter provides an upsert statement for the table, each
+     * row is written with it; otherwise all rows are updated, and the rows
+     * that didn't exist are then added.
+     *
+     * @param conn
+     *        the connection to use
+     * @param table
+     *        the name of the table
+     * @param columns
+     *        the names of the columns whose values we're setting.
+     * @param rows
+     *        the values of each row, in column order
+     * @param uniqueColumn
+     *        which column name is unique? The value of this column will be used
+     *        in the where clause. It must be a column which is not numeric.
+     * @param numeric
+     *        for each associated column, is it numeric? if null, all columns
+     *        are assumed to be strings.
+     * @param converter
+     *        the DDLConverter for the database, or null if not known
+     */
+    public static void replaceInto(Connection conn,
+                                   String table,
+                                   String[] columns,
+                                   List<String[]> rows,
+                                   String uniqueColumn,
+                                   boolean[] numeric,
+                                   DDLConverter converter)
+            throws SQLException {
+        instance.i_replaceInto(conn,
+                               table,
+                               columns,
+                               rows,
+                               uniqueColumn,
+                               numeric,
+                               converter);
+    }
+
     /**
      * Updates an existing row.
      *
@@ -166,6 +206,15 @@ public abstract class SQLUtility {
                                           boolean[] numeric)
             throws SQLException;
 
+    protected abstract void i_replaceInto(Connection conn,
+                                          String table,
+                                          String[] columns,
+                                          List<String[]> rows,
+                                          String uniqueColumn,
+                                          boolean[] numeric,
+                                          DDLConverter converter)
+            throws SQLException;
+
     protected abstract boolean i_updateRow(Connection conn,
                                            String table,
                                            String[] columns,
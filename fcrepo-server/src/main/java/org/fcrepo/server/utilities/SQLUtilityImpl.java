@@ -15,6 +15,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -273,6 +274,142 @@ class SQLUtilityImpl
 
     }
 
+    /**
+     * Adds or replaces several rows in the given table using JDBC batches.
+     * Without an upsert statement from the DDLConverter, all rows are updated
+     * in one batch, and those that didn't exist are then added in another.
+     */
+    @Override
+    protected void i_replaceInto(Connection conn,
+                                 String table,
+                                 String[] columns,
+                                 List<String[]> rows,
+                                 String uniqueColumn,
+                                 boolean[] numeric,
+                                 DDLConverter converter) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        String upsert = null;
+        if (converter != null) {
+            upsert = converter.getUpsert(table, columns, uniqueColumn);
+        }
+        if (upsert != null) {
+            logger.debug("About to execute batch: " + upsert);
+            PreparedStatement stmt = conn.prepareStatement(upsert);
+            try {
+                for (String[] values : rows) {
+                    int varIndex = 1;
+                    stmt.setString(varIndex, getSelector(columns,
+                                                         values,
+                                                         uniqueColumn));
+                    for (int i = 0; i < columns.length; i++) {
+                        if (!columns[i].equals(uniqueColumn)) {
+                            varIndex++;
+                            setValue(stmt, varIndex, columns, values, numeric, i);
+                        }
+                    }
+                    for (int i = 0; i < columns.length; i++) {
+                        varIndex++;
+                        setValue(stmt, varIndex, columns, values, numeric, i);
+                    }
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            } finally {
+                closeStatement(stmt);
+            }
+            return;
+        }
+
+        // update all rows
+        StringBuffer sql = new StringBuffer();
+        sql.append("UPDATE " + table + " SET ");
+        boolean needComma = false;
+        for (int i = 0; i < columns.length; i++) {
+            if (!columns[i].equals(uniqueColumn)) {
+                if (needComma) {
+                    sql.append(", ");
+                } else {
+                    needComma = true;
+                }
+                sql.append(columns[i] + " = ?");
+            }
+        }
+        sql.append(" WHERE " + uniqueColumn + " = ?");
+        logger.debug("About to execute batch: " + sql.toString());
+        List<String[]> missing = new ArrayList<String[]>();
+        PreparedStatement stmt = conn.prepareStatement(sql.toString());
+        try {
+            for (String[] values : rows) {
+                int varIndex = 0;
+                for (int i = 0; i < columns.length; i++) {
+                    if (!columns[i].equals(uniqueColumn)) {
+                        varIndex++;
+                        setValue(stmt, varIndex, columns, values, numeric, i);
+                    }
+                }
+                varIndex++;
+                stmt.setString(varIndex, getSelector(columns,
+                                                     values,
+                                                     uniqueColumn));
+                stmt.addBatch();
+            }
+            int[] counts = stmt.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    missing.add(rows.get(i));
+                } else if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                    // the driver doesn't say, so check the row on its own
+                    if (!i_updateRow(conn,
+                                     table,
+                                     columns,
+                                     rows.get(i),
+                                     uniqueColumn,
+                                     numeric)) {
+                        missing.add(rows.get(i));
+                    }
+                }
+            }
+        } finally {
+            closeStatement(stmt);
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        // add the rows that weren't updated
+        sql = new StringBuffer();
+        sql.append("INSERT INTO " + table + " (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("?");
+        }
+        sql.append(")");
+        logger.debug("About to execute batch: " + sql.toString());
+        stmt = conn.prepareStatement(sql.toString());
+        try {
+            for (String[] values : missing) {
+                for (int i = 0; i < columns.length; i++) {
+                    setValue(stmt, i + 1, columns, values, numeric, i);
+                }
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } finally {
+            closeStatement(stmt);
+        }
+    }
+
     @Override
     protected void i_createNonExistingTables(ConnectionPool cPool,
                                              InputStream dbSpec)
@@ -423,6 +560,30 @@ class SQLUtilityImpl
         }
     }
 
+    /**
+     * Sets the value of the given column in the prepared statement, as a
+     * number if the column is numeric, or as null if there is no value.
+     */
+    private void setValue(PreparedStatement stmt,
+                          int varIndex,
+                          String[] columns,
+                          String[] values,
+                          boolean[] numeric,
+                          int column) throws SQLException {
+        boolean isNumeric = numeric != null && numeric[column];
+        if (values[column] == null) {
+            if (isNumeric) {
+                stmt.setNull(varIndex, Types.BIGINT);
+            } else {
+                stmt.setString(varIndex, null);
+            }
+        } else if (isNumeric) {
+            setNumeric(stmt, varIndex, columns[column], values[column]);
+        } else {
+            stmt.setString(varIndex, values[column]);
+        }
+    }
+
     /**
      * Gets the value in the given array whose associated column name matches
      * the given uniqueColumn name.
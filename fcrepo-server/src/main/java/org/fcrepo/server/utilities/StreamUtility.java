@@ -6,11 +6,16 @@ package org.fcrepo.server.utilities;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 
+import java.nio.channels.FileChannel;
+
 import org.fcrepo.common.FaultException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,6 +31,17 @@ public abstract class StreamUtility {
     private static final Logger logger =
             LoggerFactory.getLogger(StreamUtility.class);
 
+    /** Size of the buffers used by <code>copy</code>. */
+    private static final int COPY_BUFFER_SIZE = 65536;
+
+    /**
+     * A copy buffer for each thread, so serving content doesn't allocate a
+     * new buffer for every request. A thread's buffer is taken out while it
+     * is in use, so nested copies get their own.
+     */
+    private static final ThreadLocal<byte[]> COPY_BUFFER =
+            new ThreadLocal<byte[]>();
+
     /**
      * Returns an XML-appropriate encoding of the given String.
      *
@@ -133,6 +149,127 @@ public abstract class StreamUtility {
         }
     }
 
+    /**
+     * Copies the contents of an InputStream to an OutputStream, leaving both
+     * open.
+     * <p>
+     * If both streams are files, the content is transferred between their
+     * channels, which lets the operating system copy it without bringing it
+     * into the JVM. Otherwise it is copied through a large buffer that is
+     * reused by later copies on the same thread.
+     * </p>
+     *
+     * @param in
+     *        The source stream.
+     * @param out
+     *        The target stream.
+     * @return The number of bytes copied.
+     * @throws IOException
+     *         If any sort of read/write error occurs on either stream.
+     */
+    public static long copy(InputStream in, OutputStream out)
+            throws IOException {
+        return copy(in, out, Long.MAX_VALUE);
+    }
+
+    /**
+     * Copies up to the given number of bytes from an InputStream to an
+     * OutputStream, in the same way as <code>copy(InputStream,
+     * OutputStream)</code>.
+     *
+     * @param in
+     *        The source stream.
+     * @param out
+     *        The target stream.
+     * @param length
+     *        The most bytes to copy.
+     * @return The number of bytes copied, which is less than length only if
+     *         the source stream ended.
+     * @throws IOException
+     *         If any sort of read/write error occurs on either stream.
+     */
+    public static long copy(InputStream in, OutputStream out, long length)
+            throws IOException {
+        if (in instanceof FileInputStream && out instanceof FileOutputStream) {
+            FileChannel source = ((FileInputStream) in).getChannel();
+            FileChannel target = ((FileOutputStream) out).getChannel();
+            long position = source.position();
+            long end = source.size();
+            if (length < end - position) {
+                end = position + length;
+            }
+            long count = 0;
+            while (position + count < end) {
+                long n = source.transferTo(position + count,
+                                           end - position - count,
+                                           target);
+                if (n <= 0) {
+                    // the file was truncated while we were copying it
+                    break;
+                }
+                count += n;
+            }
+            source.position(position + count);
+            return count;
+        }
+        byte[] buf = COPY_BUFFER.get();
+        if (buf == null) {
+            buf = new byte[COPY_BUFFER_SIZE];
+        } else {
+            COPY_BUFFER.remove();
+        }
+        try {
+            long count = 0;
+            int len;
+            while (count < length
+                    && (len = in.read(buf, 0, (int) Math.min(buf.length,
+                                                             length - count))) != -1) {
+                out.write(buf, 0, len);
+                count += len;
+            }
+            return count;
+        } finally {
+            COPY_BUFFER.set(buf);
+        }
+    }
+
+    /**
+     * Skips over the given number of bytes of an InputStream. File streams
+     * are repositioned without reading the bytes.
+     *
+     * @param in
+     *        The stream.
+     * @param count
+     *        The number of bytes to skip.
+     * @throws EOFException
+     *         If the stream ends first.
+     * @throws IOException
+     *         If a read error occurs.
+     */
+    public static void skip(InputStream in, long count) throws IOException {
+        if (in instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) in).getChannel();
+            long position = channel.position() + count;
+            if (position > channel.size()) {
+                throw new EOFException("Can't skip past the end of the file");
+            }
+            channel.position(position);
+            return;
+        }
+        long remaining = count;
+        while (remaining > 0) {
+            long n = in.skip(remaining);
+            if (n <= 0) {
+                // some streams only skip what they have buffered
+                if (in.read() == -1) {
+                    throw new EOFException("Can't skip past the end of the stream");
+                }
+                n = 1;
+            }
+            remaining -= n;
+        }
+    }
+
     /**
      * Gets a byte array for the given input stream.
      */
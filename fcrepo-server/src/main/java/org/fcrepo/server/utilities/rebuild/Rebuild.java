@@ -9,13 +9,13 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
@@ -30,11 +30,7 @@ import org.fcrepo.server.config.ServerConfigurationParser;
 import org.fcrepo.server.errors.InitializationException;
 import org.fcrepo.server.storage.lowlevel.IListable;
 import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
-import org.fcrepo.server.storage.translation.DODeserializer;
-import org.fcrepo.server.storage.translation.DOTranslationUtility;
 import org.fcrepo.server.storage.translation.FOXML1_1DODeserializer;
-import org.fcrepo.server.storage.types.BasicDigitalObject;
-import org.fcrepo.server.storage.types.DigitalObject;
 import org.fcrepo.server.utilities.ServerUtility;
 
 import org.fcrepo.utilities.LogConfig;
@@ -59,6 +55,23 @@ public class Rebuild
 
     private static final String listableInterface = IListable.class.getName();
 
+    /** The system property giving the number of threads to read with. */
+    private static final String THREADS_PROPERTY = "fedora.rebuild.threads";
+
+    /** The system property giving the number of objects between checkpoints. */
+    private static final String CHECKPOINT_INTERVAL_PROPERTY =
+            "fedora.rebuild.checkpointInterval";
+
+    /** The system property giving the directory of checkpoint files. */
+    private static final String CHECKPOINT_DIR_PROPERTY =
+            "fedora.rebuild.checkpoint";
+
+    /**
+     * The system property that, if true, lets a rebuild that was started
+     * with the rebuilder property resume from a checkpoint.
+     */
+    private static final String RESUME_PROPERTY = "fedora.rebuild.resume";
+
     private final Rebuilder m_rebuilder;
 
     private final Map<String, String> m_options;
@@ -116,8 +129,20 @@ public class Rebuild
                 System.err.println();
                 System.err.println("Rebuilding...");
                 try {
-                    // looks good, so init the rebuilder
-                    m_rebuilder.start(m_options);
+                    RebuildCheckpoint checkpoint =
+                            new RebuildCheckpoint(getCheckpointFile(m_rebuilder),
+                                                  getRun(m_rebuilder, m_options));
+                    if (m_rebuilder instanceof ResumableRebuilder
+                            && checkpoint.load() && shouldResume(checkpoint)) {
+                        System.err.println("Resuming after object #"
+                                + checkpoint.getCount() + ", "
+                                + checkpoint.getPid());
+                        ((ResumableRebuilder) m_rebuilder).resume(m_options);
+                    } else {
+                        // looks good, so init the rebuilder
+                        checkpoint.delete();
+                        m_rebuilder.start(m_options);
+                    }
 
                     // add each object in llstore
                     ILowlevelStorage llstore =
@@ -130,20 +155,25 @@ public class Rebuild
                         logger.info("Loaded bean/module " + llstoreInterface
                                 + " with impl " + llstore.getClass().getName());
                     }
-                    Iterator<String> pids = ((IListable) llstore).listObjects();
-                    int total = 0;
-                    int errors = 0;
-                    DODeserializer deser = new FOXML1_1DODeserializer();
-
-                    while (pids.hasNext()) {
-                        total++;
-                        String pid = pids.next();
-                        System.out.println("Adding object #" + total + ": "
-                                + pid);
-                        if (!addObject(m_rebuilder, llstore, deser, pid)) {
-                            errors++;
-                        }
+                    int threads =
+                            Integer.getInteger(THREADS_PROPERTY, Runtime
+                                    .getRuntime().availableProcessors());
+                    System.err.println("Reading objects with " + threads
+                            + " threads");
+                    RebuildPipeline pipeline =
+                            new RebuildPipeline(llstore,
+                                                m_rebuilder,
+                                                new FOXML1_1DODeserializer(),
+                                                threads,
+                                                System.out);
+                    if (m_rebuilder instanceof ResumableRebuilder) {
+                        pipeline.setCheckpoint(checkpoint,
+                                               Integer.getInteger(CHECKPOINT_INTERVAL_PROPERTY,
+                                                                  RebuildPipeline.DEFAULT_CHECKPOINT_INTERVAL));
                     }
+                    pipeline.run(((IListable) llstore).listObjects());
+                    long total = pipeline.getCount();
+                    long errors = pipeline.getErrors();
                     if (errors == 0) {
                         System.out.println("SUCCESS: " + total
                                 + " objects rebuilt.");
@@ -152,6 +182,7 @@ public class Rebuild
                                 + total
                                 + " objects failed to rebuild due to errors.");
                     }
+                    checkpoint.delete();
                 } finally {
                     m_rebuilder.finish();
                     if (server != null) {
@@ -170,33 +201,58 @@ public class Rebuild
         }
     }
 
-    private boolean addObject(Rebuilder rebuilder,
-                              ILowlevelStorage llstore,
-                              DODeserializer deser,
-                              String pid) {
-        InputStream in = null;
-        try {
-            in = llstore.retrieveObject(pid);
-            DigitalObject obj = new BasicDigitalObject();
-            deser.deserialize(in,
-                              obj,
-                              "UTF-8",
-                              DOTranslationUtility.SERIALIZE_STORAGE_INTERNAL);
-            rebuilder.addObject(obj);
-            return true;
-        } catch (Exception e) {
-            System.out.println("WARNING: Skipped " + pid
-                    + " due to exception: ");
-            e.printStackTrace();
+    /**
+     * Decides whether to resume from a checkpoint. Only a checkpoint saved
+     * with the same rebuilder and options can be resumed. If the rebuilder
+     * was chosen non-interactively, it is only resumed if the
+     * fedora.rebuild.resume system property is true; otherwise the user is
+     * asked.
+     */
+    private static boolean shouldResume(RebuildCheckpoint checkpoint)
+            throws IOException {
+        if (!checkpoint.isSameRun()) {
+            System.err.println("Starting again: the checkpoint is for a"
+                    + " rebuild with another rebuilder or other options.");
             return false;
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e) {
-                }
+        }
+        if (System.getProperty("rebuilder") != null) {
+            if (Boolean.getBoolean(RESUME_PROPERTY)) {
+                return true;
             }
+            System.err.println("Starting again: an earlier rebuild was"
+                    + " interrupted after " + checkpoint.getCount()
+                    + " objects, but " + RESUME_PROPERTY + " is not true.");
+            return false;
+        }
+        int c =
+                getChoice("An earlier rebuild was interrupted after "
+                                  + checkpoint.getCount() + " objects.",
+                          new String[] {"Resume it.",
+                                  "Start again from the first object."});
+        return c == 0;
+    }
+
+    /**
+     * Identifies a rebuild by its rebuilder and options, in a stable order.
+     */
+    private static String getRun(Rebuilder rebuilder,
+                                 Map<String, String> options) {
+        return rebuilder.getClass().getName() + " "
+                + new TreeMap<String, String>(options);
+    }
+
+    /**
+     * Gets the checkpoint file of the given rebuilder, which is in
+     * FEDORA_HOME/data unless the fedora.rebuild.checkpoint system property
+     * gives another directory.
+     */
+    private static File getCheckpointFile(Rebuilder rebuilder) {
+        String dir = System.getProperty(CHECKPOINT_DIR_PROPERTY);
+        if (dir == null) {
+            dir = new File(Constants.FEDORA_HOME, "data").getPath();
         }
+        return new File(dir, "rebuild-" + rebuilder.getClass().getSimpleName()
+                + ".checkpoint");
     }
 
     /**
@@ -0,0 +1,158 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Properties;
+
+/**
+ * A file recording how far a rebuild has got: the number of objects, in the
+ * order they're listed by the low-level store, that have been rebuilt, and
+ * the PID of the last of them. It also records which rebuild it is for, so a
+ * rebuild with another rebuilder or other options doesn't resume from it.
+ */
+public class RebuildCheckpoint {
+
+    private static final String COUNT = "count";
+
+    private static final String PID = "pid";
+
+    private static final String RUN = "run";
+
+    private final File m_file;
+
+    /** Identifies the rebuild that this checkpoint is for. */
+    private final String m_run;
+
+    private long m_count;
+
+    private String m_pid;
+
+    /** The rebuild that saved the checkpoint, as of the last load or save. */
+    private String m_savedRun;
+
+    public RebuildCheckpoint(File file) {
+        this(file, null);
+    }
+
+    /**
+     * @param file the checkpoint file.
+     * @param run identifies the rebuild, such as by its rebuilder and
+     *        options; it is saved with the checkpoint.
+     */
+    public RebuildCheckpoint(File file, String run) {
+        m_file = file;
+        m_run = run;
+    }
+
+    public File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Get the number of objects rebuilt, as of the last load or save.
+     */
+    public long getCount() {
+        return m_count;
+    }
+
+    /**
+     * Get the PID of the last object rebuilt, or null if none.
+     */
+    public String getPid() {
+        return m_pid;
+    }
+
+    /**
+     * Was the checkpoint saved by the same rebuild, as of the last load or
+     * save?
+     */
+    public boolean isSameRun() {
+        return m_run == null ? m_savedRun == null : m_run.equals(m_savedRun);
+    }
+
+    /**
+     * Read the checkpoint file, if it exists.
+     *
+     * @return whether it exists.
+     * @throws IOException if it can't be read or isn't valid.
+     */
+    public boolean load() throws IOException {
+        if (!m_file.exists()) {
+            return false;
+        }
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(m_file);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        try {
+            m_count = Long.parseLong(props.getProperty(COUNT));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint file " + m_file);
+        }
+        m_pid = props.getProperty(PID);
+        m_savedRun = props.getProperty(RUN);
+        if (m_count < 0 || (m_count > 0 && m_pid == null)) {
+            throw new IOException("Invalid checkpoint file " + m_file);
+        }
+        return true;
+    }
+
+    /**
+     * Replace the checkpoint file. It's written to a temporary file first,
+     * so an interruption leaves either the old or the new checkpoint.
+     *
+     * @param count the number of objects rebuilt.
+     * @param pid the PID of the last object rebuilt.
+     */
+    public void save(long count, String pid) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(COUNT, Long.toString(count));
+        if (pid != null) {
+            props.setProperty(PID, pid);
+        }
+        if (m_run != null) {
+            props.setProperty(RUN, m_run);
+        }
+        File temp = new File(m_file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            props.store(out, "Fedora rebuild checkpoint");
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(m_file)) {
+            m_file.delete();
+            if (!temp.renameTo(m_file)) {
+                throw new IOException("Unable to rename " + temp + " to "
+                        + m_file);
+            }
+        }
+        m_count = count;
+        m_pid = pid;
+        m_savedRun = m_run;
+    }
+
+    /**
+     * Delete the checkpoint file, if it exists.
+     */
+    public void delete() throws IOException {
+        if (m_file.exists() && !m_file.delete()) {
+            throw new IOException("Unable to delete " + m_file);
+        }
+        m_count = 0;
+        m_pid = null;
+        m_savedRun = null;
+    }
+}
@@ -0,0 +1,336 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
+import org.fcrepo.server.storage.translation.DODeserializer;
+import org.fcrepo.server.storage.translation.DOTranslationUtility;
+import org.fcrepo.server.storage.types.BasicDigitalObject;
+import org.fcrepo.server.storage.types.DigitalObject;
+
+/**
+ * Feeds the objects in the low-level store to a Rebuilder.
+ *
+ * <p>Objects are read and deserialized by a pool of threads, and given to
+ * the Rebuilder one at a time, in the order they're listed, by the thread
+ * that calls run. If a checkpoint is given, it's saved every so many
+ * objects, after flushing a ResumableRebuilder, so an interrupted rebuild
+ * can continue from there. Progress is printed every so many seconds.
+ */
+public class RebuildPipeline {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(RebuildPipeline.class);
+
+    /** The default number of objects between checkpoints. */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    /** The default number of milliseconds between progress reports. */
+    public static final long DEFAULT_PROGRESS_INTERVAL = 10000;
+
+    /** Marks the end of the listed objects. */
+    private static final Item END = new Item(null, null);
+
+    private final ILowlevelStorage m_llstore;
+
+    private final Rebuilder m_rebuilder;
+
+    private final DODeserializer m_deserializer;
+
+    private final int m_threads;
+
+    private final PrintStream m_out;
+
+    private RebuildCheckpoint m_checkpoint;
+
+    private int m_checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    private long m_progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+    private long m_count;
+
+    private long m_errors;
+
+    private volatile boolean m_stopped;
+
+    private volatile Exception m_listError;
+
+    /**
+     * @param llstore the store to read objects from.
+     * @param rebuilder the rebuilder, already started.
+     * @param deserializer a deserializer for the format of the stored
+     *        objects; each thread gets its own instance.
+     * @param threads the number of threads to deserialize with.
+     * @param out where to print progress and skipped objects.
+     */
+    public RebuildPipeline(ILowlevelStorage llstore,
+                           Rebuilder rebuilder,
+                           DODeserializer deserializer,
+                           int threads,
+                           PrintStream out) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        m_llstore = llstore;
+        m_rebuilder = rebuilder;
+        m_deserializer = deserializer;
+        m_threads = threads;
+        m_out = out;
+    }
+
+    /**
+     * Save progress to the given checkpoint every so many objects. If it
+     * has been loaded, the objects it covers are skipped.
+     */
+    public void setCheckpoint(RebuildCheckpoint checkpoint, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be at least 1");
+        }
+        m_checkpoint = checkpoint;
+        m_checkpointInterval = interval;
+    }
+
+    public void setProgressInterval(long millis) {
+        m_progressInterval = millis;
+    }
+
+    /**
+     * Get the number of objects rebuilt or skipped due to errors, including
+     * those covered by a checkpoint that was resumed from.
+     */
+    public long getCount() {
+        return m_count;
+    }
+
+    /**
+     * Get the number of objects skipped due to errors.
+     */
+    public long getErrors() {
+        return m_errors;
+    }
+
+    /**
+     * Rebuild the given objects.
+     *
+     * @param pids the PIDs of the objects, in the same order each time if
+     *        checkpoints are used.
+     * @throws Exception if the objects can't be listed, if they're listed
+     *         in a different order than when the checkpoint was saved, or if
+     *         the checkpoint can't be saved.
+     */
+    public void run(final Iterator<String> pids) throws Exception {
+        final long skip = m_checkpoint == null ? 0 : m_checkpoint.getCount();
+        final String skipPid = m_checkpoint == null ? null : m_checkpoint.getPid();
+        final BlockingQueue<Item> pending =
+                new ArrayBlockingQueue<Item>(m_threads * 4);
+        final ExecutorService executor =
+                Executors.newFixedThreadPool(m_threads, new ThreadFactory() {
+
+                    private int m_number;
+
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread =
+                                new Thread(r, "Rebuild deserializer "
+                                        + ++m_number);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        final ThreadLocal<DODeserializer> deserializers =
+                new ThreadLocal<DODeserializer>() {
+
+                    @Override
+                    protected DODeserializer initialValue() {
+                        return m_deserializer.getInstance();
+                    }
+                };
+        Thread lister = new Thread("Rebuild lister") {
+
+            @Override
+            public void run() {
+                try {
+                    skip(pids, skip, skipPid);
+                    while (pids.hasNext() && !m_stopped) {
+                        final String pid = pids.next();
+                        Future<DigitalObject> object =
+                                executor.submit(new Callable<DigitalObject>() {
+
+                                    public DigitalObject call()
+                                            throws Exception {
+                                        return read(deserializers.get(), pid);
+                                    }
+                                });
+                        put(pending, new Item(pid, object));
+                    }
+                } catch (Exception e) {
+                    m_listError = e;
+                } finally {
+                    put(pending, END);
+                }
+            }
+        };
+        lister.setDaemon(true);
+
+        m_count = skip;
+        m_errors = 0;
+        m_stopped = false;
+        m_listError = null;
+        long start = System.currentTimeMillis();
+        long lastReport = start;
+        long lastReportCount = skip;
+        int sinceCheckpoint = 0;
+        String lastPid = skipPid;
+        lister.start();
+        try {
+            Item item;
+            while ((item = pending.take()) != END) {
+                add(item);
+                m_count++;
+                lastPid = item.pid;
+                if (m_checkpoint != null
+                        && ++sinceCheckpoint >= m_checkpointInterval) {
+                    checkpoint(lastPid);
+                    sinceCheckpoint = 0;
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastReport >= m_progressInterval) {
+                    report(m_count - skip,
+                           now - start,
+                           m_count - lastReportCount,
+                           now - lastReport);
+                    lastReport = now;
+                    lastReportCount = m_count;
+                }
+            }
+            if (m_listError != null) {
+                throw m_listError;
+            }
+            if (m_checkpoint != null && sinceCheckpoint > 0) {
+                checkpoint(lastPid);
+            }
+        } finally {
+            m_stopped = true;
+            pending.clear();
+            executor.shutdownNow();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        report(m_count - skip, elapsed, m_count - skip, elapsed);
+    }
+
+    /**
+     * Skip the objects covered by a checkpoint, making sure the last of
+     * them is the one it names.
+     */
+    private static void skip(Iterator<String> pids, long count, String pid)
+            throws Exception {
+        String last = null;
+        for (long i = 0; i < count; i++) {
+            if (!pids.hasNext()) {
+                throw new Exception("The checkpoint covers " + count
+                        + " objects, but only " + i + " are listed");
+            }
+            last = pids.next();
+        }
+        if (count > 0 && !last.equals(pid)) {
+            throw new Exception("Object #" + count + " is " + last
+                    + ", but was " + pid + " when the checkpoint was saved;"
+                    + " objects must be listed in the same order to resume");
+        }
+    }
+
+    private void put(BlockingQueue<Item> pending, Item item) {
+        try {
+            while (!m_stopped && !pending.offer(item, 1, TimeUnit.SECONDS)) {
+                // wait for the rebuilder to catch up
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private DigitalObject read(DODeserializer deserializer, String pid)
+            throws Exception {
+        InputStream in = m_llstore.retrieveObject(pid);
+        try {
+            DigitalObject obj = new BasicDigitalObject();
+            deserializer.deserialize(in,
+                                     obj,
+                                     "UTF-8",
+                                     DOTranslationUtility.SERIALIZE_STORAGE_INTERNAL);
+            return obj;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void add(Item item) throws InterruptedException {
+        logger.debug("Adding object #" + (m_count + 1) + ": " + item.pid);
+        try {
+            m_rebuilder.addObject(item.object.get());
+        } catch (ExecutionException e) {
+            skipped(item.pid, e.getCause());
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            skipped(item.pid, e);
+        }
+    }
+
+    private void skipped(String pid, Throwable cause) {
+        m_errors++;
+        m_out.println("WARNING: Skipped " + pid + " due to exception: ");
+        cause.printStackTrace(m_out);
+    }
+
+    private void checkpoint(String pid) throws Exception {
+        if (m_rebuilder instanceof ResumableRebuilder) {
+            ((ResumableRebuilder) m_rebuilder).flush();
+        }
+        m_checkpoint.save(m_count, pid);
+    }
+
+    private void report(long count, long elapsed, long recent, long interval) {
+        m_out.println("Rebuilt " + m_count + " objects (" + m_errors
+                + " skipped), " + rate(recent, interval) + " objects/sec, "
+                + rate(count, elapsed) + " overall");
+    }
+
+    private static long rate(long count, long millis) {
+        return millis == 0 ? count : count * 1000 / millis;
+    }
+
+    /**
+     * A listed object, being read.
+     */
+    private static class Item {
+
+        final String pid;
+
+        final Future<DigitalObject> object;
+
+        Item(String pid, Future<DigitalObject> object) {
+            this.pid = pid;
+            this.object = object;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import java.util.Map;
+
+/**
+ * A Rebuilder that can continue a rebuild that was interrupted.
+ *
+ * <p>While rebuilding, flush is called before each checkpoint is written. If
+ * the rebuild is interrupted, it can later be continued by calling resume
+ * instead of start, then addObject for the objects after the last
+ * checkpoint. Objects added after the last checkpoint but before the
+ * interruption are added again, so adding an object must be repeatable.
+ */
+public interface ResumableRebuilder
+        extends Rebuilder {
+
+    /**
+     * Validate the provided options and prepare to continue an interrupted
+     * rebuild, keeping everything flushed before the interruption.
+     */
+    public void resume(Map<String, String> options) throws Exception;
+
+    /**
+     * Make the data of all objects added so far durable.
+     */
+    public void flush() throws Exception;
+
+}
@@ -19,6 +19,7 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -47,8 +48,8 @@ import org.fcrepo.server.management.PIDGenerator;
 import org.fcrepo.server.search.FieldSearch;
 import org.fcrepo.server.storage.ConnectionPool;
 import org.fcrepo.server.storage.ConnectionPoolManager;
-import org.fcrepo.server.storage.DOManager;
 import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.server.storage.SimpleDOReader;
 import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
 import org.fcrepo.server.storage.types.Datastream;
 import org.fcrepo.server.storage.types.DigitalObject;
@@ -59,11 +60,25 @@ import org.fcrepo.server.utilities.TableSpec;
  * A Rebuilder for the SQL database.
  */
 public class SQLRebuilder
-        implements Rebuilder {
+        implements ResumableRebuilder {
 
     private static final Logger logger =
             LoggerFactory.getLogger(Rebuilder.class);
 
+    /** The system property giving the number of objects per batch. */
+    private static final String BATCH_SIZE_PROPERTY = "fedora.rebuild.batchSize";
+
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** The number of PIDs to look up in the registry per query. */
+    private static final int REGISTERED_QUERY_SIZE = 100;
+
+    private static final String UNUSED_OWNER_ID =
+            "the userID field is no longer used";
+
+    private static final String UNUSED_LABEL =
+            "the label field is no longer used";
+
     private ServerConfiguration m_serverConfig;
 
     private Server m_server;
@@ -72,6 +87,33 @@ public class SQLRebuilder
 
     private Context m_context;
 
+    private FieldSearch m_fieldSearch;
+
+    private PIDGenerator m_pidGenerator;
+
+    /** The objects added since the last batch was written. */
+    private final List<DigitalObject> m_batch = new ArrayList<DigitalObject>();
+
+    private final int m_batchSize;
+
+    public SQLRebuilder() {
+        m_batchSize = Integer.getInteger(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates an instance that writes to the given database and FieldSearch
+     * module, without starting a server.
+     */
+    SQLRebuilder(ConnectionPool connectionPool,
+                 FieldSearch fieldSearch,
+                 PIDGenerator pidGenerator,
+                 int batchSize) {
+        m_connectionPool = connectionPool;
+        m_fieldSearch = fieldSearch;
+        m_pidGenerator = pidGenerator;
+        m_batchSize = batchSize;
+    }
+
     /**
      * Get a short phrase describing what the user can do with this rebuilder.
      */
@@ -126,7 +168,27 @@ public class SQLRebuilder
         // (in particular the hash map held by PIDGenerator)
         // don't get out of sync with the database.
         blankExistingTables();
+        connect(true);
+    }
+
+    /**
+     * Prepare to continue an interrupted rebuild, keeping the rows already
+     * in the database and the low-level store indexes as they are.
+     */
+    @Override
+    public void resume(Map<String, String> options) throws Exception {
+        connect(false);
+    }
+
+    /**
+     * Write the rows of the objects buffered for the next batch.
+     */
+    @Override
+    public void flush() {
+        writeBatch();
+    }
 
+    private void connect(boolean rebuildLowlevelStorage) throws Exception {
         try {
             m_server = Rebuild.getServer();
             // now get the connectionpool
@@ -138,19 +200,27 @@ public class SQLRebuilder
                                                         "ConnectionPoolManager");
             }
             m_connectionPool = cpm.getPool();
+            m_fieldSearch =
+                    (FieldSearch) m_server
+                            .getModule("org.fcrepo.server.search.FieldSearch");
+            m_pidGenerator =
+                    (PIDGenerator) m_server
+                            .getModule("org.fcrepo.server.management.PIDGenerator");
             m_context =
                     ReadOnlyContext.getContext("utility", "fedoraAdmin", "", /* null, */
                     ReadOnlyContext.DO_OP);
             String registryClassTemp = m_server.getParameter("registry");
-            ILowlevelStorage llstore =
-                    (ILowlevelStorage) m_server
-                            .getModule("org.fcrepo.server.storage.lowlevel.ILowlevelStorage");
-            try {
-                llstore.rebuildObject();
-                llstore.rebuildDatastream();
-            } catch (LowlevelStorageException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+            if (rebuildLowlevelStorage) {
+                ILowlevelStorage llstore =
+                        (ILowlevelStorage) m_server
+                                .getModule("org.fcrepo.server.storage.lowlevel.ILowlevelStorage");
+                try {
+                    llstore.rebuildObject();
+                    llstore.rebuildDatastream();
+                } catch (LowlevelStorageException e) {
+                    // TODO Auto-generated catch block
+                    e.printStackTrace();
+                }
             }
 
         } catch (InitializationException ie) {
@@ -268,18 +338,9 @@ public class SQLRebuilder
 
         // DOReplicator replicator=(DOReplicator)
         // m_server.getModule("org.fcrepo.server.storage.replication.DOReplicator");
-        DOManager manager =
-                (DOManager) m_server
-                        .getModule("org.fcrepo.server.storage.DOManager");
-        FieldSearch fieldSearch =
-                (FieldSearch) m_server
-                        .getModule("org.fcrepo.server.search.FieldSearch");
-        PIDGenerator pidGenerator =
-                (PIDGenerator) m_server
-                        .getModule("org.fcrepo.server.management.PIDGenerator");
 
         // SET OBJECT PROPERTIES:
-        logger.debug("Rebuild: Setting object/component states and create dates if unset...");
+        logger.debug("Rebuild: Setting object/component states and dates if unset...");
         // set object state to "A" (Active) if not already set
         if (obj.getState() == null || obj.getState().equals("")) {
             obj.setState("A");
@@ -288,21 +349,11 @@ public class SQLRebuilder
         if (obj.getCreateDate() == null || obj.getCreateDate().equals("")) {
             obj.setCreateDate(nowUTC);
         }
-        // set object last modified date to UTC
-        obj.setLastModDate(nowUTC);
-
-        // SET OBJECT PROPERTIES:
-        logger.debug("Rebuild: Setting object/component states and create dates if unset...");
-        // set object state to "A" (Active) if not already set
-        if (obj.getState() == null || obj.getState().equals("")) {
-            obj.setState("A");
+        // set object last modified date to UTC if not already set; the
+        // object is indexed as it is, so it must keep its stored value
+        if (obj.getLastModDate() == null) {
+            obj.setLastModDate(nowUTC);
         }
-        // set object create date to UTC if not already set
-        if (obj.getCreateDate() == null || obj.getCreateDate().equals("")) {
-            obj.setCreateDate(nowUTC);
-        }
-        // set object last modified date to UTC
-        obj.setLastModDate(nowUTC);
 
         // SET DATASTREAM PROPERTIES...
         Iterator<String> dsIter = obj.datastreamIdIterator();
@@ -335,13 +386,56 @@ public class SQLRebuilder
         // have the system generate a PID if one was not provided
         logger.debug("INGEST: Stream contained PID with retainable namespace-id... will use PID from stream.");
         try {
-            pidGenerator.neverGeneratePID(obj.getPid());
+            m_pidGenerator.neverGeneratePID(obj.getPid());
         } catch (IOException e) {
             throw new RuntimeException("Error calling pidGenerator.neverGeneratePID(): "
                                                + e.getMessage(),
                                        e);
         }
 
+        // REGISTRY AND FIELDSEARCH:
+        // written for a batch of objects at a time
+        m_batch.add(obj);
+        if (m_batch.size() >= m_batchSize) {
+            writeBatch();
+        }
+    }
+
+    /**
+     * Writes the registry, deployment map and FieldSearch rows of the
+     * buffered objects, using a JDBC batch for each table. If that fails,
+     * the objects are written one at a time, so only those in error are
+     * skipped.
+     */
+    private void writeBatch() {
+        if (m_batch.isEmpty()) {
+            return;
+        }
+        List<DigitalObject> batch = new ArrayList<DigitalObject>(m_batch);
+        m_batch.clear();
+        try {
+            registerObjects(batch);
+            List<DOReader> readers = new ArrayList<DOReader>(batch.size());
+            for (DigitalObject obj : batch) {
+                readers.add(getReader(obj));
+            }
+            logger.info("COMMIT: Updating FieldSearch indexes of "
+                    + readers.size() + " objects...");
+            m_fieldSearch.update(readers);
+        } catch (Exception e) {
+            logger.warn("Error writing a batch of " + batch.size()
+                    + " objects; writing them one at a time", e);
+            for (DigitalObject obj : batch) {
+                writeObject(obj);
+            }
+        }
+    }
+
+    /**
+     * Writes the registry, deployment map and FieldSearch rows of one
+     * object.
+     */
+    private void writeObject(DigitalObject obj) {
         // REGISTRY:
         // at this point the object is valid, so make a record
         // of it in the digital object registry
@@ -351,14 +445,8 @@ public class SQLRebuilder
         }
 
         try {
-            logger.info("COMMIT: Attempting replication: " + obj.getPid());
-            DOReader reader =
-                    manager.getReader(Server.USE_DEFINITIVE_STORE,
-                                      m_context,
-                                      obj.getPid());
             logger.info("COMMIT: Updating FieldSearch indexes...");
-            fieldSearch.update(reader);
-
+            m_fieldSearch.update(getReader(obj));
         } catch (ServerException se) {
             System.out.println("Error while replicating: "
                     + se.getClass().getName() + ": " + se.getMessage());
@@ -370,14 +458,112 @@ public class SQLRebuilder
         }
     }
 
+    /**
+     * Gets a reader of an object as it was read from the low-level store,
+     * rather than reading it again.
+     */
+    private static DOReader getReader(DigitalObject obj) {
+        return new SimpleDOReader(null, null, null, null, null, obj);
+    }
+
+    /**
+     * Adds new objects in one transaction, skipping those that are already
+     * registered because they were added before a rebuild was resumed.
+     */
+    private void registerObjects(List<DigitalObject> objs) throws SQLException {
+        Connection conn = m_connectionPool.getReadWriteConnection();
+        boolean autoCommit = true;
+        PreparedStatement insert = null;
+        try {
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            Set<String> registered = getRegisteredPids(conn, objs);
+            insert =
+                    conn.prepareStatement("INSERT INTO doRegistry (doPID, "
+                            + "systemVersion, ownerId, label) "
+                            + "VALUES (?, 1, ?, ?)");
+            int inserts = 0;
+            for (DigitalObject obj : objs) {
+                if (registered.add(obj.getPid())) {
+                    insert.setString(1, obj.getPid());
+                    insert.setString(2, UNUSED_OWNER_ID);
+                    insert.setString(3, UNUSED_LABEL);
+                    insert.addBatch();
+                    inserts++;
+                    if (obj.hasContentModel(Models.SERVICE_DEPLOYMENT_3_0)) {
+                        updateDeploymentMap(obj, conn);
+                    }
+                }
+            }
+            if (inserts > 0) {
+                insert.executeBatch();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException e2) {
+                logger.warn("Error rolling back", e2);
+            }
+            throw e;
+        } finally {
+            try {
+                if (insert != null) {
+                    insert.close();
+                }
+                conn.setAutoCommit(autoCommit);
+            } finally {
+                m_connectionPool.free(conn);
+            }
+        }
+    }
+
+    /**
+     * Gets the PIDs of the given objects that are already in the registry.
+     */
+    private static Set<String> getRegisteredPids(Connection conn,
+                                                 List<DigitalObject> objs)
+            throws SQLException {
+        Set<String> registered = new HashSet<String>();
+        for (int start = 0; start < objs.size(); start += REGISTERED_QUERY_SIZE) {
+            List<DigitalObject> chunk =
+                    objs.subList(start, Math.min(objs.size(), start
+                            + REGISTERED_QUERY_SIZE));
+            StringBuffer query =
+                    new StringBuffer("SELECT doPID FROM doRegistry "
+                            + "WHERE doPID IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                query.append(i == 0 ? "?" : ", ?");
+            }
+            query.append(")");
+            PreparedStatement st = conn.prepareStatement(query.toString());
+            ResultSet results = null;
+            try {
+                for (int i = 0; i < chunk.size(); i++) {
+                    st.setString(i + 1, chunk.get(i).getPid());
+                }
+                results = st.executeQuery();
+                while (results.next()) {
+                    registered.add(results.getString(1));
+                }
+            } finally {
+                if (results != null) {
+                    results.close();
+                }
+                st.close();
+            }
+        }
+        return registered;
+    }
+
     /**
      * Adds a new object.
      */
     private void registerObject(DigitalObject obj)
             throws StorageDeviceException {
         String pid = obj.getPid();
-        String userId = "the userID field is no longer used";
-        String label = "the label field is no longer used";
+        String userId = UNUSED_OWNER_ID;
+        String label = UNUSED_LABEL;
 
         Connection conn = null;
         PreparedStatement s1 = null;
@@ -395,6 +581,11 @@ public class SQLRebuilder
                 updateDeploymentMap(obj, conn);
             }
         } catch (SQLException sqle) {
+            // the batch fallback registers objects one at a time, so don't
+            // leak a connection for each one that fails
+            if (conn != null) {
+                m_connectionPool.free(conn);
+            }
             throw new StorageDeviceException("Unexpected error from SQL database while registering object: "
                     + sqle.getMessage());
         } finally {
@@ -463,7 +654,9 @@ public class SQLRebuilder
      */
     @Override
     public void finish() {
-        // nothing to do
+        if (m_connectionPool != null) {
+            writeBatch();
+        }
     }
 
     /**
@@ -0,0 +1,143 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.validation;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.fcrepo.common.MalformedPIDException;
+import org.fcrepo.common.PID;
+import org.fcrepo.server.Context;
+import org.fcrepo.server.errors.ObjectValidityException;
+import org.fcrepo.server.errors.ServerException;
+import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.server.storage.types.AuditRecord;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
+import org.fcrepo.server.storage.types.DigitalObject;
+
+/**
+ * Checks that an in-memory digital object has everything the storage
+ * serialization requires.
+ * <p>
+ * This covers the structural rules that the storage-phase schema validation of
+ * the serialized object would otherwise enforce: a well-formed PID, valid
+ * states and control groups, unique version IDs, content for every datastream
+ * version and IDs for audit records. It works directly on the
+ * <code>DigitalObject</code> model, so an object can be checked before commit
+ * without serializing it.
+ */
+public class StructuralObjectValidator
+        implements DOObjectValidator {
+
+    private static final String STATES = "AID";
+
+    private static final String CONTROL_GROUPS = "XMER";
+
+    /**
+     * {@inheritDoc}
+     */
+    public void validate(Context context, DOReader reader)
+            throws ServerException {
+        validate(reader.getObject());
+    }
+
+    /**
+     * Validates the given object.
+     *
+     * @throws ObjectValidityException describing the first problem found.
+     */
+    public void validate(DigitalObject obj) throws ObjectValidityException {
+        String pid = obj.getPid();
+        try {
+            PID.normalize(pid);
+        } catch (MalformedPIDException e) {
+            throw new ObjectValidityException("Invalid object PID " + pid
+                    + ": " + e.getMessage());
+        }
+        if (!isState(obj.getState())) {
+            fail(pid, "invalid object state: " + obj.getState());
+        }
+
+        Iterator<String> dsIds = obj.datastreamIdIterator();
+        while (dsIds.hasNext()) {
+            String dsId = dsIds.next();
+            if (dsId == null || dsId.length() == 0) {
+                fail(pid, "datastream with empty ID");
+            }
+            // the audit trail is serialized from the audit records instead
+            if (dsId.equals("AUDIT") || dsId.equals("FEDORA-AUDITTRAIL")) {
+                continue;
+            }
+            Set<String> versionIds = new HashSet<String>();
+            String controlGroup = null;
+            for (Datastream ds : obj.datastreams(dsId)) {
+                validateVersion(pid, dsId, ds);
+                if (!versionIds.add(ds.DSVersionID)) {
+                    fail(pid, "datastream " + dsId
+                            + " has more than one version with ID "
+                            + ds.DSVersionID);
+                }
+                if (controlGroup == null) {
+                    controlGroup = ds.DSControlGrp;
+                } else if (!controlGroup.equalsIgnoreCase(ds.DSControlGrp)) {
+                    fail(pid, "versions of datastream " + dsId
+                            + " have different control groups");
+                }
+            }
+        }
+
+        for (AuditRecord audit : obj.getAuditRecords()) {
+            if (audit.id == null || audit.id.length() == 0) {
+                fail(pid, "audit record with empty ID");
+            }
+            if (audit.date == null) {
+                fail(pid, "audit record " + audit.id + " has no date");
+            }
+        }
+    }
+
+    private static void validateVersion(String pid, String dsId, Datastream ds)
+            throws ObjectValidityException {
+        String where = "datastream version " + dsId + "/" + ds.DSVersionID;
+        if (ds.DSVersionID == null || ds.DSVersionID.length() == 0) {
+            fail(pid, "datastream " + dsId + " has a version with empty ID");
+        }
+        if (!dsId.equals(ds.DatastreamID)) {
+            fail(pid, where + " has mismatched datastream ID "
+                    + ds.DatastreamID);
+        }
+        if (ds.DSControlGrp == null || ds.DSControlGrp.length() != 1
+                || CONTROL_GROUPS.indexOf(ds.DSControlGrp.toUpperCase()) == -1) {
+            fail(pid, where + " has invalid control group " + ds.DSControlGrp);
+        }
+        if (!isState(ds.DSState)) {
+            fail(pid, where + " has invalid state " + ds.DSState);
+        }
+        if ("X".equalsIgnoreCase(ds.DSControlGrp)) {
+            if (!(ds instanceof DatastreamXMLMetadata)
+                    || ((DatastreamXMLMetadata) ds).xmlContent == null) {
+                fail(pid, where + " has no inline XML content");
+            }
+        } else if (ds.DSLocation == null || ds.DSLocation.length() == 0) {
+            fail(pid, where + " has no content location");
+        }
+    }
+
+    /**
+     * An unset state is allowed; it is serialized as Active.
+     */
+    private static boolean isState(String state) {
+        return state == null || state.length() == 0
+                || (state.length() == 1 && STATES.indexOf(state) != -1);
+    }
+
+    private static void fail(String pid, String message)
+            throws ObjectValidityException {
+        throw new ObjectValidityException("Object " + pid + " is not valid for "
+                + "storage: " + message);
+    }
+}
@@ -107,6 +107,14 @@ public class MockConnection
         this.autoCommit = autoCommit;
     }
 
+    public void commit() throws SQLException {
+        // nothing to commit
+    }
+
+    public void rollback() throws SQLException {
+        // nothing to roll back
+    }
+
     public Statement createStatement() throws SQLException {
         MockStatement stmt = new MockStatement();
         statements.add(stmt);
@@ -125,10 +133,6 @@ public class MockConnection
     // Un-implemented methods
     // ----------------------------------------------------------------------
 
-    public void commit() throws SQLException {
-        throw new RuntimeException("MockConnection.commit not implemented");
-    }
-
     public Statement createStatement(int arg0, int arg1) throws SQLException {
         throw new RuntimeException("MockConnection.createStatement not implemented");
     }
@@ -209,10 +213,6 @@ public class MockConnection
         throw new RuntimeException("MockConnection.releaseSavepoint not implemented");
     }
 
-    public void rollback() throws SQLException {
-        throw new RuntimeException("MockConnection.rollback not implemented");
-    }
-
     public void rollback(Savepoint arg0) throws SQLException {
         throw new RuntimeException("MockConnection.rollback not implemented");
     }
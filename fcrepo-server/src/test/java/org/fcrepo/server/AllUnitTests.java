@@ -14,6 +14,7 @@ import org.junit.runners.Suite;
         org.fcrepo.server.journal.AllUnitTests.class,
         org.fcrepo.server.messaging.AllUnitTests.class,
         org.fcrepo.server.proxy.AllUnitTests.class,
+        org.fcrepo.server.resourceIndex.AllUnitTests.class,
         org.fcrepo.server.search.AllUnitTests.class,
         org.fcrepo.server.security.AllUnitTests.class,
         org.fcrepo.server.storage.AllUnitTests.class,
@@ -0,0 +1,314 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.common.Constants;
+import org.fcrepo.server.Context;
+import org.fcrepo.server.errors.GeneralException;
+import org.fcrepo.server.errors.ModuleInitializationException;
+import org.fcrepo.server.errors.ServerException;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
+import org.fcrepo.server.management.MockManagementDelegate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Replay entries with a {@link JournalReplayer}, on one thread and on several,
+ * and check that the entries for each object are replayed in order.
+ */
+public class TestJournalReplayer
+        implements JournalConstants {
+
+    private static final String FAILURE = "fail";
+
+    private ReplayRecordingDelegate delegate;
+
+    private JournalRecoveryLog recoveryLog;
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestJournalReplayer.class);
+    }
+
+    @Before
+    public void initialize() throws ModuleInitializationException {
+        delegate = new ReplayRecordingDelegate();
+        recoveryLog = new SilentRecoveryLog();
+    }
+
+    @Test
+    public void oneThreadReplaysInJournalOrder() throws Exception {
+        JournalReplayer replayer =
+                new JournalReplayer(delegate, recoveryLog, 1);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            replayer.replay(purgeEntry("demo:" + i % 3, "" + i));
+            expected.add("demo:" + i % 3 + "/" + i);
+        }
+        replayer.finish();
+        replayer.stop();
+        assertEquals(expected, delegate.getReplayed());
+        assertEquals(10, replayer.getReplayedCount());
+        assertEquals(0, replayer.getUnreplayedCount());
+    }
+
+    @Test
+    public void entriesForOneObjectStayInOrder() throws Exception {
+        JournalReplayer replayer =
+                new JournalReplayer(delegate, recoveryLog, 4);
+        int objects = 10;
+        int entriesPerObject = 20;
+        for (int i = 0; i < entriesPerObject; i++) {
+            for (int j = 0; j < objects; j++) {
+                replayer.replay(purgeEntry("demo:" + j, "" + i));
+            }
+        }
+        replayer.finish();
+        replayer.stop();
+
+        List<String> replayed = delegate.getReplayed();
+        assertEquals(objects * entriesPerObject, replayed.size());
+        for (int j = 0; j < objects; j++) {
+            int next = 0;
+            for (String call : replayed) {
+                if (call.startsWith("demo:" + j + "/")) {
+                    assertEquals("demo:" + j + "/" + next++, call);
+                }
+            }
+            assertEquals(entriesPerObject, next);
+        }
+        assertEquals(objects * entriesPerObject, replayer.getReplayedCount());
+        assertEquals(0, replayer.getUnreplayedCount());
+        assertEquals(0, replayer.getLagSeconds(false));
+    }
+
+    @Test
+    public void barrierWaitsForEarlierEntries() throws Exception {
+        JournalReplayer replayer =
+                new JournalReplayer(delegate, recoveryLog, 4);
+        for (int j = 0; j < 8; j++) {
+            replayer.replay(purgeEntry("demo:" + j, "before"));
+        }
+        replayer.replay(getNextPidEntry());
+        for (int j = 0; j < 8; j++) {
+            replayer.replay(purgeEntry("demo:" + j, "after"));
+        }
+        replayer.finish();
+        replayer.stop();
+
+        List<String> replayed = delegate.getReplayed();
+        int barrier = replayed.indexOf("getNextPID");
+        assertEquals(8, barrier);
+        for (int i = 0; i < replayed.size(); i++) {
+            if (i < barrier) {
+                assertTrue(replayed.get(i), replayed.get(i).endsWith("/before"));
+            } else if (i > barrier) {
+                assertTrue(replayed.get(i), replayed.get(i).endsWith("/after"));
+            }
+        }
+    }
+
+    @Test
+    public void failureStopsTheReplay() throws Exception {
+        JournalReplayer replayer =
+                new JournalReplayer(delegate, recoveryLog, 4);
+        ConsumerJournalEntry failing = purgeEntry("demo:1", FAILURE);
+        failing.setIdentifier("theFailingEntry");
+        try {
+            replayer.replay(failing);
+            for (int i = 0; i < 100; i++) {
+                replayer.replay(purgeEntry("demo:1", "" + i));
+            }
+            replayer.finish();
+            fail("failure was not reported");
+        } catch (JournalException e) {
+            assertTrue(e.getMessage(), e.getMessage()
+                    .contains("theFailingEntry"));
+            assertTrue(e.getCause() instanceof GeneralException);
+        } finally {
+            replayer.stop();
+        }
+
+        // nothing after the failure is replayed for the same object.
+        assertEquals(Collections.emptyList(), delegate.getReplayed());
+    }
+
+    @Test
+    public void lagIsTheAgeOfTheOldestUnreplayedEntry() throws Exception {
+        delegate.setDelay(200);
+        JournalReplayer replayer =
+                new JournalReplayer(delegate, recoveryLog, 2);
+        ConsumerJournalEntry old = purgeEntry("demo:1", "old");
+        old.getContext().setNow(new Date(System.currentTimeMillis() - 60000));
+        replayer.replay(old);
+        replayer.replay(purgeEntry("demo:2", "new"));
+        assertTrue("lag: " + replayer.getLagSeconds(true), replayer
+                .getLagSeconds(true) >= 59);
+        replayer.finish();
+        replayer.stop();
+        assertEquals(0, replayer.getLagSeconds(false));
+        assertEquals(0, replayer.getUnreplayedCount());
+    }
+
+    @Test
+    public void lagWhileReadingIsTheAgeOfTheLastReplayedEntry()
+            throws Exception {
+        JournalReplayer replayer =
+                new JournalReplayer(delegate, recoveryLog, 1);
+        assertEquals(0, replayer.getLagSeconds(false));
+
+        ConsumerJournalEntry old = purgeEntry("demo:1", "old");
+        old.getContext().setNow(new Date(System.currentTimeMillis() - 60000));
+        replayer.replay(old);
+        assertEquals(0, replayer.getUnreplayedCount());
+        assertTrue("lag: " + replayer.getLagSeconds(false), replayer
+                .getLagSeconds(false) >= 59);
+
+        replayer.replay(purgeEntry("demo:1", "new"));
+        assertEquals(0, replayer.getLagSeconds(false));
+        replayer.finish();
+        replayer.stop();
+    }
+
+    @Test
+    public void caughtUpReplayHasNoLag() throws Exception {
+        JournalReplayer replayer =
+                new JournalReplayer(delegate, recoveryLog, 1);
+        ConsumerJournalEntry old = purgeEntry("demo:1", "old");
+        old.getContext().setNow(new Date(System.currentTimeMillis() - 60000));
+        replayer.replay(old);
+
+        // the primary has been idle since; the reader is waiting for more.
+        assertEquals(0, replayer.getLagSeconds(true));
+        replayer.finish();
+        replayer.stop();
+    }
+
+    @Test
+    public void partitionKeyIsThePidOfTheObject() throws Exception {
+        assertEquals("demo:1", JournalReplayer
+                .getPartitionKey(purgeEntry("demo:1", "")));
+
+        ConsumerJournalEntry relationship =
+                new ConsumerJournalEntry(METHOD_ADD_RELATIONSHIP,
+                                         new JournalEntryContext());
+        relationship.addArgument(ARGUMENT_NAME_PID, "info:fedora/demo:2/DS1");
+        assertEquals("demo:2", JournalReplayer.getPartitionKey(relationship));
+
+        ConsumerJournalEntry ingest =
+                new ConsumerJournalEntry(METHOD_INGEST,
+                                         new JournalEntryContext());
+        ingest.getContext().setRecoveryValue(Constants.RECOVERY.PID.uri,
+                                             "demo:3");
+        assertEquals("demo:3", JournalReplayer.getPartitionKey(ingest));
+
+        assertNull(JournalReplayer.getPartitionKey(getNextPidEntry()));
+    }
+
+    private ConsumerJournalEntry purgeEntry(String pid, String logMessage) {
+        ConsumerJournalEntry entry =
+                new ConsumerJournalEntry(METHOD_PURGE_OBJECT,
+                                         new JournalEntryContext());
+        entry.addArgument(ARGUMENT_NAME_PID, pid);
+        entry.addArgument(ARGUMENT_NAME_LOG_MESSAGE, logMessage);
+        return entry;
+    }
+
+    private ConsumerJournalEntry getNextPidEntry() {
+        ConsumerJournalEntry entry =
+                new ConsumerJournalEntry(METHOD_GET_NEXT_PID,
+                                         new JournalEntryContext());
+        entry.addArgument(ARGUMENT_NAME_NUM_PIDS, 1);
+        entry.addArgument(ARGUMENT_NAME_NAMESPACE, "demo");
+        return entry;
+    }
+
+    /**
+     * Records the calls that were replayed, from any thread, and fails the
+     * ones that are asked to.
+     */
+    private static class ReplayRecordingDelegate
+            extends MockManagementDelegate {
+
+        private final List<String> replayed =
+                Collections.synchronizedList(new ArrayList<String>());
+
+        private volatile long delay;
+
+        public void setDelay(long delay) {
+            this.delay = delay;
+        }
+
+        public List<String> getReplayed() {
+            synchronized (replayed) {
+                return new ArrayList<String>(replayed);
+            }
+        }
+
+        @Override
+        public Date purgeObject(Context context, String pid, String logMessage)
+                throws ServerException {
+            if (FAILURE.equals(logMessage)) {
+                throw new GeneralException("Replay failed for " + pid);
+            }
+            pause();
+            replayed.add(pid + "/" + logMessage);
+            return new Date();
+        }
+
+        @Override
+        public String[] getNextPID(Context context,
+                                   int numPIDs,
+                                   String namespace) {
+            replayed.add("getNextPID");
+            return new String[] {namespace + ":next"};
+        }
+
+        private void pause() {
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * A recovery log that may be written from several threads, and writes
+     * nowhere.
+     */
+    private static class SilentRecoveryLog
+            extends JournalRecoveryLog {
+
+        SilentRecoveryLog() throws ModuleInitializationException {
+            super(new HashMap<String, String>(), "theRole", null);
+        }
+
+        @Override
+        public synchronized void log(String message) {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.commons.io.IOUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Write binary Journal files and read them back.
+ */
+public class TestBinaryJournalFormat
+        implements BinaryJournalConstants, JournalConstants {
+
+    private static final String HASH = "theRepositoryHash";
+
+    private static final int INLINE_LIMIT = 16;
+
+    private File directory;
+
+    private File journalFile;
+
+    private JournalContentStore contentStore;
+
+    private JournalContentStore archiveContentStore;
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestBinaryJournalFormat.class);
+    }
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("binaryJournal", "");
+        directory.delete();
+        directory.mkdir();
+        journalFile = new File(directory, "journal");
+        contentStore =
+                new JournalContentStore(new File(directory,
+                                                 CONTENT_DIRECTORY_NAME));
+        archiveContentStore =
+                new JournalContentStore(new File(directory, "archive"));
+    }
+
+    @After
+    public void deleteDirectory() {
+        delete(directory);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        JournalEntryContext context = new JournalEntryContext();
+        context.setPassword("secret");
+        context.setNow(new Date(1234567890123L));
+        context.getEnvironmentAttributes().set("envKey",
+                                               new String[] {"a", "b"});
+        context.setRecoveryValue("recoveryKey", "\u00e9t\u00e9");
+
+        ConsumerJournalEntry written =
+                new ConsumerJournalEntry(METHOD_MODIFY_DATASTREAM_BY_VALUE,
+                                         context);
+        written.addArgument("string", "theString");
+        written.addArgument("stringArray", new String[] {"x", "y", "z"});
+        written.addArgument("integer", 42);
+        written.addArgument("boolean", true);
+        written.addArgument("date", new Date(987654321L));
+        written.addArgument("null", (Object) null);
+        written.addArgument("stream", stream("small"));
+
+        writeJournal(written);
+
+        BinaryJournalInput input = openJournal();
+        input.readHeader();
+        assertEquals(HASH, input.getRepositoryHash());
+        assertTrue(input.hasNextEntry());
+        ConsumerJournalEntry read = input.readEntry();
+        assertEquals(METHOD_MODIFY_DATASTREAM_BY_VALUE, read.getMethodName());
+        assertEquals(context, read.getContext());
+        assertEquals("secret", read.getContext().getPassword());
+        assertEquals("theString", read.getStringArgument("string"));
+        assertTrue(Arrays.equals(new String[] {"x", "y", "z"}, read
+                .getStringArrayArgument("stringArray")));
+        assertEquals(42, read.getIntegerArgument("integer"));
+        assertTrue(read.getBooleanArgument("boolean"));
+        assertEquals(new Date(987654321L), read.getDateArgument("date"));
+        assertTrue(read.getArgumentsMap().containsKey("null"));
+        assertNull(read.getArgumentsMap().get("null"));
+        assertEquals("small", content(read.getStreamArgument("stream")));
+        assertTrue(JournalHelper.isTempFile((File) read.getArgumentsMap()
+                .get("stream")));
+        assertFalse(input.hasNextEntry());
+        assertNull(input.readEntry());
+        assertTrue(input.getContentDigests().isEmpty());
+        input.close();
+        read.close();
+        written.close();
+    }
+
+    @Test
+    public void largeStreamsGoToContentFiles() throws Exception {
+        String large = "larger than the inline limit";
+        writeJournal(getStreamEntry(large), getStreamEntry(large));
+
+        File[] contentFiles = contentStore.getDirectory().listFiles();
+        assertEquals(1, contentFiles.length);
+
+        BinaryJournalInput input = openJournal();
+        input.readHeader();
+        for (int i = 0; i < 2; i++) {
+            ConsumerJournalEntry read = input.readEntry();
+            File file = (File) read.getArgumentsMap().get("serialization");
+            assertEquals(contentFiles[0], file);
+            assertFalse(JournalHelper.isTempFile(file));
+            assertEquals(large, content(read.getStreamArgument("serialization")));
+            read.close();
+            assertTrue(file.exists());
+        }
+        assertNull(input.readEntry());
+        assertEquals(2, input.getContentDigests().size());
+        input.close();
+
+        String digest = input.getContentDigests().get(0);
+        contentStore.moveTo(digest, archiveContentStore);
+        assertNull(contentStore.get(digest));
+        assertEquals(large, content(new FileInputStream(archiveContentStore
+                .get(digest))));
+    }
+
+    @Test
+    public void contentIsFoundInLaterStores() throws Exception {
+        writeJournal(getStreamEntry("larger than the inline limit"));
+        String digest = contentStore.getDirectory().list()[0];
+        contentStore.moveTo(digest, archiveContentStore);
+
+        BinaryJournalInput input = openJournal();
+        input.readHeader();
+        File file =
+                (File) input.readEntry().getArgumentsMap()
+                        .get("serialization");
+        assertEquals(archiveContentStore.get(digest), file);
+        input.close();
+    }
+
+    @Test
+    public void missingContentIsReported() throws Exception {
+        writeJournal(getStreamEntry("larger than the inline limit"));
+        delete(contentStore.getDirectory());
+
+        BinaryJournalInput input = openJournal();
+        input.readHeader();
+        try {
+            input.readEntry();
+            fail("missing content was not reported");
+        } catch (JournalException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("not found"));
+        }
+        input.close();
+    }
+
+    @Test
+    public void damagedRecordIsReported() throws Exception {
+        writeJournal(getStreamEntry("small"));
+
+        RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+        file.seek(file.length() / 2);
+        int b = file.read();
+        file.seek(file.length() / 2);
+        file.write(b ^ 0xff);
+        file.close();
+
+        BinaryJournalInput input = openJournal();
+        input.readHeader();
+        try {
+            input.readEntry();
+            fail("damaged record was not reported");
+        } catch (JournalException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("CRC"));
+        }
+        input.close();
+    }
+
+    @Test
+    public void missingTrailerIsReported() throws Exception {
+        writeJournal(getStreamEntry("small"));
+
+        // the trailer record is a length, a CRC and a record type.
+        RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+        file.setLength(file.length() - 9);
+        file.close();
+
+        BinaryJournalInput input = openJournal();
+        input.readHeader();
+        assertTrue(input.hasNextEntry());
+        input.readEntry();
+        try {
+            input.hasNextEntry();
+            fail("missing trailer was not reported");
+        } catch (JournalException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("trailer"));
+        }
+        input.close();
+    }
+
+    @Test
+    public void xmlJournalIsNotBinary() throws Exception {
+        FileWriter writer = new FileWriter(journalFile);
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        writer.close();
+        assertFalse(BinaryJournalInput.isBinaryJournal(journalFile));
+
+        writeJournal();
+        assertTrue(BinaryJournalInput.isBinaryJournal(journalFile));
+    }
+
+    private ConsumerJournalEntry getStreamEntry(String content)
+            throws Exception {
+        JournalEntryContext context = new JournalEntryContext();
+        ConsumerJournalEntry entry =
+                new ConsumerJournalEntry(METHOD_INGEST, context);
+        entry.addArgument("serialization", stream(content));
+        entry.addArgument("pid", "demo:1");
+        return entry;
+    }
+
+    private void writeJournal(JournalEntry... entries) throws Exception {
+        BinaryJournalOutput output =
+                new BinaryJournalOutput(new BufferedOutputStream(new FileOutputStream(journalFile)),
+                                        contentStore,
+                                        INLINE_LIMIT);
+        output.writeHeader(HASH, new Date());
+        for (JournalEntry entry : entries) {
+            output.writeEntry(entry);
+        }
+        output.writeTrailer();
+        output.close();
+    }
+
+    private BinaryJournalInput openJournal() throws IOException {
+        return new BinaryJournalInput(new BufferedInputStream(new FileInputStream(journalFile)),
+                                      journalFile.getPath(),
+                                      contentStore,
+                                      archiveContentStore);
+    }
+
+    private static InputStream stream(String content) throws IOException {
+        return new ByteArrayInputStream(content.getBytes("UTF-8"));
+    }
+
+    private static String content(InputStream in) throws IOException {
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
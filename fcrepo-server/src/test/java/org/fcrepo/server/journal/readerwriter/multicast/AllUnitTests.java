@@ -12,7 +12,8 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses( {TestMulticastJournalWriterInitializations.class,
         TestMulticastJournalWriterOperation.class,
         TestJournalEntrySizeEstimator.class, TestLocalDirectoryTransport.class,
-        org.fcrepo.server.journal.readerwriter.multicast.rmi.AllUnitTests.class})
+        org.fcrepo.server.journal.readerwriter.multicast.rmi.AllUnitTests.class,
+        org.fcrepo.server.journal.readerwriter.multicast.socket.AllUnitTests.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -28,6 +29,9 @@ public class AllUnitTests {
         suite
                 .addTest(org.fcrepo.server.journal.readerwriter.multicast.rmi.AllUnitTests
                         .suite());
+        suite
+                .addTest(org.fcrepo.server.journal.readerwriter.multicast.socket.AllUnitTests
+                        .suite());
 
         return suite;
     }
@@ -0,0 +1,375 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.journal.readerwriter.multicast.socket;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.readerwriter.multicast.TransportParent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Stream journal files from a {@link SocketTransport} to a
+ * {@link SocketJournalReceiver}, and check what happens when the receiver is
+ * slow or missing.
+ */
+public class TestSocketTransport {
+
+    private static final String FILENAME = "journalFile1";
+
+    private static final String HASH = "theHash";
+
+    private static final long TIMEOUT = 10000;
+
+    private static final XMLEventFactory factory =
+            XMLEventFactory.newInstance();
+
+    private File directory;
+
+    private SocketJournalReceiver receiver;
+
+    private ServerSocket silentServer;
+
+    private Map<String, String> parameters;
+
+    private SocketTransport transport;
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestSocketTransport.class);
+    }
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("socketJournal", "");
+        directory.delete();
+        directory.mkdir();
+
+        parameters = new HashMap<String, String>();
+        parameters.put(SocketTransport.PARAMETER_HOST_NAME, "localhost");
+    }
+
+    @After
+    public void cleanUp() throws Exception {
+        if (transport != null) {
+            transport.shutdown();
+        }
+        if (receiver != null) {
+            receiver.stop();
+        }
+        if (silentServer != null) {
+            silentServer.close();
+        }
+        File[] files = directory.listFiles();
+        for (File file : files) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void fileIsStreamedToTheReceiver() throws Exception {
+        fileIsStreamed();
+    }
+
+    @Test
+    public void compressedFileIsStreamedToTheReceiver() throws Exception {
+        parameters.put(SocketTransport.PARAMETER_COMPRESS, "true");
+        fileIsStreamed();
+    }
+
+    @Test
+    public void entriesLargerThanTheBufferAreSentInPieces() throws Exception {
+        parameters.put(SocketTransport.PARAMETER_BUFFER_SIZE, "7");
+        fileIsStreamed();
+    }
+
+    /** The window limits what is unacknowledged, not the size of an entry. */
+    @Test
+    public void entriesLargerThanTheWindowAreSent() throws Exception {
+        parameters.put(SocketTransport.PARAMETER_BUFFER_SIZE, "1024");
+        parameters.put(SocketTransport.PARAMETER_WINDOW_SIZE, "4096");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            text.append("text").append(i).append(' ');
+        }
+
+        startReceiver();
+        transport.openFile(HASH, FILENAME, new Date());
+        writeEntry(text.toString());
+        transport.closeFile();
+        transport.shutdown();
+
+        File file = new File(directory, FILENAME);
+        waitFor(file);
+        String contents = readFile(file);
+        assertTrue(contents.contains("<entry>" + text + "</entry>"));
+    }
+
+    @Test
+    public void slowReceiverIsDetached() throws Exception {
+        silentServer = new ServerSocket(0);
+        parameters.put(SocketTransport.PARAMETER_PORT_NUMBER, String
+                .valueOf(silentServer.getLocalPort()));
+        parameters.put(SocketTransport.PARAMETER_WINDOW_SIZE, "4096");
+        parameters.put(SocketTransport.PARAMETER_ACK_TIMEOUT, "200");
+        transport = new SocketTransport(parameters, false, new Parent());
+
+        transport.openFile(HASH, FILENAME, new Date());
+        Socket accepted = silentServer.accept();
+        try {
+            // nobody acknowledges, so the window fills up.
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    writeEntry("entry" + i);
+                }
+                fail("Expected the receiver to be detached.");
+            } catch (XMLStreamException e) {
+                // expected
+            }
+            assertEquals(0, transport.getUnacknowledgedBytes());
+
+            // once detached, the rest of the file is discarded.
+            writeEntry("afterwards");
+            long start = System.currentTimeMillis();
+            transport.closeFile();
+            assertTrue(System.currentTimeMillis() - start < TIMEOUT);
+
+            // the receiver is missing the rest of the file, so the transport
+            // doesn't connect again.
+            try {
+                transport.openFile(HASH, "journalFile2", new Date());
+                fail("Expected the open to fail.");
+            } catch (JournalException e) {
+                // expected
+            }
+            writeEntry("discarded");
+            transport.closeFile();
+            silentServer.setSoTimeout(200);
+            try {
+                silentServer.accept().close();
+                fail("Expected no new connection.");
+            } catch (SocketTimeoutException e) {
+                // expected
+            }
+        } finally {
+            accepted.close();
+        }
+    }
+
+    @Test
+    public void receiverRefusesFilesWhileOneIsIncomplete() throws Exception {
+        File incomplete = new File(directory, "_journalFile0");
+        incomplete.createNewFile();
+
+        startReceiver();
+        // the refusal is reported by whichever call finds it.
+        try {
+            transport.openFile(HASH, FILENAME, new Date());
+            writeEntry("refused");
+        } catch (Exception e) {
+            // expected
+        }
+        try {
+            transport.closeFile();
+        } catch (JournalException e) {
+            // expected
+        }
+        transport.shutdown();
+
+        assertFalse(new File(directory, FILENAME).exists());
+        assertFalse(new File(directory, "_" + FILENAME).exists());
+        assertTrue(incomplete.exists());
+    }
+
+    @Test
+    public void missingReceiverFailsTheOpen() throws Exception {
+        ServerSocket unused = new ServerSocket(0);
+        int port = unused.getLocalPort();
+        unused.close();
+        parameters.put(SocketTransport.PARAMETER_PORT_NUMBER, String
+                .valueOf(port));
+        transport = new SocketTransport(parameters, false, new Parent());
+
+        try {
+            transport.openFile(HASH, FILENAME, new Date());
+            fail("Expected the open to fail.");
+        } catch (JournalException e) {
+            // expected
+        }
+
+        // the file is open, though nothing reaches a receiver.
+        writeEntry("discarded");
+        transport.closeFile();
+    }
+
+    @Test(expected = JournalException.class)
+    public void portIsRequired() throws Exception {
+        new SocketTransport(parameters, false, new Parent());
+    }
+
+    @Test(expected = JournalException.class)
+    public void bufferSizeMustFitInAFrame() throws Exception {
+        parameters.put(SocketTransport.PARAMETER_PORT_NUMBER, "9999");
+        parameters.put(SocketTransport.PARAMETER_BUFFER_SIZE, String
+                .valueOf(SocketTransport.MAX_BUFFER_SIZE + 1));
+        new SocketTransport(parameters, false, new Parent());
+    }
+
+    @Test
+    public void negativeFrameLengthClosesTheConnection() throws Exception {
+        invalidFrameLengthClosesTheConnection(-1);
+    }
+
+    @Test
+    public void hugeFrameLengthClosesTheConnection() throws Exception {
+        invalidFrameLengthClosesTheConnection(SocketJournalProtocol.MAX_FRAME_SIZE
+                + 1);
+    }
+
+    private void invalidFrameLengthClosesTheConnection(int length)
+            throws Exception {
+        receiver = new SocketJournalReceiver(directory, 0);
+        receiver.start();
+        Socket socket = new Socket("localhost", receiver.getPort());
+        try {
+            socket.setSoTimeout((int) TIMEOUT);
+            DataOutputStream out =
+                    new DataOutputStream(socket.getOutputStream());
+            out.writeInt(SocketJournalProtocol.MAGIC);
+            out.writeInt(SocketJournalProtocol.PROTOCOL_VERSION);
+            out.writeByte(SocketJournalProtocol.WRITE_TEXT);
+            out.writeLong(1);
+            out.writeInt(length);
+            out.flush();
+
+            // no acknowledgement; the receiver just hangs up.
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void startReceiver() throws Exception {
+        receiver = new SocketJournalReceiver(directory, 0);
+        receiver.start();
+        parameters.put(SocketTransport.PARAMETER_PORT_NUMBER, String
+                .valueOf(receiver.getPort()));
+        transport = new SocketTransport(parameters, false, new Parent());
+    }
+
+    private void fileIsStreamed() throws Exception {
+        startReceiver();
+        transport.openFile(HASH, FILENAME, new Date());
+        writeEntry("first");
+        writeEntry("second & last");
+        transport.closeFile();
+        transport.shutdown();
+
+        File file = new File(directory, FILENAME);
+        waitFor(file);
+        String contents = readFile(file);
+        assertTrue(contents, contents.contains("repositoryHash=\"" + HASH
+                + "\""));
+        assertTrue(contents, contents.contains("<entry>first</entry>"));
+        assertTrue(contents, contents
+                .contains("<entry>second &amp; last</entry>"));
+        assertTrue(contents, contents.trim().endsWith("</TestJournal>"));
+        assertFalse(new File(directory, "_" + FILENAME).exists());
+    }
+
+    private void writeEntry(String text) throws Exception {
+        XMLEventWriter writer = transport.getWriter();
+        writer.add(factory.createStartElement(new QName("entry"), null, null));
+        writer.add(factory.createCharacters(text));
+        writer.add(factory.createEndElement(new QName("entry"), null));
+        writer.flush();
+    }
+
+    private static void waitFor(File file) throws InterruptedException {
+        long limit = System.currentTimeMillis() + TIMEOUT;
+        while (!file.exists() && System.currentTimeMillis() < limit) {
+            Thread.sleep(10);
+        }
+        assertTrue("Expected " + file, file.exists());
+    }
+
+    private static String readFile(File file) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        Reader reader = new FileReader(file);
+        try {
+            char[] buffer = new char[4096];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                contents.append(buffer, 0, count);
+            }
+        } finally {
+            reader.close();
+        }
+        return contents.toString();
+    }
+
+    /**
+     * Writes a minimal document around the entries.
+     */
+    private static class Parent
+            implements TransportParent {
+
+        public void writeDocumentHeader(XMLEventWriter writer,
+                                        String repositoryHash,
+                                        Date currentDate)
+                throws JournalException {
+            try {
+                writer.add(factory.createStartDocument());
+                writer.add(factory.createStartElement(new QName("TestJournal"),
+                                                      null,
+                                                      null));
+                writer.add(factory.createAttribute("repositoryHash",
+                                                   repositoryHash));
+                writer.flush();
+            } catch (XMLStreamException e) {
+                throw new JournalException(e);
+            }
+        }
+
+        public void writeDocumentTrailer(XMLEventWriter writer)
+                throws JournalException {
+            try {
+                writer.add(factory.createEndElement(new QName("TestJournal"),
+                                                    null));
+                writer.add(factory.createEndDocument());
+            } catch (XMLStreamException e) {
+                throw new JournalException(e);
+            }
+        }
+    }
+}
@@ -8,7 +8,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {TestLockingFollowingJournalReader.class})
+@Suite.SuiteClasses( {TestJournalFileFollowing.class,
+        TestJournalGroupCommitter.class,
+        TestLockingFollowingJournalReader.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -17,6 +19,8 @@ public class AllUnitTests {
         junit.framework.TestSuite suite =
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
 
+        suite.addTest(TestJournalFileFollowing.suite());
+        suite.addTest(TestJournalGroupCommitter.suite());
         suite.addTestSuite(TestLockingFollowingJournalReader.class);
 
         return suite;
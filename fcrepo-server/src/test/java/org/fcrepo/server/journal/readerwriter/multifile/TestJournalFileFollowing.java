@@ -0,0 +1,323 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.readerwriter.multifile;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.JournalWriter;
+import org.fcrepo.server.journal.MockJournalRecoveryLog;
+import org.fcrepo.server.journal.MockServerForJournalTesting;
+import org.fcrepo.server.journal.ServerInterface;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.entry.CreatorJournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Follow a {@link MultiFileJournalWriter} with a
+ * {@link MultiFileFollowingJournalReader}, and check that entries are read
+ * as soon as they are written.
+ */
+public class TestJournalFileFollowing
+        implements JournalConstants, MultiFileJournalConstants {
+
+    private static final String JOURNAL_FILENAME_PREFIX = "unit";
+
+    private static final String HASH = "theHash";
+
+    /** Long enough that a test which waits for it will time out. */
+    private static final String POLLING_INTERVAL = "60";
+
+    private static final long TIMEOUT = 10000;
+
+    private File journalDirectory;
+
+    private File archiveDirectory;
+
+    private Map<String, String> parameters;
+
+    private ServerInterface server;
+
+    private MultiFileJournalWriter writer;
+
+    private MultiFileFollowingJournalReader reader;
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestJournalFileFollowing.class);
+    }
+
+    @Before
+    public void createDirectories() throws IOException {
+        journalDirectory = createTempDirectory("followJournal");
+        archiveDirectory = createTempDirectory("followArchive");
+
+        parameters = new HashMap<String, String>();
+        parameters.put(PARAMETER_JOURNAL_DIRECTORY, journalDirectory.getPath());
+        parameters.put(PARAMETER_ARCHIVE_DIRECTORY, archiveDirectory.getPath());
+        parameters.put(PARAMETER_JOURNAL_FILENAME_PREFIX,
+                       JOURNAL_FILENAME_PREFIX);
+        parameters.put(PARAMETER_FOLLOW_POLLING_INTERVAL, POLLING_INTERVAL);
+        parameters.put(PARAMETER_FOLLOW_CHECK_INTERVAL, "10");
+        parameters.put(PARAMETER_FOLLOW_OPEN_FILE, "true");
+
+        server = new MockServerForJournalTesting(null, HASH);
+    }
+
+    @After
+    public void deleteDirectories() throws JournalException {
+        if (writer != null) {
+            writer.shutdown();
+        }
+        if (reader != null) {
+            reader.shutdown();
+        }
+        delete(journalDirectory);
+        delete(archiveDirectory);
+    }
+
+    @Test
+    public void binaryEntriesAreReadWhileTheFileIsWritten() throws Exception {
+        parameters.put(PARAMETER_JOURNAL_FORMAT, VALUE_JOURNAL_FORMAT_BINARY);
+        entriesAreReadWhileTheFileIsWritten();
+    }
+
+    @Test
+    public void xmlEntriesAreReadWhileTheFileIsWritten() throws Exception {
+        parameters.put(PARAMETER_JOURNAL_FORMAT, VALUE_JOURNAL_FORMAT_XML);
+        entriesAreReadWhileTheFileIsWritten();
+    }
+
+    @Test
+    public void shutdownStopsWaitingForTheOpenFile() throws Exception {
+        parameters.put(PARAMETER_JOURNAL_FORMAT, VALUE_JOURNAL_FORMAT_BINARY);
+        writer = createWriter();
+        reader = createReader();
+        writeEntry("demo:1");
+        assertEquals("demo:1", getPid(reader.readJournalEntry()));
+
+        ReadingThread reading = new ReadingThread();
+        reading.start();
+        Thread.sleep(100);
+        assertTrue(reading.isAlive());
+        assertTrue(reader.isWaitingForEntries());
+
+        reader.shutdown();
+        reading.join(TIMEOUT);
+        assertFalse(reading.isAlive());
+        assertNull(reading.problem);
+        assertNull(reading.entry);
+
+        // the writer still has the file, so it stays where it is.
+        assertEquals(0, archiveDirectory.list().length);
+        assertEquals(1, MultiFileJournalHelper
+                .getSortedArrayOfJournalFilesBeingWritten(journalDirectory,
+                                                          JOURNAL_FILENAME_PREFIX).length);
+    }
+
+    @Test
+    public void newFileIsFoundBeforeThePollingInterval() throws Exception {
+        parameters.put(PARAMETER_JOURNAL_FORMAT, VALUE_JOURNAL_FORMAT_BINARY);
+        parameters.put(PARAMETER_FOLLOW_OPEN_FILE, "false");
+        writer = createWriter();
+        reader = createReader();
+
+        ReadingThread reading = new ReadingThread();
+        reading.start();
+        Thread.sleep(100);
+        writeEntry("demo:1");
+        writer.shutdown();
+
+        reading.join(TIMEOUT);
+        assertFalse(reading.isAlive());
+        assertNull(reading.problem);
+        assertEquals("demo:1", getPid(reading.entry));
+        assertFalse(reader.isWaitingForEntries());
+    }
+
+    @Test
+    public void orphanedFileIsAbandonedWhenANewerFileAppears()
+            throws Exception {
+        parameters.put(PARAMETER_JOURNAL_FORMAT, VALUE_JOURNAL_FORMAT_XML);
+        writer = createWriter();
+        writeEntry("demo:1");
+        writer.shutdown();
+        File orphan = leaveUncompleted(getOnlyFile(journalDirectory));
+
+        reader = createReader();
+        assertEquals("demo:1", getPid(reader.readJournalEntry()));
+
+        ReadingThread reading = new ReadingThread();
+        reading.start();
+        Thread.sleep(100);
+        assertTrue(reading.isAlive());
+
+        // a new writer starts a newer file, so the orphan is given up.
+        writer = createWriter();
+        writeEntry("demo:2");
+        reading.join(TIMEOUT);
+        assertFalse(reading.isAlive());
+        assertNull(reading.problem);
+        assertEquals("demo:2", getPid(reading.entry));
+        assertTrue(new File(archiveDirectory, orphan.getName()).exists());
+        assertFalse(orphan.exists());
+    }
+
+    private void entriesAreReadWhileTheFileIsWritten() throws Exception {
+        writer = createWriter();
+        reader = createReader();
+
+        writeEntry("demo:1");
+        assertEquals("demo:1", getPid(reader.readJournalEntry()));
+        writeEntry("demo:2");
+        assertEquals("demo:2", getPid(reader.readJournalEntry()));
+        assertEquals(0, archiveDirectory.list().length);
+
+        // when the writer is done, the file is archived, and the reader
+        // waits for the next one.
+        ReadingThread reading = new ReadingThread();
+        reading.start();
+        writer.shutdown();
+        long limit = System.currentTimeMillis() + TIMEOUT;
+        while (archiveDirectory.list().length == 0
+                && System.currentTimeMillis() < limit) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, archiveDirectory.list().length);
+        assertEquals(0, journalDirectory.list().length);
+        assertTrue(reading.isAlive());
+        Thread.sleep(100);
+        assertTrue(reader.isWaitingForEntries());
+
+        reader.shutdown();
+        reading.join(TIMEOUT);
+        assertNull(reading.problem);
+        assertNull(reading.entry);
+    }
+
+    private MultiFileJournalWriter createWriter() throws JournalException {
+        return new MultiFileJournalWriter(parameters, "theRole", server);
+    }
+
+    private MultiFileFollowingJournalReader createReader() throws Exception {
+        return new MultiFileFollowingJournalReader(parameters,
+                                                   "theRole",
+                                                   new MockJournalRecoveryLog(parameters,
+                                                                              "theRole",
+                                                                              server),
+                                                   server);
+    }
+
+    private void writeEntry(String pid) throws JournalException {
+        CreatorJournalEntry entry =
+                new CreatorJournalEntry(METHOD_PURGE_OBJECT,
+                                        new JournalEntryContext());
+        entry.addArgument(ARGUMENT_NAME_PID, pid);
+        synchronized (JournalWriter.SYNCHRONIZER) {
+            writer.prepareToWriteJournalEntry();
+            writer.writeJournalEntry(entry);
+        }
+    }
+
+    /**
+     * Make a completed XML file look like one whose writer crashed: no
+     * trailer, and the name it has while it is being written.
+     */
+    private static File leaveUncompleted(File file) throws IOException {
+        String contents = readFile(file);
+        int trailer = contents.lastIndexOf("</");
+        File orphan = new File(file.getParentFile(), "_" + file.getName());
+        Writer out = new FileWriter(orphan);
+        try {
+            out.write(contents.substring(0, trailer));
+        } finally {
+            out.close();
+        }
+        file.delete();
+        return orphan;
+    }
+
+    private static File getOnlyFile(File directory) {
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static String readFile(File file) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        Reader in = new FileReader(file);
+        try {
+            char[] buffer = new char[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                contents.append(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        return contents.toString();
+    }
+
+    private static String getPid(ConsumerJournalEntry entry) {
+        return entry.getStringArgument(ARGUMENT_NAME_PID);
+    }
+
+    private static File createTempDirectory(String name) throws IOException {
+        File directory = File.createTempFile(name, "");
+        directory.delete();
+        directory.mkdir();
+        return directory;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Read the next entry on a thread of its own, since the reader waits for
+     * it.
+     */
+    private class ReadingThread
+            extends Thread {
+
+        volatile ConsumerJournalEntry entry;
+
+        volatile Exception problem;
+
+        @Override
+        public void run() {
+            try {
+                entry = reader.readJournalEntry();
+            } catch (Exception e) {
+                problem = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.readerwriter.multifile;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.JournalWriter;
+import org.fcrepo.server.journal.MockServerForJournalTesting;
+import org.fcrepo.server.journal.binaryhelpers.BinaryJournalInput;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.entry.CreatorJournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Write entries to a {@link MultiFileJournalWriter} from several threads, with
+ * group commit, and check that each is in the Journal, in order, when its
+ * thread is released.
+ */
+public class TestJournalGroupCommitter
+        implements JournalConstants, MultiFileJournalConstants {
+
+    private static final String JOURNAL_FILENAME_PREFIX = "unit";
+
+    private File journalDirectory;
+
+    private Map<String, String> parameters;
+
+    private MultiFileJournalWriter writer;
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestJournalGroupCommitter.class);
+    }
+
+    @Before
+    public void createJournalDirectory() throws IOException {
+        journalDirectory = File.createTempFile("groupCommit", "");
+        journalDirectory.delete();
+        journalDirectory.mkdir();
+
+        parameters = new HashMap<String, String>();
+        parameters.put(PARAMETER_JOURNAL_DIRECTORY, journalDirectory.getPath());
+        parameters.put(PARAMETER_JOURNAL_FILENAME_PREFIX,
+                       JOURNAL_FILENAME_PREFIX);
+        parameters.put(PARAMETER_JOURNAL_FORMAT, VALUE_JOURNAL_FORMAT_BINARY);
+        parameters.put(PARAMETER_GROUP_COMMIT_DELAY, "10");
+    }
+
+    @After
+    public void deleteJournalDirectory() throws JournalException {
+        if (writer != null) {
+            writer.shutdown();
+        }
+        for (File file : journalDirectory.listFiles()) {
+            file.delete();
+        }
+        journalDirectory.delete();
+    }
+
+    @Test
+    public void entryIsSyncedWhenCallerIsReleased() throws Exception {
+        writer = createWriter();
+        writeEntry("demo:1");
+        assertEquals(1, writer.getGroupCommitter().getEntryCount());
+        assertEquals(Collections.singletonList("demo:1"), readPids());
+    }
+
+    @Test
+    public void concurrentEntriesShareGroups() throws Exception {
+        writer = createWriter();
+        final int threadCount = 8;
+        final int entriesPerThread = 25;
+        final List<Exception> errors =
+                Collections.synchronizedList(new ArrayList<Exception>());
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < entriesPerThread; j++) {
+                            writeEntry(thread + ":" + j);
+                        }
+                    } catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+
+        JournalGroupCommitter committer = writer.getGroupCommitter();
+        assertEquals(threadCount * entriesPerThread, committer.getEntryCount());
+        assertTrue("groups: " + committer.getGroupCount(), committer
+                .getGroupCount() < committer.getEntryCount());
+
+        writer.shutdown();
+        List<String> pids = readPids();
+        assertEquals(threadCount * entriesPerThread, pids.size());
+        for (int i = 0; i < threadCount; i++) {
+            int next = 0;
+            for (String pid : pids) {
+                if (pid.startsWith(i + ":")) {
+                    assertEquals(i + ":" + next++, pid);
+                }
+            }
+            assertEquals(entriesPerThread, next);
+        }
+    }
+
+    @Test
+    public void queuedEntriesGoToTheFileTheyWereQueuedFor() throws Exception {
+        parameters.put(PARAMETER_GROUP_COMMIT_DELAY, "1500");
+        parameters.put(PARAMETER_JOURNAL_FILE_AGE_LIMIT, "1");
+        writer = createWriter();
+
+        // the file times out while the first entry is queued for it.
+        CreatorJournalEntry first = queueEntry("demo:1");
+        Thread.sleep(1100);
+        CreatorJournalEntry second = queueEntry("demo:2");
+        writer.awaitJournalEntry(first);
+        writer.awaitJournalEntry(second);
+        writer.shutdown();
+
+        File[] files =
+                MultiFileJournalHelper
+                        .getSortedArrayOfJournalFiles(journalDirectory,
+                                                      JOURNAL_FILENAME_PREFIX);
+        assertEquals(2, files.length);
+        assertEquals(Collections.singletonList("demo:1"), readPids(files[0]));
+        assertEquals(Collections.singletonList("demo:2"), readPids(files[1]));
+    }
+
+    private MultiFileJournalWriter createWriter() throws JournalException {
+        return new MultiFileJournalWriter(parameters,
+                                          "theRole",
+                                          new MockServerForJournalTesting(null,
+                                                                          "theHash"));
+    }
+
+    /**
+     * Do as {@link CreatorJournalEntry} does, without the management method.
+     */
+    private void writeEntry(String pid) throws JournalException {
+        writer.awaitJournalEntry(queueEntry(pid));
+    }
+
+    private CreatorJournalEntry queueEntry(String pid) throws JournalException {
+        CreatorJournalEntry entry =
+                new CreatorJournalEntry(METHOD_PURGE_OBJECT,
+                                        new JournalEntryContext());
+        entry.addArgument(ARGUMENT_NAME_PID, pid);
+        synchronized (JournalWriter.SYNCHRONIZER) {
+            writer.prepareToWriteJournalEntry();
+            writer.writeJournalEntry(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Read the PIDs from all of the Journal files, including the one that is
+     * still being written.
+     */
+    private List<String> readPids() throws Exception {
+        List<String> pids = new ArrayList<String>();
+        File[] files = journalDirectory.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isFile()) {
+                pids.addAll(readPids(file));
+            }
+        }
+        return pids;
+    }
+
+    private List<String> readPids(File file) throws Exception {
+        List<String> pids = new ArrayList<String>();
+        BinaryJournalInput input =
+                new BinaryJournalInput(new BufferedInputStream(new FileInputStream(file)),
+                                       file.getPath());
+        try {
+            input.readHeader();
+            while (true) {
+                ConsumerJournalEntry entry;
+                try {
+                    entry = input.readEntry();
+                } catch (JournalException e) {
+                    // a file that is still open has no trailer.
+                    break;
+                }
+                if (entry == null) {
+                    break;
+                }
+                pids.add(entry.getStringArgument(ARGUMENT_NAME_PID));
+            }
+        } finally {
+            input.close();
+        }
+        return pids;
+    }
+}
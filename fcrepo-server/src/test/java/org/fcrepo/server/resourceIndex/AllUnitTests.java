@@ -0,0 +1,29 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.resourceIndex;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses( {ModelBasedTripleGeneratorTest.class,
+                      ResourceIndexUpdateQueueTest.class,
+                      ResourceIndexRebuilderTest.class})
+public class AllUnitTests {
+
+    // Supports legacy tests runners
+    public static junit.framework.Test suite() throws Exception {
+
+        junit.framework.TestSuite suite =
+                new junit.framework.TestSuite(AllUnitTests.class.getName());
+
+        suite.addTest(ModelBasedTripleGeneratorTest.suite());
+        suite.addTest(ResourceIndexUpdateQueueTest.suite());
+        suite.addTest(ResourceIndexRebuilderTest.suite());
+
+        return suite;
+    }
+}
@@ -0,0 +1,137 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jrdf.graph.Triple;
+
+import org.junit.Test;
+
+import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.server.storage.MockDOReader;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DigitalObject;
+import org.fcrepo.server.storage.types.ObjectBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link ModelBasedTripleGenerator#getTripleDiffs} gives the same
+ * result as diffing all triples of both versions of an object.
+ */
+public class ModelBasedTripleGeneratorTest {
+
+    private final ModelBasedTripleGenerator m_generator =
+            new ModelBasedTripleGenerator();
+
+    @Test
+    public void testUnchanged() throws Exception {
+        DigitalObject original = getTestObject();
+        DigitalObject modified = ObjectBuilder.deepCopy(original);
+        assertTrue(checkDiffs(original, modified).isEmpty());
+    }
+
+    @Test
+    public void testModifyLabel() throws Exception {
+        DigitalObject original = getTestObject();
+        DigitalObject modified = ObjectBuilder.deepCopy(original);
+        modified.setLabel("new label");
+        modified.setLastModDate(new Date());
+        // label and lastModifiedDate, each deleted and added
+        assertEquals(4, checkDiffs(original, modified).size());
+    }
+
+    @Test
+    public void testAddAndRemoveDatastreams() throws Exception {
+        DigitalObject original = getTestObject();
+        ObjectBuilder.addEDatastream(original, "DS1");
+        DigitalObject modified = ObjectBuilder.deepCopy(original);
+        remove(modified, "DS1");
+        ObjectBuilder.addMDatastream(modified, "DS2");
+        checkDiffs(original, modified);
+    }
+
+    @Test
+    public void testModifyDatastreamState() throws Exception {
+        DigitalObject original = getTestObject();
+        ObjectBuilder.addEDatastream(original, "DS1");
+        DigitalObject modified = ObjectBuilder.deepCopy(original);
+        for (Datastream ds : modified.datastreams("DS1")) {
+            ds.DSState = "I";
+        }
+        // the datastream's state, deleted and added
+        assertEquals(2, checkDiffs(original, modified).size());
+    }
+
+    @Test
+    public void testModifyDC() throws Exception {
+        DigitalObject original = getTestObject();
+        DigitalObject modified = ObjectBuilder.deepCopy(original);
+        remove(modified, "DC");
+        ObjectBuilder.addXDatastream(modified, "DC", ObjectBuilder
+                .getDC("<dc:title>new title</dc:title>"));
+        checkDiffs(original, modified);
+    }
+
+    @Test
+    public void testModifyRelsExt() throws Exception {
+        DigitalObject original = getTestObject();
+        DigitalObject modified = ObjectBuilder.deepCopy(original);
+        remove(modified, "RELS-EXT");
+        ObjectBuilder.addXDatastream(modified, "RELS-EXT", ObjectBuilder
+                .getRELSEXT("test:1", "<foo:bar rdf:resource=\"urn:baz\"/>"));
+        checkDiffs(original, modified);
+    }
+
+    /**
+     * Asserts that the incremental diffs equal the full diffs and returns all
+     * changed triples.
+     */
+    private Set<Triple> checkDiffs(DigitalObject original,
+                                   DigitalObject modified) throws Exception {
+        DOReader oldReader = new MockDOReader(original);
+        DOReader newReader = new MockDOReader(modified);
+
+        Set<Triple> expectedDeletes = new HashSet<Triple>();
+        Set<Triple> expectedAdds = new HashSet<Triple>();
+        TripleGeneratorBase.diff(m_generator.getTriplesForObject(oldReader),
+                                 m_generator.getTriplesForObject(newReader),
+                                 expectedDeletes,
+                                 expectedAdds);
+
+        Set<Triple> deletes = new HashSet<Triple>();
+        Set<Triple> adds = new HashSet<Triple>();
+        m_generator.getTripleDiffs(oldReader, newReader, deletes, adds);
+
+        assertEquals(expectedDeletes, deletes);
+        assertEquals(expectedAdds, adds);
+
+        Set<Triple> changed = new HashSet<Triple>(deletes);
+        changed.addAll(adds);
+        return changed;
+    }
+
+    private static DigitalObject getTestObject() {
+        DigitalObject obj = ObjectBuilder.getTestObject("test:1", "test1");
+        ObjectBuilder.addXDatastream(obj, "DC", ObjectBuilder
+                .getDC("<dc:title>test</dc:title>"));
+        return obj;
+    }
+
+    private static void remove(DigitalObject obj, String dsId) {
+        for (Datastream ds : obj.datastreams(dsId)) {
+            obj.removeDatastreamVersion(ds);
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ModelBasedTripleGeneratorTest.class);
+    }
+}
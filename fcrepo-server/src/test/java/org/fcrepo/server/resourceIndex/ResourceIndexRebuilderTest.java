@@ -0,0 +1,202 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.io.IOException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.net.URI;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.common.rdf.SimpleLiteral;
+import org.fcrepo.common.rdf.SimpleTriple;
+import org.fcrepo.common.rdf.SimpleURIReference;
+import org.fcrepo.server.errors.ResourceIndexException;
+import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.server.storage.types.BasicDigitalObject;
+import org.fcrepo.server.storage.types.DigitalObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the chunked writes of {@link ResourceIndexRebuilder}.
+ */
+public class ResourceIndexRebuilderTest {
+
+    /** Objects with this PID can't be written to the triplestore. */
+    private static final String BAD_PID = "test:bad";
+
+    private RecordingIndex m_index;
+
+    private ResourceIndexRebuilder m_rebuilder;
+
+    @Before
+    public void setUp() {
+        m_index = new RecordingIndex();
+        m_rebuilder = new ResourceIndexRebuilder(m_index.getProxy(),
+                                                 new TwoTripleGenerator(),
+                                                 4);
+    }
+
+    @Test
+    public void testTriplesAreWrittenInSortedChunks() throws Exception {
+        m_rebuilder.addObject(getObject("test:2"));
+        assertEquals(0, m_index.writes.size());
+
+        m_rebuilder.addObject(getObject("test:1"));
+        assertEquals(1, m_index.writes.size());
+        List<Triple> chunk = m_index.writes.get(0);
+        assertEquals(4, chunk.size());
+        assertEquals("test:1", getPid(chunk.get(0)));
+        assertEquals("test:2", getPid(chunk.get(3)));
+    }
+
+    @Test
+    public void testTriplesAreWrittenOnFlushAndFinish() throws Exception {
+        m_rebuilder.addObject(getObject("test:1"));
+        m_rebuilder.flush();
+        assertEquals(1, m_index.writes.size());
+        assertEquals(2, m_index.writes.get(0).size());
+        assertEquals(1, m_index.flushes);
+
+        m_rebuilder.flush();
+        assertEquals(1, m_index.writes.size());
+
+        m_rebuilder.addObject(getObject("test:2"));
+        m_rebuilder.finish();
+        assertEquals(2, m_index.writes.size());
+        assertEquals(1, m_index.closes);
+    }
+
+    @Test
+    public void testObjectAddedAgainIsWrittenOnce() throws Exception {
+        m_rebuilder.addObject(getObject("test:1"));
+        m_rebuilder.addObject(getObject("test:1"));
+        m_rebuilder.flush();
+        assertEquals(1, m_index.writes.size());
+        assertEquals(2, m_index.writes.get(0).size());
+    }
+
+    @Test
+    public void testFailedChunkIsWrittenOneObjectAtATime() throws Exception {
+        m_rebuilder.addObject(getObject("test:1"));
+        m_rebuilder.addObject(getObject(BAD_PID));
+        m_rebuilder.addObject(getObject("test:2"));
+        m_rebuilder.flush();
+
+        // the first chunk fails, and is written one object at a time
+        Set<String> written = new HashSet<String>();
+        for (List<Triple> write : m_index.writes) {
+            for (Triple triple : write) {
+                written.add(getPid(triple));
+            }
+        }
+        assertEquals(2, written.size());
+        assertTrue(written.contains("test:1"));
+        assertTrue(written.contains("test:2"));
+    }
+
+    private static String getPid(Triple triple) {
+        return ((URIReference) triple.getSubject()).getURI().toString()
+                .substring("info:fedora/".length());
+    }
+
+    private static DigitalObject getObject(String pid) {
+        DigitalObject obj = new BasicDigitalObject();
+        obj.setPid(pid);
+        return obj;
+    }
+
+    /**
+     * Generates a type and a label triple for each object.
+     */
+    private static class TwoTripleGenerator
+            implements TripleGenerator {
+
+        public Set<Triple> getTriplesForObject(DOReader reader)
+                throws ResourceIndexException {
+            try {
+                String pid = reader.GetObjectPID();
+                SimpleURIReference subject =
+                        new SimpleURIReference(new URI("info:fedora/" + pid));
+                Set<Triple> triples = new HashSet<Triple>();
+                triples.add(new SimpleTriple(subject,
+                                             new SimpleURIReference(new URI("urn:type")),
+                                             new SimpleURIReference(new URI("urn:object"))));
+                triples.add(new SimpleTriple(subject,
+                                             new SimpleURIReference(new URI("urn:label")),
+                                             new SimpleLiteral(pid)));
+                return triples;
+            } catch (Exception e) {
+                throw new ResourceIndexException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Records the writes made through a ResourceIndex, and refuses those
+     * with triples about {@link #BAD_PID}.
+     */
+    private static class RecordingIndex
+            implements InvocationHandler {
+
+        final List<List<Triple>> writes = new ArrayList<List<Triple>>();
+
+        int flushes;
+
+        int closes;
+
+        ResourceIndex getProxy() {
+            return (ResourceIndex) Proxy
+                    .newProxyInstance(ResourceIndex.class.getClassLoader(),
+                                      new Class<?>[] {ResourceIndex.class},
+                                      this);
+        }
+
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if (name.equals("getIndexLevel")) {
+                return ResourceIndex.INDEX_LEVEL_ON;
+            } else if (name.equals("add") && args[0] instanceof List) {
+                List<Triple> triples = (List<Triple>) args[0];
+                for (Triple triple : triples) {
+                    if (getPid(triple).equals(BAD_PID)) {
+                        throw new IOException("can't write " + BAD_PID);
+                    }
+                }
+                writes.add(new ArrayList<Triple>(triples));
+                return null;
+            } else if (name.equals("flushBuffer")) {
+                flushes++;
+                return null;
+            } else if (name.equals("close")) {
+                closes++;
+                return null;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ResourceIndexRebuilderTest.class);
+    }
+}
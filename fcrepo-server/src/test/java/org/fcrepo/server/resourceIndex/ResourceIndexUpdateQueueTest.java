@@ -0,0 +1,272 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.io.File;
+
+import java.net.URI;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+import org.jrdf.graph.Triple;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.common.rdf.SimpleLiteral;
+import org.fcrepo.common.rdf.SimpleTriple;
+import org.fcrepo.common.rdf.SimpleURIReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ResourceIndexUpdateQueue}.
+ */
+public class ResourceIndexUpdateQueueTest {
+
+    private File m_dir;
+
+    private File m_log;
+
+    @Before
+    public void setUp() throws Exception {
+        m_dir = File.createTempFile("riqueue", null);
+        m_dir.delete();
+        m_dir.mkdirs();
+        m_log = new File(m_dir, "ri-update.log");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        m_dir.delete();
+    }
+
+    @Test
+    public void testUpdatesForSameObjectAreCoalesced() throws Exception {
+        RecordingWriter writer = new RecordingWriter();
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(writer, m_log, false, 60000, 100);
+        Triple a = triple("test:1", "a");
+        Triple b = triple("test:1", "b");
+        queue.enqueue("test:1", none(), set(a));
+        queue.enqueue("test:1", set(a), set(b));
+        assertEquals(1, queue.getQueueDepth());
+        queue.awaitObject("test:1", 10000);
+        queue.close(10000);
+
+        assertEquals(1, writer.batches);
+        assertEquals(set(b), writer.adds);
+        assertEquals(set(a), writer.deletes);
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(1, queue.getAppliedObjectCount());
+    }
+
+    @Test
+    public void testAddThenDeleteCancelsOut() throws Exception {
+        RecordingWriter writer = new RecordingWriter();
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(writer, m_log, false, 60000, 100);
+        Triple a = triple("test:1", "a");
+        queue.enqueue("test:1", none(), set(a));
+        queue.enqueue("test:1", set(a), none());
+        queue.awaitAll(10000);
+        queue.close(10000);
+
+        assertTrue(writer.adds.isEmpty());
+        assertEquals(set(a), writer.deletes);
+    }
+
+    @Test
+    public void testBatchSizeTriggersWrite() throws Exception {
+        RecordingWriter writer = new RecordingWriter();
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(writer, m_log, false, 60000, 2);
+        queue.enqueue("test:1", none(), set(triple("test:1", "a")));
+        queue.enqueue("test:2", none(), set(triple("test:2", "a")));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queue.getAppliedBatchCount() == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, queue.getAppliedBatchCount());
+        assertEquals(2, writer.adds.size());
+        queue.close(10000);
+    }
+
+    @Test
+    public void testUnappliedUpdatesAreRecovered() throws Exception {
+        FailingWriter failing = new FailingWriter();
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(failing, m_log, true, 60000, 100);
+        Triple a = triple("test:1", "a");
+        Triple lang = new SimpleTriple(resource("info:fedora/test:2"),
+                                       resource("urn:p"),
+                                       new SimpleLiteral("x\ty\nz", "en"));
+        Triple typed = new SimpleTriple(resource("info:fedora/test:2"),
+                                        resource("urn:q"),
+                                        new SimpleLiteral("1",
+                                                          new URI("urn:int")));
+        queue.enqueue("test:1", none(), set(a));
+        queue.enqueue("test:2", set(lang), set(typed));
+        queue.close(100);
+        assertTrue(queue.getQueueDepth() > 0);
+
+        RecordingWriter writer = new RecordingWriter();
+        queue = new ResourceIndexUpdateQueue(writer, m_log, true, 60000, 100);
+        assertEquals(2, queue.getQueueDepth());
+        queue.awaitAll(10000);
+        queue.close(10000);
+
+        assertEquals(set(a, typed), writer.adds);
+        assertEquals(set(lang), writer.deletes);
+
+        // everything was applied, so nothing is replayed again
+        writer = new RecordingWriter();
+        queue = new ResourceIndexUpdateQueue(writer, m_log, true, 60000, 100);
+        assertEquals(0, queue.getQueueDepth());
+        queue.close(10000);
+        assertFalse(writer.batches > 0);
+    }
+
+    @Test
+    public void testFailingObjectIsSetAside() throws Exception {
+        PoisonWriter writer = new PoisonWriter(triple("test:bad", "a"));
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(writer, m_log, false, 60000, 100);
+        queue.setRetryDelay(10);
+        Triple good = triple("test:good", "a");
+        queue.enqueue("test:bad", none(), set(writer.poison));
+        queue.enqueue("test:good", none(), set(good));
+        queue.awaitAll(10000);
+
+        assertEquals(set(good), writer.adds);
+        assertEquals(1, queue.getFailedObjectCount());
+        assertEquals(1, queue.getAppliedObjectCount());
+
+        // later updates aren't held up
+        Triple later = triple("test:later", "a");
+        queue.enqueue("test:later", none(), set(later));
+        queue.awaitObject("test:later", 10000);
+        queue.close(10000);
+        assertEquals(set(good, later), writer.adds);
+
+        File deadLetters = new File(m_log.getPath() + ".failed");
+        String saved = FileUtils.readFileToString(deadLetters, "UTF-8");
+        assertTrue(saved, saved.contains("info:fedora/test:bad"));
+        assertTrue(saved, saved.contains("bad triple"));
+
+        // the dead letter isn't replayed
+        RecordingWriter recording = new RecordingWriter();
+        queue =
+                new ResourceIndexUpdateQueue(recording, m_log, false, 60000, 100);
+        assertEquals(0, queue.getQueueDepth());
+        queue.close(10000);
+    }
+
+    @Test
+    public void testUnavailableTriplestoreSetsNothingAside() throws Exception {
+        FailingWriter failing = new FailingWriter();
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(failing, m_log, false, 0, 100);
+        queue.setRetryDelay(10);
+        queue.enqueue("test:1", none(), set(triple("test:1", "a")));
+        queue.enqueue("test:2", none(), set(triple("test:2", "a")));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queue.getFailedBatchCount() < 6
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(queue.getFailedBatchCount() >= 6);
+        assertEquals(0, queue.getFailedObjectCount());
+        assertEquals(2, queue.getQueueDepth());
+        queue.close(100);
+    }
+
+    private static Triple triple(String pid, String value) throws Exception {
+        return new SimpleTriple(resource("info:fedora/" + pid),
+                                resource("urn:p"),
+                                new SimpleLiteral(value));
+    }
+
+    private static SimpleURIReference resource(String uri) throws Exception {
+        return new SimpleURIReference(new URI(uri));
+    }
+
+    private static Set<Triple> none() {
+        return Collections.<Triple> emptySet();
+    }
+
+    private static Set<Triple> set(Triple... triples) {
+        Set<Triple> set = new HashSet<Triple>();
+        for (Triple triple : triples) {
+            set.add(triple);
+        }
+        return set;
+    }
+
+    private static class RecordingWriter
+            implements ResourceIndexUpdateQueue.BatchWriter {
+
+        int batches;
+
+        final Set<Triple> deletes = new HashSet<Triple>();
+
+        final Set<Triple> adds = new HashSet<Triple>();
+
+        public synchronized void apply(Set<Triple> deletes, Set<Triple> adds) {
+            batches++;
+            this.deletes.addAll(deletes);
+            this.adds.addAll(adds);
+        }
+    }
+
+    private static class FailingWriter
+            implements ResourceIndexUpdateQueue.BatchWriter {
+
+        public void apply(Set<Triple> deletes, Set<Triple> adds)
+                throws Exception {
+            throw new Exception("triplestore unavailable");
+        }
+    }
+
+    /**
+     * Fails any batch with the poison triple in it.
+     */
+    private static class PoisonWriter
+            extends RecordingWriter {
+
+        final Triple poison;
+
+        PoisonWriter(Triple poison) {
+            this.poison = poison;
+        }
+
+        @Override
+        public synchronized void apply(Set<Triple> deletes, Set<Triple> adds) {
+            if (adds.contains(poison)) {
+                throw new IllegalArgumentException("bad triple");
+            }
+            super.apply(deletes, adds);
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ResourceIndexUpdateQueueTest.class);
+    }
+}
@@ -0,0 +1,91 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.rest;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ByteRange}.
+ */
+public class ByteRangeTest {
+
+    @Test
+    public void testSingleRanges() {
+        assertRanges(ByteRange.parse("bytes=0-499", 1000), 0, 499);
+        assertRanges(ByteRange.parse("bytes=500-", 1000), 500, 999);
+        assertRanges(ByteRange.parse("bytes=-200", 1000), 800, 999);
+        // ranges past the end are cut short
+        assertRanges(ByteRange.parse("bytes=900-2000", 1000), 900, 999);
+        assertRanges(ByteRange.parse("bytes=-2000", 1000), 0, 999);
+        assertEquals("bytes 0-499/1000",
+                     new ByteRange(0, 499).getContentRange(1000));
+    }
+
+    @Test
+    public void testMultipleRanges() {
+        assertRanges(ByteRange.parse("bytes=0-99, 200-299", 1000),
+                     0, 99, 200, 299);
+        // sorted, and overlapping or touching ranges are merged
+        assertRanges(ByteRange.parse("bytes=500-599,0-99,50-149,150-199", 1000),
+                     0, 199, 500, 599);
+        // unsatisfiable ranges are dropped
+        assertRanges(ByteRange.parse("bytes=0-9,5000-6000", 1000), 0, 9);
+    }
+
+    @Test
+    public void testUnsatisfiable() {
+        assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+    }
+
+    @Test
+    public void testIgnored() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-10", 1000));
+        assertNull(ByteRange.parse("bytes=10", 1000));
+        assertNull(ByteRange.parse("bytes=20-10", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+        assertNull(ByteRange.parse("bytes=-", 1000));
+    }
+
+    @Test
+    public void testTooManyRanges() {
+        StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 1; i < ByteRange.MAX_RANGES; i++) {
+            header.append(",").append(i * 2).append("-").append(i * 2);
+        }
+        assertEquals(ByteRange.MAX_RANGES, ByteRange
+                .parse(header.toString(), 1000).size());
+        header.append(",999-999");
+        assertNull(ByteRange.parse(header.toString(), 1000));
+        // many overlapping ranges count too, even though they'd merge
+        header = new StringBuilder("bytes=0-99");
+        for (int i = 0; i < ByteRange.MAX_RANGES; i++) {
+            header.append(",0-99");
+        }
+        assertNull(ByteRange.parse(header.toString(), 1000));
+    }
+
+    private static void assertRanges(List<ByteRange> actual, long... bounds) {
+        ByteRange[] expected = new ByteRange[bounds.length / 2];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = new ByteRange(bounds[i * 2], bounds[i * 2 + 1]);
+        }
+        assertEquals(Arrays.asList(expected), actual);
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ByteRangeTest.class);
+    }
+}
@@ -9,7 +9,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {TestFieldSearchSQLImpl.class})
+@Suite.SuiteClasses( {TestFieldSearchSQLImpl.class,
+        FieldSearchTermIndexTest.class, FieldSearchSessionTokenTest.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -18,6 +19,8 @@ public class AllUnitTests {
         junit.framework.TestSuite suite =
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
         suite.addTest(TestFieldSearchSQLImpl.suite());
+        suite.addTest(FieldSearchTermIndexTest.suite());
+        suite.addTest(FieldSearchSessionTokenTest.suite());
 
         return suite;
     }
@@ -7,12 +7,16 @@ package org.fcrepo.server.search;
 import java.sql.Connection;
 import java.sql.Statement;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.Test;
 
+import org.fcrepo.server.errors.UnknownSessionTokenException;
 import org.fcrepo.server.storage.ConnectionPool;
 import org.fcrepo.server.storage.DOReader;
 import org.fcrepo.server.storage.MockRepositoryReader;
@@ -20,6 +24,7 @@ import org.fcrepo.server.storage.types.Datastream;
 import org.fcrepo.server.storage.types.DigitalObject;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import static org.fcrepo.server.storage.types.ObjectBuilder.addXDatastream;
 import static org.fcrepo.server.storage.types.ObjectBuilder.getDC;
@@ -88,6 +93,7 @@ public class FieldSearchSQLImplIntegrationTest {
         Connection conn = cPool.getReadWriteConnection();
         executeUpdate(conn, "DROP TABLE doFields", true);
         executeUpdate(conn, "DROP TABLE dcDates", true);
+        executeUpdate(conn, "DROP TABLE doFieldValues", true);
         executeUpdate(conn, "CREATE TABLE doFields (\n"
             + "pid VARCHAR(64) NOT NULL,\n"
             + "label VARCHAR(255) NOT NULL,\n"
@@ -118,6 +124,13 @@ public class FieldSearchSQLImplIntegrationTest {
             + "dcDate BIGINT NOT NULL)", false);
         executeUpdate(conn,
                "CREATE INDEX dcDates_pid ON dcDates (pid)", false);
+        executeUpdate(conn, "CREATE TABLE doFieldValues (\n"
+            + "pid VARCHAR(64) NOT NULL,\n"
+            + "label VARCHAR(255),\n"
+            + "ownerId VARCHAR(64),\n"
+            + "dcValues CLOB)", false);
+        executeUpdate(conn,
+               "CREATE INDEX doFieldValues_pid ON doFieldValues (pid)", false);
         cPool.free(conn);
     }
 
@@ -209,6 +222,137 @@ public class FieldSearchSQLImplIntegrationTest {
         checkResults(expected, countResults(query, 1));
     }
 
+    @Test
+    public void testResultFieldsFromStoredValues() throws Exception {
+        init(maxResultsDefault, maxSecondsPerSessionDefault, true);
+
+        String pid1 = "test:1";
+        DigitalObject obj1 = getTestObject(pid1, "Mixed Case Label");
+        addXDatastream(obj1, "DC", getDC("<dc:title>Mixed Case Title</dc:title>"));
+        setDates(obj1, new Date());
+        m_repo.putObject(obj1);
+        m_impl.update(m_repo.getReader(false, null, pid1));
+
+        // search with an empty repository, so results can only come from
+        // the stored values
+        FieldSearchSQLImpl projecting =
+                new FieldSearchSQLImpl(cPool,
+                                       new MockRepositoryReader(),
+                                       maxResultsDefault,
+                                       maxSecondsPerSessionDefault,
+                                       true,
+                                       true,
+                                       false);
+        FieldSearchResult result =
+                projecting.findObjects(new String[] {"pid", "label",
+                        "state", "title", "cDate"}, 10,
+                                       new FieldSearchQuery("*mixed*"));
+        assertEquals(1, result.objectFieldsList().size());
+        ObjectFields fields = (ObjectFields) result.objectFieldsList().get(0);
+        assertEquals(pid1, fields.getPid());
+        assertEquals("Mixed Case Label", fields.getLabel());
+        assertEquals("A", fields.getState());
+        assertEquals("Mixed Case Title", fields.titles().get(0).getValue());
+        assertEquals(obj1.getCreateDate(), fields.getCDate());
+    }
+
+    @Test
+    public void testPagesInPidOrder() throws Exception {
+        init(maxResultsDefault, maxSecondsPerSessionDefault, true);
+
+        // add objects out of order
+        for (String pid : new String[] {"test:3", "test:5", "test:1",
+                "test:4", "test:2"}) {
+            DigitalObject obj = getTestObject(pid, pid);
+            setDates(obj, new Date());
+            m_repo.putObject(obj);
+            m_impl.update(m_repo.getReader(false, null, pid));
+        }
+
+        // three pages of at most two results, each resumed from its token
+        FieldSearchQuery query = new FieldSearchQuery("*");
+        List<String> pids = new ArrayList<String>();
+        FieldSearchResult page = m_impl.findObjects(new String[] {"pid"},
+                                                    2,
+                                                    query);
+        assertEquals(0, page.getCursor());
+        assertEquals(2, page.objectFieldsList().size());
+        addPids(page, pids);
+        page = m_impl.resumeFindObjects(page.getToken());
+        assertEquals(2, page.getCursor());
+        addPids(page, pids);
+        String lastToken = page.getToken();
+        page = m_impl.resumeFindObjects(lastToken);
+        assertEquals(4, page.getCursor());
+        assertEquals(1, page.objectFieldsList().size());
+        assertNull(page.getToken());
+        addPids(page, pids);
+        assertEquals(Arrays.asList("test:1", "test:2", "test:3", "test:4",
+                "test:5"), pids);
+
+        // tokens hold no server state, so they can be resumed again
+        page = m_impl.resumeFindObjects(lastToken);
+        assertEquals("test:5", page.objectFieldsList().get(0).getPid());
+    }
+
+    @Test(expected = UnknownSessionTokenException.class)
+    public void testExpiredToken() throws Exception {
+        init(maxResultsDefault, 0, true);
+        for (String pid : new String[] {"test:1", "test:2"}) {
+            DigitalObject obj = getTestObject(pid, pid);
+            setDates(obj, new Date());
+            m_repo.putObject(obj);
+            m_impl.update(m_repo.getReader(false, null, pid));
+        }
+        FieldSearchResult page = m_impl.findObjects(new String[] {"pid"},
+                                                    1,
+                                                    new FieldSearchQuery("*"));
+        Thread.sleep(10);
+        m_impl.resumeFindObjects(page.getToken());
+    }
+
+    @Test
+    public void testBatchUpdate() throws Exception {
+        init(maxResultsDefault, maxSecondsPerSessionDefault, true);
+        m_impl.update(getDatedReader("test:1", "2001-01-01"));
+
+        // change the date of test:1 and add test:2, twice
+        List<DOReader> readers = new ArrayList<DOReader>();
+        readers.add(getDatedReader("test:1", "2002-02-02"));
+        readers.add(getDatedReader("test:2", "2003-03-03"));
+        readers.add(getDatedReader("test:2", "2001-01-01"));
+        m_impl.update(readers);
+
+        checkResults(new int[] {1, 2}, countResults(new FieldSearchQuery("*"),
+                                                    10));
+        assertEquals(Arrays.asList("test:2"), findPids("date=2001-01-01"));
+        assertEquals(Arrays.asList("test:1"), findPids("date=2002-02-02"));
+        assertEquals(0, findPids("date=2003-03-03").size());
+    }
+
+    private DOReader getDatedReader(String pid, String date) throws Exception {
+        DigitalObject obj = getTestObject(pid, pid);
+        addXDatastream(obj, "DC", getDC("<dc:date>" + date + "</dc:date>"));
+        setDates(obj, new Date());
+        m_repo.putObject(obj);
+        return m_repo.getReader(false, null, pid);
+    }
+
+    private List<String> findPids(String conditions) throws Exception {
+        List<String> pids = new ArrayList<String>();
+        addPids(m_impl.findObjects(new String[] {"pid"},
+                                   10,
+                                   new FieldSearchQuery(Condition
+                                           .getConditions(conditions))), pids);
+        return pids;
+    }
+
+    private static void addPids(FieldSearchResult page, List<String> pids) {
+        for (ObjectFields fields : page.objectFieldsList()) {
+            pids.add(fields.getPid());
+        }
+    }
+
     // runs the query (all pages) and returns { pageCount, resultCount }
     private int[] countResults(FieldSearchQuery query,
                                int maxResultsPerPage) throws Exception {
@@ -221,7 +365,7 @@ public class FieldSearchSQLImplIntegrationTest {
             pageCount++;
             resultCount += page.objectFieldsList().size();
             if (page.getToken() != null) {
-                m_impl.resumeFindObjects(page.getToken());
+                page = m_impl.resumeFindObjects(page.getToken());
             } else {
                 page = null;
             }
@@ -0,0 +1,89 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import org.fcrepo.server.errors.UnknownSessionTokenException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link FieldSearchSessionToken}.
+ */
+public class FieldSearchSessionTokenTest {
+
+    @Test
+    public void testTermsRoundTrip() throws Exception {
+        FieldSearchSessionToken token =
+                new FieldSearchSessionToken(new String[] {"pid", "title"},
+                                            100,
+                                            new FieldSearchQuery("hello w*"),
+                                            "demo:5",
+                                            200,
+                                            12345L);
+        FieldSearchSessionToken copy =
+                FieldSearchSessionToken.decode(token.encode());
+        assertEquals(Arrays.asList("pid", "title"), Arrays.asList(copy
+                .getResultFields()));
+        assertEquals(100, copy.getMaxResults());
+        assertEquals(FieldSearchQuery.TERMS_TYPE, copy.getQuery().getType());
+        assertEquals("hello w*", copy.getQuery().getTerms());
+        assertEquals("demo:5", copy.getLastPid());
+        assertEquals(200, copy.getCursor());
+        assertEquals(12345L, copy.getExpires());
+    }
+
+    @Test
+    public void testConditionsRoundTrip() throws Exception {
+        FieldSearchQuery query =
+                new FieldSearchQuery(Condition
+                        .getConditions("title~'a b' mDate>2010-01-01"));
+        FieldSearchSessionToken token =
+                new FieldSearchSessionToken(new String[] {"pid"},
+                                            10,
+                                            query,
+                                            "demo:\u00e9",
+                                            10,
+                                            0L);
+        String encoded = token.encode();
+        assertTrue(encoded, encoded.matches("[A-Za-z0-9_-]+"));
+        FieldSearchQuery copy =
+                FieldSearchSessionToken.decode(encoded).getQuery();
+        assertEquals(FieldSearchQuery.CONDITIONS_TYPE, copy.getType());
+        assertEquals(query.getConditions(), copy.getConditions());
+        assertEquals("demo:\u00e9", FieldSearchSessionToken.decode(encoded)
+                .getLastPid());
+    }
+
+    @Test
+    public void testInvalidTokens() {
+        String valid =
+                new FieldSearchSessionToken(new String[0],
+                                            1,
+                                            new FieldSearchQuery("*"),
+                                            "demo:1",
+                                            1,
+                                            0L).encode();
+        for (String token : new String[] {"", "abc", "not a token",
+                valid.substring(0, valid.length() - 2), valid + "AAAA"}) {
+            try {
+                FieldSearchSessionToken.decode(token);
+                fail("Decoded invalid token: " + token);
+            } catch (UnknownSessionTokenException e) {
+                // expected
+            }
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FieldSearchSessionTokenTest.class);
+    }
+}
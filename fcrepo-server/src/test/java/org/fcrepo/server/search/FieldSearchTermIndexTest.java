@@ -0,0 +1,148 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link FieldSearchTermIndex}.
+ */
+public class FieldSearchTermIndexTest {
+
+    private static final Pattern TERM_CONDITION =
+            Pattern.compile("term(='(.*)'| LIKE '(.*)%')\\)$");
+
+    private static final String[] VALUES =
+            new String[] {" hello world .", " the quick brown fox . jumps .",
+                    " hello . ."};
+
+    private static final String[] PATTERNS =
+            new String[] {"hello", "world", "hello world", "hel*", "*llo",
+                    "h?llo", "wor*d", "brown fox", "quick*fox", "fox jumps",
+                    "the", "*", "hello *", "jumps", "x", ".", "hello ."};
+
+    @Test
+    public void testDCTerms() {
+        Set<String> terms =
+                FieldSearchTermIndex.getTerms("dcTitle",
+                                              " Hello  World . again .");
+        assertEquals(Arrays.asList("hello", "world", ".", "again"),
+                     Arrays.asList(terms.toArray()));
+    }
+
+    @Test
+    public void testLongTermsTruncated() {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < FieldSearchTermIndex.MAX_TERM_LENGTH + 10; i++) {
+            word.append('a');
+        }
+        Set<String> terms =
+                FieldSearchTermIndex.getTerms("label", word.toString());
+        assertEquals(FieldSearchTermIndex.MAX_TERM_LENGTH, terms.iterator()
+                .next().length());
+        String filter =
+                FieldSearchTermIndex.getFilter("label", word.toString());
+        assertTrue(filter.endsWith("term='"
+                + terms.iterator().next() + "')"));
+    }
+
+    @Test
+    public void testFilterChoosesWholeWord() {
+        assertEquals("doFields.pid IN (SELECT pid FROM doTerms WHERE "
+                + "field='dcTitle' AND term='fox')",
+                     FieldSearchTermIndex.getFilter("dcTitle", "quick* fox"));
+        assertEquals("doFields.pid IN (SELECT pid FROM doTerms WHERE "
+                + "term LIKE 'quick%')",
+                     FieldSearchTermIndex.getFilter(null, "quick*"));
+    }
+
+    @Test
+    public void testNoFilter() {
+        assertNull(FieldSearchTermIndex.getFilter("dcTitle", "*ing"));
+        assertNull(FieldSearchTermIndex.getFilter("dcTitle", "?ing"));
+        assertNull(FieldSearchTermIndex.getFilter("dcTitle", "\\*ing"));
+        assertNull(FieldSearchTermIndex.getFilter("dcTitle", "."));
+        assertNull(FieldSearchTermIndex.getFilter("cDate", "hello"));
+    }
+
+    /**
+     * Every value that a pattern matches must also pass the pattern's
+     * filter, or the term index would hide results.
+     */
+    @Test
+    public void testFilterNeverExcludesMatches() {
+        for (String value : VALUES) {
+            for (String pattern : PATTERNS) {
+                for (String column : new String[] {"dcTitle", "label"}) {
+                    String dbValue = column.equals("label")
+                            ? value.trim() : value;
+                    if (matches(column, dbValue, pattern)) {
+                        assertTrue(column + " value '" + dbValue
+                                + "' matches '" + pattern
+                                + "' but not its filter",
+                                   passes(column, dbValue, pattern));
+                    }
+                }
+            }
+        }
+        assertFalse(passes("dcTitle", VALUES[1], "hello"));
+    }
+
+    /** Whether the pattern matches the value the way the SQL query would. */
+    private static boolean matches(String column, String value, String pattern) {
+        if (column.startsWith("dc")) {
+            if (!pattern.startsWith("*")) {
+                pattern = "* " + pattern;
+            }
+            if (!pattern.endsWith("*")) {
+                pattern = pattern + " *";
+            }
+        }
+        StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL)
+                .matcher(value).matches();
+    }
+
+    /** Whether the value's terms pass the filter for the pattern. */
+    private static boolean passes(String column, String value, String pattern) {
+        String filter = FieldSearchTermIndex.getFilter(column, pattern);
+        if (filter == null) {
+            return true;
+        }
+        Matcher m = TERM_CONDITION.matcher(filter);
+        assertTrue(filter, m.find());
+        for (String term : FieldSearchTermIndex.getTerms(column, value)) {
+            if (m.group(2) != null ? term.equals(m.group(2)) : term
+                    .startsWith(m.group(3))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FieldSearchTermIndexTest.class);
+    }
+}
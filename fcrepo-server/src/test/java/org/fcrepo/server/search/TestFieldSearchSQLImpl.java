@@ -9,6 +9,9 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -49,6 +52,8 @@ import org.fcrepo.server.storage.ServiceDeploymentReader;
 import org.fcrepo.server.storage.types.BasicDigitalObject;
 import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
 import org.fcrepo.server.storage.types.DeploymentDSBindSpec;
+import org.fcrepo.utilities.DateUtility;
+import org.fcrepo.server.utilities.DDLConverter;
 import org.fcrepo.server.utilities.SQLUtility;
 import org.fcrepo.server.utilities.TableCreatingConnection;
 import org.fcrepo.server.utilities.TableSpec;
@@ -57,6 +62,7 @@ import junit.framework.JUnit4TestAdapter;
 
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.fail;
 
 public class TestFieldSearchSQLImpl {
@@ -102,6 +108,10 @@ public class TestFieldSearchSQLImpl {
                     12345), new Date(67890), new Date(10000),
             DC_PAYLOAD_WITH_DATES);
 
+    /** The dc:date of OBJECT_WITH_DC_AND_DATES. */
+    private static final long DC_DATE =
+            DateUtility.parseDateLoose("2006-10-15").getTime();
+
     private static SQLUtility saveSqlUtility;
 
     @BeforeClass
@@ -186,7 +196,7 @@ public class TestFieldSearchSQLImpl {
         setSqlUtilityInstance(new UpdatingMockSqlUtility(LONG_FIELDS,
                 OBJECT_WITH_DC.getLongFieldValueList()));
         this.mockConnection = new UpdatingMockConnection();
-        this.expectedDateDeletes = 1;
+        this.expectedDateDeletes = 0;
         this.expectedDateInserts = 0;
         this.mockRepositoryReader = new UnusedMockRepositoryReader();
 
@@ -210,7 +220,34 @@ public class TestFieldSearchSQLImpl {
         setSqlUtilityInstance(new UpdatingMockSqlUtility(LONG_FIELDS,
                 OBJECT_WITH_DC_AND_DATES.getLongFieldValueList()));
         this.mockConnection = new UpdatingMockConnection();
-        this.expectedDateDeletes = 1;
+        this.expectedDateDeletes = 0;
+        this.expectedDateInserts = 1;
+        this.mockRepositoryReader = new UnusedMockRepositoryReader();
+
+        updateRecord(OBJECT_WITH_DC_AND_DATES, true);
+        checkExpectations();
+    }
+
+    @Test
+    public void dcDatesUnchanged() throws ServerException {
+        setSqlUtilityInstance(new UpdatingMockSqlUtility(LONG_FIELDS,
+                OBJECT_WITH_DC_AND_DATES.getLongFieldValueList()));
+        this.mockConnection = new UpdatingMockConnection(DC_DATE);
+        this.expectedDateDeletes = 0;
+        this.expectedDateInserts = 0;
+        this.mockRepositoryReader = new UnusedMockRepositoryReader();
+
+        updateRecord(OBJECT_WITH_DC_AND_DATES, true);
+        checkExpectations();
+    }
+
+    @Test
+    public void dcDatesChanged() throws ServerException {
+        setSqlUtilityInstance(new UpdatingMockSqlUtility(LONG_FIELDS,
+                OBJECT_WITH_DC_AND_DATES.getLongFieldValueList()));
+        this.mockConnection = new UpdatingMockConnection(DC_DATE - 1,
+                DC_DATE + 1);
+        this.expectedDateDeletes = 2;
         this.expectedDateInserts = 1;
         this.mockRepositoryReader = new UnusedMockRepositoryReader();
 
@@ -218,6 +255,86 @@ public class TestFieldSearchSQLImpl {
         checkExpectations();
     }
 
+    @Test
+    public void storedValuesKeepOriginalCase() throws Exception {
+        UpdatingMockSqlUtility sqlUtility =
+                new UpdatingMockSqlUtility(LONG_FIELDS,
+                        OBJECT_WITH_DC_AND_DATES.getLongFieldValueList());
+        setSqlUtilityInstance(sqlUtility);
+        this.mockConnection = new UpdatingMockConnection();
+        this.expectedDateDeletes = 0;
+        this.expectedDateInserts = 1;
+        this.mockRepositoryReader = new UnusedMockRepositoryReader();
+
+        updateRecord(OBJECT_WITH_DC_AND_DATES, true);
+        checkExpectations();
+
+        String[] stored = sqlUtility.getStoredValues();
+        assertEquals("somePid", stored[0]);
+        assertEquals("myLabel", stored[1]);
+        assertEquals("theOwner", stored[2]);
+        ObjectFields fields = new ObjectFields(new String[] {"title", "date"});
+        FieldSearchSQLImpl.decodeDCValues(stored[3], fields);
+        assertEquals(1, fields.titles().size());
+        assertEquals("Sandy's Reference Object", fields.titles().get(0)
+                .getValue());
+        assertEquals("2006-10-15", fields.dates().get(0).getValue());
+        assertEquals(0, fields.creators().size());
+    }
+
+    @Test
+    public void storedValuesWithoutDC() throws Exception {
+        UpdatingMockSqlUtility sqlUtility =
+                new UpdatingMockSqlUtility(SHORT_FIELDS,
+                        OBJECT_WITH_DC.getShortFieldValueList());
+        setSqlUtilityInstance(sqlUtility);
+        this.mockConnection = new UnusedMockConnection();
+        this.mockRepositoryReader = new UnusedMockRepositoryReader();
+
+        updateRecord(OBJECT_WITH_DC, false);
+        checkExpectations();
+
+        String[] stored = sqlUtility.getStoredValues();
+        assertEquals("myLabel", stored[1]);
+        assertEquals(null, stored[3]);
+    }
+
+    @Test
+    public void runtimeFailureRollsBackTheBatch() throws Exception {
+        setSqlUtilityInstance(new FailingMockSqlUtility());
+        TransactionMockConnection connection = new TransactionMockConnection();
+        this.mockConnection = connection;
+        this.mockRepositoryReader = new UnusedMockRepositoryReader();
+
+        try {
+            updateRecord(OBJECT_WITH_DC, false);
+            fail("Expected the update to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse("part of the batch was committed", connection
+                .isCommitted());
+    }
+
+    @Test
+    public void dcValuesRoundTrip() throws Exception {
+        String[] wanted = new String[] {"title", "description"};
+        ObjectFields original = new ObjectFields(wanted);
+        original.addDCValue("title", "  first ");
+        original.addDCValue("title", "tab\there, back\\slash\r\nand newline");
+        original.addDCValue("description", "");
+
+        ObjectFields copy = new ObjectFields(wanted);
+        FieldSearchSQLImpl.decodeDCValues(FieldSearchSQLImpl
+                .encodeDCValues(original), copy);
+        assertEquals(2, copy.titles().size());
+        assertEquals("  first ", copy.titles().get(0).getValue());
+        assertEquals("tab\there, back\\slash\r\nand newline", copy.titles()
+                .get(1).getValue());
+        assertEquals(1, copy.descriptions().size());
+        assertEquals("", copy.descriptions().get(0).getValue());
+    }
+
     private void updateRecord(ObjectData objectData, boolean longFields)
             throws ServerException {
         // Create a DC datastream if appropriate.
@@ -408,6 +525,14 @@ public class TestFieldSearchSQLImpl {
             fail("Unexpected call to MockSqlUtility.i_addRow");
         }
 
+        @Override
+        protected void i_replaceInto(Connection conn, String table,
+                String[] columns, List<String[]> rows, String uniqueColumn,
+                boolean[] numeric, DDLConverter converter)
+                throws SQLException {
+            fail("Unexpected call to MockSqlUtility.i_replaceInto");
+        }
+
         @Override
         protected boolean i_updateRow(Connection conn, String table,
                 String[] columns, String[] values, String uniqueColumn,
@@ -434,6 +559,8 @@ public class TestFieldSearchSQLImpl {
 
         private String[] actualValues;
 
+        private String[] storedValues;
+
         /**
          * Write down some of what we expect to have happen.
          *
@@ -449,15 +576,26 @@ public class TestFieldSearchSQLImpl {
 
         /**
          * If we get a replace call, store the columns and values for testing
-         * later. (If we get more then one call, only the last will be
-         * retained.)
+         * later. (If we get more then one row for a table, only the last will
+         * be retained.)
          */
         @Override
         protected void i_replaceInto(Connection conn, String table,
-                String[] columns, String[] values, String uniqueColumn,
-                boolean[] numeric) throws SQLException {
-            this.actualColumns = columns;
-            this.actualValues = values;
+                String[] columns, List<String[]> rows, String uniqueColumn,
+                boolean[] numeric, DDLConverter converter)
+                throws SQLException {
+            for (String[] values : rows) {
+                if (table.equals("doFieldValues")) {
+                    this.storedValues = values;
+                } else {
+                    this.actualColumns = columns;
+                    this.actualValues = values;
+                }
+            }
+        }
+
+        public String[] getStoredValues() {
+            return storedValues;
         }
 
         @Override
@@ -467,6 +605,51 @@ public class TestFieldSearchSQLImpl {
         }
     }
 
+    private static class FailingMockSqlUtility extends UnusedMockSqlUtility {
+        @Override
+        protected void i_replaceInto(Connection conn, String table,
+                String[] columns, List<String[]> rows, String uniqueColumn,
+                boolean[] numeric, DDLConverter converter)
+                throws SQLException {
+            throw new IllegalStateException("not a SQLException");
+        }
+    }
+
+    /**
+     * Records whether the work done since auto-commit was turned off was
+     * committed, either explicitly or by turning auto-commit back on.
+     */
+    private static class TransactionMockConnection extends
+            UnusedMockConnection {
+        private boolean uncommitted;
+
+        private boolean committed;
+
+        @Override
+        public void setAutoCommit(boolean autoCommit) throws SQLException {
+            if (autoCommit && uncommitted) {
+                committed = true;
+            }
+            uncommitted = !autoCommit;
+            super.setAutoCommit(autoCommit);
+        }
+
+        @Override
+        public void commit() throws SQLException {
+            committed = true;
+            uncommitted = false;
+        }
+
+        @Override
+        public void rollback() throws SQLException {
+            uncommitted = false;
+        }
+
+        public boolean isCommitted() {
+            return committed;
+        }
+    }
+
     private static class UnusedMockConnection extends MockConnection {
         @Override
         public Statement createStatement() throws SQLException {
@@ -476,10 +659,20 @@ public class TestFieldSearchSQLImpl {
     }
 
     private static class UpdatingMockConnection extends MockConnection {
+        private final long[] existingDates;
+
         private int deleteCalls = 0;
 
         private int insertCalls = 0;
 
+        /**
+         * @param existingDates
+         *        the dcDates rows of the object before the update
+         */
+        public UpdatingMockConnection(long... existingDates) {
+            this.existingDates = existingDates;
+        }
+
         @Override
         public Statement createStatement() throws SQLException {
             return new MockStatement() {
@@ -499,6 +692,8 @@ public class TestFieldSearchSQLImpl {
         @Override
         public PreparedStatement prepareStatement(String sql) throws SQLException {
         	return new MockPreparedStatement(sql) {
+                private int batchSize = 0;
+
                 @Override
                 public int executeUpdate() throws SQLException {
                     if (getSql().trim().toLowerCase().startsWith("insert")) {
@@ -509,6 +704,25 @@ public class TestFieldSearchSQLImpl {
                     }
                     return 1;
                 }
+
+                @Override
+                public void addBatch() throws SQLException {
+                    executeUpdate();
+                    batchSize++;
+                }
+
+                @Override
+                public int[] executeBatch() throws SQLException {
+                    int[] counts = new int[batchSize];
+                    Arrays.fill(counts, 1);
+                    batchSize = 0;
+                    return counts;
+                }
+
+                @Override
+                public ResultSet executeQuery() throws SQLException {
+                    return getDatesResultSet(existingDates);
+                }
         	};
         }
 
@@ -518,6 +732,33 @@ public class TestFieldSearchSQLImpl {
         }
     }
 
+    /**
+     * Gets a result set with the (pid, dcDate) rows of the given dates.
+     */
+    private static ResultSet getDatesResultSet(final long[] dates) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class
+                .getClassLoader(), new Class[] {ResultSet.class},
+                new InvocationHandler() {
+                    private int row = -1;
+
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("next")) {
+                            return ++row < dates.length;
+                        } else if (name.equals("getString")) {
+                            return "somePid";
+                        } else if (name.equals("getLong")) {
+                            return dates[row];
+                        } else if (name.equals("close")) {
+                            return null;
+                        }
+                        throw new RuntimeException("ResultSet." + name
+                                + " not implemented");
+                    }
+                });
+    }
+
     private static class UnusedMockRepositoryReader extends
             MockRepositoryReader {
         @Override
@@ -9,8 +9,11 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {org.fcrepo.server.storage.translation.AllUnitTests.class,
-                      org.fcrepo.server.storage.lowlevel.akubra.AllUnitTests.class})
+@Suite.SuiteClasses( {DOReaderCacheTest.class,
+                      ObjectLockManagerTest.class,
+                      org.fcrepo.server.storage.translation.AllUnitTests.class,
+                      org.fcrepo.server.storage.types.AllUnitTests.class,
+                      org.fcrepo.server.storage.lowlevel.AllUnitTests.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -19,8 +22,11 @@ public class AllUnitTests {
         junit.framework.TestSuite suite =
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
 
+        suite.addTest(DOReaderCacheTest.suite());
+        suite.addTest(ObjectLockManagerTest.suite());
         suite.addTest(org.fcrepo.server.storage.translation.AllUnitTests.suite());
-        suite.addTest(org.fcrepo.server.storage.lowlevel.akubra.AllUnitTests.suite());
+        suite.addTest(org.fcrepo.server.storage.types.AllUnitTests.suite());
+        suite.addTest(org.fcrepo.server.storage.lowlevel.AllUnitTests.suite());
 
         return suite;
     }
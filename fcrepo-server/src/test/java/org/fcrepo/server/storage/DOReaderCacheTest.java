@@ -0,0 +1,96 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage;
+
+import org.junit.Test;
+
+import org.fcrepo.server.storage.types.BasicDigitalObject;
+import org.fcrepo.server.storage.types.DigitalObject;
+import org.fcrepo.server.storage.types.ObjectBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link DOReaderCache}.
+ */
+public class DOReaderCacheTest {
+
+    @Test
+    public void testPutGetRemove() {
+        DOReaderCache cache = new DOReaderCache(10, 60);
+        DOReader reader = reader("test:1");
+        cache.put(reader);
+        assertSame(reader, cache.get("test:1"));
+        assertNull(cache.get("test:2"));
+        cache.remove("test:1");
+        assertNull(cache.get("test:1"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getEstimatedBytes());
+    }
+
+    @Test
+    public void testEntryBound() {
+        DOReaderCache cache = new DOReaderCache(2, 60);
+        cache.put(reader("test:1"));
+        cache.put(reader("test:2"));
+        // touch test:1 so test:2 is the least recently used
+        cache.get("test:1");
+        cache.put(reader("test:3"));
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get("test:2"));
+        assertTrue(cache.get("test:1") != null);
+        assertTrue(cache.get("test:3") != null);
+    }
+
+    @Test
+    public void testByteBound() {
+        DOReader small = reader("test:1");
+        long size = DOReaderCache.estimateSize(small);
+        DOReaderCache cache = new DOReaderCache(10, size * 2, 60);
+        cache.put(small);
+        cache.put(reader("test:2"));
+        cache.put(reader("test:3"));
+        assertEquals(2, cache.getSize());
+        assertTrue(cache.getEstimatedBytes() <= size * 2);
+        assertNull(cache.get("test:1"));
+    }
+
+    @Test
+    public void testEstimateIncludesInlineXml() {
+        DigitalObject obj = new BasicDigitalObject();
+        obj.setPid("test:1");
+        long empty = DOReaderCache.estimateSize(new MockDOReader(obj));
+        ObjectBuilder.addXDatastream(obj, "DS1", "<doc>some content</doc>");
+        assertTrue(DOReaderCache.estimateSize(new MockDOReader(obj)) > empty
+                + "<doc>some content</doc>".length());
+    }
+
+    @Test
+    public void testLazyExpiry() throws Exception {
+        DOReaderCache cache = new DOReaderCache(10, 1);
+        cache.put(reader("test:1"));
+        Thread.sleep(1100);
+        assertNull(cache.get("test:1"));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    private static DOReader reader(String pid) {
+        DigitalObject obj = new BasicDigitalObject();
+        obj.setPid(pid);
+        return new MockDOReader(obj);
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DOReaderCacheTest.class);
+    }
+}
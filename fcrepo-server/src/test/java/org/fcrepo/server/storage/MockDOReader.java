@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -147,6 +148,19 @@ public class MockDOReader
         return theObject.getRelationships();
     }
 
+    public Datastream[] GetDatastreams(Date versDateTime, String state)
+            throws ServerException {
+        List<Datastream> datastreams = new ArrayList<Datastream>();
+        Iterator<String> dsIds = theObject.datastreamIdIterator();
+        while (dsIds.hasNext()) {
+            Datastream ds = GetDatastream(dsIds.next(), versDateTime);
+            if (ds != null && (state == null || state.equals(ds.DSState))) {
+                datastreams.add(ds);
+            }
+        }
+        return datastreams.toArray(new Datastream[datastreams.size()]);
+    }
+
     // ----------------------------------------------------------------------
     // Un-implemented methods
     // ----------------------------------------------------------------------
@@ -161,11 +175,6 @@ public class MockDOReader
         throw new RuntimeException("MockDOReader.Export not implemented");
     }
 
-    public Datastream[] GetDatastreams(Date versDateTime, String state)
-            throws ServerException {
-        throw new RuntimeException("MockDOReader.GetDatastreams not implemented");
-    }
-
     public InputStream GetObjectXML() throws ServerException {
         throw new RuntimeException("MockDOReader.GetObjectXML not implemented");
     }
@@ -0,0 +1,99 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage;
+
+import org.junit.Test;
+
+import org.fcrepo.server.errors.ObjectLockedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ObjectLockManager}.
+ */
+public class ObjectLockManagerTest {
+
+    @Test
+    public void testFailFast() throws Exception {
+        ObjectLockManager locks = new ObjectLockManager(0);
+        locks.lock("test:1");
+        assertTrue(locks.isLocked("test:1"));
+        try {
+            locks.lock("test:1");
+            fail("Second lock on the same PID should have failed");
+        } catch (ObjectLockedException e) {
+        }
+        // a different PID is unaffected
+        locks.lock("test:2");
+        locks.unlock("test:1");
+        locks.unlock("test:2");
+        assertFalse(locks.isLocked("test:1"));
+        assertEquals(0, locks.getHolderCount());
+        assertEquals(1, locks.getTimeoutCount());
+    }
+
+    @Test
+    public void testUnlockWhenNotLocked() throws Exception {
+        ObjectLockManager locks = new ObjectLockManager(0);
+        locks.unlock("test:1");
+        locks.lock("test:1");
+        locks.unlock("test:1");
+        locks.unlock("test:1");
+        locks.lock("test:1");
+        try {
+            locks.lock("test:1");
+            fail("Extra unlocks must not leave the PID lockable twice");
+        } catch (ObjectLockedException e) {
+        }
+    }
+
+    @Test
+    public void testWaitForRelease() throws Exception {
+        final ObjectLockManager locks = new ObjectLockManager(5000);
+        locks.lock("test:1");
+        Thread releaser = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                }
+                locks.unlock("test:1");
+            }
+        };
+        releaser.start();
+        locks.lock("test:1");
+        releaser.join();
+        assertTrue(locks.isLocked("test:1"));
+        assertEquals(1, locks.getContendedCount());
+        assertEquals(0, locks.getTimeoutCount());
+        assertTrue(locks.getMaxWaitMillis() > 0);
+        locks.unlock("test:1");
+    }
+
+    @Test
+    public void testWaitTimesOut() throws Exception {
+        ObjectLockManager locks = new ObjectLockManager(100);
+        locks.lock("test:1");
+        long start = System.currentTimeMillis();
+        try {
+            locks.lock("test:1");
+            fail("Lock should have timed out");
+        } catch (ObjectLockedException e) {
+        }
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        assertEquals(0, locks.getWaiterCount());
+        assertEquals(1, locks.getHolderCount());
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ObjectLockManagerTest.class);
+    }
+}
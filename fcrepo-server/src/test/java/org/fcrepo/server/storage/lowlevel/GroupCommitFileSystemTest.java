@@ -0,0 +1,297 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.errors.LowlevelStorageException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for GroupCommitFileSystem.
+ */
+public class GroupCommitFileSystemTest {
+
+    private static final int CRASH_FILES = 8;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("group-commit", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testWriteAndRewrite() throws Exception {
+        GroupCommitFileSystem fs = getFileSystem(0);
+        File file = new File(dir, "a/b/test");
+        fs.write(file, toStream("one"));
+        assertEquals("one", read(fs, file));
+        fs.rewrite(file, toStream("two"));
+        assertEquals("two", read(fs, file));
+        assertFalse(GroupCommitFileSystem.getTempFile(file).exists());
+        assertEquals(2, fs.getWriteCount());
+    }
+
+    @Test
+    public void testFailedRewriteKeepsOriginal() throws Exception {
+        GroupCommitFileSystem fs = getFileSystem(0);
+        File file = new File(dir, "test");
+        fs.write(file, toStream("original"));
+        InputStream broken = new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        try {
+            fs.rewrite(file, broken);
+            fail("rewrite should have failed");
+        } catch (LowlevelStorageException e) {
+            // expected
+        }
+        assertEquals("original", read(fs, file));
+        assertFalse(GroupCommitFileSystem.getTempFile(file).exists());
+    }
+
+    @Test(expected = LowlevelStorageException.class)
+    public void testRewriteMissingFile() throws Exception {
+        getFileSystem(0).rewrite(new File(dir, "missing"), toStream("x"));
+    }
+
+    /** A write must not touch the file of an object named like its temp. */
+    @Test
+    public void testTempFileIsNotAnObjectFile() throws Exception {
+        GroupCommitFileSystem fs = getFileSystem(0);
+        File file = new File(dir, "demo_a");
+        File other = new File(dir, "demo_a.new");
+        fs.write(other, toStream("other"));
+        fs.write(file, toStream("one"));
+        fs.rewrite(file, toStream("two"));
+        assertEquals("two", read(fs, file));
+        assertEquals("other", read(fs, other));
+        assertFalse(GroupCommitFileSystem.isLeftover(other));
+        assertTrue(GroupCommitFileSystem.isLeftover(GroupCommitFileSystem
+                .getTempFile(file)));
+    }
+
+    /** A target moved aside by an interrupted replace is restored. */
+    @Test
+    public void testBackupIsRestored() throws Exception {
+        GroupCommitFileSystem fs = getFileSystem(0);
+        File file = new File(dir, "test");
+        fs.write(file, toStream("original"));
+        File backup = GroupCommitFileSystem.getBackupFile(file);
+        assertTrue(file.renameTo(backup));
+        assertEquals("original", read(fs, file));
+        assertFalse(backup.exists());
+
+        assertTrue(file.renameTo(backup));
+        fs.rewrite(file, toStream("new"));
+        assertEquals("new", read(fs, file));
+        assertFalse(backup.exists());
+    }
+
+    /** Leftovers are recovered during a rebuild and skipped otherwise. */
+    @Test
+    public void testRecoverLeftovers() throws Exception {
+        GroupCommitFileSystem fs = getFileSystem(0);
+        File file = new File(dir, "test");
+        fs.write(file, toStream("original"));
+        File temp = GroupCommitFileSystem.getTempFile(file);
+        FileUtils.writeStringToFile(temp, "uncommitted", "UTF-8");
+        assertEquals(null, GroupCommitFileSystem.recover(temp));
+        assertFalse(temp.exists());
+
+        File backup = GroupCommitFileSystem.getBackupFile(file);
+        assertTrue(file.renameTo(backup));
+        assertEquals(file, GroupCommitFileSystem.recover(backup));
+        assertEquals("original", read(fs, file));
+    }
+
+    /** Concurrent writes should be synced in fewer batches than writes. */
+    @Test
+    public void testConcurrentWritesShareBatches() throws Exception {
+        final GroupCommitFileSystem fs = getFileSystem(50);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Exception> errors = new ArrayList<Exception>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final File file = new File(dir, "file" + i);
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        fs.write(file, toStream(file.getName()));
+                    } catch (Exception e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(8, fs.getWriteCount());
+        assertTrue("batches: " + fs.getBatchCount(), fs.getBatchCount() < 8);
+        for (int i = 0; i < 8; i++) {
+            File file = new File(dir, "file" + i);
+            assertEquals(file.getName(), read(fs, file));
+        }
+    }
+
+    /**
+     * Kills a process while it's rewriting files and checks that each file
+     * holds one complete version.
+     */
+    @Test
+    public void testKillDuringWrite() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        Process process =
+                new ProcessBuilder(java,
+                                   "-cp",
+                                   System.getProperty("java.class.path"),
+                                   GroupCommitFileSystemTest.class.getName(),
+                                   dir.getPath()).redirectErrorStream(true)
+                        .start();
+        try {
+            BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(process
+                            .getInputStream()));
+            StringBuilder output = new StringBuilder();
+            String line;
+            while (!"ready".equals(line = reader.readLine())) {
+                assertTrue("writer exited: " + output, line != null);
+                output.append(line).append('\n');
+            }
+            Thread.sleep(500);
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+
+        GroupCommitFileSystem fs = getFileSystem(0);
+        for (int i = 0; i < CRASH_FILES; i++) {
+            File file = new File(dir, "file" + i);
+            String content = read(fs, file);
+            assertTrue("incomplete content in " + file, isComplete(content));
+            // a stale temporary file must not get in the way
+            fs.rewrite(file, toStream(getContent(-1)));
+            assertEquals(getContent(-1), read(fs, file));
+        }
+    }
+
+    /**
+     * Rewrites the test files in the given directory until killed.
+     */
+    public static void main(String[] args) throws Exception {
+        final GroupCommitFileSystem fs =
+                new GroupCommitFileSystem(new HashMap<String, Object>(),
+                                          new GenericFileSystem(new HashMap<String, Object>()),
+                                          1);
+        final File dir = new File(args[0]);
+        for (int i = 0; i < CRASH_FILES; i++) {
+            fs.write(new File(dir, "file" + i), toStream(getContent(0)));
+        }
+        System.out.println("ready");
+        System.out.flush();
+        for (int i = 0; i < CRASH_FILES; i++) {
+            final File file = new File(dir, "file" + i);
+            new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int round = 1; true; round++) {
+                            fs.rewrite(file, toStream(getContent(round)));
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }.start();
+        }
+    }
+
+    private static String getContent(int round) {
+        StringBuilder content = new StringBuilder("start " + round + "\n");
+        for (int i = 0; i < 4096; i++) {
+            content.append("line ").append(i).append(" of round ")
+                    .append(round).append('\n');
+        }
+        return content.append("end ").append(round).toString();
+    }
+
+    private static boolean isComplete(String content) {
+        if (!content.startsWith("start ")) {
+            return false;
+        }
+        String round =
+                content.substring("start ".length(), content.indexOf('\n'));
+        return content.equals(getContent(Integer.parseInt(round)));
+    }
+
+    private GroupCommitFileSystem getFileSystem(long delay) {
+        return new GroupCommitFileSystem(new HashMap<String, Object>(),
+                                         new GenericFileSystem(new HashMap<String, Object>()),
+                                         delay);
+    }
+
+    private static InputStream toStream(String string) throws IOException {
+        return new ByteArrayInputStream(string.getBytes("UTF-8"));
+    }
+
+    private static String read(FileSystem fs, File file) throws Exception {
+        InputStream in = fs.read(file);
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitFileSystemTest.class);
+    }
+}
@@ -0,0 +1,83 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link PathIndex}.
+ */
+public class PathIndexTest {
+
+    @Test
+    public void testPutGetRemove() {
+        PathIndex index = new PathIndex();
+        assertNull(index.get("demo:1"));
+        index.put("demo:1", "/data/objects/2011/0101/12/00/demo_1");
+        assertEquals("/data/objects/2011/0101/12/00/demo_1", index
+                .get("demo:1"));
+        assertNull(index.get("demo:"));
+        assertNull(index.get("demo:10"));
+        index.put("demo:1", "/data/objects/2012/0101/12/00/demo_1");
+        assertEquals(1, index.size());
+        assertEquals("/data/objects/2012/0101/12/00/demo_1", index
+                .get("demo:1"));
+        assertTrue(index.remove("demo:1"));
+        assertFalse(index.remove("demo:1"));
+        assertNull(index.get("demo:1"));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testUnusualPaths() {
+        PathIndex index = new PathIndex();
+        index.put("demo:1+DC+DC.0", "C:\\fedora\\data\\demo_1+DC+DC.0");
+        index.put("demo:\u00e9", "relative_\u00e9");
+        index.put("demo:2", "/data/");
+        assertEquals("C:\\fedora\\data\\demo_1+DC+DC.0", index
+                .get("demo:1+DC+DC.0"));
+        assertEquals("relative_\u00e9", index.get("demo:\u00e9"));
+        assertEquals("/data/", index.get("demo:2"));
+    }
+
+    @Test
+    public void testManyEntries() {
+        PathIndex index = new PathIndex();
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < 20000; i++) {
+            String pid = "demo:" + i;
+            String path = "/data/objects/" + (i % 300) + "/demo_" + i;
+            index.put(pid, path);
+            expected.put(pid, path);
+        }
+        long memory = index.getMemoryUsage();
+        // remove every third entry, which moves many others in the table
+        for (int i = 0; i < 20000; i += 3) {
+            assertTrue(index.remove("demo:" + i));
+            expected.remove("demo:" + i);
+        }
+        assertEquals(expected.size(), index.size());
+        assertTrue(index.getMemoryUsage() < memory);
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(expected.get("demo:" + i), index.get("demo:" + i));
+        }
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get("demo:1"));
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PathIndexTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel.akubra;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.net.URI;
+
+import org.apache.commons.io.FileUtils;
+
+import org.akubraproject.BlobStore;
+import org.akubraproject.fs.FSBlobStore;
+import org.akubraproject.map.IdMappingBlobStore;
+
+/**
+ * Measures the cost of blob store connections when committing objects to
+ * an <code>AkubraLowlevelStorage</code> backed by local filesystem stores,
+ * configured as in <code>akubra-llstore.xml</code>.
+ * <p>
+ * Each simulated commit adds a number of datastreams, reads back their
+ * sizes and adds the object, as <code>DefaultDOManager</code> does. The
+ * commits are run with connections opened for every operation and again
+ * with pooled connections, and the commits per second and connections opened
+ * are printed for each. This is not a unit test and is not run by the build;
+ * run its <code>main</code> method with the test classpath. The arguments are
+ * the number of commits (default 2000), datastreams per commit (default 5)
+ * and bytes per datastream (default 1024).
+ */
+public class AkubraLowlevelStorageBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int datastreams = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        byte[] content = new byte[size];
+
+        // the first round warms up the JIT and the filesystem
+        for (int round = 0; round < 2; round++) {
+            run("unpooled", 0, commits, datastreams, content);
+            run("pooled", AkubraLowlevelStorage.DEFAULT_MAX_IDLE_CONNECTIONS,
+                commits, datastreams, content);
+        }
+    }
+
+    private static void run(String name,
+                            int maxIdleConnections,
+                            int commits,
+                            int datastreams,
+                            byte[] content) throws Exception {
+        File dir = File.createTempFile("akubra-benchmark", "");
+        dir.delete();
+        try {
+            AkubraLowlevelStorage storage =
+                    new AkubraLowlevelStorage(getStore(dir, "objects"),
+                                              getStore(dir, "datastreams"),
+                                              true,
+                                              true,
+                                              false,
+                                              maxIdleConnections);
+            long start = System.nanoTime();
+            for (int i = 0; i < commits; i++) {
+                String pid = "benchmark:" + i;
+                for (int j = 0; j < datastreams; j++) {
+                    String dsKey = pid + "+DS" + j + "+DS" + j + ".0";
+                    storage.addDatastream(dsKey,
+                                          new ByteArrayInputStream(content));
+                    storage.getDatastreamSize(dsKey);
+                }
+                storage.addObject(pid, new ByteArrayInputStream(content));
+            }
+            long nanos = System.nanoTime() - start;
+            storage.closeIdleConnections();
+            long[] counts = storage.getConnectionCounts();
+            System.out.println(name + ": " + commits + " commits of "
+                    + datastreams + " datastreams in " + nanos / 1000000
+                    + "ms, " + (long) (commits * 1e9 / nanos)
+                    + " commits/sec, " + (counts[0] + counts[2])
+                    + " connections opened");
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static BlobStore getStore(File dir, String name)
+            throws IOException {
+        File baseDir = new File(dir, name);
+        if (!baseDir.mkdirs()) {
+            throw new IOException("Unable to create " + baseDir);
+        }
+        BlobStore fsStore =
+                new FSBlobStore(URI.create("urn:benchmark:fs-" + name),
+                                baseDir);
+        return new IdMappingBlobStore(URI.create("urn:benchmark:" + name),
+                                      fsStore,
+                                      new HashPathIdMapper("##"));
+    }
+}
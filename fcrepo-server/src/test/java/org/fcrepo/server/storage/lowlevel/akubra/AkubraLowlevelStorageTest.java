@@ -6,10 +6,13 @@ package org.fcrepo.server.storage.lowlevel.akubra;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 
+import java.net.URI;
+
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -19,6 +22,8 @@ import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 
+import org.akubraproject.BlobStore;
+import org.akubraproject.BlobStoreConnection;
 import org.akubraproject.mem.MemBlobStore;
 
 import org.fcrepo.common.FaultException;
@@ -28,6 +33,8 @@ import org.fcrepo.server.errors.ObjectAlreadyInLowlevelStorageException;
 import org.fcrepo.server.errors.ObjectNotInLowlevelStorageException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Unit tests for {@link AkubraLowlevelStorage}
@@ -44,6 +51,8 @@ public class AkubraLowlevelStorageTest {
     private static final String DS_CONTENT = "ds-content";
     private static final String DS_CONTENT2 = "ds-content2";
 
+    private static final String DS_KEY2 = OBJ_KEY + "+DS+DS.1";
+
     private AkubraLowlevelStorage instance;
     private AkubraLowlevelStorage safeInstance;
 
@@ -275,6 +284,199 @@ public class AkubraLowlevelStorageTest {
     }
 
 
+    /** Identical datastream content should be stored once. */
+    @Test
+    public void testDeduplicatedDatastreams() throws Exception {
+        BlobStore store = new MemBlobStore();
+        AkubraLowlevelStorage dedup = getDeduplicatingInstance(store);
+        dedup.addDatastream(DS_KEY, toStream(DS_CONTENT));
+        assertEquals(DS_CONTENT.getBytes("UTF-8").length,
+                     dedup.addDatastream(DS_KEY2, toStream(DS_CONTENT)));
+        assertEquals(2, toList(dedup.listDatastreams()).size());
+        assertEquals(1, countContentBlobs(store));
+        assertEquals(DS_CONTENT.getBytes("UTF-8").length,
+                     dedup.getDatastreamSize(DS_KEY2));
+
+        dedup.removeDatastream(DS_KEY);
+        assertEquals(DS_CONTENT, toString(dedup.retrieveDatastream(DS_KEY2)));
+        assertEquals(1, countContentBlobs(store));
+        dedup.removeDatastream(DS_KEY2);
+        assertEquals(0, toList(listBlobIds(store)).size());
+    }
+
+    /** Replacing deduplicated content should release the old content. */
+    @Test
+    public void testReplaceDeduplicatedDatastream() throws Exception {
+        BlobStore store = new MemBlobStore();
+        AkubraLowlevelStorage dedup = getDeduplicatingInstance(store);
+        dedup.addDatastream(DS_KEY, toStream(DS_CONTENT));
+        dedup.replaceDatastream(DS_KEY, toStream(DS_CONTENT2));
+        assertEquals(DS_CONTENT2, toString(dedup.retrieveDatastream(DS_KEY)));
+        assertEquals(1, countContentBlobs(store));
+        List<String> list = toList(dedup.listDatastreams());
+        assertEquals(1, list.size());
+        assertEquals(DS_KEY, list.get(0));
+    }
+
+    /**
+     * A failed add should leave the stream open, so the caller can replace
+     * with it instead, as DefaultDOManager does.
+     */
+    @Test
+    public void testAddThenReplaceDeduplicatedDatastream() throws Exception {
+        BlobStore store = new MemBlobStore();
+        AkubraLowlevelStorage dedup = getDeduplicatingInstance(store);
+        dedup.addDatastream(DS_KEY, toStream(DS_CONTENT));
+        InputStream content = new CloseableStream(toStream(DS_CONTENT2));
+        try {
+            dedup.addDatastream(DS_KEY, content);
+            fail("Expected ObjectAlreadyInLowlevelStorageException");
+        } catch (ObjectAlreadyInLowlevelStorageException e) {
+            assertEquals(DS_CONTENT2.getBytes("UTF-8").length,
+                         dedup.replaceDatastream(DS_KEY, content));
+        }
+        assertEquals(DS_CONTENT2, toString(dedup.retrieveDatastream(DS_KEY)));
+        assertEquals(1, countContentBlobs(store));
+    }
+
+    /** Copying a datastream should give the same content under a new key. */
+    @Test
+    public void testCopyDatastream() throws Exception {
+        BlobStore store = new MemBlobStore();
+        AkubraLowlevelStorage dedup = getDeduplicatingInstance(store);
+        for (AkubraLowlevelStorage storage : new AkubraLowlevelStorage[] {
+                instance, dedup}) {
+            storage.addDatastream(DS_KEY, toStream(DS_CONTENT));
+            storage.addDatastream(DS_KEY2, toStream(DS_CONTENT2));
+            assertEquals(DS_CONTENT.getBytes("UTF-8").length,
+                         storage.copyDatastream(DS_KEY, DS_KEY2));
+            assertEquals(DS_CONTENT,
+                         toString(storage.retrieveDatastream(DS_KEY2)));
+            storage.removeDatastream(DS_KEY);
+            assertEquals(DS_CONTENT,
+                         toString(storage.retrieveDatastream(DS_KEY2)));
+        }
+        assertEquals(1, countContentBlobs(store));
+    }
+
+    /**
+     * Datastreams stored without deduplication should still be usable once
+     * it's enabled.
+     */
+    @Test
+    public void testDeduplicatingExistingStore() throws Exception {
+        BlobStore store = new MemBlobStore();
+        new AkubraLowlevelStorage(new MemBlobStore(), store, false, false)
+                .addDatastream(DS_KEY, toStream(DS_CONTENT));
+        AkubraLowlevelStorage dedup = getDeduplicatingInstance(store);
+        assertEquals(DS_CONTENT, toString(dedup.retrieveDatastream(DS_KEY)));
+        dedup.copyDatastream(DS_KEY, DS_KEY2);
+        assertEquals(DS_CONTENT, toString(dedup.retrieveDatastream(DS_KEY2)));
+        dedup.replaceDatastream(DS_KEY, toStream(DS_CONTENT));
+        assertEquals(2, toList(dedup.listDatastreams()).size());
+        assertEquals(1, countContentBlobs(store));
+        dedup.removeDatastream(DS_KEY);
+        dedup.removeDatastream(DS_KEY2);
+        assertEquals(0, toList(listBlobIds(store)).size());
+    }
+
+    /**
+     * Connections should be reused once they're given back, including by
+     * streams and iterators, and never given back twice.
+     */
+    @Test
+    public void testConnectionReuse() throws Exception {
+        AkubraLowlevelStorage storage =
+                new AkubraLowlevelStorage(new MemBlobStore(),
+                                          new MemBlobStore(),
+                                          false,
+                                          false,
+                                          false,
+                                          2);
+        storage.addObject(OBJ_KEY, toStream(OBJ_CONTENT));
+        storage.replaceObject(OBJ_KEY, toStream(OBJ_CONTENT2));
+        storage.addDatastream(DS_KEY, toStream(DS_CONTENT));
+        assertEquals(DS_CONTENT.length(), storage.getDatastreamSize(DS_KEY));
+        assertEquals(DS_CONTENT, toString(storage.retrieveDatastream(DS_KEY)));
+        assertEquals(1, toList(storage.listDatastreams()).size());
+        assertConnectionCounts(new long[] {1, 1, 1, 3}, storage);
+
+        // an open stream keeps its connection, so another one is opened
+        InputStream content = storage.retrieveDatastream(DS_KEY);
+        storage.getDatastreamSize(DS_KEY);
+        assertConnectionCounts(new long[] {1, 1, 2, 4}, storage);
+        content.close();
+        content.close();
+
+        // both connections are idle now, and only once each
+        InputStream content1 = storage.retrieveDatastream(DS_KEY);
+        InputStream content2 = storage.retrieveDatastream(DS_KEY);
+        InputStream content3 = storage.retrieveDatastream(DS_KEY);
+        assertConnectionCounts(new long[] {1, 1, 3, 6}, storage);
+        content1.close();
+        content2.close();
+        content3.close();
+
+        storage.closeIdleConnections();
+        storage.getDatastreamSize(DS_KEY);
+        assertConnectionCounts(new long[] {1, 1, 4, 6}, storage);
+    }
+
+    /** Without pooling, each operation should use a new connection. */
+    @Test
+    public void testNoConnectionReuse() throws Exception {
+        AkubraLowlevelStorage storage =
+                new AkubraLowlevelStorage(new MemBlobStore(),
+                                          new MemBlobStore(),
+                                          false,
+                                          false,
+                                          false,
+                                          0);
+        storage.addDatastream(DS_KEY, toStream(DS_CONTENT));
+        storage.getDatastreamSize(DS_KEY);
+        toString(storage.retrieveDatastream(DS_KEY));
+        assertConnectionCounts(new long[] {0, 0, 3, 0}, storage);
+    }
+
+    private static void assertConnectionCounts(long[] expected,
+                                               AkubraLowlevelStorage storage) {
+        long[] actual = storage.getConnectionCounts();
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("connection count " + i, expected[i], actual[i]);
+        }
+    }
+
+    private static AkubraLowlevelStorage getDeduplicatingInstance(BlobStore store) {
+        return new AkubraLowlevelStorage(new MemBlobStore(),
+                                         store,
+                                         false,
+                                         true,
+                                         true);
+    }
+
+    private static int countContentBlobs(BlobStore store) throws IOException {
+        int count = 0;
+        for (URI blobId : toList(listBlobIds(store))) {
+            String id = blobId.toString();
+            assertTrue(id, id.startsWith("info:fedora/"));
+            if (id.startsWith("info:fedora/.sha256/")
+                    && !id.endsWith("/count")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Iterator<URI> listBlobIds(BlobStore store)
+            throws IOException {
+        BlobStoreConnection connection = store.openConnection(null, null);
+        try {
+            return toList(connection.listBlobIds(null)).iterator();
+        } finally {
+            connection.close();
+        }
+    }
+
     private static AkubraLowlevelStorage getInstance(
             boolean forceSafeObjectOverwrites,
             boolean forceSafeDatastreamOverwrites) {
@@ -284,14 +486,48 @@ public class AkubraLowlevelStorageTest {
                                          forceSafeDatastreamOverwrites);
     }
 
-    private static List<String> toList(Iterator<String> iter) {
-        List<String> list = new ArrayList<String>();
+    private static <T> List<T> toList(Iterator<T> iter) {
+        List<T> list = new ArrayList<T>();
         while (iter.hasNext()) {
             list.add(iter.next());
         }
         return list;
     }
 
+    /** A stream that can't be read once it's closed, as a real one. */
+    private static class CloseableStream extends FilterInputStream {
+
+        private boolean closed;
+
+        CloseableStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkOpen();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkOpen();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+
+        private void checkOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+    }
+
     private static InputStream toStream(String string) {
         try {
             return new ByteArrayInputStream(string.getBytes("UTF-8"));
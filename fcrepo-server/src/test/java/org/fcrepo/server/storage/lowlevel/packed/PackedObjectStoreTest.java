@@ -0,0 +1,233 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel.packed;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.errors.ObjectAlreadyInLowlevelStorageException;
+import org.fcrepo.server.errors.ObjectNotInLowlevelStorageException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for PackedObjectStore.
+ */
+public class PackedObjectStoreTest {
+
+    private File dir;
+
+    private PackedObjectStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("packed-store", "");
+        dir.delete();
+        store = open(1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testAddReplaceRemove() throws Exception {
+        store.add("demo:1", bytes("one"));
+        assertEquals("one", retrieve("demo:1"));
+        store.replace("demo:1", bytes("two"));
+        assertEquals("two", retrieve("demo:1"));
+        store.remove("demo:1");
+        try {
+            store.retrieve("demo:1");
+            fail("removed object was retrieved");
+        } catch (ObjectNotInLowlevelStorageException e) {
+            // expected
+        }
+        store.add("demo:1", bytes("three"));
+        assertEquals("three", retrieve("demo:1"));
+    }
+
+    @Test(expected = ObjectAlreadyInLowlevelStorageException.class)
+    public void testAddExisting() throws Exception {
+        store.add("demo:1", bytes("one"));
+        store.add("demo:1", bytes("two"));
+    }
+
+    @Test(expected = ObjectNotInLowlevelStorageException.class)
+    public void testReplaceMissing() throws Exception {
+        store.replace("demo:1", bytes("one"));
+    }
+
+    @Test(expected = ObjectNotInLowlevelStorageException.class)
+    public void testRemoveMissing() throws Exception {
+        store.remove("demo:1");
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        store.close();
+        store = open(64);
+        fill(20);
+        store.close();
+        store = open(64);
+        assertTrue(store.getSegmentCount() > 1);
+        check(20);
+    }
+
+    @Test
+    public void testReopenWithoutIndexFiles() throws Exception {
+        store.close();
+        store = open(64);
+        fill(20);
+        store.close();
+        for (File file : dir.listFiles()) {
+            if (file.getName().endsWith(PackedObjectStore.INDEX_SUFFIX)) {
+                assertTrue(file.delete());
+            }
+        }
+        store = open(64);
+        check(20);
+        store.rebuild();
+        check(20);
+        assertEquals(0, store.audit());
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws Exception {
+        fill(5);
+        store.close();
+        File segment = getLastSegment();
+        long length = segment.length();
+        FileOutputStream out = new FileOutputStream(segment, true);
+        try {
+            out.write(new byte[] {0x46, 0x50, 0x4b, 0x52, 1, 0, 0});
+        } finally {
+            out.close();
+        }
+        store = open(1024 * 1024);
+        assertEquals(length, segment.length());
+        check(5);
+        store.add("demo:new", bytes("new"));
+        store.close();
+        store = open(1024 * 1024);
+        check(5);
+        assertEquals("new", retrieve("demo:new"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        store.close();
+        store = open(64);
+        fill(20);
+        for (int i = 0; i < 20; i++) {
+            if (i % 4 == 0) {
+                store.remove("demo:" + i);
+            } else {
+                store.replace("demo:" + i, bytes("new " + i));
+            }
+        }
+        int before = store.getSegmentCount();
+        assertTrue(store.compact() > 0);
+        assertTrue(store.getSegmentCount() < before);
+        checkCompacted();
+        store.close();
+        store = open(64);
+        checkCompacted();
+    }
+
+    @Test
+    public void testListInStorageOrder() throws Exception {
+        store.close();
+        store = open(64);
+        List<String> expected = new ArrayList<String>();
+        for (String key : Arrays.asList("c", "a", "d", "b")) {
+            store.add(key, bytes(key));
+            expected.add(key);
+        }
+        store.replace("c", bytes("c2"));
+        expected.remove("c");
+        expected.add("c");
+        store.remove("d");
+        expected.remove("d");
+        List<String> keys = new ArrayList<String>();
+        Iterator<String> iter = store.list();
+        while (iter.hasNext()) {
+            keys.add(iter.next());
+        }
+        assertEquals(expected, keys);
+    }
+
+    private PackedObjectStore open(long maxSegmentSize) throws IOException {
+        return new PackedObjectStore(dir, maxSegmentSize, false, 0);
+    }
+
+    private void fill(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            store.add("demo:" + i, bytes("content " + i));
+        }
+    }
+
+    private void check(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            assertEquals("content " + i, retrieve("demo:" + i));
+        }
+    }
+
+    private void checkCompacted() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            if (i % 4 == 0) {
+                try {
+                    store.retrieve("demo:" + i);
+                    fail("removed object demo:" + i + " was retrieved");
+                } catch (ObjectNotInLowlevelStorageException e) {
+                    // expected
+                }
+            } else {
+                assertEquals("new " + i, retrieve("demo:" + i));
+            }
+        }
+    }
+
+    private File getLastSegment() {
+        File last = null;
+        for (File file : dir.listFiles()) {
+            if (file.getName().endsWith(PackedObjectStore.SEGMENT_SUFFIX)
+                    && (last == null || file.getName()
+                            .compareTo(last.getName()) > 0)) {
+                last = file;
+            }
+        }
+        return last;
+    }
+
+    private String retrieve(String key) throws Exception {
+        return new String(store.retrieve(key), "UTF-8");
+    }
+
+    private static byte[] bytes(String s) throws IOException {
+        return s.getBytes("UTF-8");
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PackedObjectStoreTest.class);
+    }
+}
@@ -0,0 +1,85 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.types;
+
+import java.security.MessageDigest;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import org.fcrepo.server.errors.ValidationException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for datastream checksums and entity tags.
+ */
+public class DatastreamTest {
+
+    private static final String MD5_ABC = "900150983cd24fb0d6963f7d28e17f72";
+
+    @Test
+    public void testComputedChecksum() throws Exception {
+        Datastream ds = new Datastream();
+        ds.DSChecksumType = "MD5";
+        MessageDigest digest = ds.getChecksumDigest();
+        digest.update("abc".getBytes("UTF-8"));
+        assertEquals(MD5_ABC, ds.setComputedChecksum(digest));
+        // the base class has no content, so this can't recompute it
+        assertEquals(MD5_ABC, ds.getChecksum());
+    }
+
+    @Test
+    public void testComputedChecksumMatchesKnown() throws Exception {
+        Datastream ds = new Datastream();
+        ds.DSChecksumType = "MD5";
+        ds.DSChecksum = MD5_ABC;
+        MessageDigest digest = ds.getChecksumDigest();
+        digest.update("abc".getBytes("UTF-8"));
+        assertEquals(MD5_ABC, ds.setComputedChecksum(digest));
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testComputedChecksumMismatch() throws Exception {
+        Datastream ds = new Datastream();
+        ds.DSChecksumType = "MD5";
+        ds.DSChecksum = MD5_ABC;
+        MessageDigest digest = ds.getChecksumDigest();
+        digest.update("abd".getBytes("UTF-8"));
+        ds.setComputedChecksum(digest);
+    }
+
+    @Test
+    public void testNoDigestWhenDisabled() {
+        Datastream ds = new Datastream();
+        ds.DSChecksumType = Datastream.CHECKSUMTYPE_DISABLED;
+        assertNull(ds.getChecksumDigest());
+    }
+
+    @Test
+    public void testEntityTag() {
+        Datastream ds = new Datastream();
+        ds.DSControlGrp = "M";
+        ds.DSVersionID = "DS1.0";
+        ds.DSCreateDT = new Date(1000L);
+        ds.DSChecksumType = Datastream.CHECKSUMTYPE_DISABLED;
+        ds.DSChecksum = Datastream.CHECKSUM_NONE;
+        assertEquals("DS1.0:1000", ds.getEntityTag());
+
+        ds.DSChecksumType = "MD5";
+        ds.DSChecksum = MD5_ABC;
+        assertEquals("MD5:" + MD5_ABC, ds.getEntityTag());
+
+        ds.DSControlGrp = "E";
+        assertNull(ds.getEntityTag());
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DatastreamTest.class);
+    }
+}
@@ -8,7 +8,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {DerbyDDLConverterIntegrationTest.class})
+@Suite.SuiteClasses( {DerbyDDLConverterIntegrationTest.class,
+        org.fcrepo.server.utilities.rebuild.AllIntegrationTests.class})
 public class AllIntegrationTests {
 
     // Supports legacy test runners
@@ -19,6 +20,8 @@ public class AllIntegrationTests {
                         .getName());
 
         suite.addTest(DerbyDDLConverterIntegrationTest.suite());
+        suite.addTest(org.fcrepo.server.utilities.rebuild.AllIntegrationTests
+                .suite());
 
         return suite;
 
@@ -8,7 +8,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {TestDateUtility.class, DCFieldsTest.class, PIDStreamIterableWrapperTest.class})
+@Suite.SuiteClasses( {TestDateUtility.class, DCFieldsTest.class, PIDStreamIterableWrapperTest.class, StreamUtilityTest.class,
+        org.fcrepo.server.utilities.rebuild.AllUnitTests.class})
 public class AllUnitTests {
 
 }
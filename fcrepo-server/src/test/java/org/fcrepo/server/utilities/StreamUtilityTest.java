@@ -0,0 +1,113 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link StreamUtility}.
+ */
+public class StreamUtilityTest {
+
+    @Test
+    public void testCopyStream() throws Exception {
+        byte[] data = getData(200000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(data.length,
+                     StreamUtility.copy(new ByteArrayInputStream(data), out));
+        assertTrue(Arrays.equals(data, out.toByteArray()));
+
+        // the reused buffer mustn't leak anything into the next copy
+        out.reset();
+        assertEquals(3, StreamUtility.copy(new ByteArrayInputStream(
+                new byte[] {1, 2, 3}), out));
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3}, out.toByteArray()));
+    }
+
+    @Test
+    public void testCopyFile() throws Exception {
+        byte[] data = getData(300000);
+        File source = File.createTempFile("streamutility", null);
+        File target = File.createTempFile("streamutility", null);
+        try {
+            FileOutputStream out = new FileOutputStream(source);
+            out.write(data);
+            out.close();
+
+            // start part way through, as a caller that has already read
+            // some of the stream would
+            FileInputStream in = new FileInputStream(source);
+            assertEquals(10, in.read(new byte[10]));
+            out = new FileOutputStream(target);
+            assertEquals(data.length - 10, StreamUtility.copy(in, out));
+            assertEquals(-1, in.read());
+            in.close();
+            out.close();
+
+            byte[] copied = StreamUtility.getBytes(new FileInputStream(target));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(data, 10, data.length),
+                                     copied));
+        } finally {
+            source.delete();
+            target.delete();
+        }
+    }
+
+    @Test
+    public void testCopyRange() throws Exception {
+        byte[] data = getData(100000);
+        File source = File.createTempFile("streamutility", null);
+        try {
+            FileOutputStream out = new FileOutputStream(source);
+            out.write(data);
+            out.close();
+
+            byte[] expected = Arrays.copyOfRange(data, 70000, 90000);
+            for (InputStream in : new InputStream[] {
+                    new ByteArrayInputStream(data),
+                    new FileInputStream(source)}) {
+                ByteArrayOutputStream copied = new ByteArrayOutputStream();
+                StreamUtility.skip(in, 70000);
+                assertEquals(20000, StreamUtility.copy(in, copied, 20000));
+                assertTrue(Arrays.equals(expected, copied.toByteArray()));
+                // a copy is only cut short by the end of the stream
+                assertEquals(10000, StreamUtility.copy(in, copied, 20000));
+                in.close();
+            }
+        } finally {
+            source.delete();
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void testSkipPastEnd() throws Exception {
+        StreamUtility.skip(new ByteArrayInputStream(new byte[10]), 11);
+    }
+
+    private static byte[] getData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StreamUtilityTest.class);
+    }
+}
@@ -69,6 +69,13 @@ public class TestDateUtility {
 		assertEquals(EPOCH_T, DateUtility.convertDateToTimeString(EPOCH));
 	}
 
+	@Test
+	public void testConvertDateToHttpString() {
+		assertEquals("Thu, 01 Jan 1970 00:00:00 GMT",
+				DateUtility.convertDateToHttpString(EPOCH));
+		assertNull(DateUtility.convertDateToHttpString(null));
+	}
+
 	@Test
 	public void testConvertDateToXSDString() {
 		assertEquals(EPOCH_XSD_DT, DateUtility.convertDateToXSDString(EPOCH));
@@ -0,0 +1,27 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses( {SQLRebuilderIntegrationTest.class})
+public class AllIntegrationTests {
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() throws Exception {
+
+        junit.framework.TestSuite suite =
+                new junit.framework.TestSuite(AllIntegrationTests.class
+                        .getName());
+
+        suite.addTest(SQLRebuilderIntegrationTest.suite());
+
+        return suite;
+
+    }
+
+}
@@ -0,0 +1,348 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.config.ServerConfiguration;
+import org.fcrepo.server.errors.LowlevelStorageException;
+import org.fcrepo.server.errors.ObjectIntegrityException;
+import org.fcrepo.server.errors.StreamIOException;
+import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
+import org.fcrepo.server.storage.translation.DODeserializer;
+import org.fcrepo.server.storage.types.DigitalObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for RebuildPipeline.
+ */
+public class RebuildPipelineTest {
+
+    private static final int OBJECTS = 100;
+
+    private final ByteArrayOutputStream m_output = new ByteArrayOutputStream();
+
+    private File m_checkpointFile;
+
+    private List<String> m_pids;
+
+    private TestRebuilder m_rebuilder;
+
+    @Before
+    public void setUp() throws IOException {
+        m_checkpointFile = File.createTempFile("rebuild", ".checkpoint");
+        m_checkpointFile.delete();
+        m_pids = new ArrayList<String>();
+        for (int i = 0; i < OBJECTS; i++) {
+            m_pids.add("demo:" + i);
+        }
+        m_rebuilder = new TestRebuilder();
+    }
+
+    @After
+    public void tearDown() {
+        m_checkpointFile.delete();
+    }
+
+    @Test
+    public void testObjectsAreAddedInOrder() throws Exception {
+        RebuildPipeline pipeline = getPipeline();
+        pipeline.run(m_pids.iterator());
+        assertEquals(m_pids, m_rebuilder.added);
+        assertEquals(OBJECTS, pipeline.getCount());
+        assertEquals(0, pipeline.getErrors());
+        assertTrue(m_output.toString(), m_output.toString()
+                .contains("Rebuilt " + OBJECTS + " objects"));
+    }
+
+    @Test
+    public void testBadObjectsAreSkipped() throws Exception {
+        m_pids.set(10, "bad:1");
+        m_pids.set(20, "bad:2");
+        RebuildPipeline pipeline = getPipeline();
+        pipeline.run(m_pids.iterator());
+        List<String> expected = new ArrayList<String>(m_pids);
+        expected.remove("bad:1");
+        expected.remove("bad:2");
+        assertEquals(expected, m_rebuilder.added);
+        assertEquals(OBJECTS, pipeline.getCount());
+        assertEquals(2, pipeline.getErrors());
+        assertTrue(m_output.toString().contains("Skipped bad:1"));
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        RebuildCheckpoint checkpoint = new RebuildCheckpoint(m_checkpointFile);
+        RebuildPipeline pipeline = getPipeline();
+        pipeline.setCheckpoint(checkpoint, 10);
+        try {
+            pipeline.run(new FailingIterator(m_pids.iterator(), 35));
+            fail("listing error was ignored");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(3, m_rebuilder.flushes);
+
+        checkpoint = new RebuildCheckpoint(m_checkpointFile);
+        assertTrue(checkpoint.load());
+        assertEquals(30, checkpoint.getCount());
+        assertEquals("demo:29", checkpoint.getPid());
+
+        m_rebuilder = new TestRebuilder();
+        pipeline = getPipeline();
+        pipeline.setCheckpoint(checkpoint, 10);
+        pipeline.run(m_pids.iterator());
+        assertEquals(m_pids.subList(30, OBJECTS), m_rebuilder.added);
+        assertEquals(OBJECTS, pipeline.getCount());
+        assertTrue(checkpoint.load());
+        assertEquals(OBJECTS, checkpoint.getCount());
+        assertEquals("demo:" + (OBJECTS - 1), checkpoint.getPid());
+    }
+
+    @Test
+    public void testResumeRequiresSameOrder() throws Exception {
+        RebuildCheckpoint checkpoint = new RebuildCheckpoint(m_checkpointFile);
+        checkpoint.save(30, "demo:31");
+        RebuildPipeline pipeline = getPipeline();
+        pipeline.setCheckpoint(checkpoint, 10);
+        try {
+            pipeline.run(m_pids.iterator());
+            fail("resumed from a checkpoint that doesn't match");
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("same order"));
+        }
+        assertTrue(m_rebuilder.added.isEmpty());
+    }
+
+    @Test
+    public void testCheckpointDelete() throws Exception {
+        RebuildCheckpoint checkpoint = new RebuildCheckpoint(m_checkpointFile);
+        assertFalse(checkpoint.load());
+        checkpoint.save(1, "demo:0");
+        assertTrue(m_checkpointFile.exists());
+        checkpoint.delete();
+        assertFalse(checkpoint.load());
+        assertEquals(0, checkpoint.getCount());
+    }
+
+    @Test
+    public void testCheckpointRecordsRun() throws Exception {
+        RebuildCheckpoint checkpoint =
+                new RebuildCheckpoint(m_checkpointFile, "SQLRebuilder {}");
+        checkpoint.save(1, "demo:0");
+
+        checkpoint = new RebuildCheckpoint(m_checkpointFile, "SQLRebuilder {}");
+        assertTrue(checkpoint.load());
+        assertTrue(checkpoint.isSameRun());
+
+        checkpoint =
+                new RebuildCheckpoint(m_checkpointFile,
+                                      "SQLRebuilder {batch=10}");
+        assertTrue(checkpoint.load());
+        assertFalse(checkpoint.isSameRun());
+
+        // a checkpoint that doesn't say which rebuild it is for
+        new RebuildCheckpoint(m_checkpointFile).save(1, "demo:0");
+        checkpoint = new RebuildCheckpoint(m_checkpointFile, "SQLRebuilder {}");
+        assertTrue(checkpoint.load());
+        assertFalse(checkpoint.isSameRun());
+    }
+
+    private RebuildPipeline getPipeline() throws Exception {
+        return new RebuildPipeline(new TestStorage(),
+                                   m_rebuilder,
+                                   new TestDeserializer(),
+                                   4,
+                                   new PrintStream(m_output, true, "UTF-8"));
+    }
+
+    /**
+     * Lists some PIDs, then fails.
+     */
+    private static class FailingIterator
+            implements Iterator<String> {
+
+        private final Iterator<String> m_pids;
+
+        private int m_remaining;
+
+        FailingIterator(Iterator<String> pids, int count) {
+            m_pids = pids;
+            m_remaining = count;
+        }
+
+        public boolean hasNext() {
+            return m_pids.hasNext();
+        }
+
+        public String next() {
+            if (m_remaining-- == 0) {
+                throw new IllegalStateException("listing failed");
+            }
+            return m_pids.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Stores each object as its PID.
+     */
+    private static class TestStorage
+            implements ILowlevelStorage {
+
+        public InputStream retrieveObject(String pid) {
+            try {
+                return new ByteArrayInputStream(pid.getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void addObject(String pid, InputStream content) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void replaceObject(String pid, InputStream content) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void removeObject(String pid) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void rebuildObject() {
+        }
+
+        public void auditObject() {
+        }
+
+        public long addDatastream(String dsKey, InputStream content) {
+            throw new UnsupportedOperationException();
+        }
+
+        public long replaceDatastream(String dsKey, InputStream content) {
+            throw new UnsupportedOperationException();
+        }
+
+        public InputStream retrieveDatastream(String dsKey)
+                throws LowlevelStorageException {
+            throw new UnsupportedOperationException();
+        }
+
+        public void removeDatastream(String dsKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void rebuildDatastream() {
+        }
+
+        public void auditDatastream() {
+        }
+    }
+
+    /**
+     * Reads the PID of an object, failing for PIDs in the "bad" namespace.
+     */
+    private static class TestDeserializer
+            implements DODeserializer {
+
+        public DODeserializer getInstance() {
+            return new TestDeserializer();
+        }
+
+        public void deserialize(InputStream in,
+                                DigitalObject obj,
+                                String encoding,
+                                int transContext)
+                throws ObjectIntegrityException, StreamIOException,
+                UnsupportedEncodingException {
+            String pid;
+            try {
+                pid = IOUtils.toString(in, encoding);
+            } catch (IOException e) {
+                throw new StreamIOException(e.getMessage());
+            }
+            if (pid.startsWith("bad:")) {
+                throw new ObjectIntegrityException("bad object " + pid);
+            }
+            obj.setPid(pid);
+        }
+    }
+
+    private static class TestRebuilder
+            implements ResumableRebuilder {
+
+        final List<String> added = new ArrayList<String>();
+
+        int flushes;
+
+        public void addObject(DigitalObject object) {
+            added.add(object.getPid());
+        }
+
+        public void flush() {
+            flushes++;
+        }
+
+        public String getAction() {
+            return "Test";
+        }
+
+        public void setServerConfiguration(ServerConfiguration serverConfig) {
+        }
+
+        public void setServerDir(File serverBaseDir) {
+        }
+
+        public void init() {
+        }
+
+        public Map<String, String> getOptions() {
+            return null;
+        }
+
+        public boolean shouldStopServer() {
+            return false;
+        }
+
+        public void start(Map<String, String> options) {
+        }
+
+        public void resume(Map<String, String> options) {
+        }
+
+        public void finish() {
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RebuildPipelineTest.class);
+    }
+}
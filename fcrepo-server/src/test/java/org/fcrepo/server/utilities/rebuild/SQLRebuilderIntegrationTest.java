@@ -0,0 +1,271 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.common.PID;
+import org.fcrepo.server.errors.ServerException;
+import org.fcrepo.server.management.PIDGenerator;
+import org.fcrepo.server.search.FieldSearch;
+import org.fcrepo.server.search.FieldSearchQuery;
+import org.fcrepo.server.search.FieldSearchResult;
+import org.fcrepo.server.storage.ConnectionPool;
+import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DigitalObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static org.fcrepo.server.storage.types.ObjectBuilder.getTestObject;
+
+/**
+ * Tests the batched registry and FieldSearch writes of {@link SQLRebuilder}.
+ */
+public class SQLRebuilderIntegrationTest {
+
+    // test database constants
+    private static final String driver = "org.apache.derby.jdbc.EmbeddedDriver";
+    private static final String url = "jdbc:derby:test;create=true";
+    private static final String username = "test";
+    private static final String password = "test";
+
+    /** Longer than the doPID column, so it can't be registered. */
+    private static final String BAD_PID =
+            "test:" + "0123456789012345678901234567890123456789012345678901234567890";
+
+    private static ConnectionPool cPool;
+
+    private RecordingFieldSearch m_fieldSearch;
+
+    // needs to be set in order for object serializers/deserializers to work
+    static {
+        Datastream.defaultChecksumType = "DISABLED";
+    }
+
+    @Before
+    public void setUpTest() throws Exception {
+        if (cPool == null) {
+            cPool = new ConnectionPool(driver,
+                                       url,
+                                       username,
+                                       password,
+                                       4,
+                                       4,
+                                       -1,
+                                       0,
+                                       1800000,
+                                       3,
+                                       -1,
+                                       "values(1)",
+                                       true,
+                                       true,
+                                       true,
+                                       (byte) 1);
+        }
+        Connection conn = cPool.getReadWriteConnection();
+        executeUpdate(conn, "DROP TABLE doRegistry", true);
+        executeUpdate(conn, "DROP TABLE modelDeploymentMap", true);
+        executeUpdate(conn, "CREATE TABLE doRegistry (\n"
+            + "doPID VARCHAR(64) NOT NULL PRIMARY KEY,\n"
+            + "systemVersion INT DEFAULT 0 NOT NULL,\n"
+            + "ownerId VARCHAR(64),\n"
+            + "label VARCHAR(255))", false);
+        executeUpdate(conn, "CREATE TABLE modelDeploymentMap (\n"
+            + "cModel VARCHAR(64) NOT NULL,\n"
+            + "sDef VARCHAR(64) NOT NULL,\n"
+            + "sDep VARCHAR(64) NOT NULL)", false);
+        cPool.free(conn);
+        m_fieldSearch = new RecordingFieldSearch();
+    }
+
+    @Test
+    public void testObjectsAreWrittenOnFlushAndFinish() throws Exception {
+        SQLRebuilder rebuilder = getRebuilder(2);
+        rebuilder.addObject(getTestObject("test:1", "one"));
+        assertEquals(0, getRegistry().size());
+        rebuilder.flush();
+        assertEquals(1, getRegistry().size());
+
+        rebuilder.addObject(getTestObject("test:2", "two"));
+        assertEquals(1, getRegistry().size());
+        rebuilder.addObject(getTestObject("test:3", "three"));
+        assertEquals(3, getRegistry().size());
+
+        rebuilder.addObject(getTestObject("test:4", "four"));
+        rebuilder.finish();
+        assertEquals(4, getRegistry().size());
+        assertEquals(4, m_fieldSearch.batched.size());
+        assertEquals(0, m_fieldSearch.single.size());
+    }
+
+    @Test
+    public void testRegisteredPidsAreSkippedOnResume() throws Exception {
+        Connection conn = cPool.getReadWriteConnection();
+        executeUpdate(conn, "INSERT INTO doRegistry (doPID, systemVersion, "
+                + "ownerId, label) VALUES ('test:1', 7, 'o', 'l')", false);
+        cPool.free(conn);
+
+        SQLRebuilder rebuilder = getRebuilder(10);
+        rebuilder.addObject(getTestObject("test:1", "one"));
+        rebuilder.addObject(getTestObject("test:2", "two"));
+        rebuilder.flush();
+
+        Map<String, Integer> registry = getRegistry();
+        assertEquals(2, registry.size());
+        assertEquals(7, registry.get("test:1").intValue());
+        assertEquals(1, registry.get("test:2").intValue());
+        // written as one batch, not one at a time
+        assertEquals(2, m_fieldSearch.batched.size());
+        assertEquals(0, m_fieldSearch.single.size());
+    }
+
+    @Test
+    public void testFailedBatchIsWrittenOneAtATime() throws Exception {
+        DigitalObject bad = getTestObject("test:bad", "bad");
+        bad.setPid(BAD_PID);
+
+        SQLRebuilder rebuilder = getRebuilder(10);
+        rebuilder.addObject(getTestObject("test:1", "one"));
+        rebuilder.addObject(bad);
+        rebuilder.addObject(getTestObject("test:2", "two"));
+        rebuilder.flush();
+
+        Map<String, Integer> registry = getRegistry();
+        assertEquals(2, registry.size());
+        assertTrue(registry.containsKey("test:1"));
+        assertTrue(registry.containsKey("test:2"));
+        assertEquals(0, m_fieldSearch.batched.size());
+        assertTrue(m_fieldSearch.single.contains("test:1"));
+        assertTrue(m_fieldSearch.single.contains("test:2"));
+    }
+
+    @Test
+    public void testFailedFieldSearchBatchIsWrittenOneAtATime()
+            throws Exception {
+        m_fieldSearch.failBatches = true;
+        SQLRebuilder rebuilder = getRebuilder(10);
+        rebuilder.addObject(getTestObject("test:1", "one"));
+        rebuilder.addObject(getTestObject("test:2", "two"));
+        rebuilder.flush();
+
+        assertEquals(2, getRegistry().size());
+        assertEquals(2, m_fieldSearch.single.size());
+    }
+
+    private SQLRebuilder getRebuilder(int batchSize) {
+        return new SQLRebuilder(cPool,
+                                m_fieldSearch,
+                                new NullPIDGenerator(),
+                                batchSize);
+    }
+
+    /**
+     * Gets the system version of each registered PID.
+     */
+    private static Map<String, Integer> getRegistry() throws Exception {
+        Map<String, Integer> registry = new HashMap<String, Integer>();
+        Connection conn = cPool.getReadOnlyConnection();
+        Statement st = conn.createStatement();
+        try {
+            ResultSet results =
+                    st.executeQuery("SELECT doPID, systemVersion FROM doRegistry");
+            while (results.next()) {
+                registry.put(results.getString(1), results.getInt(2));
+            }
+            results.close();
+        } finally {
+            st.close();
+            cPool.free(conn);
+        }
+        return registry;
+    }
+
+    private static void executeUpdate(Connection conn,
+                                      String sql,
+                                      boolean ignoreError) throws Exception {
+        Statement st = conn.createStatement();
+        try {
+            st.executeUpdate(sql);
+        } catch (Exception e) {
+            if (!ignoreError) {
+                throw e;
+            }
+        } finally {
+            try { st.close(); } catch (Exception e) { }
+        }
+    }
+
+    /**
+     * Records the PIDs written in batches and one at a time.
+     */
+    private static class RecordingFieldSearch
+            implements FieldSearch {
+
+        boolean failBatches;
+
+        final List<String> batched = new ArrayList<String>();
+
+        final List<String> single = new ArrayList<String>();
+
+        public void update(DOReader reader) throws ServerException {
+            single.add(reader.GetObjectPID());
+        }
+
+        public void update(List<DOReader> readers) throws ServerException {
+            if (failBatches) {
+                throw new UnsupportedOperationException("no batches");
+            }
+            for (DOReader reader : readers) {
+                batched.add(reader.GetObjectPID());
+            }
+        }
+
+        public boolean delete(String pid) {
+            throw new UnsupportedOperationException();
+        }
+
+        public FieldSearchResult findObjects(String[] resultFields,
+                                             int maxResults,
+                                             FieldSearchQuery query) {
+            throw new UnsupportedOperationException();
+        }
+
+        public FieldSearchResult resumeFindObjects(String sessionToken) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class NullPIDGenerator
+            implements PIDGenerator {
+
+        public PID generatePID(String namespace) {
+            throw new UnsupportedOperationException();
+        }
+
+        public PID getLastPID() {
+            return null;
+        }
+
+        public void neverGeneratePID(String pid) {
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SQLRebuilderIntegrationTest.class);
+    }
+}
@@ -10,7 +10,8 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses( {RelsValidatorTest.class,
                       DOValidatorXMLSchemaTest.class,
-                      ValidationUtilityTest.class})
+                      ValidationUtilityTest.class,
+                      StructuralObjectValidatorTest.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -22,6 +23,7 @@ public class AllUnitTests {
         suite.addTestSuite(RelsValidatorTest.class);
         suite.addTest(DOValidatorXMLSchemaTest.suite());
         suite.addTest(ValidationUtilityTest.suite());
+        suite.addTest(StructuralObjectValidatorTest.suite());
 
         return suite;
     }
@@ -0,0 +1,91 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.validation;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.fcrepo.server.errors.ObjectValidityException;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DigitalObject;
+import org.fcrepo.server.storage.types.ObjectBuilder;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for StructuralObjectValidator.
+ */
+public class StructuralObjectValidatorTest {
+
+    private final StructuralObjectValidator m_validator =
+            new StructuralObjectValidator();
+
+    @Test
+    public void testValidObject() throws Exception {
+        DigitalObject obj = ObjectBuilder.getTestObject("test:1", "label");
+        ObjectBuilder.addXDatastream(obj, "DS1", "<doc/>");
+        ObjectBuilder.addEDatastream(obj, "DS2");
+        ObjectBuilder.addMDatastream(obj, "DS3");
+        m_validator.validate(obj);
+    }
+
+    @Test
+    public void testBadPID() throws Exception {
+        DigitalObject obj = ObjectBuilder.getTestObject("test:1", "label");
+        obj.setPid("not a pid");
+        assertInvalid(obj);
+    }
+
+    @Test
+    public void testBadObjectState() throws Exception {
+        DigitalObject obj = ObjectBuilder.getTestObject("test:1", "label");
+        obj.setState("X");
+        assertInvalid(obj);
+    }
+
+    @Test
+    public void testBadControlGroup() throws Exception {
+        DigitalObject obj = ObjectBuilder.getTestObject("test:1", "label");
+        ObjectBuilder.addEDatastream(obj, "DS1");
+        firstVersion(obj, "DS1").DSControlGrp = "Q";
+        assertInvalid(obj);
+    }
+
+    @Test
+    public void testDuplicateVersionID() throws Exception {
+        DigitalObject obj = ObjectBuilder.getTestObject("test:1", "label");
+        ObjectBuilder.addEDatastream(obj, "DS1");
+        ObjectBuilder.addEDatastream(obj, "DS1");
+        for (Datastream ds : obj.datastreams("DS1")) {
+            ds.DSVersionID = "DS1.0";
+        }
+        assertInvalid(obj);
+    }
+
+    @Test
+    public void testMissingContent() throws Exception {
+        DigitalObject obj = ObjectBuilder.getTestObject("test:1", "label");
+        ObjectBuilder.addEDatastream(obj, "DS1");
+        firstVersion(obj, "DS1").DSLocation = null;
+        assertInvalid(obj);
+    }
+
+    private static Datastream firstVersion(DigitalObject obj, String dsId) {
+        return obj.datastreams(dsId).iterator().next();
+    }
+
+    private void assertInvalid(DigitalObject obj) {
+        try {
+            m_validator.validate(obj);
+            fail("Expected object to be invalid");
+        } catch (ObjectValidityException e) {
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StructuralObjectValidatorTest.class);
+    }
+}